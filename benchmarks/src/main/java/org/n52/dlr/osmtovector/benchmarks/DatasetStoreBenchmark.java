@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.benchmarks;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.n52.dlr.osmtovector.io.IOUtil;
+import org.n52.dlr.osmtovector.io.OSMDatasetCatalog;
+import org.n52.dlr.osmtovector.io.OSMDatasetStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning of and lookups in directories with many datasets, with and without the catalog.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DatasetStoreBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int datasetCount;
+
+    private Path directory;
+    private OSMDatasetStore store;
+    private OSMDatasetCatalog catalog;
+    private OSMDatasetStore catalogStore;
+    private int lookup = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("osmtovector-benchmark");
+
+        // all datasets are copies of the same small file, only the directory listing matters here
+        Path template = directory.resolve("template.tmp");
+        new SyntheticPbfGenerator()
+                .nodeCount(100)
+                .wayCount(10)
+                .nodesPerWay(4)
+                .bbox(new Envelope(20.0, 20.1, 10.0, 10.1))
+                .write(template);
+        for (int i = 0; i < datasetCount; i++) {
+            Files.copy(template, directory.resolve(datasetName(i) + OSMDatasetStore.fileNameExtension));
+        }
+        Files.delete(template);
+
+        store = new OSMDatasetStore(directory.toString());
+        catalog = new OSMDatasetCatalog(directory);
+        catalogStore = new OSMDatasetStore(catalog);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        catalog.close();
+        IOUtil.recursiveDelete(directory.toFile());
+    }
+
+    private static String datasetName(int i) {
+        return String.format("region-%05d", i);
+    }
+
+    @Benchmark
+    public void scanDirectory() throws IOException {
+        store.scanDirectory();
+    }
+
+    @Benchmark
+    public void rescanCatalog() throws IOException {
+        catalog.rescan();
+    }
+
+    @Benchmark
+    public void listDatasets(Blackhole blackhole) {
+        blackhole.consume(catalogStore.getDatasetList());
+    }
+
+    @Benchmark
+    public Path lookupDataset() throws IOException {
+        lookup = (lookup + 7919) % datasetCount;
+        return store.getPathForDataset(datasetName(lookup));
+    }
+
+    @Benchmark
+    public Object lookupCatalogMetadata() throws IOException {
+        lookup = (lookup + 7919) % datasetCount;
+        return catalogStore.getMetadata(datasetName(lookup));
+    }
+}
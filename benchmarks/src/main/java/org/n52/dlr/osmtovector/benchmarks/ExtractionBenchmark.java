@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.benchmarks;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.n52.dlr.osmtovector.engine.BlobIndex;
+import org.n52.dlr.osmtovector.engine.ElementType;
+import org.n52.dlr.osmtovector.engine.ExtractionQuery;
+import org.n52.dlr.osmtovector.engine.FeatureSink;
+import org.n52.dlr.osmtovector.engine.ParallelBlockReader;
+import org.n52.dlr.osmtovector.engine.PbfExtractor;
+import org.n52.dlr.osmtovector.io.IOUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end extractions of the native engine from a synthetic dataset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ExtractionBenchmark {
+
+    private static final Envelope BBOX = new Envelope(20.0, 21.0, 10.0, 11.0);
+
+    @Param({"1000000"})
+    public long nodeCount;
+
+    @Param({"nodes", "ways"})
+    public String elementType;
+
+    /**
+     * Fraction of the dataset covered by the spatial filter, 1 for no filter.
+     */
+    @Param({"1", "0.1"})
+    public double filterFraction;
+
+    @Param({"true", "false"})
+    public boolean useIndex;
+
+    private Path workDirectory;
+    private ForkJoinPool pool;
+    private PbfExtractor extractor;
+    private Path dataset;
+    private ExtractionQuery query;
+    private List<ExtractionQuery> batchQueries;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workDirectory = Files.createTempDirectory("osmtovector-benchmark");
+        dataset = workDirectory.resolve("synthetic.osm.pbf");
+        new SyntheticPbfGenerator()
+                .nodeCount(nodeCount)
+                .wayCount((int) (nodeCount / 40))
+                .nodesPerWay(8)
+                .bbox(BBOX)
+                .write(dataset);
+
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        BlobIndex index = useIndex ? BlobIndex.build(dataset, new ParallelBlockReader(pool)) : null;
+        extractor = new PbfExtractor(pool, index, workDirectory);
+
+        Geometry filter = null;
+        if (filterFraction < 1) {
+            double side = Math.sqrt(filterFraction);
+            Envelope envelope = new Envelope(
+                    BBOX.getMinX(), BBOX.getMinX() + BBOX.getWidth() * side,
+                    BBOX.getMinY(), BBOX.getMinY() + BBOX.getHeight() * side);
+            filter = new GeometryFactory().toGeometry(envelope);
+        }
+        ElementType type = ElementType.fromName(elementType);
+        String tag = type == ElementType.NODES ? "amenity" : "highway";
+        query = new ExtractionQuery(Collections.singletonList(tag), type, filter);
+        batchQueries = Arrays.asList(
+                query,
+                new ExtractionQuery(Collections.singletonList("name"), type, filter),
+                new ExtractionQuery(Arrays.asList("shop", "building"), type, filter),
+                new ExtractionQuery(Collections.<String>emptyList(), type, filter));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+        IOUtil.recursiveDelete(workDirectory.toFile());
+    }
+
+    @Benchmark
+    public void extract(Blackhole blackhole) throws IOException {
+        extractor.extract(dataset, query, new BlackholeSink(blackhole));
+    }
+
+    @Benchmark
+    public void extractBatch(Blackhole blackhole) throws IOException {
+        List<BlackholeSink> sinks = new ArrayList<>();
+        for (int i = 0; i < batchQueries.size(); i++) {
+            sinks.add(new BlackholeSink(blackhole));
+        }
+        extractor.extract(dataset, batchQueries, sinks);
+    }
+
+    private static class BlackholeSink implements FeatureSink {
+        private final Blackhole blackhole;
+
+        BlackholeSink(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void start(SimpleFeatureType featureType) {
+            blackhole.consume(featureType);
+        }
+
+        @Override
+        public void accept(SimpleFeature feature) {
+            blackhole.consume(feature);
+        }
+    }
+}
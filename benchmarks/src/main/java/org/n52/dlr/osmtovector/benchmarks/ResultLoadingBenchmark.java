@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.benchmarks;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.n52.dlr.osmtovector.cache.FeatureSpool;
+import org.n52.dlr.osmtovector.cache.SpooledFeatureCollection;
+import org.n52.dlr.osmtovector.engine.ElementType;
+import org.n52.dlr.osmtovector.engine.ExtractionQuery;
+import org.n52.dlr.osmtovector.engine.FeatureCollector;
+import org.n52.dlr.osmtovector.engine.SubprocessExtractor;
+import org.n52.dlr.osmtovector.io.IOUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading of extraction results the way OSMToVector does it: collected in memory, spooled to the
+ * work directory, or parsed from the output of osm_extract. The features are produced by the
+ * {@link StubExtractor}, so the extraction itself is not measured. osm_extract is replaced by a
+ * script writing prepared output, so no installation of it is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResultLoadingBenchmark {
+
+    @Param({"1000", "100000"})
+    public int features;
+
+    @Param({"nodes", "ways"})
+    public String elementType;
+
+    private Path workDirectory;
+    private ExtractionQuery query;
+    private StubExtractor stubExtractor;
+    private SubprocessExtractor subprocessExtractor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workDirectory = Files.createTempDirectory("osmtovector-benchmark");
+        query = new ExtractionQuery(Arrays.asList("highway", "name"), ElementType.fromName(elementType), null);
+        stubExtractor = new StubExtractor(features, 52, new Envelope(20.0, 21.0, 10.0, 11.0));
+
+        Path output = workDirectory.resolve("output.geojsonseq");
+        stubExtractor.writeGeoJSONSeq(query, output);
+        Path script = StubExtractor.writeOsmExtractScript(output, workDirectory.resolve("osm_extract.sh"));
+        subprocessExtractor = new SubprocessExtractor(script.toString(), workDirectory.toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        IOUtil.recursiveDelete(workDirectory.toFile());
+    }
+
+    @Benchmark
+    public void memory(Blackhole blackhole) throws IOException {
+        FeatureCollector collector = new FeatureCollector();
+        stubExtractor.extract(null, query, collector);
+        consume(collector.getCollection(), blackhole);
+    }
+
+    @Benchmark
+    public void spool(Blackhole blackhole) throws IOException {
+        try (FeatureSpool spool = new FeatureSpool(workDirectory)) {
+            stubExtractor.extract(null, query, spool);
+            SpooledFeatureCollection features = spool.finish();
+            try {
+                consume(features, blackhole);
+            } finally {
+                Files.delete(features.getPath());
+            }
+        }
+    }
+
+    @Benchmark
+    public void subprocess(Blackhole blackhole) throws IOException {
+        FeatureCollector collector = new FeatureCollector();
+        subprocessExtractor.extract(workDirectory.resolve("dataset.osm.pbf"), query, collector);
+        consume(collector.getCollection(), blackhole);
+    }
+
+    /**
+     * Reads all features, as the encoding of the response does.
+     */
+    private static void consume(SimpleFeatureCollection collection, Blackhole blackhole) {
+        try (SimpleFeatureIterator iterator = collection.features()) {
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+            }
+        }
+    }
+}
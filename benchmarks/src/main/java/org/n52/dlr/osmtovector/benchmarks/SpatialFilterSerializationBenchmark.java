@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.benchmarks;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+import org.n52.dlr.osmtovector.io.GeoJSONFileCreator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing of the spatial filter passed to osm_extract, for multipolygons with holes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SpatialFilterSerializationBenchmark {
+
+    private static final int HOLES_PER_POLYGON = 4;
+
+    @Param({"1", "50"})
+    public int polygons;
+
+    @Param({"100", "10000"})
+    public int vertices;
+
+    private MultiPolygon filter;
+    private File target;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        filter = createMultiPolygon(new GeometryFactory(), new Random(52), polygons, vertices);
+        target = Files.createTempFile("osmtovector-benchmark", ".geojson").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target.toPath());
+    }
+
+    @Benchmark
+    public long writeFilter() throws IOException {
+        GeoJSONFileCreator.writeGeoJSONFeatureCollection(target, filter);
+        return target.length();
+    }
+
+    /**
+     * Creates polygons side by side, each with an irregular outer ring of the given number of
+     * vertices and a few holes.
+     */
+    static MultiPolygon createMultiPolygon(GeometryFactory factory, Random random, int polygons, int vertices) {
+        Polygon[] parts = new Polygon[polygons];
+        for (int i = 0; i < polygons; i++) {
+            double centerX = 20.0 + i * 0.1;
+            double centerY = 10.0;
+            LinearRing shell = ring(factory, random, centerX, centerY, 0.04, vertices);
+            LinearRing[] holes = new LinearRing[HOLES_PER_POLYGON];
+            for (int j = 0; j < HOLES_PER_POLYGON; j++) {
+                double angle = 2 * Math.PI * j / HOLES_PER_POLYGON;
+                holes[j] = ring(factory, random, centerX + 0.015 * Math.cos(angle), centerY + 0.015 * Math.sin(angle),
+                        0.004, Math.max(8, vertices / 10));
+            }
+            parts[i] = factory.createPolygon(shell, holes);
+        }
+        return factory.createMultiPolygon(parts);
+    }
+
+    private static LinearRing ring(GeometryFactory factory, Random random, double centerX, double centerY,
+                                   double radius, int vertices) {
+        Coordinate[] coordinates = new Coordinate[vertices + 1];
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            // the radius varies by at most 10%, so the rings of a polygon do not touch
+            double r = radius * (0.9 + random.nextDouble() * 0.1);
+            coordinates[i] = new Coordinate(centerX + r * Math.cos(angle), centerY + r * Math.sin(angle));
+        }
+        coordinates[vertices] = new Coordinate(coordinates[0]);
+        return factory.createLinearRing(coordinates);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.benchmarks;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.n52.dlr.osmtovector.engine.ExtractionQuery;
+import org.n52.dlr.osmtovector.engine.Extractor;
+import org.n52.dlr.osmtovector.engine.FeatureSink;
+import org.n52.dlr.osmtovector.engine.OsmFeatureFactory;
+import org.n52.dlr.osmtovector.engine.OsmNode;
+import org.n52.dlr.osmtovector.engine.OsmWay;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Produces random features without reading the dataset, to measure what happens with the results
+ * independently of the extraction. The same settings always produce the same features.
+ */
+public class StubExtractor implements Extractor {
+
+    private static final int NODES_PER_WAY = 8;
+
+    private final int featureCount;
+    private final long seed;
+    private final Envelope bbox;
+
+    public StubExtractor(int featureCount, long seed, Envelope bbox) {
+        this.featureCount = featureCount;
+        this.seed = seed;
+        this.bbox = bbox;
+    }
+
+    @Override
+    public void extract(Path dataset, ExtractionQuery query, FeatureSink sink) throws IOException {
+        OsmFeatureFactory factory = new OsmFeatureFactory(query);
+        GeometryFactory geometryFactory = factory.getGeometryFactory();
+        sink.start(factory.getFeatureType());
+
+        Random random = new Random(seed);
+        for (int i = 0; i < featureCount; i++) {
+            String[] tags = tags(random, query.getTags());
+            switch (query.getElementType()) {
+                case NODES:
+                    OsmNode node = new OsmNode(i + 1, tags, randomLat(random), randomLon(random));
+                    sink.accept(factory.createNodeFeature(node, factory.createPoint(node)));
+                    break;
+                case WAYS:
+                    long[] refs = new long[NODES_PER_WAY];
+                    Coordinate[] coordinates = new Coordinate[NODES_PER_WAY];
+                    double lon = randomLon(random);
+                    double lat = randomLat(random);
+                    for (int j = 0; j < NODES_PER_WAY; j++) {
+                        refs[j] = (long) i * NODES_PER_WAY + j + 1;
+                        coordinates[j] = new Coordinate(lon, lat);
+                        lon += (random.nextDouble() - 0.5) * 0.001;
+                        lat += (random.nextDouble() - 0.5) * 0.001;
+                    }
+                    OsmWay way = new OsmWay(i + 1, tags, refs);
+                    sink.accept(factory.createWayFeature(way, geometryFactory.createLineString(coordinates)));
+                    break;
+                default:
+                    throw new IOException("Unsupported elementType: " + query.getElementType().getName());
+            }
+        }
+    }
+
+    /**
+     * Writes the features as newline delimited GeoJSON, the way osm_extract writes them with the
+     * GeoJSONSeq driver.
+     */
+    public void writeGeoJSONSeq(ExtractionQuery query, Path target) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            extract(null, query, new GeoJSONSeqSink(writer));
+        }
+    }
+
+    /**
+     * Writes a shell script which can be used as osm_extract binary of the
+     * {@link org.n52.dlr.osmtovector.engine.SubprocessExtractor}. Whatever the arguments, it writes
+     * the given file to the output, which is standard output when the last argument is /vsistdout/.
+     */
+    public static Path writeOsmExtractScript(Path output, Path target) throws IOException {
+        String script = "#!/bin/sh\n"
+                + "for output; do :; done\n"
+                + "if [ \"$output\" = \"/vsistdout/\" ]; then\n"
+                + "    exec /bin/cat '" + output.toAbsolutePath() + "'\n"
+                + "fi\n"
+                + "exec /bin/cp '" + output.toAbsolutePath() + "' \"$output\"\n";
+        Files.write(target, script.getBytes(StandardCharsets.US_ASCII));
+        Files.setPosixFilePermissions(target, PosixFilePermissions.fromString("rwxr-xr-x"));
+        return target;
+    }
+
+    private double randomLon(Random random) {
+        return bbox.getMinX() + random.nextDouble() * bbox.getWidth();
+    }
+
+    private double randomLat(Random random) {
+        return bbox.getMinY() + random.nextDouble() * bbox.getHeight();
+    }
+
+    private static String[] tags(Random random, List<String> keys) {
+        if (keys.isEmpty()) {
+            return new String[]{"name", "feature"};
+        }
+        String[] tags = new String[keys.size() * 2];
+        for (int i = 0; i < keys.size(); i++) {
+            tags[2 * i] = keys.get(i);
+            tags[2 * i + 1] = "value" + random.nextInt(100);
+        }
+        return tags;
+    }
+
+    private static class GeoJSONSeqSink implements FeatureSink {
+        private final BufferedWriter writer;
+
+        GeoJSONSeqSink(BufferedWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void start(SimpleFeatureType featureType) {
+        }
+
+        @Override
+        public void accept(SimpleFeature feature) throws IOException {
+            Geometry geometry = (Geometry) feature.getDefaultGeometry();
+            StringBuilder line = new StringBuilder("{\"type\":\"Feature\",\"geometry\":{\"type\":\"")
+                    .append(geometry.getGeometryType())
+                    .append("\",\"coordinates\":");
+            Coordinate[] coordinates = geometry.getCoordinates();
+            if (coordinates.length == 1) {
+                appendCoordinate(line, coordinates[0]);
+            } else {
+                line.append('[');
+                for (int i = 0; i < coordinates.length; i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    appendCoordinate(line, coordinates[i]);
+                }
+                line.append(']');
+            }
+            line.append("},\"properties\":{");
+            boolean first = true;
+            for (int i = 1; i < feature.getAttributeCount(); i++) {
+                Object value = feature.getAttribute(i);
+                if (value == null) {
+                    continue;
+                }
+                if (!first) {
+                    line.append(',');
+                }
+                first = false;
+                line.append('"').append(feature.getFeatureType().getDescriptor(i).getLocalName()).append("\":");
+                if (value instanceof Number) {
+                    line.append(value);
+                } else {
+                    line.append('"').append(value).append('"');
+                }
+            }
+            line.append("}}\n");
+            writer.write(line.toString());
+        }
+
+        private static void appendCoordinate(StringBuilder line, Coordinate coordinate) {
+            line.append(String.format(Locale.ROOT, "[%.7f,%.7f]", coordinate.x, coordinate.y));
+        }
+    }
+}
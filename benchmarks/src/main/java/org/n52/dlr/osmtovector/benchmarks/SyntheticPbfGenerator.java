@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.benchmarks;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.n52.dlr.osmtovector.engine.OsmNode;
+import org.n52.dlr.osmtovector.engine.OsmWay;
+import org.n52.dlr.osmtovector.engine.PbfWriter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes OSM PBF files with random content. The same settings always produce the same file.
+ *
+ * The nodes of the ways come first, each way being a random walk from a random location. They are
+ * followed by the remaining nodes, spread over the whole bounding box. Tags are assigned
+ * independently per key with the probability of the key.
+ */
+public class SyntheticPbfGenerator {
+
+    private long nodeCount = 100000;
+    private int wayCount = 5000;
+    private int nodesPerWay = 8;
+    private long seed = 52;
+    private Envelope bbox = new Envelope(20.0, 21.0, 10.0, 11.0);
+    private List<TagDistribution> nodeTags = new ArrayList<>(Arrays.asList(
+            new TagDistribution("amenity", 0.01, "restaurant", "school", "hospital", "bank", "cafe"),
+            new TagDistribution("shop", 0.005, "bakery", "supermarket", "kiosk"),
+            new TagDistribution("name", 0.02, "A", "B", "C", "D")));
+    private List<TagDistribution> wayTags = new ArrayList<>(Arrays.asList(
+            new TagDistribution("highway", 0.6, "residential", "primary", "secondary", "track", "footway"),
+            new TagDistribution("building", 0.3, "yes", "house"),
+            new TagDistribution("name", 0.2, "Main Street", "Station Road", "High Street")));
+
+    public SyntheticPbfGenerator nodeCount(long nodeCount) {
+        this.nodeCount = nodeCount;
+        return this;
+    }
+
+    public SyntheticPbfGenerator wayCount(int wayCount) {
+        this.wayCount = wayCount;
+        return this;
+    }
+
+    public SyntheticPbfGenerator nodesPerWay(int nodesPerWay) {
+        this.nodesPerWay = nodesPerWay;
+        return this;
+    }
+
+    public SyntheticPbfGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public SyntheticPbfGenerator bbox(Envelope bbox) {
+        this.bbox = bbox;
+        return this;
+    }
+
+    public SyntheticPbfGenerator nodeTags(TagDistribution... nodeTags) {
+        this.nodeTags = new ArrayList<>(Arrays.asList(nodeTags));
+        return this;
+    }
+
+    public SyntheticPbfGenerator wayTags(TagDistribution... wayTags) {
+        this.wayTags = new ArrayList<>(Arrays.asList(wayTags));
+        return this;
+    }
+
+    public Envelope getBBox() {
+        return bbox;
+    }
+
+    public void write(Path target) throws IOException {
+        if ((long) wayCount * nodesPerWay > nodeCount) {
+            throw new IllegalArgumentException("The ways need " + (long) wayCount * nodesPerWay
+                    + " nodes, but only " + nodeCount + " nodes are generated");
+        }
+        Random random = new Random(seed);
+        // the walks of the ways stay within a small part of the bounding box
+        double step = Math.min(bbox.getWidth(), bbox.getHeight()) / 2000;
+
+        try (PbfWriter writer = new PbfWriter(target, bbox, "osmtovector-benchmarks", 0)) {
+            long id = 1;
+            for (int way = 0; way < wayCount; way++) {
+                double lon = randomLon(random);
+                double lat = randomLat(random);
+                for (int i = 0; i < nodesPerWay; i++) {
+                    writer.write(new OsmNode(id++, randomTags(random, nodeTags), lat, lon));
+                    lon = clamp(lon + (random.nextDouble() - 0.5) * step, bbox.getMinX(), bbox.getMaxX());
+                    lat = clamp(lat + (random.nextDouble() - 0.5) * step, bbox.getMinY(), bbox.getMaxY());
+                }
+            }
+            for (; id <= nodeCount; id++) {
+                writer.write(new OsmNode(id, randomTags(random, nodeTags), randomLat(random), randomLon(random)));
+            }
+
+            for (int way = 0; way < wayCount; way++) {
+                long[] refs = new long[nodesPerWay];
+                for (int i = 0; i < nodesPerWay; i++) {
+                    refs[i] = (long) way * nodesPerWay + i + 1;
+                }
+                writer.write(new OsmWay(way + 1, randomTags(random, wayTags), refs));
+            }
+        }
+    }
+
+    private double randomLon(Random random) {
+        return bbox.getMinX() + random.nextDouble() * bbox.getWidth();
+    }
+
+    private double randomLat(Random random) {
+        return bbox.getMinY() + random.nextDouble() * bbox.getHeight();
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static String[] randomTags(Random random, List<TagDistribution> distributions) {
+        List<String> tags = new ArrayList<>();
+        for (TagDistribution distribution : distributions) {
+            if (random.nextDouble() < distribution.probability) {
+                tags.add(distribution.key);
+                tags.add(distribution.values[random.nextInt(distribution.values.length)]);
+            }
+        }
+        return tags.isEmpty() ? null : tags.toArray(new String[tags.size()]);
+    }
+
+    /**
+     * Writes a file from the command line:
+     * {@code target.osm.pbf [nodeCount [wayCount [nodesPerWay [seed]]]]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: SyntheticPbfGenerator target.osm.pbf [nodeCount [wayCount [nodesPerWay [seed]]]]");
+            System.exit(1);
+        }
+        SyntheticPbfGenerator generator = new SyntheticPbfGenerator();
+        if (args.length > 1) {
+            generator.nodeCount(Long.parseLong(args[1]));
+        }
+        if (args.length > 2) {
+            generator.wayCount(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            generator.nodesPerWay(Integer.parseInt(args[3]));
+        }
+        if (args.length > 4) {
+            generator.seed(Long.parseLong(args[4]));
+        }
+        generator.write(Paths.get(args[0]));
+    }
+
+    /**
+     * The probability of a tag key and its possible values, which are chosen with equal probability.
+     */
+    public static class TagDistribution {
+        private final String key;
+        private final double probability;
+        private final String[] values;
+
+        public TagDistribution(String key, double probability, String... values) {
+            this.key = key;
+            this.probability = probability;
+            this.values = values;
+        }
+    }
+}
@@ -19,6 +19,18 @@
 
 package org.n52.dlr.osmtovector;
 
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.n52.dlr.osmtovector.cache.FeatureSpool;
+import org.n52.dlr.osmtovector.cache.ResultCache;
+import org.n52.dlr.osmtovector.cache.ResultCacheKey;
+import org.n52.dlr.osmtovector.cache.SingleFlight;
+import org.n52.dlr.osmtovector.engine.OsmExtractWorkerPool;
+import org.n52.dlr.osmtovector.io.ExportDirectory;
+import org.n52.dlr.osmtovector.io.OSMDatasetCatalog;
+import org.n52.dlr.osmtovector.io.WorkArea;
+import org.n52.dlr.osmtovector.metrics.ExtractionMetrics;
+import org.n52.dlr.osmtovector.modules.OSMToVectorProcessRepositoryCM;
+import org.n52.dlr.osmtovector.scheduler.ExtractionScheduler;
 import org.n52.wps.algorithm.annotation.Algorithm;
 import org.n52.wps.commons.WPSConfig;
 import org.n52.wps.server.AbstractAnnotatedAlgorithm;
@@ -28,21 +40,48 @@ import org.n52.wps.server.ProcessDescription;
 import org.n52.wps.webapp.api.AlgorithmEntry;
 import org.n52.wps.webapp.api.ConfigurationCategory;
 import org.n52.wps.webapp.api.ConfigurationModule;
+import org.n52.wps.webapp.api.types.ConfigurationEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 public class OSMToVectorProcessRepository implements IAlgorithmRepository {
 
     private static Logger LOGGER = LoggerFactory.getLogger(OSMToVectorProcessRepository.class);
+    private static OSMToVectorProcessRepository instance;
+    private static final long exportCleanupIntervalSeconds = 5 * 60;
+    private static final long metricsWriteIntervalSeconds = 60;
+    private static final long workerCheckIntervalSeconds = 60;
     private Map<String, IAlgorithm> algorithmMap;
     private Map<String, ProcessDescription> processDescriptionMap;
     private ConfigurationModule cm;
+    private ForkJoinPool decoderPool;
+    private ResultCache resultCache;
+    private ExtractionScheduler extractionScheduler;
+    private ScheduledExecutorService maintenanceExecutor;
+    private ExecutorService statisticsExecutor;
+    private ExecutorService cleanupExecutor;
+    private WorkArea workArea;
+    private OSMDatasetCatalog datasetCatalog;
+    private ExportDirectory exportDirectory;
+    private OsmExtractWorkerPool workerPool;
+    private ExtractionMetrics metrics;
+    private Path metricsFile;
+    private final SingleFlight<ResultCacheKey, SimpleFeatureCollection> extractionFlights = new SingleFlight<>();
 
     public OSMToVectorProcessRepository() {
         LOGGER.info("Initializing OSMToVector Repository");
@@ -56,6 +95,140 @@ public class OSMToVectorProcessRepository implements IAlgorithmRepository {
         );
 
         if (cm.isActive()) {
+            decoderPool = new ForkJoinPool(Math.max(1, getIntegerConfigurationValue(
+                    OSMToVectorProcessRepositoryCM.decoderThreadsKey,
+                    OSMToVectorProcessRepositoryCM.defaultDecoderThreads)));
+
+            extractionScheduler = new ExtractionScheduler(
+                    getIntegerConfigurationValue(OSMToVectorProcessRepositoryCM.maxConcurrentExtractionsKey,
+                            OSMToVectorProcessRepositoryCM.defaultMaxConcurrentExtractions),
+                    getIntegerConfigurationValue(OSMToVectorProcessRepositoryCM.maxQueuedExtractionsKey,
+                            OSMToVectorProcessRepositoryCM.defaultMaxQueuedExtractions),
+                    getIntegerConfigurationValue(OSMToVectorProcessRepositoryCM.queueTimeoutKey,
+                            OSMToVectorProcessRepositoryCM.defaultQueueTimeout) * 1000L);
+
+            Path workDirectory = Paths.get(getStringConfigurationValue(OSMToVectorProcessRepositoryCM.workDirectoryKey,
+                    OSMToVectorProcessRepositoryCM.defaultWorkDirectory));
+
+            maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "osmtovector-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            // deletions of large temporary files must not delay the responses
+            cleanupExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "osmtovector-cleanup");
+                thread.setDaemon(true);
+                return thread;
+            });
+            String tmpfsDirectory = getStringConfigurationValue(OSMToVectorProcessRepositoryCM.tmpfsDirectoryKey,
+                    OSMToVectorProcessRepositoryCM.defaultTmpfsDirectory);
+            try {
+                workArea = new WorkArea(workDirectory,
+                        tmpfsDirectory.trim().isEmpty() ? null : Paths.get(tmpfsDirectory.trim()),
+                        getIntegerConfigurationValue(OSMToVectorProcessRepositoryCM.tmpfsBudgetKey,
+                                OSMToVectorProcessRepositoryCM.defaultTmpfsBudget) * 1024L * 1024L,
+                        cleanupExecutor);
+                // the files of instances which are no longer running are orphaned
+                long startMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+                cleanupExecutor.execute(() -> workArea.sweep(startMillis));
+            } catch (IOException e) {
+                LOGGER.error("Could not create the work directory " + workDirectory, e);
+            }
+
+            // the catalog tells the cache about updated datasets
+            int resultCacheSize = getIntegerConfigurationValue(OSMToVectorProcessRepositoryCM.resultCacheSizeKey,
+                    OSMToVectorProcessRepositoryCM.defaultResultCacheSize);
+            if (resultCacheSize > 0) {
+                Path cacheDirectory = workDirectory.resolve("result-cache");
+                try {
+                    resultCache = new ResultCache(cacheDirectory, resultCacheSize * 1024L * 1024L);
+                } catch (IOException e) {
+                    LOGGER.error("Could not initialize the result cache in " + cacheDirectory, e);
+                }
+            }
+
+            Path storeDirectory = Paths.get(getStringConfigurationValue(OSMToVectorProcessRepositoryCM.osmStoreDirectoryKey,
+                    OSMToVectorProcessRepositoryCM.defaultOsmStoreDirectory));
+            try {
+                // the statistics need a pass over each dataset, which must not delay the other maintenance
+                statisticsExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "osmtovector-statistics");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+                datasetCatalog = new OSMDatasetCatalog(storeDirectory);
+                datasetCatalog.setSharding(getIntegerConfigurationValue(
+                        OSMToVectorProcessRepositoryCM.shardMaxNodesKey,
+                        OSMToVectorProcessRepositoryCM.defaultShardMaxNodes),
+                        workArea == null ? workDirectory : workArea.getTemporaryDirectory());
+                datasetCatalog.setFiltering(getIntegerConfigurationValue(
+                        OSMToVectorProcessRepositoryCM.filteredDatasetMinRequestsKey,
+                        OSMToVectorProcessRepositoryCM.defaultFilteredDatasetMinRequests));
+                datasetCatalog.setChangeFiles(getBooleanConfigurationValue(
+                        OSMToVectorProcessRepositoryCM.applyChangeFilesKey,
+                        OSMToVectorProcessRepositoryCM.defaultApplyChangeFiles), resultCache == null ? null
+                        : (previous, current, changes) -> resultCache.applyChanges(previous.getPath(),
+                        previous.getSize(), previous.getLastModified(), current.getSize(), current.getLastModified(),
+                        changes));
+                datasetCatalog.start(maintenanceExecutor, getIntegerConfigurationValue(
+                        OSMToVectorProcessRepositoryCM.catalogRescanIntervalKey,
+                        OSMToVectorProcessRepositoryCM.defaultCatalogRescanInterval), statisticsExecutor);
+            } catch (IOException e) {
+                LOGGER.error("Could not scan the OSM input directory " + storeDirectory
+                        + ", requests will scan it themselves", e);
+            }
+
+            long retentionMillis = getIntegerConfigurationValue(OSMToVectorProcessRepositoryCM.exportRetentionKey,
+                    OSMToVectorProcessRepositoryCM.defaultExportRetention) * 60 * 1000L;
+            Path exportPath = workDirectory.resolve("exports");
+            try {
+                exportDirectory = new ExportDirectory(exportPath, retentionMillis);
+                maintenanceExecutor.scheduleWithFixedDelay(exportDirectory::deleteExpired,
+                        0, exportCleanupIntervalSeconds, TimeUnit.SECONDS);
+            } catch (IOException e) {
+                LOGGER.error("Could not create the export directory " + exportPath, e);
+            }
+            if (workArea != null) {
+                // the results of the features output are read by the WPS after the algorithm has finished
+                Path spoolDirectory = workArea.getTemporaryDirectory();
+                maintenanceExecutor.scheduleWithFixedDelay(
+                        () -> FeatureSpool.deleteExpired(spoolDirectory, retentionMillis),
+                        exportCleanupIntervalSeconds, exportCleanupIntervalSeconds, TimeUnit.SECONDS);
+            }
+
+            int subprocessWorkers = getIntegerConfigurationValue(OSMToVectorProcessRepositoryCM.subprocessWorkersKey,
+                    OSMToVectorProcessRepositoryCM.defaultSubprocessWorkers);
+            if (subprocessWorkers > 0) {
+                String osmExtractBinary = getStringConfigurationValue(
+                        OSMToVectorProcessRepositoryCM.osmExtractBinaryKey,
+                        OSMToVectorProcessRepositoryCM.defaultOsmExtractBinary);
+                try {
+                    workerPool = new OsmExtractWorkerPool(osmExtractBinary,
+                            workArea == null ? workDirectory : workArea.getTemporaryDirectory(), subprocessWorkers,
+                            getIntegerConfigurationValue(OSMToVectorProcessRepositoryCM.subprocessWorkerJobsKey,
+                                    OSMToVectorProcessRepositoryCM.defaultSubprocessWorkerJobs));
+                    // starts the workers and replaces those which do not answer
+                    maintenanceExecutor.scheduleWithFixedDelay(workerPool::maintain,
+                            0, workerCheckIntervalSeconds, TimeUnit.SECONDS);
+                } catch (IOException e) {
+                    LOGGER.error("Could not create osm_extract workers for " + osmExtractBinary
+                            + ", starting it for each request", e);
+                }
+            }
+
+            metrics = new ExtractionMetrics(extractionScheduler, resultCache, extractionFlights);
+            metrics.register();
+            String metricsFileName = getStringConfigurationValue(OSMToVectorProcessRepositoryCM.metricsFileKey,
+                    OSMToVectorProcessRepositoryCM.defaultMetricsFile);
+            if (!metricsFileName.trim().isEmpty()) {
+                metricsFile = Paths.get(metricsFileName.trim());
+                maintenanceExecutor.scheduleWithFixedDelay(this::writeMetricsFile,
+                        0, metricsWriteIntervalSeconds, TimeUnit.SECONDS);
+            }
+
             for (AlgorithmEntry algorithmEntry : cm.getAlgorithmEntries()) {
                 if (algorithmEntry.isActive()) {
                     addAlgorithm(algorithmEntry.getAlgorithm());
@@ -64,6 +237,115 @@ public class OSMToVectorProcessRepository implements IAlgorithmRepository {
         } else {
             LOGGER.info("repository is inactive");
         }
+
+        setInstance(this);
+    }
+
+    private static synchronized void setInstance(OSMToVectorProcessRepository repository) {
+        instance = repository;
+    }
+
+    /**
+     * @return the repository created by the WPS, or null when there is none. The algorithms use it to
+     * access the resources shared between requests.
+     */
+    public static synchronized OSMToVectorProcessRepository getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the pool used to decode OSM files, or null when the repository is inactive
+     */
+    public ForkJoinPool getDecoderPool() {
+        return decoderPool;
+    }
+
+    /**
+     * @return the cache of extraction results, or null when caching is disabled
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * @return the registry of extractions in progress, used to let identical requests share their result
+     */
+    public SingleFlight<ResultCacheKey, SimpleFeatureCollection> getExtractionFlights() {
+        return extractionFlights;
+    }
+
+    /**
+     * @return the scheduler limiting the number of concurrent extractions, or null when the repository is inactive
+     */
+    public ExtractionScheduler getExtractionScheduler() {
+        return extractionScheduler;
+    }
+
+    /**
+     * @return the catalog of the datasets in the input directory, or null when it could not be created
+     */
+    public OSMDatasetCatalog getDatasetCatalog() {
+        return datasetCatalog;
+    }
+
+    /**
+     * @return the directory for the files of the exportedFile output, or null when it could not be created
+     */
+    public ExportDirectory getExportDirectory() {
+        return exportDirectory;
+    }
+
+    /**
+     * @return the scratch space of the requests, or null when the work directory could not be created
+     */
+    public WorkArea getWorkArea() {
+        return workArea;
+    }
+
+    /**
+     * @return the warm osm_extract workers, or null when they are disabled
+     */
+    public OsmExtractWorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    /**
+     * @return the metrics of the requests, or null when the repository is inactive
+     */
+    public ExtractionMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void writeMetricsFile() {
+        try {
+            metrics.writePrometheusFile(metricsFile);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not write the metrics to " + metricsFile, e);
+        }
+    }
+
+    private Object getConfigurationValue(String key) {
+        for (ConfigurationEntry<?> cEntry : cm.getConfigurationEntries()) {
+            if (cEntry.getKey().equals(key)) {
+                return cEntry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private int getIntegerConfigurationValue(String key, int defaultValue) {
+        Object value = getConfigurationValue(key);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    private boolean getBooleanConfigurationValue(String key, boolean defaultValue) {
+        Object value = getConfigurationValue(key);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    private String getStringConfigurationValue(String key, String defaultValue) {
+        Object value = getConfigurationValue(key);
+        return value instanceof String ? (String) value : defaultValue;
     }
 
     private IAlgorithm loadAlgorithm(String algorithmClassName) throws Exception {
@@ -151,6 +433,43 @@ public class OSMToVectorProcessRepository implements IAlgorithmRepository {
 
     @Override
     public void shutdown() {
-        // not implemented
+        if (extractionScheduler != null) {
+            LOGGER.info("Waiting for {} running extractions, rejecting {} queued requests",
+                    extractionScheduler.getRunningCount(), extractionScheduler.getQueueLength());
+            try {
+                extractionScheduler.shutdown(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+        }
+        if (statisticsExecutor != null) {
+            statisticsExecutor.shutdownNow();
+        }
+        if (workerPool != null) {
+            workerPool.close();
+        }
+        if (cleanupExecutor != null) {
+            if (workArea != null) {
+                cleanupExecutor.execute(workArea::close);
+            }
+            // pending deletions are completed
+            cleanupExecutor.shutdown();
+        }
+        if (datasetCatalog != null) {
+            try {
+                datasetCatalog.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not stop watching the OSM input directory", e);
+            }
+        }
+        if (decoderPool != null) {
+            decoderPool.shutdownNow();
+        }
+        if (metrics != null) {
+            metrics.unregister();
+        }
     }
 }
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.algorithm;
+
+import org.n52.dlr.osmtovector.OSMToVectorProcessRepository;
+import org.n52.dlr.osmtovector.engine.BlobIndex;
+import org.n52.dlr.osmtovector.engine.ElementType;
+import org.n52.dlr.osmtovector.engine.ExtractionQuery;
+import org.n52.dlr.osmtovector.engine.Extractor;
+import org.n52.dlr.osmtovector.engine.PbfExtractor;
+import org.n52.dlr.osmtovector.engine.ShardManifest;
+import org.n52.dlr.osmtovector.engine.ShardedExtractor;
+import org.n52.dlr.osmtovector.engine.SubprocessExtractor;
+import org.n52.dlr.osmtovector.engine.SubprocessRunner;
+import org.n52.dlr.osmtovector.io.FilteredDataset;
+import org.n52.dlr.osmtovector.io.OSMDatasetCatalog;
+import org.n52.dlr.osmtovector.io.OSMDatasetStore;
+import org.n52.dlr.osmtovector.io.WorkArea;
+import org.n52.dlr.osmtovector.metrics.ExtractionMetrics;
+import org.n52.dlr.osmtovector.metrics.RequestMetrics;
+import org.n52.dlr.osmtovector.modules.OSMToVectorProcessRepositoryCM;
+import org.n52.dlr.osmtovector.scheduler.ExtractionScheduler;
+import org.n52.wps.commons.WPSConfig;
+import org.n52.wps.webapp.api.ConfigurationCategory;
+import org.n52.wps.webapp.api.ConfigurationModule;
+import org.n52.wps.webapp.api.types.ConfigurationEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+
+/**
+ * The configuration of the repository and the shared resources used by the extraction processes for
+ * a request on one dataset.
+ */
+class ExtractionContext {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ExtractionContext.class);
+
+    private final String osmInputDataset;
+    private String osmStoreDirectory = OSMToVectorProcessRepositoryCM.defaultOsmStoreDirectory;
+    private String osmExtractBinary = OSMToVectorProcessRepositoryCM.defaultOsmExtractBinary;
+    private String extractionEngine = OSMToVectorProcessRepositoryCM.defaultExtractionEngine;
+    private final String engineName;
+    private File workDirectory = new File(OSMToVectorProcessRepositoryCM.defaultWorkDirectory);
+    private boolean streamResults = OSMToVectorProcessRepositoryCM.defaultStreamResults;
+    private int subprocessTimeout = OSMToVectorProcessRepositoryCM.defaultSubprocessTimeout;
+    private int subprocessMaxMemory = OSMToVectorProcessRepositoryCM.defaultSubprocessMaxMemory;
+    private int subprocessMaxCpuTime = OSMToVectorProcessRepositoryCM.defaultSubprocessMaxCpuTime;
+
+    /**
+     * Reads the configuration of the repository.
+     */
+    ExtractionContext(String osmInputDataset) {
+        this.osmInputDataset = osmInputDataset;
+
+        ConfigurationModule cm = WPSConfig.getInstance().getConfigurationModuleForClass(
+                OSMToVectorProcessRepository.class.getName(),
+                ConfigurationCategory.REPOSITORY
+        );
+
+        for (ConfigurationEntry cEntry: cm.getConfigurationEntries()) {
+            if (cEntry.getKey().equals(OSMToVectorProcessRepositoryCM.osmStoreDirectoryKey)) {
+                this.osmStoreDirectory = (String) cEntry.getValue();
+            } else if (cEntry.getKey().equals(OSMToVectorProcessRepositoryCM.osmExtractBinaryKey)) {
+                this.osmExtractBinary = (String) cEntry.getValue();
+            } else if (cEntry.getKey().equals(OSMToVectorProcessRepositoryCM.workDirectoryKey)) {
+                this.workDirectory = new File((String) cEntry.getValue());
+            } else if (cEntry.getKey().equals(OSMToVectorProcessRepositoryCM.extractionEngineKey)) {
+                this.extractionEngine = (String) cEntry.getValue();
+            } else if (cEntry.getKey().equals(OSMToVectorProcessRepositoryCM.subprocessTimeoutKey)) {
+                this.subprocessTimeout = (Integer) cEntry.getValue();
+            } else if (cEntry.getKey().equals(OSMToVectorProcessRepositoryCM.subprocessMaxMemoryKey)) {
+                this.subprocessMaxMemory = (Integer) cEntry.getValue();
+            } else if (cEntry.getKey().equals(OSMToVectorProcessRepositoryCM.subprocessMaxCpuTimeKey)) {
+                this.subprocessMaxCpuTime = (Integer) cEntry.getValue();
+            } else if (cEntry.getKey().equals(OSMToVectorProcessRepositoryCM.streamResultsKey)) {
+                this.streamResults = (Boolean) cEntry.getValue();
+            }
+        }
+
+        if (OSMToVectorProcessRepositoryCM.extractionEngineSubprocess.equals(extractionEngine)) {
+            engineName = OSMToVectorProcessRepositoryCM.extractionEngineSubprocess;
+        } else {
+            if (!OSMToVectorProcessRepositoryCM.extractionEngineNative.equals(extractionEngine)) {
+                LOGGER.warn("Unknown extraction engine '{}', using the native engine", extractionEngine);
+            }
+            engineName = OSMToVectorProcessRepositoryCM.extractionEngineNative;
+        }
+    }
+
+    String getDatasetName() {
+        return osmInputDataset;
+    }
+
+    /**
+     * @return the configured work directory, may be null
+     */
+    File getWorkDirectory() {
+        return workDirectory;
+    }
+
+    boolean isStreamResults() {
+        return streamResults;
+    }
+
+    /**
+     * @return the name of the configured engine, the native engine for unknown names
+     */
+    String getEngineName() {
+        return engineName;
+    }
+
+    boolean isSubprocessEngine() {
+        return OSMToVectorProcessRepositoryCM.extractionEngineSubprocess.equals(engineName);
+    }
+
+    /**
+     * Uses the catalog of the repository unless the input directory has been changed since it was created.
+     */
+    OSMDatasetStore openDatasetStore() throws IOException {
+        return openDatasetStore(osmStoreDirectory);
+    }
+
+    static OSMDatasetStore openDatasetStore(String osmStoreDirectory) throws IOException {
+        OSMToVectorProcessRepository repository = OSMToVectorProcessRepository.getInstance();
+        OSMDatasetCatalog catalog = repository == null ? null : repository.getDatasetCatalog();
+        if (catalog != null && catalog.getDirectory().equals(Paths.get(osmStoreDirectory))) {
+            return new OSMDatasetStore(catalog);
+        }
+        return new OSMDatasetStore(osmStoreDirectory);
+    }
+
+    Extractor createExtractor(OSMDatasetStore store, ExtractionQuery query, FilteredDataset filteredDataset,
+                              RequestMetrics metrics, IntConsumer progressListener) {
+        return createExtractor(store, Collections.singletonList(query), filteredDataset, metrics, progressListener);
+    }
+
+    /**
+     * @param filteredDataset the copy of the dataset to read, or null to read the dataset
+     * @param progressListener receives the progress of the subprocess engine
+     */
+    Extractor createExtractor(OSMDatasetStore store, List<ExtractionQuery> queries, FilteredDataset filteredDataset,
+                              RequestMetrics metrics, IntConsumer progressListener) {
+        if (isSubprocessEngine()) {
+            SubprocessExtractor extractor = new SubprocessExtractor(osmExtractBinary, workDirectory);
+            extractor.setMetrics(metrics);
+            SubprocessRunner runner = new SubprocessRunner(subprocessTimeout * 1000L,
+                    subprocessMaxMemory * 1024L * 1024L, subprocessMaxCpuTime);
+            OSMToVectorProcessRepository repository = OSMToVectorProcessRepository.getInstance();
+            runner.setWorkerPool(repository == null ? null : repository.getWorkerPool());
+            extractor.setRunner(runner);
+            extractor.setProgressListener(progressListener);
+            extractor.setWorkArea(getWorkArea());
+            return extractor;
+        }
+        OSMToVectorProcessRepository repository = OSMToVectorProcessRepository.getInstance();
+        ForkJoinPool decoderPool = repository == null ? null : repository.getDecoderPool();
+
+        ShardManifest shards = filteredDataset == null ? getShards(store, queries) : null;
+        if (shards != null) {
+            return new ShardedExtractor(shards, decoderPool, getTemporaryDirectory());
+        }
+
+        BlobIndex index = null;
+        try {
+            index = filteredDataset == null
+                    ? store.getBlobIndex(osmInputDataset, decoderPool)
+                    : store.getBlobIndex(filteredDataset, decoderPool);
+        } catch (IOException e) {
+            LOGGER.warn("Could not index dataset '" + osmInputDataset + "', reading the whole file", e);
+        }
+        return new PbfExtractor(decoderPool, index, getTemporaryDirectory());
+    }
+
+    /**
+     * @return the shards of the dataset when all queries have a spatial filter to select them by, otherwise null.
+     * Areas need the relations, which are not written to the shards.
+     */
+    private ShardManifest getShards(OSMDatasetStore store, Collection<ExtractionQuery> queries) {
+        for (ExtractionQuery query : queries) {
+            if (query.getSpatialFilter() == null || query.getElementType() == ElementType.AREAS) {
+                return null;
+            }
+        }
+        try {
+            ShardManifest manifest = store.getShardManifest(osmInputDataset);
+            return manifest != null && manifest.isSharded() ? manifest : null;
+        } catch (IOException e) {
+            LOGGER.warn("Could not read the shards of dataset '" + osmInputDataset + "', reading the whole file", e);
+            return null;
+        }
+    }
+
+    FilteredDataset selectFilteredDataset(OSMDatasetStore store, ExtractionQuery query) {
+        return selectFilteredDataset(store, Collections.singletonList(query));
+    }
+
+    /**
+     * Chooses a copy of the dataset with only the elements of some tag keys when there is one with
+     * the keys of all queries, unless the shards to read are smaller. The copies do not contain
+     * relations, which the subprocess engine and areas need, so they are only read by the native
+     * engine for nodes and ways.
+     *
+     * @return the copy to read instead of the dataset, or null to read the dataset
+     */
+    FilteredDataset selectFilteredDataset(OSMDatasetStore store, List<ExtractionQuery> queries) {
+        if (isSubprocessEngine()) {
+            return null;
+        }
+        Set<String> tags = new HashSet<>();
+        for (ExtractionQuery query : queries) {
+            // queries without tags extract all tagged elements
+            if (query.getTags().isEmpty() || query.getElementType() == ElementType.AREAS) {
+                return null;
+            }
+            tags.addAll(query.getTags());
+        }
+        FilteredDataset filteredDataset = store.getFilteredDataset(osmInputDataset, tags);
+        if (filteredDataset == null) {
+            return null;
+        }
+        ShardManifest shards = getShards(store, queries);
+        if (shards != null) {
+            Set<ShardManifest.Shard> selected = new HashSet<>();
+            for (ExtractionQuery query : queries) {
+                selected.addAll(shards.getShards(query.getSpatialFilter()));
+            }
+            long shardSize = 0;
+            for (ShardManifest.Shard shard : selected) {
+                shardSize += shard.getSize();
+            }
+            if (shardSize < filteredDataset.getSize()) {
+                return null;
+            }
+        }
+        LOGGER.info("reading the copy of dataset '{}' with the tags {}", osmInputDataset, filteredDataset.getKey());
+        return filteredDataset;
+    }
+
+    /**
+     * @return the metrics of the requests for the dataset and elementType. Without a repository they
+     * are recorded, but not published.
+     */
+    RequestMetrics getRequestMetrics(String elementType) {
+        OSMToVectorProcessRepository repository = OSMToVectorProcessRepository.getInstance();
+        ExtractionMetrics metrics = repository == null ? null : repository.getMetrics();
+        return metrics == null
+                ? new RequestMetrics(osmInputDataset, elementType)
+                : metrics.getRequestMetrics(osmInputDataset, elementType);
+    }
+
+    /**
+     * @return the scratch space of the repository, or null when the work directory has been changed
+     * since it was created
+     */
+    WorkArea getWorkArea() {
+        OSMToVectorProcessRepository repository = OSMToVectorProcessRepository.getInstance();
+        WorkArea workArea = repository == null ? null : repository.getWorkArea();
+        if (workArea != null && workDirectory != null && workArea.getDirectory().equals(workDirectory.toPath())) {
+            return workArea;
+        }
+        return null;
+    }
+
+    /**
+     * @return the directory for the temporary files of the native engine, which is the directory of this
+     * instance in the work directory unless the work directory has been changed
+     */
+    Path getTemporaryDirectory() {
+        WorkArea workArea = getWorkArea();
+        if (workArea != null) {
+            return workArea.getTemporaryDirectory();
+        }
+        return workDirectory == null ? null : workDirectory.toPath();
+    }
+
+    /**
+     * @return a permit to run an extraction, or null when the repository has no scheduler
+     */
+    ExtractionScheduler.Permit acquirePermit(RequestMetrics metrics) throws IOException {
+        OSMToVectorProcessRepository repository = OSMToVectorProcessRepository.getInstance();
+        ExtractionScheduler scheduler = repository == null ? null : repository.getExtractionScheduler();
+        ExtractionScheduler.Permit permit = scheduler == null ? null : scheduler.acquire(osmInputDataset);
+        if (permit != null) {
+            metrics.recordQueueWait(permit.getWaitMillis());
+        }
+        if (permit != null && permit.getWaitMillis() > 0) {
+            LOGGER.info("extraction from dataset '{}' waited {} seconds for a free slot",
+                    osmInputDataset, permit.getWaitMillis() / 1000.0);
+        }
+        return permit;
+    }
+}
@@ -19,8 +19,14 @@
 
 package org.n52.dlr.osmtovector.algorithm;
 
+import com.vividsolutions.jts.geom.Envelope;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
 import org.n52.dlr.osmtovector.OSMToVectorProcessRepository;
+import org.n52.dlr.osmtovector.engine.ShardManifest;
 import org.n52.dlr.osmtovector.modules.OSMToVectorProcessRepositoryCM;
+import org.n52.dlr.osmtovector.io.DatasetMetadata;
+import org.n52.dlr.osmtovector.io.DatasetStatistics;
 import org.n52.dlr.osmtovector.io.OSMDatasetStore;
 import org.n52.wps.algorithm.annotation.Algorithm;
 import org.n52.wps.algorithm.annotation.Execute;
@@ -36,7 +42,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @Algorithm(
@@ -49,6 +57,7 @@ public class OSMDatasetList extends AbstractAnnotatedAlgorithm {
     private static Logger LOGGER = LoggerFactory.getLogger(OSMDatasetList.class);
 
     private List<String> providedDatasets = new ArrayList<>();
+    private JSONArray datasetMetadata = new JSONArray();
     private String osmStoreDirectory;
 
     public OSMDatasetList() { super(); }
@@ -61,6 +70,18 @@ public class OSMDatasetList extends AbstractAnnotatedAlgorithm {
         return String.join(",", providedDatasets);
     }
 
+    @LiteralDataOutput(
+            identifier = "metadata",
+            title = "Metadata of the datasets",
+            abstrakt = "JSON array with the bounding box, data timestamp, file size and, once they have been computed"
+                    + " in the background, the element counts, most frequent tag keys and number of shards of each"
+                    + " dataset",
+            binding = LiteralStringBinding.class
+    )
+    public String getMetadata() {
+        return datasetMetadata.toJSONString();
+    }
+
     private void setConfiguration() {
         ConfigurationModule cm = WPSConfig.getInstance().getConfigurationModuleForClass(
                 OSMToVectorProcessRepository.class.getName(),
@@ -74,13 +95,50 @@ public class OSMDatasetList extends AbstractAnnotatedAlgorithm {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private JSONObject createMetadataJSON(OSMDatasetStore store, String datasetName) throws IOException {
+        DatasetMetadata metadata = store.getMetadata(datasetName);
+        JSONObject json = new JSONObject();
+        json.put("name", datasetName);
+        json.put("size", metadata.getSize());
+        json.put("lastModified", Instant.ofEpochMilli(metadata.getLastModified()).toString());
+
+        Envelope bbox = metadata.getBBox();
+        if (bbox != null) {
+            JSONArray bboxJSON = new JSONArray();
+            bboxJSON.add(bbox.getMinX());
+            bboxJSON.add(bbox.getMinY());
+            bboxJSON.add(bbox.getMaxX());
+            bboxJSON.add(bbox.getMaxY());
+            json.put("bbox", bboxJSON);
+        }
+        if (metadata.getReplicationTimestamp() > 0) {
+            json.put("timestamp", Instant.ofEpochSecond(metadata.getReplicationTimestamp()).toString());
+        }
+
+        // null while the statistics are being computed
+        DatasetStatistics statistics = store.getStatistics(datasetName);
+        json.put("statistics", statistics == null ? null : statistics.toJSON());
+
+        ShardManifest shards = store.getShardManifest(datasetName);
+        if (shards != null && shards.isSharded()) {
+            json.put("shards", shards.getShards().size());
+        }
+        return json;
+    }
+
     @Execute
+    @SuppressWarnings("unchecked")
     public void run() throws ExceptionReport {
         this.setConfiguration();
 
         try {
-            OSMDatasetStore store = new OSMDatasetStore(osmStoreDirectory);
+            OSMDatasetStore store = ExtractionContext.openDatasetStore(osmStoreDirectory);
             providedDatasets = store.getDatasetList();
+            Collections.sort(providedDatasets);
+            for (String datasetName : providedDatasets) {
+                datasetMetadata.add(createMetadataJSON(store, datasetName));
+            }
         } catch (IOException e) {
             LOGGER.error("Could not list directory of input files '"+ osmStoreDirectory +"'", e);
             throw new ExceptionReport("Could not list input file directory", "io", e);
@@ -19,34 +19,50 @@
 
 package org.n52.dlr.osmtovector.algorithm;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import org.geotools.data.DataStore;
-import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.FeatureCollection;
 import org.n52.dlr.osmtovector.OSMToVectorProcessRepository;
-import org.n52.dlr.osmtovector.io.GeoJSONFileCreator;
-import org.n52.dlr.osmtovector.io.IOUtil;
+import org.n52.dlr.osmtovector.cache.FeatureSpool;
+import org.n52.dlr.osmtovector.cache.ResultCache;
+import org.n52.dlr.osmtovector.cache.ResultCacheKey;
+import org.n52.dlr.osmtovector.cache.SingleFlight;
+import org.n52.dlr.osmtovector.cache.SpooledFeatureCollection;
+import org.n52.dlr.osmtovector.engine.ElementType;
+import org.n52.dlr.osmtovector.engine.ExportFormat;
+import org.n52.dlr.osmtovector.engine.ExtractionQuery;
+import org.n52.dlr.osmtovector.engine.Extractor;
+import org.n52.dlr.osmtovector.engine.FeatureSummary;
+import org.n52.dlr.osmtovector.engine.PbfFile;
+import org.n52.dlr.osmtovector.engine.ResultMode;
+import org.n52.dlr.osmtovector.io.ExportDirectory;
+import org.n52.dlr.osmtovector.io.FilteredDataset;
 import org.n52.dlr.osmtovector.io.OSMDatasetStore;
+import org.n52.dlr.osmtovector.metrics.RequestMetrics;
 import org.n52.dlr.osmtovector.modules.OSMToVectorProcessRepositoryCM;
+import org.n52.dlr.osmtovector.scheduler.ExtractionRejectedException;
+import org.n52.dlr.osmtovector.scheduler.ExtractionScheduler;
 import org.n52.wps.algorithm.annotation.*;
-import org.n52.wps.commons.WPSConfig;
+import org.n52.wps.io.data.GenericFileData;
 import org.n52.wps.io.data.binding.complex.GTVectorDataBinding;
+import org.n52.wps.io.data.binding.complex.GenericFileDataBinding;
 import org.n52.wps.io.data.binding.complex.JTSGeometryBinding;
+import org.n52.wps.io.data.binding.literal.LiteralIntBinding;
+import org.n52.wps.io.data.binding.literal.LiteralLongBinding;
 import org.n52.wps.io.data.binding.literal.LiteralStringBinding;
 import org.n52.wps.server.AbstractAnnotatedAlgorithm;
 import org.n52.wps.server.ExceptionReport;
-import org.n52.wps.webapp.api.ConfigurationCategory;
-import org.n52.wps.webapp.api.ConfigurationModule;
-import org.n52.wps.webapp.api.types.ConfigurationEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.List;
 
 
@@ -60,14 +76,16 @@ public class OSMToVector extends AbstractAnnotatedAlgorithm {
     private static Logger LOGGER = LoggerFactory.getLogger(OSMToVector.class);
     private List<String> tags;
     private Geometry spatialFilter;
-    private String exportLayerName = "export";
-    private String exportFileName = "out";
-    private String osmExtractBinary = "osm_extract.py";
     private String elementType;
+    private String outputFormat;
+    private Integer maxFeatures;
+    private String resultMode;
     private FeatureCollection<?, ?> features;
-    private String osmStoreDirectory;
+    private GenericFileData exportedFile;
+    private Long featureCount;
+    private String extent;
     private String osmInputDataset;
-    private File workDirectory;
+    private ExtractionContext context;
 
     public OSMToVector() {
         super();
@@ -97,7 +115,8 @@ public class OSMToVector extends AbstractAnnotatedAlgorithm {
 
     @LiteralDataInput(
             identifier = "elementType",
-            abstrakt = "Type of OSM elements to export. Supported values are 'nodes' and 'ways'.",
+            abstrakt = "Type of OSM elements to export. Supported values are 'nodes', 'ways' and 'areas' (closed "
+                    + "ways and multipolygon relations). 'areas' requires the native engine.",
             minOccurs = 0,
             maxOccurs = 1,
             defaultValue = "nodes",
@@ -118,6 +137,48 @@ public class OSMToVector extends AbstractAnnotatedAlgorithm {
         this.osmInputDataset = datasetName;
     }
 
+    @LiteralDataInput(
+            identifier = "outputFormat",
+            abstrakt = "Return the extracted features as a file in this format in the exportedFile output instead of "
+                    + "the exportedData output. Supported values are 'flatgeobuf' (with spatial index), "
+                    + "'geojsonseq' (newline delimited) and 'geojson' (zipped). The subprocess engine also writes "
+                    + "'gpkg'.",
+            minOccurs = 0,
+            maxOccurs = 1,
+            binding = LiteralStringBinding.class
+    )
+    public void setOutputFormat(String outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    @LiteralDataInput(
+            identifier = "maxFeatures",
+            abstrakt = "Stop the extraction after this number of features. Without it all matching features are "
+                    + "extracted.",
+            minOccurs = 0,
+            maxOccurs = 1,
+            binding = LiteralIntBinding.class
+    )
+    public void setMaxFeatures(Integer maxFeatures) {
+        this.maxFeatures = maxFeatures;
+    }
+
+    @LiteralDataInput(
+            identifier = "resultMode",
+            abstrakt = "'features' returns the extracted features. 'count' only returns their number in the "
+                    + "featureCount output, 'extent' also returns their bounding box in the extent output. Both "
+                    + "are answered without building the features. Polygons of areas are only built to test "
+                    + "them against a spatialFilter.",
+            minOccurs = 0,
+            maxOccurs = 1,
+            defaultValue = "features",
+            allowedValues = {"features", "count", "extent"},
+            binding = LiteralStringBinding.class
+    )
+    public void setResultMode(String resultMode) {
+        this.resultMode = resultMode;
+    }
+
     @ComplexDataOutput(
             binding = GTVectorDataBinding.class,
             identifier = "exportedData"
@@ -126,129 +187,339 @@ public class OSMToVector extends AbstractAnnotatedAlgorithm {
         return features;
     }
 
-    private void setConfiguration() {
-        ConfigurationModule cm = WPSConfig.getInstance().getConfigurationModuleForClass(
-                OSMToVectorProcessRepository.class.getName(),
-                ConfigurationCategory.REPOSITORY
-        );
+    @ComplexDataOutput(
+            binding = GenericFileDataBinding.class,
+            identifier = "exportedFile"
+    )
+    public GenericFileData getExportedFile() {
+        return exportedFile;
+    }
+
+    @LiteralDataOutput(
+            binding = LiteralLongBinding.class,
+            identifier = "featureCount",
+            abstrakt = "Number of matching features, returned by the resultModes 'count' and 'extent'"
+    )
+    public Long getFeatureCount() {
+        return featureCount;
+    }
 
-        for (ConfigurationEntry cEntry: cm.getConfigurationEntries()) {
-           if (cEntry.getKey().equals(OSMToVectorProcessRepositoryCM.osmStoreDirectoryKey)) {
-               this.osmStoreDirectory = (String) cEntry.getValue();
-           } else if (cEntry.getKey().equals(OSMToVectorProcessRepositoryCM.osmExtractBinaryKey)) {
-               this.osmExtractBinary = (String) cEntry.getValue();
-           } else if (cEntry.getKey().equals(OSMToVectorProcessRepositoryCM.workDirectoryKey)) {
-               this.workDirectory = new File((String) cEntry.getValue());
-           }
+    @LiteralDataOutput(
+            binding = LiteralStringBinding.class,
+            identifier = "extent",
+            abstrakt = "Bounding box of the matching features as 'minLon,minLat,maxLon,maxLat', returned by the "
+                    + "resultMode 'extent' when there are any"
+    )
+    public String getExtent() {
+        return extent;
+    }
+
+    private ExtractionQuery createQuery() throws ExceptionReport {
+        ElementType type;
+        try {
+            type = ElementType.fromName(elementType);
+        } catch (IllegalArgumentException e) {
+            throw new ExceptionReport(e.getMessage(), "invalid-args");
+        }
+
+        if (spatialFilter != null) {
+            if (!spatialFilter.getGeometryType().equals("Polygon") && !spatialFilter.getGeometryType().equals("MultiPolygon")) {
+                throw new ExceptionReport(
+                        "Unsupported geometry type for the spatialFilter: " + spatialFilter.getGeometryType(),
+                        "invalid-args");
+            }
+        }
+        if (maxFeatures != null && maxFeatures < 0) {
+            throw new ExceptionReport("maxFeatures must not be negative: " + maxFeatures, "invalid-args");
+        }
+        return new ExtractionQuery(tags, type, spatialFilter, maxFeatures == null ? 0 : maxFeatures);
+    }
+
+    private ResultMode getResultMode() throws ExceptionReport {
+        ResultMode mode;
+        try {
+            mode = resultMode == null ? ResultMode.FEATURES : ResultMode.fromName(resultMode);
+        } catch (IllegalArgumentException e) {
+            throw new ExceptionReport(e.getMessage(), "invalid-args");
         }
+        if (mode != ResultMode.FEATURES && outputFormat != null) {
+            throw new ExceptionReport("The resultMode '" + mode.getName() + "' does not return a file, "
+                    + "the outputFormat can not be used with it", "invalid-args");
+        }
+        return mode;
     }
 
     @Execute
     public void run() throws ExceptionReport {
-        this.setConfiguration();
+        context = new ExtractionContext(osmInputDataset);
+
+        ExtractionQuery query = createQuery();
+        ResultMode mode = getResultMode();
+        String engineName = context.getEngineName();
+        if (query.getElementType() == ElementType.AREAS
+                && OSMToVectorProcessRepositoryCM.extractionEngineSubprocess.equals(engineName)) {
+            throw new ExceptionReport("The subprocess engine does not support the elementType 'areas'",
+                    "invalid-args");
+        }
 
-        File tmpdir = null;
+        // input file
+        OSMDatasetStore store;
+        Path datasetPath;
         try {
-            tmpdir = Files.createTempDirectory(this.workDirectory.toPath(), "osmtovector").toFile();
+            store = context.openDatasetStore();
+            datasetPath = store.getPathForDataset(osmInputDataset);
+        } catch (IOException e) {
+            LOGGER.error("Could not find input dataset '" + osmInputDataset + "'", e);
+            throw new ExceptionReport("Could not find input dataset '" + osmInputDataset + "'", "io", e);
+        }
 
-            List<String> args = new ArrayList<>();
-            args.add(this.osmExtractBinary);
-            args.add("-l");
-            args.add(exportLayerName);
+        store.recordTagUsage(osmInputDataset, query.getTags());
 
-            if (!tags.isEmpty()) {
-                args.add("-t");
-                for (String tag : tags) {
-                    args.add(tag);
-                }
-            }
+        // only requests for existing datasets are recorded, so the number of metrics stays bounded
+        RequestMetrics metrics = context.getRequestMetrics(query.getElementType().getName());
+        metrics.recordRequest();
+
+        if (outputFormat != null) {
+            export(engineName, store, datasetPath, query, metrics);
+            return;
+        }
+        if (mode != ResultMode.FEATURES) {
+            summarize(engineName, store, datasetPath, query, mode, metrics);
+            return;
+        }
+
+        ResultCacheKey requestKey;
+        try {
+            // the catalog knows the size and modification time of the dataset, without it they are read
+            requestKey = store.hasCatalog()
+                    ? ResultCacheKey.create(store.getMetadata(osmInputDataset), query, engineName)
+                    : ResultCacheKey.create(datasetPath, query, engineName);
+        } catch (IOException e) {
+            metrics.recordFailure();
+            LOGGER.error("Could not access input dataset '" + osmInputDataset + "'", e);
+            throw new ExceptionReport("Could not access input dataset '" + osmInputDataset + "'", "io", e);
+        }
 
-            args.add("-f");
-            args.add("ESRI Shapefile");
+        OSMToVectorProcessRepository repository = OSMToVectorProcessRepository.getInstance();
+        ResultCache cache = repository == null ? null : repository.getResultCache();
+        if (cache != null) {
+            long loadStart = System.nanoTime();
+            SimpleFeatureCollection cached = cache.get(requestKey);
+            if (cached != null) {
+                metrics.recordCached();
+                metrics.recordResultLoading(millisSince(loadStart));
+                LOGGER.info("serving extraction of {} from dataset '{}' from the result cache",
+                        query.getElementType().getName(), osmInputDataset);
+                // the entry may be evicted before the WPS has read the response
+                features = cached instanceof SpooledFeatureCollection
+                        ? FeatureSpool.link((SpooledFeatureCollection) cached, getSpoolDirectory()) : cached;
+                return;
+            }
+        }
 
-            if (elementType.contentEquals("nodes")) {
-                // the default - nothing to do
-            } else if (elementType.contentEquals("ways")) {
-                args.add("--ways");
-                args.add("--length");
+        // identical requests running at the same time share one extraction
+        SingleFlight<ResultCacheKey, SimpleFeatureCollection> flights =
+                repository == null ? null : repository.getExtractionFlights();
+        try {
+            SimpleFeatureCollection result;
+            if (flights == null) {
+                result = extract(engineName, store, datasetPath, query, requestKey, cache, metrics);
             } else {
-                throw new ExceptionReport(
-                        "Unsupported elementType: " + elementType
-                                + ". Supported are 'ways', 'nodes'",
-                        "invalid-args");
+                result = flights.execute(requestKey, () -> extract(engineName, store, datasetPath, query,
+                        requestKey, cache, metrics));
             }
+            features = result;
+        } catch (ExtractionRejectedException e) {
+            metrics.recordRejected();
+            throw new ExceptionReport(e.getMessage(), "ServerBusy");
+        } catch (IOException e) {
+            metrics.recordFailure();
+            LOGGER.error("could not process", e);
+            throw new ExceptionReport("Error handling processing request: " + e.getMessage(), "internal");
+        }
+    }
 
-            // set the spatial filter if there is one
-            if (spatialFilter != null) {
-                if (!spatialFilter.getGeometryType().equals("Polygon") && !spatialFilter.getGeometryType().equals("MultiPolygon")) {
-                    throw new ExceptionReport(
-                            "Unsupported geometry type for the spatialFilter: " + spatialFilter.getGeometryType(),
-                            "invalid-args");
-                }
+    /**
+     * @return the directory of the spooled results, which are expired by the repository
+     */
+    private Path getSpoolDirectory() {
+        Path spoolDirectory = context.getTemporaryDirectory();
+        return spoolDirectory == null ? Paths.get(System.getProperty("java.io.tmpdir")) : spoolDirectory;
+    }
 
-                File spatialFilterFile = new File(tmpdir, "filter.geojson");
-                GeoJSONFileCreator.writeGeoJSONFeatureCollection(spatialFilterFile, spatialFilter);
+    private SimpleFeatureCollection extract(String engineName, OSMDatasetStore store, Path datasetPath,
+                                            ExtractionQuery query, ResultCacheKey requestKey,
+                                            ResultCache cache, RequestMetrics metrics) throws IOException {
+        ExtractionScheduler.Permit permit = context.acquirePermit(metrics);
 
-                args.add("--geofilter");
-                args.add(spatialFilterFile.getAbsolutePath());
+        SimpleFeatureCollection result;
+        Instant start = Instant.now();
+        long bytesRead = PbfFile.getThreadBytesRead();
+        try {
+            FilteredDataset filteredDataset = context.selectFilteredDataset(store, query);
+            Path inputPath = filteredDataset == null ? datasetPath : filteredDataset.getPath();
+            Extractor extractor = context.createExtractor(store, query, filteredDataset, metrics, this::update);
+            long extractionStart = System.nanoTime();
+            if (context.isStreamResults()) {
+                // the features are written to disk as they are extracted and read again while
+                // the response is encoded
+                try (FeatureSpool spool = new FeatureSpool(getSpoolDirectory())) {
+                    extractor.extract(inputPath, query, spool);
+                    metrics.recordExtraction(millisSince(extractionStart));
+
+                    long loadStart = System.nanoTime();
+                    result = spool.finish();
+                    metrics.recordResultLoading(millisSince(loadStart));
+                }
+            } else {
+                result = extractor.extract(inputPath, query);
+                metrics.recordExtraction(millisSince(extractionStart));
+            }
+            metrics.recordFeatures(result.size());
+        } finally {
+            metrics.recordBytesRead(PbfFile.getThreadBytesRead() - bytesRead);
+            if (permit != null) {
+                permit.close();
             }
+            LOGGER.info("extraction of {} from dataset '{}' using the {} engine took {} seconds",
+                    query.getElementType().getName(),
+                    osmInputDataset,
+                    engineName,
+                    Duration.between(start, Instant.now()).toMillis() / 1000.0);
+        }
 
-            // input file
+        if (cache != null) {
             try {
-                OSMDatasetStore store = new OSMDatasetStore(osmStoreDirectory);
-                args.add(store.getPathForDataset(osmInputDataset).toAbsolutePath().toString());
+                cache.put(requestKey, result);
             } catch (IOException e) {
-                LOGGER.error("Could not find input dataset '" + osmInputDataset + "'", e);
-                throw new ExceptionReport("Could not find input dataset '" + osmInputDataset + "'", "io", e);
+                LOGGER.warn("Could not store the result in the result cache", e);
             }
+        }
+        return result;
+    }
 
-            // output file
-            args.add(new File(tmpdir, exportFileName).getAbsolutePath());
-
-            Runtime rt = Runtime.getRuntime();
-            String[] argArr = new String[args.size()];
-            argArr = args.toArray(argArr);
-            String printableCommand = String.join(" ", argArr);
-            LOGGER.info("Executing {}", printableCommand);
-
-            Instant procStart = Instant.now();
-            Process proc = rt.exec(argArr, new String[0], tmpdir);
+    /**
+     * Lets the engine write the extracted features in the requested format to a file which is returned
+     * without parsing it. Exports are not cached.
+     */
+    private void export(String engineName, OSMDatasetStore store, Path datasetPath, ExtractionQuery query,
+                        RequestMetrics metrics) throws ExceptionReport {
+        FilteredDataset filteredDataset = context.selectFilteredDataset(store, query);
+        Path inputPath = filteredDataset == null ? datasetPath : filteredDataset.getPath();
+        Extractor extractor = context.createExtractor(store, query, filteredDataset, metrics, this::update);
+        ExportFormat format;
+        try {
+            format = ExportFormat.fromName(outputFormat, extractor.getExportFormats());
+        } catch (IllegalArgumentException e) {
+            metrics.recordFailure();
+            throw new ExceptionReport(e.getMessage(), "invalid-args");
+        }
+        if (!extractor.canExport(format)) {
+            metrics.recordFailure();
+            throw new ExceptionReport("The " + engineName + " engine does not support the outputFormat '"
+                    + format.getName() + "'. Supported are " + ExportFormat.quotedNames(extractor.getExportFormats()),
+                    "invalid-args");
+        }
 
-            // wait for subprocess to finish
+        OSMToVectorProcessRepository repository = OSMToVectorProcessRepository.getInstance();
+        ExportDirectory exportDirectory = repository == null ? null : repository.getExportDirectory();
+        Path target = null;
+        try {
+            File workDirectory = context.getWorkDirectory();
+            target = exportDirectory == null
+                    ? Files.createTempFile(workDirectory == null ? null : workDirectory.toPath(),
+                            "osmtovector-export", format.getFileExtension())
+                    : exportDirectory.createFile(format);
+
+            ExtractionScheduler.Permit permit = context.acquirePermit(metrics);
+            Instant start = Instant.now();
+            long bytesRead = PbfFile.getThreadBytesRead();
             try {
-                int returnCode = proc.waitFor();
-
-                if (returnCode != 0) {
-                    // get the stderr of the command and write it to the logfile for problem diagnosis.
-                    String errOutput = IOUtil.readInputStreamIntoString(proc.getErrorStream());
-                    LOGGER.error("subprocess failed with returncode " + returnCode + ":\n" + errOutput);
-
-                    throw new ExceptionReport("subprocess failed", "internal");
-                }
-            } catch (InterruptedException e) {
-                LOGGER.error("subprocess was interrupted.", e);
-                throw new ExceptionReport("Error handling processing request: subprocess was interrupted", "internal");
+                extractor.export(inputPath, query, format, target);
+                metrics.recordExtraction(Duration.between(start, Instant.now()).toMillis());
             } finally {
-                proc.destroy();
-
-                LOGGER.info("subprocess \"{}\" took {} seconds to execute",
-                        printableCommand,
-                        Duration.between(procStart, Instant.now()).toMillis() / 1000.0);
+                metrics.recordBytesRead(PbfFile.getThreadBytesRead() - bytesRead);
+                if (permit != null) {
+                    permit.close();
+                }
+                LOGGER.info("export of {} from dataset '{}' to {} using the {} engine took {} seconds",
+                        query.getElementType().getName(),
+                        osmInputDataset,
+                        format.getName(),
+                        engineName,
+                        Duration.between(start, Instant.now()).toMillis() / 1000.0);
             }
-
-            // get result from disk
-            DataStore store = new ShapefileDataStore(new File(tmpdir, exportFileName + "/" + exportLayerName + ".shp").toURI().toURL());
-            features = store.getFeatureSource(store.getTypeNames()[0]).getFeatures();
-
+        } catch (ExtractionRejectedException e) {
+            metrics.recordRejected();
+            deleteExport(target);
+            throw new ExceptionReport(e.getMessage(), "ServerBusy");
         } catch (IOException e) {
+            metrics.recordFailure();
+            deleteExport(target);
             LOGGER.error("could not process", e);
             throw new ExceptionReport("Error handling processing request: " + e.getMessage(), "internal");
-        } finally {
-            if (tmpdir != null) {
-                if (tmpdir.exists()) {
-                    IOUtil.recursiveDelete(tmpdir);
+        }
+        exportedFile = new GenericFileData(target.toFile(), format.getMimeType());
+    }
+
+    /**
+     * Counts the matching features and computes their extent without building an output. The native
+     * engine does not even build the features. The result cache only holds features, so summaries
+     * are not cached.
+     */
+    private void summarize(String engineName, OSMDatasetStore store, Path datasetPath, ExtractionQuery query,
+                           ResultMode mode, RequestMetrics metrics) throws ExceptionReport {
+        FeatureSummary summary = new FeatureSummary(query.getMaxFeatures());
+        try {
+            ExtractionScheduler.Permit permit = context.acquirePermit(metrics);
+            Instant start = Instant.now();
+            long bytesRead = PbfFile.getThreadBytesRead();
+            try {
+                FilteredDataset filteredDataset = context.selectFilteredDataset(store, query);
+                Path inputPath = filteredDataset == null ? datasetPath : filteredDataset.getPath();
+                Extractor extractor = context.createExtractor(store, query, filteredDataset, metrics, this::update);
+                extractor.extract(inputPath, query, summary);
+                metrics.recordExtraction(Duration.between(start, Instant.now()).toMillis());
+                metrics.recordFeatures(summary.getCount());
+            } finally {
+                metrics.recordBytesRead(PbfFile.getThreadBytesRead() - bytesRead);
+                if (permit != null) {
+                    permit.close();
                 }
+                LOGGER.info("{} of {} from dataset '{}' using the {} engine took {} seconds",
+                        mode.getName(),
+                        query.getElementType().getName(),
+                        osmInputDataset,
+                        engineName,
+                        Duration.between(start, Instant.now()).toMillis() / 1000.0);
             }
+        } catch (ExtractionRejectedException e) {
+            metrics.recordRejected();
+            throw new ExceptionReport(e.getMessage(), "ServerBusy");
+        } catch (IOException e) {
+            metrics.recordFailure();
+            LOGGER.error("could not process", e);
+            throw new ExceptionReport("Error handling processing request: " + e.getMessage(), "internal");
         }
+
+        featureCount = summary.getCount();
+        Envelope envelope = summary.getEnvelope();
+        if (mode == ResultMode.EXTENT && !envelope.isNull()) {
+            extent = envelope.getMinX() + "," + envelope.getMinY() + "," + envelope.getMaxX() + "," + envelope.getMaxY();
+        }
+    }
+
+    private static void deleteExport(Path target) {
+        if (target != null) {
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete the failed export " + target, e);
+            }
+        }
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
     }
 }
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.algorithm;
+
+import com.vividsolutions.jts.geom.Geometry;
+import org.geotools.geojson.geom.GeometryJSON;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.n52.dlr.osmtovector.OSMToVectorProcessRepository;
+import org.n52.dlr.osmtovector.engine.ElementType;
+import org.n52.dlr.osmtovector.engine.ExportFormat;
+import org.n52.dlr.osmtovector.engine.ExtractionQuery;
+import org.n52.dlr.osmtovector.engine.Extractor;
+import org.n52.dlr.osmtovector.engine.PbfFile;
+import org.n52.dlr.osmtovector.io.ExportDirectory;
+import org.n52.dlr.osmtovector.io.FilteredDataset;
+import org.n52.dlr.osmtovector.io.IOUtil;
+import org.n52.dlr.osmtovector.io.OSMDatasetStore;
+import org.n52.dlr.osmtovector.io.WorkArea;
+import org.n52.dlr.osmtovector.metrics.RequestMetrics;
+import org.n52.dlr.osmtovector.scheduler.ExtractionRejectedException;
+import org.n52.dlr.osmtovector.scheduler.ExtractionScheduler;
+import org.n52.wps.algorithm.annotation.*;
+import org.n52.wps.io.data.GenericFileData;
+import org.n52.wps.io.data.binding.complex.GenericFileDataBinding;
+import org.n52.wps.io.data.binding.complex.JTSGeometryBinding;
+import org.n52.wps.io.data.binding.literal.LiteralStringBinding;
+import org.n52.wps.server.AbstractAnnotatedAlgorithm;
+import org.n52.wps.server.ExceptionReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+
+@Algorithm(
+        version="1.0.0",
+        title="OSMToVectorBatch",
+        abstrakt = "Extract several subsets of an OSM dataset with a single pass over the dataset"
+)
+public class OSMToVectorBatch extends AbstractAnnotatedAlgorithm {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(OSMToVectorBatch.class);
+    private static final String BATCH_ELEMENT_TYPE = "batch";
+    private List<String> queryDefinitions;
+    private Geometry spatialFilter;
+    private String outputFormat = ExportFormat.FLATGEOBUF.getName();
+    private String osmInputDataset;
+    private GenericFileData exportedFiles;
+
+    public OSMToVectorBatch() {
+        super();
+    }
+
+    @LiteralDataInput(
+            identifier = "query",
+            abstrakt = "JSON object describing one extraction, e.g. {\"name\": \"roads\", \"tags\": [\"highway\", "
+                    + "\"name\"], \"elementType\": \"ways\", \"spatialFilter\": <GeoJSON Polygon>}. All members "
+                    + "except the name are optional, the elementType ('nodes', 'ways' or 'areas') defaults to "
+                    + "'nodes'. 'areas' requires the native engine.",
+            minOccurs = 1,
+            maxOccurs = 50,
+            binding = LiteralStringBinding.class
+    )
+    public void setQuery(List<String> queryDefinitions) {
+        this.queryDefinitions = queryDefinitions;
+    }
+
+    @ComplexDataInput(
+            identifier = "spatialFilter",
+            abstrakt = "Polygon or MultiPolygon geometry of the area of interest of all queries without their own "
+                    + "spatialFilter",
+            minOccurs = 0,
+            maxOccurs = 1,
+            binding = JTSGeometryBinding.class
+    )
+    public void setSpatialFilter(Geometry geom) {
+        this.spatialFilter = geom;
+    }
+
+    @LiteralDataInput(
+            identifier = "dataset",
+            abstrakt = "Name of the OSM input dataset to use. Use the OSMDatasetList process to get a list",
+            minOccurs = 1,
+            maxOccurs = 1,
+            binding = LiteralStringBinding.class
+    )
+    public void setInputDatasetName(String datasetName) {
+        this.osmInputDataset = datasetName;
+    }
+
+    @LiteralDataInput(
+            identifier = "outputFormat",
+            abstrakt = "Format of the files in the result. Supported values are 'flatgeobuf' and 'geojsonseq', "
+                    + "the subprocess engine also writes 'gpkg'.",
+            minOccurs = 0,
+            maxOccurs = 1,
+            defaultValue = "flatgeobuf",
+            binding = LiteralStringBinding.class
+    )
+    public void setOutputFormat(String outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    @ComplexDataOutput(
+            binding = GenericFileDataBinding.class,
+            identifier = "exportedFiles"
+    )
+    public GenericFileData getExportedFiles() {
+        return exportedFiles;
+    }
+
+    /**
+     * Parses the query definitions into the queries and the names of their files.
+     */
+    private List<ExtractionQuery> createQueries(List<String> names) throws ExceptionReport {
+        List<ExtractionQuery> queries = new ArrayList<>();
+        Set<String> usedNames = new HashSet<>();
+        JSONParser parser = new JSONParser();
+        for (String definition : queryDefinitions) {
+            JSONObject json;
+            try {
+                json = (JSONObject) parser.parse(definition);
+            } catch (ParseException | ClassCastException e) {
+                throw new ExceptionReport("Invalid query, expected a JSON object: " + definition, "invalid-args");
+            }
+
+            Object name = json.get("name");
+            if (!(name instanceof String) || ((String) name).isEmpty()) {
+                throw new ExceptionReport("Every query needs a name: " + definition, "invalid-args");
+            }
+            String fileName = ((String) name).replaceAll("[^a-zA-Z0-9_-]", "_");
+            if (!usedNames.add(fileName)) {
+                throw new ExceptionReport("Duplicate query name: " + name, "invalid-args");
+            }
+            names.add(fileName);
+
+            List<String> tags = new ArrayList<>();
+            Object tagsJSON = json.get("tags");
+            if (tagsJSON instanceof JSONArray) {
+                for (Object tag : (JSONArray) tagsJSON) {
+                    tags.add(String.valueOf(tag));
+                }
+            } else if (tagsJSON != null) {
+                throw new ExceptionReport("The tags of query '" + name + "' must be an array", "invalid-args");
+            }
+
+            ElementType type;
+            try {
+                Object elementType = json.get("elementType");
+                type = ElementType.fromName(elementType == null ? ElementType.NODES.getName() : elementType.toString());
+            } catch (IllegalArgumentException e) {
+                throw new ExceptionReport(e.getMessage(), "invalid-args");
+            }
+
+            Geometry filter = spatialFilter;
+            Object filterJSON = json.get("spatialFilter");
+            if (filterJSON instanceof JSONObject) {
+                try {
+                    filter = new GeometryJSON().read(((JSONObject) filterJSON).toJSONString());
+                } catch (IOException | RuntimeException e) {
+                    throw new ExceptionReport("Invalid spatialFilter of query '" + name + "'", "invalid-args", e);
+                }
+            }
+            if (filter != null) {
+                if (!filter.getGeometryType().equals("Polygon") && !filter.getGeometryType().equals("MultiPolygon")) {
+                    throw new ExceptionReport(
+                            "Unsupported geometry type for the spatialFilter: " + filter.getGeometryType(),
+                            "invalid-args");
+                }
+            }
+            queries.add(new ExtractionQuery(tags, type, filter));
+        }
+        return queries;
+    }
+
+    @Execute
+    public void run() throws ExceptionReport {
+        ExtractionContext context = new ExtractionContext(osmInputDataset);
+
+        List<String> names = new ArrayList<>();
+        List<ExtractionQuery> queries = createQueries(names);
+        String engineName = context.getEngineName();
+        if (context.isSubprocessEngine()) {
+            for (ExtractionQuery query : queries) {
+                if (query.getElementType() == ElementType.AREAS) {
+                    throw new ExceptionReport("The subprocess engine does not support the elementType 'areas'",
+                            "invalid-args");
+                }
+            }
+        }
+
+        // input file
+        OSMDatasetStore store;
+        Path datasetPath;
+        try {
+            store = context.openDatasetStore();
+            datasetPath = store.getPathForDataset(osmInputDataset);
+        } catch (IOException e) {
+            LOGGER.error("Could not find input dataset '" + osmInputDataset + "'", e);
+            throw new ExceptionReport("Could not find input dataset '" + osmInputDataset + "'", "io", e);
+        }
+
+        for (ExtractionQuery query : queries) {
+            store.recordTagUsage(osmInputDataset, query.getTags());
+        }
+        RequestMetrics metrics = context.getRequestMetrics(BATCH_ELEMENT_TYPE);
+        metrics.recordRequest();
+
+        FilteredDataset filteredDataset = context.selectFilteredDataset(store, queries);
+        Path inputPath = filteredDataset == null ? datasetPath : filteredDataset.getPath();
+        Extractor extractor = context.createExtractor(store, queries, filteredDataset, metrics, this::update);
+        List<ExportFormat> formats = extractor.getExportFormats();
+        formats.remove(ExportFormat.GEOJSON);
+        ExportFormat format;
+        try {
+            format = ExportFormat.fromName(outputFormat, formats);
+        } catch (IllegalArgumentException e) {
+            metrics.recordFailure();
+            throw new ExceptionReport(e.getMessage(), "invalid-args");
+        }
+        if (format == ExportFormat.GEOJSON) {
+            metrics.recordFailure();
+            throw new ExceptionReport("The files of a batch are zipped already, use 'geojsonseq' instead of 'geojson'",
+                    "invalid-args");
+        }
+        if (!extractor.canExport(format)) {
+            metrics.recordFailure();
+            throw new ExceptionReport("The " + engineName + " engine does not support the outputFormat '"
+                    + format.getName() + "'. Supported are " + ExportFormat.quotedNames(formats), "invalid-args");
+        }
+
+        OSMToVectorProcessRepository repository = OSMToVectorProcessRepository.getInstance();
+        ExportDirectory exportDirectory = repository == null ? null : repository.getExportDirectory();
+        File workDirectory = context.getWorkDirectory();
+        Path baseDirectory = exportDirectory == null
+                ? (workDirectory == null ? Paths.get(System.getProperty("java.io.tmpdir")) : workDirectory.toPath())
+                : exportDirectory.getDirectory();
+        WorkArea workArea = context.getWorkArea();
+        File tmpdir = null;
+        Path target = null;
+        try {
+            tmpdir = workArea == null
+                    ? Files.createTempDirectory(baseDirectory, WorkArea.prefix).toFile()
+                    : workArea.createDirectory(Files.size(inputPath)).toFile();
+            List<Path> files = new ArrayList<>();
+            for (String name : names) {
+                files.add(new File(tmpdir, name + format.getFileExtension()).toPath());
+            }
+
+            // the whole batch counts as one extraction
+            ExtractionScheduler.Permit permit = context.acquirePermit(metrics);
+            Instant start = Instant.now();
+            long bytesRead = PbfFile.getThreadBytesRead();
+            try {
+                extractor.export(inputPath, queries, format, files);
+                metrics.recordExtraction(Duration.between(start, Instant.now()).toMillis());
+            } finally {
+                metrics.recordBytesRead(PbfFile.getThreadBytesRead() - bytesRead);
+                if (permit != null) {
+                    permit.close();
+                }
+                LOGGER.info("batch extraction of {} queries from dataset '{}' took {} seconds",
+                        queries.size(),
+                        osmInputDataset,
+                        Duration.between(start, Instant.now()).toMillis() / 1000.0);
+            }
+
+            long zipStart = System.nanoTime();
+            target = exportDirectory == null
+                    ? Files.createTempFile(baseDirectory, "osmtovector-export", ".zip")
+                    : exportDirectory.createFile(".zip");
+            try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))) {
+                for (Path file : files) {
+                    zip.putNextEntry(new ZipEntry(file.getFileName().toString()));
+                    Files.copy(file, zip);
+                    zip.closeEntry();
+                }
+            }
+            metrics.recordResultLoading((System.nanoTime() - zipStart) / 1000000);
+        } catch (ExtractionRejectedException e) {
+            metrics.recordRejected();
+            throw new ExceptionReport(e.getMessage(), "ServerBusy");
+        } catch (IOException e) {
+            metrics.recordFailure();
+            deleteQuietly(target);
+            LOGGER.error("could not process", e);
+            throw new ExceptionReport("Error handling processing request: " + e.getMessage(), "internal");
+        } finally {
+            if (tmpdir != null && workArea != null) {
+                workArea.delete(tmpdir.toPath()).thenAccept(metrics::recordCleanup);
+            } else if (tmpdir != null && tmpdir.exists()) {
+                long cleanupStart = System.nanoTime();
+                IOUtil.recursiveDelete(tmpdir);
+                metrics.recordCleanup((System.nanoTime() - cleanupStart) / 1000000);
+            }
+        }
+        exportedFiles = new GenericFileData(target.toFile(), "application/zip");
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete the failed export " + file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.cache;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compact binary encoding of simple feature collections with WGS84 geometries. Geometries
+ * are stored as WKB, attributes of types without a dedicated encoding as strings.
+ */
+public class FeatureSerializer {
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_GEOMETRY = 1;
+    private static final byte TYPE_STRING = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_INTEGER = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    private static final byte TYPE_FLOAT = 6;
+    private static final byte TYPE_BOOLEAN = 7;
+    private static final byte TYPE_DATE = 8;
+
+    public static void write(SimpleFeatureCollection collection, DataOutputStream out) throws IOException {
+        Writer writer = new Writer(out, collection.getSchema());
+        SimpleFeatureIterator iterator = collection.features();
+        try {
+            while (iterator.hasNext()) {
+                writer.write(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+        writer.finish();
+    }
+
+    public static SimpleFeatureCollection read(DataInputStream in) throws IOException {
+        Reader reader = new Reader(in, null);
+        List<SimpleFeature> features = new ArrayList<>();
+        SimpleFeature feature;
+        while ((feature = reader.next()) != null) {
+            features.add(feature);
+        }
+        return new ListFeatureCollection(reader.getFeatureType(), features);
+    }
+
+    /**
+     * Writes features one at a time, after the schema.
+     */
+    public static class Writer {
+        private final DataOutputStream out;
+        private final byte[] types;
+        private final WKBWriter wkbWriter = new WKBWriter();
+
+        public Writer(DataOutputStream out, SimpleFeatureType featureType) throws IOException {
+            this.out = out;
+            List<AttributeDescriptor> descriptors = featureType.getAttributeDescriptors();
+            this.types = new byte[descriptors.size()];
+
+            out.writeUTF(featureType.getTypeName());
+            out.writeInt(descriptors.size());
+            for (int i = 0; i < descriptors.size(); i++) {
+                AttributeDescriptor descriptor = descriptors.get(i);
+                types[i] = typeOf(descriptor.getType().getBinding());
+                out.writeUTF(descriptor.getLocalName());
+                out.writeByte(types[i]);
+                out.writeUTF(types[i] == TYPE_GEOMETRY
+                        ? descriptor.getType().getBinding().getName()
+                        : "");
+            }
+        }
+
+        public void write(SimpleFeature feature) throws IOException {
+            out.writeBoolean(true);
+            out.writeUTF(feature.getID());
+            for (int i = 0; i < types.length; i++) {
+                writeValue(out, types[i], feature.getAttribute(i), wkbWriter);
+            }
+        }
+
+        /**
+         * Marks the end of the features.
+         */
+        public void finish() throws IOException {
+            out.writeBoolean(false);
+        }
+    }
+
+    /**
+     * Reads features one at a time.
+     */
+    public static class Reader {
+        private final DataInputStream in;
+        private final SimpleFeatureType featureType;
+        private final int attributeCount;
+        private final WKBReader wkbReader = new WKBReader();
+        private boolean finished = false;
+
+        /**
+         * @param featureType the type read before from the same data, or null to read it from the schema
+         */
+        public Reader(DataInputStream in, SimpleFeatureType featureType) throws IOException {
+            this.in = in;
+
+            SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+            builder.setName(in.readUTF());
+            builder.setSRS("EPSG:4326");
+
+            this.attributeCount = in.readInt();
+            String geometryName = null;
+            for (int i = 0; i < attributeCount; i++) {
+                String name = in.readUTF();
+                byte type = in.readByte();
+                String geometryClass = in.readUTF();
+                if (featureType != null) {
+                    continue;
+                }
+                if (type == TYPE_GEOMETRY) {
+                    builder.add(name, geometryClass(geometryClass));
+                    if (geometryName == null) {
+                        geometryName = name;
+                    }
+                } else {
+                    builder.add(name, bindingOf(type));
+                }
+            }
+            if (featureType == null) {
+                if (geometryName != null) {
+                    builder.setDefaultGeometry(geometryName);
+                }
+                featureType = builder.buildFeatureType();
+            }
+            this.featureType = featureType;
+        }
+
+        public SimpleFeatureType getFeatureType() {
+            return featureType;
+        }
+
+        /**
+         * @return the next feature, or null after the last feature
+         */
+        public SimpleFeature next() throws IOException {
+            if (finished || !in.readBoolean()) {
+                finished = true;
+                return null;
+            }
+            String fid = in.readUTF();
+            Object[] values = new Object[attributeCount];
+            for (int i = 0; i < attributeCount; i++) {
+                values[i] = readValue(in, wkbReader);
+            }
+            return SimpleFeatureBuilder.build(featureType, values, fid);
+        }
+    }
+
+    private static byte typeOf(Class<?> binding) {
+        if (Geometry.class.isAssignableFrom(binding)) {
+            return TYPE_GEOMETRY;
+        } else if (Long.class.equals(binding)) {
+            return TYPE_LONG;
+        } else if (Integer.class.equals(binding) || Short.class.equals(binding) || Byte.class.equals(binding)) {
+            return TYPE_INTEGER;
+        } else if (Double.class.equals(binding)) {
+            return TYPE_DOUBLE;
+        } else if (Float.class.equals(binding)) {
+            return TYPE_FLOAT;
+        } else if (Boolean.class.equals(binding)) {
+            return TYPE_BOOLEAN;
+        } else if (Date.class.isAssignableFrom(binding)) {
+            return TYPE_DATE;
+        }
+        return TYPE_STRING;
+    }
+
+    private static Class<?> bindingOf(byte type) throws IOException {
+        switch (type) {
+            case TYPE_STRING:
+                return String.class;
+            case TYPE_LONG:
+                return Long.class;
+            case TYPE_INTEGER:
+                return Integer.class;
+            case TYPE_DOUBLE:
+                return Double.class;
+            case TYPE_FLOAT:
+                return Float.class;
+            case TYPE_BOOLEAN:
+                return Boolean.class;
+            case TYPE_DATE:
+                return Date.class;
+            default:
+                throw new IOException("Invalid attribute type " + type);
+        }
+    }
+
+    private static Class<?> geometryClass(String name) throws IOException {
+        try {
+            Class<?> geometryClass = Class.forName(name);
+            if (Geometry.class.isAssignableFrom(geometryClass)) {
+                return geometryClass;
+            }
+        } catch (ClassNotFoundException e) {
+            // handled below
+        }
+        throw new IOException("Invalid geometry type " + name);
+    }
+
+    private static void writeValue(DataOutputStream out, byte type, Object value, WKBWriter wkbWriter) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+            return;
+        }
+        out.writeByte(type);
+        switch (type) {
+            case TYPE_GEOMETRY:
+                byte[] wkb = wkbWriter.write((Geometry) value);
+                out.writeInt(wkb.length);
+                out.write(wkb);
+                break;
+            case TYPE_LONG:
+                out.writeLong(((Number) value).longValue());
+                break;
+            case TYPE_INTEGER:
+                out.writeInt(((Number) value).intValue());
+                break;
+            case TYPE_DOUBLE:
+                out.writeDouble(((Number) value).doubleValue());
+                break;
+            case TYPE_FLOAT:
+                out.writeFloat(((Number) value).floatValue());
+                break;
+            case TYPE_BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case TYPE_DATE:
+                out.writeLong(((Date) value).getTime());
+                break;
+            default:
+                writeString(out, value.toString());
+        }
+    }
+
+    private static Object readValue(DataInputStream in, WKBReader wkbReader) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_GEOMETRY:
+                byte[] wkb = new byte[in.readInt()];
+                in.readFully(wkb);
+                try {
+                    return wkbReader.read(wkb);
+                } catch (ParseException e) {
+                    throw new IOException("Invalid geometry", e);
+                }
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_INTEGER:
+                return in.readInt();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_DATE:
+                return new Date(in.readLong());
+            default:
+                throw new IOException("Invalid attribute type " + type);
+        }
+    }
+
+    // writeUTF is limited to 64k bytes, so longer attribute values need their own length prefix
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.cache;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import org.n52.dlr.osmtovector.engine.FeatureSink;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the features of an extraction to a temporary file as they are produced, instead of
+ * collecting them in memory. The WPS reads the result after the algorithm has finished, so the
+ * file is kept in the directory until it is older than the retention time, like an export.
+ */
+public class FeatureSpool implements FeatureSink, Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(FeatureSpool.class);
+    private static final String prefix = "osmtovector-spool";
+    private static final String suffix = ".features";
+
+    private final Path directory;
+    private Path path;
+    private DataOutputStream out;
+    private FeatureSerializer.Writer writer;
+    private int count = 0;
+    private final Envelope bounds = new Envelope();
+
+    public FeatureSpool(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void start(SimpleFeatureType featureType) throws IOException {
+        path = Files.createTempFile(directory, prefix, suffix);
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+        writer = new FeatureSerializer.Writer(out, featureType);
+    }
+
+    @Override
+    public void accept(SimpleFeature feature) throws IOException {
+        writer.write(feature);
+        count++;
+        if (feature.getDefaultGeometry() != null) {
+            bounds.expandToInclude(((Geometry) feature.getDefaultGeometry()).getEnvelopeInternal());
+        }
+    }
+
+    /**
+     * Completes the file and returns a collection reading from it.
+     */
+    public SpooledFeatureCollection finish() throws IOException {
+        if (writer == null) {
+            throw new IOException("No features have been spooled");
+        }
+        writer.finish();
+        out.close();
+        out = null;
+
+        SpooledFeatureCollection collection = SpooledFeatureCollection.open(path, 0, count, bounds);
+        path = null;
+        return collection;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Links the file of a collection into the directory, so it remains readable when its original is deleted,
+     * e.g. when a cache entry is evicted before the response has been read.
+     *
+     * @return a collection reading the link, or the collection when the file can not be linked
+     */
+    public static SpooledFeatureCollection link(SpooledFeatureCollection collection, Path directory) {
+        Path link = null;
+        try {
+            link = Files.createTempFile(directory, prefix, suffix);
+            Files.delete(link);
+            Files.createLink(link, collection.getPath());
+            return SpooledFeatureCollection.open(link, collection.getOffset());
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.debug("could not link {} into {}: {}", collection.getPath(), directory, e.getMessage());
+            if (link != null) {
+                delete(link);
+            }
+            return collection;
+        }
+    }
+
+    /**
+     * Deletes the spooled results which are older than the retention time.
+     */
+    public static void deleteExpired(Path directory, long retentionMillis) {
+        long limit = System.currentTimeMillis() - retentionMillis;
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < limit) {
+                        Files.deleteIfExists(file);
+                        deleted++;
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Could not delete the expired result " + file, e);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not list the spooled results in " + directory, e);
+        }
+        if (deleted > 0) {
+            LOGGER.info("deleted {} expired spooled results from {}", deleted, directory);
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.debug("could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the file, unless it has been handed to a collection.
+     */
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        if (path != null) {
+            delete(path);
+            path = null;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.cache;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.n52.dlr.osmtovector.engine.ChangeSummary;
+import org.n52.dlr.osmtovector.engine.ElementType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores the results of extractions on disk. The total size of the cache is limited, when
+ * it is exceeded the least recently used entries are removed. The access order survives
+ * restarts as it is tracked by the modification times of the entry files.
+ */
+public class ResultCache {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ResultCache.class);
+
+    private static final long MAGIC = 0x4f534d5456524553L; // "OSMTVRES"
+    // version 2 keys the entries by the tags in the order they were requested
+    private static final int VERSION = 2;
+    private static final String ENTRY_EXTENSION = ".features";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ResultCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (path.getFileName().toString().endsWith(ENTRY_EXTENSION)) {
+                    files.add(path);
+                } else {
+                    // left over from an interrupted write
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+        files.sort(Comparator.comparingLong(ResultCache::lastModified));
+
+        synchronized (this) {
+            for (Path path : files) {
+                try (DataInputStream in = openEntry(path)) {
+                    ResultCacheKey key = readKey(in);
+                    String digest = path.getFileName().toString().replace(ENTRY_EXTENSION, "");
+                    Entry entry = new Entry(key, Files.size(path));
+                    entries.put(digest, entry);
+                    totalBytes += entry.bytes;
+                } catch (IOException e) {
+                    LOGGER.warn("Removing unreadable cache entry " + path, e);
+                    Files.deleteIfExists(path);
+                }
+            }
+            evict();
+        }
+        LOGGER.info("Result cache in {} contains {} entries with {} bytes", directory, entries.size(), totalBytes);
+    }
+
+    /**
+     * @return the cached result, read from disk while it is iterated, or null when there is none
+     */
+    public SimpleFeatureCollection get(ResultCacheKey key) {
+        String digest = key.getDigest();
+        synchronized (this) {
+            if (entries.get(digest) == null) {
+                misses.incrementAndGet();
+                removeOutdated(key);
+                return null;
+            }
+        }
+
+        Path path = entryPath(digest);
+        try {
+            ResultCacheKey entryKey;
+            try (DataInputStream in = openEntry(path)) {
+                entryKey = readKey(in);
+            }
+            SimpleFeatureCollection features = SpooledFeatureCollection.open(path, headerLength(entryKey));
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return features;
+        } catch (NoSuchFileException e) {
+            // evicted in the meantime
+        } catch (IOException e) {
+            LOGGER.warn("Could not read cache entry " + path, e);
+            remove(digest);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(ResultCacheKey key, SimpleFeatureCollection features) throws IOException {
+        String digest = key.getDigest();
+        Path tmpPath = Files.createTempFile(directory, digest, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                writeKey(out, key);
+                FeatureSerializer.write(features, out);
+            }
+
+            long bytes = Files.size(tmpPath);
+            if (bytes > maxBytes) {
+                LOGGER.info("Result of {} bytes exceeds the size of the result cache", bytes);
+                return;
+            }
+
+            synchronized (this) {
+                Files.move(tmpPath, entryPath(digest), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Entry previous = entries.put(digest, new Entry(key, bytes));
+                if (previous != null) {
+                    totalBytes -= previous.bytes;
+                }
+                totalBytes += bytes;
+                removeOutdated(key);
+                evict();
+            }
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getSize() {
+        return totalBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Moves the entries of a dataset which has been updated by applying changes to the new version
+     * of the dataset. Only the entries whose results may be affected by the changes are removed,
+     * the others are rewritten with the new version in their key.
+     */
+    public void applyChanges(Path dataset, long previousSize, long previousModified, long size, long modified,
+                             ChangeSummary changes) {
+        String datasetPath = dataset.toAbsolutePath().toString();
+        List<Map.Entry<String, Entry>> previous = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> mapEntry = iterator.next();
+                ResultCacheKey key = mapEntry.getValue().key;
+                if (key.getDatasetPath().equals(datasetPath) && key.getDatasetSize() == previousSize
+                        && key.getDatasetModified() == previousModified) {
+                    previous.add(new AbstractMap.SimpleEntry<>(mapEntry));
+                    iterator.remove();
+                    totalBytes -= mapEntry.getValue().bytes;
+                }
+            }
+        }
+
+        int kept = 0;
+        for (Map.Entry<String, Entry> mapEntry : previous) {
+            ResultCacheKey key = mapEntry.getValue().key;
+            try {
+                if (!isAffected(key, changes)) {
+                    rewrite(mapEntry.getKey(), key.withDataset(size, modified));
+                    kept++;
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Could not keep cache entry " + mapEntry.getKey() + " for the changed dataset", e);
+            } finally {
+                deleteEntryFile(mapEntry.getKey());
+            }
+        }
+        LOGGER.info("Kept {} of {} cached results of {} for the changed dataset", kept, previous.size(), datasetPath);
+    }
+
+    private static boolean isAffected(ResultCacheKey key, ChangeSummary changes) {
+        ElementType elementType;
+        try {
+            elementType = ElementType.fromName(key.getElementType());
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+        return changes.affects(elementType, key.getTags(), key.getFilterEnvelope());
+    }
+
+    /**
+     * Copies the features of an entry into an entry with another key.
+     */
+    private void rewrite(String digest, ResultCacheKey key) throws IOException {
+        String newDigest = key.getDigest();
+        Path tmpPath = Files.createTempFile(directory, newDigest, ".tmp");
+        try {
+            try (DataInputStream in = openEntry(entryPath(digest));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+                readKey(in);
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                writeKey(out, key);
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            }
+
+            long bytes = Files.size(tmpPath);
+            synchronized (this) {
+                // a request for the new version may have been faster
+                if (!entries.containsKey(newDigest)) {
+                    Files.move(tmpPath, entryPath(newDigest), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    entries.put(newDigest, new Entry(key, bytes));
+                    totalBytes += bytes;
+                    evict();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    /**
+     * Removes the entries which have been created from other versions of the dataset of the key.
+     */
+    private void removeOutdated(ResultCacheKey key) {
+        List<String> outdated = new ArrayList<>();
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            ResultCacheKey entryKey = mapEntry.getValue().key;
+            if (entryKey.getDatasetPath().equals(key.getDatasetPath())
+                    && (entryKey.getDatasetSize() != key.getDatasetSize()
+                    || entryKey.getDatasetModified() != key.getDatasetModified())) {
+                outdated.add(mapEntry.getKey());
+            }
+        }
+        for (String digest : outdated) {
+            remove(digest);
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue().bytes;
+            deleteEntryFile(eldest.getKey());
+        }
+    }
+
+    private synchronized void remove(String digest) {
+        Entry entry = entries.remove(digest);
+        if (entry != null) {
+            totalBytes -= entry.bytes;
+        }
+        deleteEntryFile(digest);
+    }
+
+    private void deleteEntryFile(String digest) {
+        try {
+            Files.deleteIfExists(entryPath(digest));
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete cache entry " + digest, e);
+        }
+    }
+
+    private Path entryPath(String digest) {
+        return directory.resolve(digest + ENTRY_EXTENSION);
+    }
+
+    private static DataInputStream openEntry(Path path) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        try {
+            if (in.readLong() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported cache entry format");
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of bytes in front of the features of an entry
+     */
+    private static long headerLength(ResultCacheKey key) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            writeKey(out, key);
+        }
+        return buffer.size();
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void writeKey(DataOutputStream out, ResultCacheKey key) throws IOException {
+        out.writeUTF(key.getDatasetPath());
+        out.writeLong(key.getDatasetSize());
+        out.writeLong(key.getDatasetModified());
+        out.writeInt(key.getTags().size());
+        for (String tag : key.getTags()) {
+            out.writeUTF(tag);
+        }
+        out.writeUTF(key.getElementType());
+        out.writeUTF(key.getFilterDigest());
+        Envelope envelope = key.getFilterEnvelope();
+        out.writeBoolean(envelope != null);
+        if (envelope != null) {
+            out.writeDouble(envelope.getMinX());
+            out.writeDouble(envelope.getMinY());
+            out.writeDouble(envelope.getMaxX());
+            out.writeDouble(envelope.getMaxY());
+        }
+        out.writeUTF(key.getVariant());
+    }
+
+    private static ResultCacheKey readKey(DataInputStream in) throws IOException {
+        String datasetPath = in.readUTF();
+        long datasetSize = in.readLong();
+        long datasetModified = in.readLong();
+        List<String> tags = new ArrayList<>();
+        int tagCount = in.readInt();
+        for (int i = 0; i < tagCount; i++) {
+            tags.add(in.readUTF());
+        }
+        String elementType = in.readUTF();
+        String filterDigest = in.readUTF();
+        Envelope envelope = null;
+        if (in.readBoolean()) {
+            double minX = in.readDouble();
+            double minY = in.readDouble();
+            double maxX = in.readDouble();
+            double maxY = in.readDouble();
+            envelope = new Envelope(minX, maxX, minY, maxY);
+        }
+        String variant = in.readUTF();
+        return new ResultCacheKey(datasetPath, datasetSize, datasetModified, tags, elementType,
+                filterDigest, envelope, variant);
+    }
+
+    private static class Entry {
+        private final ResultCacheKey key;
+        private final long bytes;
+
+        Entry(ResultCacheKey key, long bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.cache;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.io.WKBWriter;
+import org.n52.dlr.osmtovector.engine.ExtractionQuery;
+import org.n52.dlr.osmtovector.io.DatasetMetadata;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Identifies the result of an extraction. The key covers the version of the dataset file, so
+ * results of outdated datasets are never served.
+ */
+public class ResultCacheKey {
+
+    private final String datasetPath;
+    private final long datasetSize;
+    private final long datasetModified;
+    private final List<String> tags;
+    private final String elementType;
+    private final String filterDigest;
+    private final Envelope filterEnvelope;
+    private final String variant;
+    private String digest;
+
+    ResultCacheKey(String datasetPath, long datasetSize, long datasetModified, List<String> tags,
+                   String elementType, String filterDigest, Envelope filterEnvelope, String variant) {
+        this.datasetPath = datasetPath;
+        this.datasetSize = datasetSize;
+        this.datasetModified = datasetModified;
+        this.tags = tags;
+        this.elementType = elementType;
+        this.filterDigest = filterDigest;
+        this.filterEnvelope = filterEnvelope;
+        this.variant = variant;
+    }
+
+    /**
+     * @param variant distinguishes results which are produced differently from the same query,
+     *                for example by different extraction engines. Limited results are kept apart
+     *                by adding the limit to the variant.
+     */
+    public static ResultCacheKey create(Path dataset, ExtractionQuery query, String variant) throws IOException {
+        return create(dataset, Files.size(dataset), Files.getLastModifiedTime(dataset).toMillis(), query, variant);
+    }
+
+    /**
+     * Creates the key from the file attributes in the metadata of the dataset, e.g. those tracked by the
+     * catalog, instead of reading them from the file.
+     */
+    public static ResultCacheKey create(DatasetMetadata metadata, ExtractionQuery query, String variant) {
+        return create(metadata.getPath(), metadata.getSize(), metadata.getLastModified(), query, variant);
+    }
+
+    private static ResultCacheKey create(Path dataset, long datasetSize, long datasetModified, ExtractionQuery query,
+                                         String variant) {
+        // the attributes of the result follow the order of the tags, so it is part of the key
+        List<String> tags = query.getTags();
+
+        String filterDigest = "";
+        Envelope filterEnvelope = null;
+        if (query.getSpatialFilter() != null) {
+            filterDigest = sha256(new WKBWriter().write(query.getSpatialFilter()));
+            filterEnvelope = query.getSpatialFilter().getEnvelopeInternal();
+        }
+
+        return new ResultCacheKey(
+                dataset.toAbsolutePath().toString(),
+                datasetSize,
+                datasetModified,
+                tags,
+                query.getElementType().getName(),
+                filterDigest,
+                filterEnvelope,
+                query.getMaxFeatures() > 0 ? variant + ";maxFeatures=" + query.getMaxFeatures() : variant
+        );
+    }
+
+    /**
+     * @return the key of the same result from another version of the dataset
+     */
+    ResultCacheKey withDataset(long size, long modified) {
+        return new ResultCacheKey(datasetPath, size, modified, tags, elementType, filterDigest, filterEnvelope, variant);
+    }
+
+    /**
+     * @return the hash identifying the cache entry
+     */
+    public synchronized String getDigest() {
+        if (digest != null) {
+            return digest;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(datasetPath).append('\n')
+                .append(datasetSize).append('\n')
+                .append(datasetModified).append('\n')
+                .append(elementType).append('\n')
+                .append(String.join("\u0000", tags)).append('\n')
+                .append(filterDigest).append('\n')
+                .append(variant);
+        digest = sha256(sb.toString().getBytes(StandardCharsets.UTF_8));
+        return digest;
+    }
+
+    public String getDatasetPath() {
+        return datasetPath;
+    }
+
+    public long getDatasetSize() {
+        return datasetSize;
+    }
+
+    public long getDatasetModified() {
+        return datasetModified;
+    }
+
+    /**
+     * @return the requested tags in the order they were requested
+     */
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public String getElementType() {
+        return elementType;
+    }
+
+    public String getFilterDigest() {
+        return filterDigest;
+    }
+
+    /**
+     * @return the envelope of the spatial filter, or null when the whole dataset was requested
+     */
+    public Envelope getFilterEnvelope() {
+        return filterEnvelope;
+    }
+
+    public String getVariant() {
+        return variant;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ResultCacheKey && ((ResultCacheKey) o).getDigest().equals(getDigest());
+    }
+
+    @Override
+    public int hashCode() {
+        return getDigest().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return elementType + " with tags " + tags + " from " + datasetPath
+                + (filterEnvelope == null ? "" : " within " + filterEnvelope);
+    }
+
+    static String sha256(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Coalesces concurrent executions with the same key: while a call is in progress, further
+ * requests for the same key wait for it and receive its result instead of repeating the work.
+ */
+public class SingleFlight<K, V> {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(SingleFlight.class);
+
+    public interface Call<V> {
+        V call() throws IOException;
+    }
+
+    private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public V execute(K key, Call<V> call) throws IOException {
+        return execute(key, call, value -> value);
+    }
+
+    /**
+     * @param share creates the value handed to each attached request from the result, e.g. so every
+     *              request owns a reference to resources it has to release
+     */
+    public V execute(K key, Call<V> call, UnaryOperator<V> share) throws IOException {
+        Flight<V> flight = new Flight<>();
+        while (true) {
+            Flight<V> existing = flights.putIfAbsent(key, flight);
+            if (existing == null) {
+                break;
+            }
+            if (existing.attach()) {
+                coalescedCount.incrementAndGet();
+                LOGGER.debug("attaching to the execution in progress for {}", key);
+                return existing.await();
+            }
+            // the execution has just completed, so this request starts the next one
+        }
+
+        V value;
+        try {
+            value = call.call();
+        } catch (IOException | RuntimeException e) {
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        flights.remove(key, flight);
+        int attached = flight.complete(value, share);
+        if (attached > 0) {
+            LOGGER.info("{} concurrent requests were served by the execution for {}", attached, key);
+        }
+        return value;
+    }
+
+    /**
+     * @return number of requests which have been served by the execution of another request
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return number of executions currently in progress
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    private static class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private final Queue<V> shares = new ConcurrentLinkedQueue<>();
+        private int attached = 0;
+        private boolean completed = false;
+
+        /**
+         * @return false when the result has already been shared, so no further requests may attach
+         */
+        synchronized boolean attach() {
+            if (completed) {
+                return false;
+            }
+            attached++;
+            return true;
+        }
+
+        /**
+         * @return the number of attached requests
+         */
+        int complete(V value, UnaryOperator<V> share) {
+            int count;
+            synchronized (this) {
+                completed = true;
+                count = attached;
+            }
+            try {
+                for (int i = 0; i < count; i++) {
+                    shares.add(share.apply(value));
+                }
+                result.complete(value);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return count;
+        }
+
+        V await() throws IOException {
+            try {
+                result.get();
+                return shares.poll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for an identical request");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.cache;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.AbstractFeatureCollection;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Feature collection reading its features from a file written by {@link FeatureSerializer}
+ * whenever it is iterated, so only the features currently in use are held in memory. Each
+ * iteration opens the file itself, so the collection can be iterated any number of times as
+ * long as the file exists and keeps no file open in between. The file belongs to its writer:
+ * spooled results are deleted by {@link FeatureSpool#deleteExpired}, cache entries by the cache.
+ */
+public class SpooledFeatureCollection extends AbstractFeatureCollection {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(SpooledFeatureCollection.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final long offset;
+    private int size;
+    private ReferencedEnvelope bounds;
+
+    private SpooledFeatureCollection(SimpleFeatureType featureType, Path path, long offset, int size,
+                                     Envelope bounds) {
+        super(featureType);
+        this.path = path;
+        this.offset = offset;
+        this.size = size;
+        this.bounds = bounds == null ? null : new ReferencedEnvelope(bounds, featureType.getCoordinateReferenceSystem());
+    }
+
+    /**
+     * Opens the features written at the offset of the file. The size and bounds are computed on first use.
+     */
+    public static SpooledFeatureCollection open(Path path, long offset) throws IOException {
+        return open(path, offset, -1, null);
+    }
+
+    static SpooledFeatureCollection open(Path path, long offset, int size, Envelope bounds) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            SimpleFeatureType featureType = newReader(channel, offset, null).getFeatureType();
+            return new SpooledFeatureCollection(featureType, path, offset, size, bounds);
+        }
+    }
+
+    private static FeatureSerializer.Reader newReader(FileChannel channel, long offset, SimpleFeatureType featureType)
+            throws IOException {
+        channel.position(offset);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel), BUFFER_SIZE));
+        return new FeatureSerializer.Reader(in, featureType);
+    }
+
+    /**
+     * @return the file the features are read from
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the position of the features in the file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        return iterator();
+    }
+
+    @Override
+    protected Iterator<SimpleFeature> openIterator() {
+        return iterator();
+    }
+
+    private SpoolIterator iterator() {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            return new SpoolIterator(channel, newReader(channel, offset, getSchema()));
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized void iterationCompleted(SpoolIterator iterator) {
+        if (size < 0) {
+            size = iterator.count;
+            bounds = new ReferencedEnvelope(iterator.envelope, getSchema().getCoordinateReferenceSystem());
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        if (size < 0) {
+            computeSizeAndBounds();
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized ReferencedEnvelope getBounds() {
+        if (bounds == null) {
+            computeSizeAndBounds();
+        }
+        return bounds;
+    }
+
+    private void computeSizeAndBounds() {
+        SpoolIterator iterator = iterator();
+        try {
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+        } finally {
+            iterator.close();
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug("could not close the spooled features", e);
+            }
+        }
+    }
+
+    /**
+     * Iterates the features. It keeps the file open until it has been read to the end or closed.
+     * The size and bounds are taken from the first complete iteration.
+     */
+    private class SpoolIterator implements Iterator<SimpleFeature>, SimpleFeatureIterator {
+        private final FileChannel channel;
+        private final FeatureSerializer.Reader reader;
+        private final Envelope envelope = new Envelope();
+        private int count = 0;
+        private SimpleFeature next;
+        private boolean ended = false;
+
+        SpoolIterator(FileChannel channel, FeatureSerializer.Reader reader) {
+            this.channel = channel;
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !ended) {
+                try {
+                    next = reader.next();
+                } catch (IOException e) {
+                    close();
+                    throw new UncheckedIOException(e);
+                }
+                if (next == null) {
+                    close();
+                    iterationCompleted(this);
+                } else {
+                    count++;
+                    if (next.getDefaultGeometry() != null) {
+                        envelope.expandToInclude(((Geometry) next.getDefaultGeometry()).getEnvelopeInternal());
+                    }
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public SimpleFeature next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SimpleFeature feature = next;
+            next = null;
+            return feature;
+        }
+
+        @Override
+        public void close() {
+            if (!ended) {
+                ended = true;
+                closeQuietly(channel);
+            }
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes the data blobs of a PBF file: their position, which kinds of elements they
+ * contain, the keys of the tags used in them and - for nodes - their id range and bounding
+ * box. This allows to read only the blobs which can contribute to an extraction.
+ */
+public class BlobIndex {
+
+    private static final long MAGIC = 0x4f534d5456494458L; // "OSMTVIDX"
+    private static final int VERSION = 2;
+
+    private static final int FLAG_NODES = 1;
+    private static final int FLAG_WAYS = 2;
+    private static final int FLAG_RELATIONS = 4;
+
+    private final long datasetSize;
+    private final long datasetModified;
+    private final List<Entry> entries;
+
+    public BlobIndex(long datasetSize, long datasetModified, List<Entry> entries) {
+        this.datasetSize = datasetSize;
+        this.datasetModified = datasetModified;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return true when the index has been built for the current version of the dataset
+     */
+    public boolean isValidFor(Path dataset) throws IOException {
+        return isValidFor(Files.size(dataset), Files.getLastModifiedTime(dataset).toMillis());
+    }
+
+    /**
+     * @return true when the index has been built for a version of the dataset with the given size and
+     * modification time in milliseconds
+     */
+    public boolean isValidFor(long size, long lastModified) {
+        return size == datasetSize && lastModified == datasetModified;
+    }
+
+    /**
+     * @param envelope area the nodes have to be located in, or null
+     * @param tags keys of the tags of which the nodes need to have at least one, or an empty
+     *             list when any tagged node is wanted
+     */
+    public List<Entry> getNodeEntries(Envelope envelope, Collection<String> tags) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.hasNodes() && entry.containsAnyTag(tags)
+                    && (envelope == null || envelope.intersects(entry.getNodeEnvelope()))) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the blobs which may contain nodes of the store
+     */
+    public List<Entry> getNodeEntries(NodeLocationStore nodes) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.hasNodes() && nodes.containsAnyNode(entry.getMinNodeId(), entry.getMaxNodeId())) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param tags keys of the tags of which the ways need to have at least one, or an empty
+     *             list when any tagged way is wanted
+     */
+    public List<Entry> getWayEntries(Collection<String> tags) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.hasWays() && entry.containsAnyTag(tags)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the blobs with ways, including untagged ones
+     */
+    public List<Entry> getWayEntries() {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.hasWays()) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The tags of relations are not indexed, so all blobs with relations are returned.
+     */
+    public List<Entry> getRelationEntries() {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.hasRelations()) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public static BlobIndex build(Path dataset, ParallelBlockReader reader) throws IOException {
+        return build(dataset, reader, Collections.emptyMap());
+    }
+
+    /**
+     * Builds the index of a dataset of which some blobs are already described by the given entries.
+     * Only the other blobs are decoded.
+     *
+     * @param knownEntries entries by the offset of their blob in the dataset
+     */
+    static BlobIndex build(Path dataset, ParallelBlockReader reader, Map<Long, Entry> knownEntries) throws IOException {
+        long size = Files.size(dataset);
+        long modified = Files.getLastModifiedTime(dataset).toMillis();
+        List<Entry> entries = new ArrayList<>();
+        Map<String, String> keyDictionary = new HashMap<>();
+
+        try (PbfFile file = new PbfFile(dataset)) {
+            file.readHeader();
+            reader.read(file, blob -> {
+                Entry known = knownEntries.get(blob.getOffset());
+                if (known != null) {
+                    return known;
+                }
+                PrimitiveBlock block = PrimitiveBlock.decode(blob.decompress(), true, true);
+                Entry entry = new Entry(blob.getOffset(), blob.getLength());
+                for (OsmNode node : block.getNodes()) {
+                    addTagKeys(entry, node);
+                }
+                for (OsmWay way : block.getWays()) {
+                    addTagKeys(entry, way);
+                }
+                if (!block.getNodes().isEmpty()) {
+                    entry.flags |= FLAG_NODES;
+                    entry.minNodeId = Long.MAX_VALUE;
+                    entry.maxNodeId = Long.MIN_VALUE;
+                    for (OsmNode node : block.getNodes()) {
+                        entry.minNodeId = Math.min(entry.minNodeId, node.getId());
+                        entry.maxNodeId = Math.max(entry.maxNodeId, node.getId());
+                        entry.nodeEnvelope.expandToInclude(node.getLon(), node.getLat());
+                    }
+                }
+                if (block.getWayCount() > 0) {
+                    entry.flags |= FLAG_WAYS;
+                }
+                if (block.getRelationCount() > 0) {
+                    entry.flags |= FLAG_RELATIONS;
+                }
+                return entry;
+            }, entry -> {
+                // let all entries share the same string instances
+                Set<String> tagKeys = new HashSet<>();
+                for (String key : entry.tagKeys) {
+                    String existing = keyDictionary.putIfAbsent(key, key);
+                    tagKeys.add(existing == null ? key : existing);
+                }
+                entry.tagKeys = tagKeys;
+                entries.add(entry);
+            });
+        }
+        return new BlobIndex(size, modified, entries);
+    }
+
+    private static void addTagKeys(Entry entry, OsmEntity entity) {
+        for (int i = 0; i < entity.getTagCount(); i++) {
+            entry.tagKeys.add(entity.getTagKey(i));
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(datasetSize);
+            out.writeLong(datasetModified);
+
+            Map<String, Integer> keyIds = new HashMap<>();
+            for (Entry entry : entries) {
+                for (String key : entry.tagKeys) {
+                    keyIds.putIfAbsent(key, keyIds.size());
+                }
+            }
+            String[] keys = new String[keyIds.size()];
+            for (Map.Entry<String, Integer> keyId : keyIds.entrySet()) {
+                keys[keyId.getValue()] = keyId.getKey();
+            }
+            out.writeInt(keys.length);
+            for (String key : keys) {
+                out.writeUTF(key);
+            }
+
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeLong(entry.offset);
+                out.writeInt(entry.length);
+                out.writeByte(entry.flags);
+                out.writeInt(entry.tagKeys.size());
+                for (String key : entry.tagKeys) {
+                    out.writeInt(keyIds.get(key));
+                }
+                if (entry.hasNodes()) {
+                    out.writeLong(entry.minNodeId);
+                    out.writeLong(entry.maxNodeId);
+                    out.writeDouble(entry.nodeEnvelope.getMinX());
+                    out.writeDouble(entry.nodeEnvelope.getMinY());
+                    out.writeDouble(entry.nodeEnvelope.getMaxX());
+                    out.writeDouble(entry.nodeEnvelope.getMaxY());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the index stored in the file, or null when it has been written by an incompatible version
+     */
+    public static BlobIndex read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readLong() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long size = in.readLong();
+            long modified = in.readLong();
+
+            String[] keys = new String[in.readInt()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = in.readUTF();
+            }
+
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readLong(), in.readInt());
+                entry.flags = in.readByte();
+                int keyCount = in.readInt();
+                for (int k = 0; k < keyCount; k++) {
+                    entry.tagKeys.add(keys[in.readInt()]);
+                }
+                if (entry.hasNodes()) {
+                    entry.minNodeId = in.readLong();
+                    entry.maxNodeId = in.readLong();
+                    double minX = in.readDouble();
+                    double minY = in.readDouble();
+                    double maxX = in.readDouble();
+                    double maxY = in.readDouble();
+                    entry.nodeEnvelope.init(minX, maxX, minY, maxY);
+                }
+                entries.add(entry);
+            }
+            return new BlobIndex(size, modified, entries);
+        }
+    }
+
+    public static class Entry {
+        private final long offset;
+        private final int length;
+        private int flags = 0;
+        private long minNodeId;
+        private long maxNodeId;
+        private final Envelope nodeEnvelope = new Envelope();
+        private Set<String> tagKeys = new HashSet<>();
+
+        Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public boolean hasNodes() {
+            return (flags & FLAG_NODES) != 0;
+        }
+
+        public boolean hasWays() {
+            return (flags & FLAG_WAYS) != 0;
+        }
+
+        public boolean hasRelations() {
+            return (flags & FLAG_RELATIONS) != 0;
+        }
+
+        long getMinNodeId() {
+            return minNodeId;
+        }
+
+        long getMaxNodeId() {
+            return maxNodeId;
+        }
+
+        public Envelope getNodeEnvelope() {
+            return nodeEnvelope;
+        }
+
+        /**
+         * @return the keys of all tags used by the elements of the blob
+         */
+        public Set<String> getTagKeys() {
+            return Collections.unmodifiableSet(tagKeys);
+        }
+
+        boolean containsAnyTag(Collection<String> keys) {
+            if (keys.isEmpty()) {
+                return !tagKeys.isEmpty();
+            }
+            for (String key : keys) {
+                if (tagKeys.contains(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return a copy of the entry for the same blob at another position
+         */
+        Entry moveTo(long newOffset, int newLength) {
+            Entry entry = new Entry(newOffset, newLength);
+            entry.flags = flags;
+            entry.minNodeId = minNodeId;
+            entry.maxNodeId = maxNodeId;
+            entry.nodeEnvelope.init(nodeEnvelope);
+            entry.tagKeys = tagKeys;
+            return entry;
+        }
+
+        boolean containsAnyNode(long[] sortedIds) {
+            int pos = Arrays.binarySearch(sortedIds, minNodeId);
+            if (pos >= 0) {
+                return true;
+            }
+            int insertion = -pos - 1;
+            return insertion < sortedIds.length && sortedIds[insertion] <= maxNodeId;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Applies an {@link OsmChange} to a dataset by writing a merged copy of it. Blobs without changed
+ * elements are copied without being encoded again. With an index of the dataset, blobs of nodes
+ * outside of the id ranges of the changed nodes are not even decoded, and their index entries
+ * are reused for the index of the copy.
+ */
+public class ChangeMerger {
+
+    private static final String WRITING_PROGRAM = "osmtovector";
+
+    private final ParallelBlockReader blockReader;
+
+    public ChangeMerger(ParallelBlockReader blockReader) {
+        this.blockReader = blockReader;
+    }
+
+    /**
+     * @param index index of the dataset, may be null
+     * @return the parts of the dataset touched by the change, together with the index of the target
+     */
+    public ChangeSummary merge(Path dataset, BlobIndex index, OsmChange change, Path target) throws IOException {
+        Merge merge = new Merge(change);
+        try (PbfFile file = new PbfFile(dataset)) {
+            PbfHeader header = file.readHeader();
+            try (PbfWriter writer = new PbfWriter(target, header.getBBox(), WRITING_PROGRAM,
+                    header.getReplicationTimestamp())) {
+                merge.writer = writer;
+                Map<Long, BlobIndex.Entry> entries = new HashMap<>();
+                if (index != null) {
+                    for (BlobIndex.Entry entry : index.getEntries()) {
+                        entries.put(entry.getOffset(), entry);
+                    }
+                }
+                blockReader.read(file, blob -> {
+                    BlobIndex.Entry entry = entries.get(blob.getOffset());
+                    if (entry != null && entry.hasNodes() && !entry.hasWays() && !entry.hasRelations()
+                            && !entry.containsAnyNode(merge.nodeIds)) {
+                        return new MergeBlock(blob, null, entry);
+                    }
+                    return new MergeBlock(blob, PrimitiveBlock.decode(blob.decompress(), true, true, true), null);
+                }, merge::accept);
+                merge.finish();
+            }
+            merge.summarizeWays(file, index, blockReader);
+        }
+        merge.summary.setIndex(BlobIndex.build(target, blockReader, merge.knownEntries));
+        return merge.summary;
+    }
+
+    private static class MergeBlock {
+        private final PbfBlob blob;
+        // null when the blob is copied without being decoded
+        private final PrimitiveBlock block;
+        private final BlobIndex.Entry entry;
+
+        MergeBlock(PbfBlob blob, PrimitiveBlock block, BlobIndex.Entry entry) {
+            this.blob = blob;
+            this.block = block;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * The state of a merge. The changed elements of each kind are written in the order of their
+     * ids, each one before the first element of the dataset with a larger id, replacing the
+     * element with the same id.
+     */
+    private static class Merge {
+        private final OsmChange change;
+        private final long[] nodeIds;
+        private final long[] wayIds;
+        private final long[] relationIds;
+        private int nodeCursor = 0;
+        private int wayCursor = 0;
+        private int relationCursor = 0;
+        private PbfWriter writer;
+
+        // the versions of the changed nodes in the dataset
+        private final Map<Long, OsmNode> oldNodes = new HashMap<>();
+        private long[] movedNodes;
+        // the ways changed directly or by moving their nodes, before and after the change
+        private final List<OsmWay> oldWays = new ArrayList<>();
+        private final List<OsmWay> newWays = new ArrayList<>();
+
+        private final Map<Long, BlobIndex.Entry> knownEntries = new HashMap<>();
+        private final ChangeSummary summary = new ChangeSummary();
+
+        Merge(OsmChange change) {
+            this.change = change;
+            this.nodeIds = keys(change.getNodes());
+            this.wayIds = keys(change.getWays());
+            this.relationIds = keys(change.getRelations());
+        }
+
+        private static long[] keys(NavigableMap<Long, ?> elements) {
+            long[] ids = new long[elements.size()];
+            int i = 0;
+            for (Long id : elements.keySet()) {
+                ids[i++] = id;
+            }
+            return ids;
+        }
+
+        void accept(MergeBlock mergeBlock) throws IOException {
+            if (mergeBlock.block == null) {
+                emitNodesBefore(mergeBlock.entry.getMinNodeId());
+                long offset = writer.copy(mergeBlock.blob);
+                knownEntries.put(offset, mergeBlock.entry.moveTo(offset, (int) (writer.getPosition() - offset)));
+                return;
+            }
+
+            List<OsmNode> nodes = mergeBlock.block.getNodes();
+            List<OsmWay> ways = mergeBlock.block.getWays();
+            List<OsmRelation> relations = mergeBlock.block.getRelations();
+            boolean mixed = (nodes.isEmpty() ? 0 : 1) + (ways.isEmpty() ? 0 : 1) + (relations.isEmpty() ? 0 : 1) > 1;
+            if (!mixed && !hasPendingChanges(nodes, nodeIds, nodeCursor)
+                    && !hasPendingChanges(ways, wayIds, wayCursor)
+                    && !hasPendingChanges(relations, relationIds, relationCursor)) {
+                if (!nodes.isEmpty()) {
+                    emitNodesBefore(nodes.get(0).getId());
+                } else if (!ways.isEmpty()) {
+                    finishNodes();
+                    emitWaysBefore(ways.get(0).getId());
+                    for (OsmWay way : ways) {
+                        addIfMoved(way);
+                    }
+                } else if (!relations.isEmpty()) {
+                    finishNodes();
+                    emitWaysBefore(Long.MAX_VALUE);
+                    emitRelationsBefore(relations.get(0).getId());
+                }
+                writer.copy(mergeBlock.blob);
+                return;
+            }
+
+            for (OsmNode node : nodes) {
+                emitNodesBefore(node.getId());
+                handleNode(node);
+            }
+            if (!ways.isEmpty() || !relations.isEmpty()) {
+                finishNodes();
+            }
+            for (OsmWay way : ways) {
+                emitWaysBefore(way.getId());
+                handleWay(way);
+            }
+            if (!relations.isEmpty()) {
+                emitWaysBefore(Long.MAX_VALUE);
+            }
+            for (OsmRelation relation : relations) {
+                emitRelationsBefore(relation.getId());
+                handleRelation(relation);
+            }
+        }
+
+        /**
+         * @return true when a changed element which has not been written yet is within the id range of the elements
+         */
+        private static boolean hasPendingChanges(List<? extends OsmEntity> elements, long[] ids, int cursor) {
+            if (elements.isEmpty() || cursor == ids.length) {
+                return false;
+            }
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (OsmEntity element : elements) {
+                min = Math.min(min, element.getId());
+                max = Math.max(max, element.getId());
+            }
+            int pos = Arrays.binarySearch(ids, cursor, ids.length, min);
+            int first = pos >= 0 ? pos : -pos - 1;
+            return first < ids.length && ids[first] <= max;
+        }
+
+        void finish() throws IOException {
+            finishNodes();
+            emitWaysBefore(Long.MAX_VALUE);
+            emitRelationsBefore(Long.MAX_VALUE);
+        }
+
+        /**
+         * Writes the remaining changed nodes and determines the nodes whose location has changed,
+         * which is known once all nodes of the dataset have been seen.
+         */
+        private void finishNodes() throws IOException {
+            if (movedNodes != null) {
+                return;
+            }
+            emitNodesBefore(Long.MAX_VALUE);
+            LongArray moved = new LongArray();
+            for (Map.Entry<Long, OsmNode> changed : change.getNodes().entrySet()) {
+                OsmNode oldNode = oldNodes.get(changed.getKey());
+                OsmNode newNode = changed.getValue();
+                if (oldNode == null ? newNode != null : newNode == null
+                        || oldNode.getLat() != newNode.getLat() || oldNode.getLon() != newNode.getLon()) {
+                    moved.add(changed.getKey());
+                }
+            }
+            movedNodes = moved.toSortedUniqueArray();
+        }
+
+        private void emitNodesBefore(long id) throws IOException {
+            while (nodeCursor < nodeIds.length && nodeIds[nodeCursor] < id) {
+                OsmNode node = change.getNodes().get(nodeIds[nodeCursor++]);
+                if (node != null) {
+                    writer.write(node);
+                    summary.addNode(node);
+                    summary.countChange();
+                }
+            }
+        }
+
+        private void emitWaysBefore(long id) throws IOException {
+            while (wayCursor < wayIds.length && wayIds[wayCursor] < id) {
+                OsmWay way = change.getWays().get(wayIds[wayCursor++]);
+                if (way != null) {
+                    writer.write(way);
+                    newWays.add(way);
+                    summary.countChange();
+                }
+            }
+        }
+
+        private void emitRelationsBefore(long id) throws IOException {
+            while (relationCursor < relationIds.length && relationIds[relationCursor] < id) {
+                OsmRelation relation = change.getRelations().get(relationIds[relationCursor++]);
+                if (relation != null) {
+                    writer.write(relation);
+                    summary.addRelation(relation);
+                    summary.countChange();
+                }
+            }
+        }
+
+        // a changed element which has already been written, as the dataset is not sorted, replaces the old one as well
+        private void handleNode(OsmNode node) throws IOException {
+            if (!change.getNodes().containsKey(node.getId())) {
+                writer.write(node);
+                return;
+            }
+            oldNodes.put(node.getId(), node);
+            summary.addNode(node);
+            summary.countChange();
+            if (nodeCursor < nodeIds.length && nodeIds[nodeCursor] == node.getId()) {
+                OsmNode newNode = change.getNodes().get(nodeIds[nodeCursor++]);
+                if (newNode != null) {
+                    writer.write(newNode);
+                    summary.addNode(newNode);
+                }
+            }
+        }
+
+        private void handleWay(OsmWay way) throws IOException {
+            if (!change.getWays().containsKey(way.getId())) {
+                writer.write(way);
+                addIfMoved(way);
+                return;
+            }
+            oldWays.add(way);
+            summary.countChange();
+            if (wayCursor < wayIds.length && wayIds[wayCursor] == way.getId()) {
+                OsmWay newWay = change.getWays().get(wayIds[wayCursor++]);
+                if (newWay != null) {
+                    writer.write(newWay);
+                    newWays.add(newWay);
+                }
+            }
+        }
+
+        private void handleRelation(OsmRelation relation) throws IOException {
+            if (!change.getRelations().containsKey(relation.getId())) {
+                writer.write(relation);
+                return;
+            }
+            summary.addRelation(relation);
+            summary.countChange();
+            if (relationCursor < relationIds.length && relationIds[relationCursor] == relation.getId()) {
+                OsmRelation newRelation = change.getRelations().get(relationIds[relationCursor++]);
+                if (newRelation != null) {
+                    writer.write(newRelation);
+                    summary.addRelation(newRelation);
+                }
+            }
+        }
+
+        private void addIfMoved(OsmWay way) {
+            if (movedNodes.length == 0) {
+                return;
+            }
+            for (long ref : way.getRefs()) {
+                if (Arrays.binarySearch(movedNodes, ref) >= 0) {
+                    oldWays.add(way);
+                    newWays.add(way);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Adds the bounding boxes of the changed ways before and after the change to the summary.
+         * The unchanged nodes have the same location before and after the change, they are read
+         * from the dataset.
+         */
+        void summarizeWays(PbfFile file, BlobIndex index, ParallelBlockReader blockReader) throws IOException {
+            if (oldWays.isEmpty() && newWays.isEmpty()) {
+                return;
+            }
+            LongArray refs = new LongArray();
+            for (List<OsmWay> ways : Arrays.asList(oldWays, newWays)) {
+                for (OsmWay way : ways) {
+                    for (long ref : way.getRefs()) {
+                        if (!change.getNodes().containsKey(ref)) {
+                            refs.add(ref);
+                        }
+                    }
+                }
+            }
+            long[] sortedRefs = refs.toSortedUniqueArray();
+            try (NodeLocationStore locations = new SparseNodeLocationStore(sortedRefs)) {
+                if (sortedRefs.length > 0) {
+                    file.rewind();
+                    ParallelBlockReader.BlockTask<PrimitiveBlock> task =
+                            blob -> PrimitiveBlock.decode(blob.decompress(), true, false);
+                    ParallelBlockReader.BlockConsumer<PrimitiveBlock> consumer = block -> {
+                        for (OsmNode node : block.getNodes()) {
+                            locations.put(node.getId(), node.getLon(), node.getLat());
+                        }
+                    };
+                    if (index != null) {
+                        blockReader.read(file, index.getNodeEntries(locations), task, consumer);
+                    } else {
+                        blockReader.read(file, task, consumer);
+                    }
+                }
+                for (OsmWay way : oldWays) {
+                    summary.addWay(way, envelope(way, locations, oldNodes));
+                }
+                for (OsmWay way : newWays) {
+                    summary.addWay(way, envelope(way, locations, change.getNodes()));
+                }
+            }
+        }
+
+        private Envelope envelope(OsmWay way, NodeLocationStore locations, Map<Long, OsmNode> versions)
+                throws IOException {
+            Envelope envelope = new Envelope();
+            for (long ref : way.getRefs()) {
+                if (change.getNodes().containsKey(ref)) {
+                    OsmNode node = versions.get(ref);
+                    if (node != null) {
+                        envelope.expandToInclude(node.getLon(), node.getLat());
+                    }
+                } else {
+                    Coordinate coordinate = locations.get(ref);
+                    if (coordinate != null) {
+                        envelope.expandToInclude(coordinate);
+                    }
+                }
+            }
+            return envelope;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes which parts of a dataset have been touched by applying an {@link OsmChange}: per tag
+ * key the bounding box of the old and new versions of the changed nodes and ways, the bounding
+ * box of all changed ways and the tag keys of the changed relations. Ways count as changed when
+ * one of their nodes has been moved, created or deleted. Results of extractions which are not
+ * affected are the same before and after the change.
+ */
+public class ChangeSummary {
+
+    private final Map<String, Envelope> nodeKeys = new HashMap<>();
+    private final Map<String, Envelope> wayKeys = new HashMap<>();
+    private final Envelope wayEnvelope = new Envelope();
+    private final Set<String> relationKeys = new HashSet<>();
+    private long changedElements = 0;
+    private BlobIndex index;
+
+    void addNode(OsmNode node) {
+        for (int i = 0; i < node.getTagCount(); i++) {
+            nodeKeys.computeIfAbsent(node.getTagKey(i), k -> new Envelope()).expandToInclude(node.getLon(), node.getLat());
+        }
+    }
+
+    void addWay(OsmWay way, Envelope envelope) {
+        if (envelope.isNull()) {
+            return;
+        }
+        for (int i = 0; i < way.getTagCount(); i++) {
+            wayKeys.computeIfAbsent(way.getTagKey(i), k -> new Envelope()).expandToInclude(envelope);
+        }
+        wayEnvelope.expandToInclude(envelope);
+    }
+
+    void addRelation(OsmRelation relation) {
+        for (int i = 0; i < relation.getTagCount(); i++) {
+            relationKeys.add(relation.getTagKey(i));
+        }
+    }
+
+    void countChange() {
+        changedElements++;
+    }
+
+    void setIndex(BlobIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @param tags requested tag keys, an empty collection for any tagged element
+     * @param envelope envelope of the spatial filter, or null for the whole dataset
+     * @return true when the result of an extraction may differ after the change
+     */
+    public boolean affects(ElementType elementType, Collection<String> tags, Envelope envelope) {
+        switch (elementType) {
+            case NODES:
+                return affects(nodeKeys, tags, envelope);
+            case WAYS:
+                return affects(wayKeys, tags, envelope);
+            default:
+                // the member ways of multipolygons are usually untagged
+                return (!wayEnvelope.isNull() && (envelope == null || envelope.intersects(wayEnvelope)))
+                        || (tags.isEmpty() ? !relationKeys.isEmpty() : containsAny(relationKeys, tags));
+        }
+    }
+
+    /**
+     * @return true when nodes or ways with any of the tag keys have been changed
+     */
+    public boolean affectsTags(Collection<String> tags) {
+        return affects(nodeKeys, tags, null) || affects(wayKeys, tags, null);
+    }
+
+    private static boolean affects(Map<String, Envelope> keys, Collection<String> tags, Envelope envelope) {
+        Collection<String> candidates = tags.isEmpty() ? keys.keySet() : tags;
+        for (String key : candidates) {
+            Envelope touched = keys.get(key);
+            if (touched != null && (envelope == null || envelope.intersects(touched))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsAny(Set<String> keys, Collection<String> tags) {
+        for (String tag : tags) {
+            if (keys.contains(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of elements which have been created, modified or deleted
+     */
+    public long getChangedElementCount() {
+        return changedElements;
+    }
+
+    /**
+     * @return the index of the merged dataset
+     */
+    public BlobIndex getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the locations off the heap in a memory-mapped file addressed by node id. The file is
+ * sparse, so only the pages holding requested nodes take up memory and disk space. The requested
+ * nodes are marked in the file itself, no list of their ids is kept.
+ */
+class DenseNodeLocationStore extends NodeLocationStore {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(DenseNodeLocationStore.class);
+
+    // a single mapping is limited to 2 GB
+    private static final int CHUNK_SHIFT = 27;
+    private static final long CHUNK_NODES = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_NODES - 1;
+
+    // one bit per range of ids holding requested nodes, so unrequested ranges are never touched
+    private static final int RANGE_SHIFT = 12;
+
+    // marks requested nodes until their location is stored, it never is a packed location
+    private static final long REQUESTED = Long.MIN_VALUE;
+
+    private static final Unmapper UNMAPPER = createUnmapper();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final BitSet requestedRanges = new BitSet();
+    // OSM does not use negative ids, but editors do for new elements
+    private final Map<Long, Long> negativeNodes = new HashMap<>();
+    private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private int nodeCount = 0;
+
+    DenseNodeLocationStore(Path workDirectory) throws IOException {
+        this.path = Files.createTempFile(workDirectory, "osmtovector-nodes", ".bin");
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        LOGGER.debug("storing node locations in {}", path);
+    }
+
+    /**
+     * @param map maps the chunk of the node when it has not been mapped yet, otherwise null is
+     *            returned for it
+     */
+    private MappedByteBuffer chunk(long id, boolean map) throws IOException {
+        if (chunks == null) {
+            throw new IOException("The node location store " + path + " has been closed");
+        }
+        int c = (int) (id >> CHUNK_SHIFT);
+        if (c >= chunks.length) {
+            if (!map) {
+                return null;
+            }
+            chunks = Arrays.copyOf(chunks, c + 1);
+        }
+        MappedByteBuffer chunk = chunks[c];
+        if (chunk == null && map) {
+            // mapping beyond the end of the file extends it without allocating its pages
+            chunk = channel.map(FileChannel.MapMode.READ_WRITE, c * CHUNK_NODES * Long.BYTES, CHUNK_NODES * Long.BYTES);
+            chunks[c] = chunk;
+        }
+        return chunk;
+    }
+
+    private static int position(long id) {
+        return (int) (id & CHUNK_MASK) * Long.BYTES;
+    }
+
+    private boolean inRequestedRange(long id) {
+        long range = id >> RANGE_SHIFT;
+        return range <= Integer.MAX_VALUE && requestedRanges.get((int) range);
+    }
+
+    void request(long id) throws IOException {
+        if (id < 0) {
+            if (negativeNodes.putIfAbsent(id, REQUESTED) == null) {
+                nodeCount++;
+            }
+            return;
+        }
+        if (id >> RANGE_SHIFT > Integer.MAX_VALUE) {
+            throw new IOException("Node id " + id + " exceeds the range of the node location store");
+        }
+        MappedByteBuffer chunk = chunk(id, true);
+        int position = position(id);
+        if (chunk.getLong(position) == 0) {
+            chunk.putLong(position, REQUESTED);
+            requestedRanges.set((int) (id >> RANGE_SHIFT));
+            nodeCount++;
+        }
+    }
+
+    @Override
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public void put(long id, double lon, double lat) throws IOException {
+        if (id < 0) {
+            if (negativeNodes.containsKey(id)) {
+                negativeNodes.put(id, pack(lon, lat));
+            }
+            return;
+        }
+        if (!inRequestedRange(id)) {
+            return;
+        }
+        MappedByteBuffer chunk = chunk(id, false);
+        int position = position(id);
+        if (chunk != null && chunk.getLong(position) != 0) {
+            chunk.putLong(position, pack(lon, lat));
+        }
+    }
+
+    @Override
+    protected long load(long id) throws IOException {
+        long packed = 0;
+        if (id < 0) {
+            packed = negativeNodes.getOrDefault(id, 0L);
+        } else if (inRequestedRange(id)) {
+            MappedByteBuffer chunk = chunk(id, false);
+            packed = chunk == null ? 0 : chunk.getLong(position(id));
+        }
+        return packed == REQUESTED ? 0 : packed;
+    }
+
+    @Override
+    boolean containsAnyNode(long minId, long maxId) {
+        if (minId < 0) {
+            for (long id : negativeNodes.keySet()) {
+                if (id >= minId && id <= maxId) {
+                    return true;
+                }
+            }
+        }
+        if (maxId < 0) {
+            return false;
+        }
+        long first = Math.max(0, minId) >> RANGE_SHIFT;
+        int next = first > Integer.MAX_VALUE ? -1 : requestedRanges.nextSetBit((int) first);
+        return next >= 0 && next <= maxId >> RANGE_SHIFT;
+    }
+
+    @Override
+    public void close() throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        chunks = null;
+        if (mapped != null) {
+            for (MappedByteBuffer chunk : mapped) {
+                if (chunk != null) {
+                    unmap(chunk);
+                }
+            }
+        }
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Releases the mapping right away instead of when the garbage collector finds the buffer, so
+     * the memory and the space of the deleted file are returned after each extraction. The buffer
+     * must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (UNMAPPER == null) {
+            return;
+        }
+        try {
+            UNMAPPER.unmap(buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.debug("Could not unmap the node locations, leaving them to the garbage collector", e);
+        }
+    }
+
+    private interface Unmapper {
+        void unmap(MappedByteBuffer buffer) throws ReflectiveOperationException;
+    }
+
+    /**
+     * @return the cleaner of the JVM, or null when it is not accessible
+     */
+    private static Unmapper createUnmapper() {
+        try {
+            // Java 9 and later, where the cleaner of the buffer is no longer accessible
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                Object bufferCleaner = cleaner.invoke(buffer);
+                if (bufferCleaner != null) {
+                    clean.invoke(bufferCleaner);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.info("Memory-mapped node locations are released by the garbage collector: {}", e.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * File formats in which an extraction can be returned without being parsed into features.
+ */
+public enum ExportFormat {
+    GEOJSON("geojson", "application/zip", ".geojson.zip", "GeoJSON"),
+    GEOJSONSEQ("geojsonseq", "application/geo+json-seq", ".geojsonl", "GeoJSONSeq"),
+    GEOPACKAGE("gpkg", "application/geopackage+sqlite3", ".gpkg", "GPKG"),
+    FLATGEOBUF("flatgeobuf", "application/flatgeobuf", ".fgb", "FlatGeobuf");
+
+    private final String name;
+    private final String mimeType;
+    private final String fileExtension;
+    private final String ogrDriver;
+
+    ExportFormat(String name, String mimeType, String fileExtension, String ogrDriver) {
+        this.name = name;
+        this.mimeType = mimeType;
+        this.fileExtension = fileExtension;
+        this.ogrDriver = ogrDriver;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public String getFileExtension() {
+        return fileExtension;
+    }
+
+    /**
+     * @return the name of the OGR driver writing this format
+     */
+    public String getOgrDriver() {
+        return ogrDriver;
+    }
+
+    /**
+     * @param supported the formats listed in the message when there is no format with the name
+     */
+    public static ExportFormat fromName(String name, Collection<ExportFormat> supported) {
+        for (ExportFormat format : values()) {
+            if (format.name.equals(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported outputFormat: " + name + ". Supported are "
+                + quotedNames(supported));
+    }
+
+    /**
+     * @return the quoted names of the formats, separated by commas
+     */
+    public static String quotedNames(Collection<ExportFormat> formats) {
+        List<String> names = new ArrayList<>();
+        for (ExportFormat format : formats) {
+            names.add("'" + format.name + "'");
+        }
+        return String.join(", ", names);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sink writing the features of an export to a file.
+ */
+public interface ExportWriter extends FeatureSink, Closeable {
+
+    /**
+     * Completes the file after the last feature.
+     */
+    void finish() throws IOException;
+
+    /**
+     * Deletes the file unless it has been finished.
+     */
+    @Override
+    void close() throws IOException;
+}
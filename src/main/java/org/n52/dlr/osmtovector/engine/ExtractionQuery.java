@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The parameters of a single extraction: which elements to export and where.
+ */
+public class ExtractionQuery {
+
+    private final List<String> tags;
+    private final Set<String> tagSet;
+    private final ElementType elementType;
+    private final Geometry spatialFilter;
+    private final long maxFeatures;
+
+    public ExtractionQuery(List<String> tags, ElementType elementType, Geometry spatialFilter) {
+        this(tags, elementType, spatialFilter, 0);
+    }
+
+    /**
+     * @param maxFeatures the extraction stops after this number of features, 0 for no limit
+     */
+    public ExtractionQuery(List<String> tags, ElementType elementType, Geometry spatialFilter, long maxFeatures) {
+        this.tagSet = tags == null ? Collections.<String>emptySet() : new LinkedHashSet<>(tags);
+        this.tags = Collections.unmodifiableList(new ArrayList<>(tagSet));
+        this.elementType = elementType;
+        this.spatialFilter = spatialFilter;
+        this.maxFeatures = maxFeatures;
+    }
+
+    /**
+     * @return the requested tag keys without duplicates, in the order they were requested
+     */
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public ElementType getElementType() {
+        return elementType;
+    }
+
+    /**
+     * @return the area of interest, or null when the whole dataset is to be exported
+     */
+    public Geometry getSpatialFilter() {
+        return spatialFilter;
+    }
+
+    /**
+     * @return the maximum number of features to extract, or 0 when all matching features are extracted
+     */
+    public long getMaxFeatures() {
+        return maxFeatures;
+    }
+
+    /**
+     * Elements are exported when they carry at least one of the requested tags. Without
+     * requested tags every tagged element is exported.
+     */
+    public boolean matchesTags(OsmEntity entity) {
+        if (tagSet.isEmpty()) {
+            return entity.hasTags();
+        }
+        return entity.hasAnyTag(tagSet);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.n52.dlr.osmtovector.io.FlatGeobufWriter;
+import org.n52.dlr.osmtovector.io.GeoJSONSeqWriter;
+import org.n52.dlr.osmtovector.io.GeoJSONZipWriter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public interface Extractor {
+
+    /**
+     * Passes the features matching the query to the sink as soon as they have been extracted.
+     */
+    void extract(Path dataset, ExtractionQuery query, FeatureSink sink) throws IOException;
+
+    /**
+     * Extracts the features matching the query into memory.
+     */
+    default SimpleFeatureCollection extract(Path dataset, ExtractionQuery query) throws IOException {
+        FeatureCollector collector = new FeatureCollector();
+        extract(dataset, query, collector);
+        return collector.getCollection();
+    }
+
+    /**
+     * Extracts the features of several queries, passing the features of each query to the sink at the
+     * same position. Extractors able to answer all queries in a single pass over the dataset override this.
+     */
+    default void extract(Path dataset, List<ExtractionQuery> queries, List<? extends FeatureSink> sinks)
+            throws IOException {
+        for (int i = 0; i < queries.size(); i++) {
+            extract(dataset, queries.get(i), sinks.get(i));
+        }
+    }
+
+    /**
+     * @return true when the extractor is able to write the format with {@link #export}
+     */
+    default boolean canExport(ExportFormat format) {
+        return format != ExportFormat.GEOPACKAGE;
+    }
+
+    /**
+     * @return the formats the extractor is able to write
+     */
+    default List<ExportFormat> getExportFormats() {
+        List<ExportFormat> formats = new ArrayList<>();
+        for (ExportFormat format : ExportFormat.values()) {
+            if (canExport(format)) {
+                formats.add(format);
+            }
+        }
+        return formats;
+    }
+
+    /**
+     * Writes the features matching the query to the target file in the given format.
+     */
+    default void export(Path dataset, ExtractionQuery query, ExportFormat format, Path target) throws IOException {
+        if (!canExport(format)) {
+            throw new IOException("Exporting to " + format.getName() + " is not supported");
+        }
+        try (ExportWriter writer = createExportWriter(format, target)) {
+            extract(dataset, query, writer);
+            writer.finish();
+        }
+    }
+
+    /**
+     * Writes the features of each query to the target file at the same position, using a single
+     * batch extraction.
+     */
+    default void export(Path dataset, List<ExtractionQuery> queries, ExportFormat format, List<Path> targets)
+            throws IOException {
+        if (!canExport(format)) {
+            throw new IOException("Exporting to " + format.getName() + " is not supported");
+        }
+        List<ExportWriter> writers = new ArrayList<>();
+        try {
+            for (Path target : targets) {
+                writers.add(createExportWriter(format, target));
+            }
+            extract(dataset, queries, writers);
+            for (ExportWriter writer : writers) {
+                writer.finish();
+            }
+        } finally {
+            for (ExportWriter writer : writers) {
+                writer.close();
+            }
+        }
+    }
+
+    static ExportWriter createExportWriter(ExportFormat format, Path target) throws IOException {
+        switch (format) {
+            case GEOJSON:
+                return new GeoJSONZipWriter(target);
+            case GEOJSONSEQ:
+                return new GeoJSONSeqWriter(target);
+            case FLATGEOBUF:
+                return new FlatGeobufWriter(target, target.toAbsolutePath().getParent());
+            default:
+                throw new IOException("Exporting to " + format.getName() + " is not supported");
+        }
+    }
+}
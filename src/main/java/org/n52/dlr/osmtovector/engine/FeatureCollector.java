@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the features of an extraction in memory.
+ */
+public class FeatureCollector implements FeatureSink {
+
+    private SimpleFeatureType featureType;
+    private final List<SimpleFeature> features = new ArrayList<>();
+
+    @Override
+    public void start(SimpleFeatureType featureType) {
+        this.featureType = featureType;
+    }
+
+    @Override
+    public void accept(SimpleFeature feature) {
+        features.add(feature);
+    }
+
+    public SimpleFeatureCollection getCollection() {
+        return new ListFeatureCollection(featureType, features);
+    }
+}
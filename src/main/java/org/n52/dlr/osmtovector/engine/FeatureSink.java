@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.IOException;
+
+/**
+ * Receives the features of an extraction as they are produced.
+ */
+public interface FeatureSink {
+
+    /**
+     * Called once before the first feature.
+     */
+    void start(SimpleFeatureType featureType) throws IOException;
+
+    void accept(SimpleFeature feature) throws IOException;
+
+    /**
+     * Extractors stop reading the dataset once the sink does not take any more features.
+     *
+     * @return the number of further features the sink takes
+     */
+    default long remaining() {
+        return Long.MAX_VALUE;
+    }
+}
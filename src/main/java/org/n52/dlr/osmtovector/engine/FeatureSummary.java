@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Counts the features of an extraction and computes their extent without keeping them. The native
+ * engine recognizes this sink and passes the locations of the elements instead of features, so no
+ * geometries are built unless the spatial filter needs them. Like a limited sink, the summary
+ * ignores the features beyond its maximum, so the extraction stops there.
+ */
+public class FeatureSummary implements FeatureSink {
+
+    private final long maxFeatures;
+    private long count = 0;
+    private final Envelope envelope = new Envelope();
+
+    public FeatureSummary() {
+        this(0);
+    }
+
+    /**
+     * @param maxFeatures the number of features after which further features are ignored, 0 for no limit
+     */
+    public FeatureSummary(long maxFeatures) {
+        this.maxFeatures = maxFeatures;
+    }
+
+    @Override
+    public void start(SimpleFeatureType featureType) {
+        // nothing to prepare
+    }
+
+    @Override
+    public void accept(SimpleFeature feature) {
+        if (remaining() <= 0) {
+            return;
+        }
+        count++;
+        Object geometry = feature.getDefaultGeometry();
+        if (geometry instanceof Geometry) {
+            envelope.expandToInclude(((Geometry) geometry).getEnvelopeInternal());
+        }
+    }
+
+    @Override
+    public long remaining() {
+        return maxFeatures > 0 ? Math.max(0, maxFeatures - count) : Long.MAX_VALUE;
+    }
+
+    void addNode(double lon, double lat) {
+        if (remaining() <= 0) {
+            return;
+        }
+        count++;
+        envelope.expandToInclude(lon, lat);
+    }
+
+    /**
+     * Adds a way or an area by its extent.
+     */
+    void addEnvelope(Envelope featureEnvelope) {
+        if (remaining() <= 0) {
+            return;
+        }
+        count++;
+        envelope.expandToInclude(featureEnvelope);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the extent of the features, a null envelope when there are none
+     */
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.IOException;
+
+/**
+ * Passes at most the maximum number of features of a query to another sink and drops the rest.
+ */
+class LimitedFeatureSink implements FeatureSink {
+
+    private final FeatureSink sink;
+    private final long maxFeatures;
+    private long count = 0;
+
+    private LimitedFeatureSink(FeatureSink sink, long maxFeatures) {
+        this.sink = sink;
+        this.maxFeatures = maxFeatures;
+    }
+
+    /**
+     * @return the sink limited to the maxFeatures of the query, or the sink itself when the query has no limit
+     */
+    static FeatureSink wrap(ExtractionQuery query, FeatureSink sink) {
+        if (query.getMaxFeatures() <= 0 || sink instanceof LimitedFeatureSink) {
+            return sink;
+        }
+        return new LimitedFeatureSink(sink, query.getMaxFeatures());
+    }
+
+    @Override
+    public void start(SimpleFeatureType featureType) throws IOException {
+        sink.start(featureType);
+    }
+
+    @Override
+    public void accept(SimpleFeature feature) throws IOException {
+        if (count < maxFeatures) {
+            count++;
+            sink.accept(feature);
+        }
+    }
+
+    @Override
+    public long remaining() {
+        return Math.min(maxFeatures - count, sink.remaining());
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.TopologyException;
+import com.vividsolutions.jts.operation.polygonize.Polygonizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the polygons of closed ways and multipolygon relations. The rings of a relation are
+ * joined from its member ways by their shared end nodes. Whether a ring is an outer ring or a
+ * hole is decided by how deep it is nested in the other rings, as the roles of the members are
+ * often missing or wrong. Invalid results are repaired, so all polygons are valid.
+ */
+class MultipolygonBuilder {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(MultipolygonBuilder.class);
+
+    private final GeometryFactory factory;
+
+    MultipolygonBuilder(GeometryFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @return the area of a closed way, or null when some of its nodes are missing
+     */
+    MultiPolygon buildFromWay(long wayId, long[] refs, NodeLocationStore locations) throws IOException {
+        Coordinate[] coordinates = coordinates(refs, locations);
+        if (coordinates == null) {
+            LOGGER.debug("skipping area of way {} with missing nodes", wayId);
+            return null;
+        }
+        return toValidMultiPolygon(factory.createPolygon(factory.createLinearRing(coordinates), null));
+    }
+
+    /**
+     * @param memberRefs the node ids of the member ways found in the dataset
+     * @return the area of the relation, or null when none of its rings could be closed
+     */
+    MultiPolygon buildFromRelation(long relationId, List<long[]> memberRefs, NodeLocationStore locations)
+            throws IOException {
+        List<LinearRing> rings = new ArrayList<>();
+        for (long[] ring : joinRings(memberRefs)) {
+            Coordinate[] coordinates = coordinates(ring, locations);
+            if (coordinates != null) {
+                rings.add(factory.createLinearRing(coordinates));
+            }
+        }
+        if (rings.isEmpty()) {
+            LOGGER.debug("skipping relation {} without complete rings", relationId);
+            return null;
+        }
+        return toValidMultiPolygon(assemble(rings));
+    }
+
+    /**
+     * The extent of the area of a closed way without building its polygon.
+     *
+     * @return the envelope of its nodes, or null when some of them are missing like for {@link #buildFromWay}
+     */
+    static Envelope getWayEnvelope(long[] refs, NodeLocationStore locations) throws IOException {
+        Coordinate[] coordinates = coordinates(refs, locations);
+        return coordinates == null ? null : envelope(coordinates);
+    }
+
+    /**
+     * The extent of the area of a relation. The rings are only joined by their node ids, no polygon
+     * is built. The holes lie within the outer rings, so the envelope of all complete rings is the extent.
+     *
+     * @return the envelope of the complete rings, or null when there are none like for {@link #buildFromRelation}
+     */
+    static Envelope getRelationEnvelope(List<long[]> memberRefs, NodeLocationStore locations) throws IOException {
+        Envelope envelope = new Envelope();
+        for (long[] ring : joinRings(memberRefs)) {
+            Coordinate[] coordinates = coordinates(ring, locations);
+            if (coordinates != null) {
+                envelope.expandToInclude(envelope(coordinates));
+            }
+        }
+        return envelope.isNull() ? null : envelope;
+    }
+
+    /**
+     * Joins the ways into closed rings. Ways which do not end up in a closed ring are dropped.
+     */
+    static List<long[]> joinRings(List<long[]> ways) {
+        // the ways by their first and last node
+        Map<Long, List<Integer>> ends = new HashMap<>();
+        for (int i = 0; i < ways.size(); i++) {
+            long[] way = ways.get(i);
+            if (way.length < 2) {
+                continue;
+            }
+            ends.computeIfAbsent(way[0], id -> new ArrayList<>()).add(i);
+            ends.computeIfAbsent(way[way.length - 1], id -> new ArrayList<>()).add(i);
+        }
+
+        List<long[]> rings = new ArrayList<>();
+        boolean[] used = new boolean[ways.size()];
+        for (int i = 0; i < ways.size(); i++) {
+            if (used[i] || ways.get(i).length < 2) {
+                continue;
+            }
+            used[i] = true;
+            long[] ring = ways.get(i);
+            int size = ring.length;
+            ring = Arrays.copyOf(ring, Math.max(16, size * 2));
+
+            while (ring[0] != ring[size - 1]) {
+                long[] next = null;
+                for (int candidate : ends.get(ring[size - 1])) {
+                    if (!used[candidate]) {
+                        used[candidate] = true;
+                        next = ways.get(candidate);
+                        break;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                if (size + next.length - 1 > ring.length) {
+                    ring = Arrays.copyOf(ring, Math.max(ring.length * 2, size + next.length - 1));
+                }
+                boolean reversed = next[0] != ring[size - 1];
+                for (int j = 1; j < next.length; j++) {
+                    ring[size++] = reversed ? next[next.length - 1 - j] : next[j];
+                }
+            }
+            if (ring[0] == ring[size - 1] && size >= 4) {
+                rings.add(Arrays.copyOf(ring, size));
+            }
+        }
+        return rings;
+    }
+
+    /**
+     * Turns the rings into polygons: rings within an odd number of other rings are holes of the
+     * smallest ring containing them.
+     */
+    private Geometry assemble(List<LinearRing> rings) {
+        int count = rings.size();
+        Polygon[] filled = new Polygon[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            filled[i] = factory.createPolygon(rings.get(i), null);
+            order[i] = i;
+        }
+        // larger rings first, so the containing ring of a ring has been handled before it
+        Arrays.sort(order, (a, b) -> Double.compare(filled[b].getArea(), filled[a].getArea()));
+
+        int[] depth = new int[count];
+        int[] parent = new int[count];
+        List<Integer> shells = new ArrayList<>();
+        Map<Integer, List<LinearRing>> holes = new HashMap<>();
+        for (int k = 0; k < count; k++) {
+            int ring = order[k];
+            parent[ring] = -1;
+            Point inside = filled[ring].getInteriorPoint();
+            // the smallest of the larger rings containing this ring
+            for (int j = k - 1; j >= 0; j--) {
+                int candidate = order[j];
+                if (filled[candidate].getEnvelopeInternal().contains(filled[ring].getEnvelopeInternal())
+                        && filled[candidate].contains(inside)) {
+                    parent[ring] = candidate;
+                    break;
+                }
+            }
+            depth[ring] = parent[ring] < 0 ? 0 : depth[parent[ring]] + 1;
+            if (depth[ring] % 2 == 0) {
+                shells.add(ring);
+            } else {
+                holes.computeIfAbsent(parent[ring], p -> new ArrayList<>()).add(rings.get(ring));
+            }
+        }
+
+        Polygon[] polygons = new Polygon[shells.size()];
+        for (int i = 0; i < polygons.length; i++) {
+            int shell = shells.get(i);
+            List<LinearRing> shellHoles = holes.getOrDefault(shell, new ArrayList<>());
+            polygons[i] = factory.createPolygon(rings.get(shell), shellHoles.toArray(new LinearRing[shellHoles.size()]));
+        }
+        return factory.createMultiPolygon(polygons);
+    }
+
+    /**
+     * @return the geometry as a valid MultiPolygon, or null when nothing is left of it after the repair
+     */
+    private MultiPolygon toValidMultiPolygon(Geometry geometry) {
+        if (!geometry.isValid()) {
+            try {
+                geometry = repair(geometry);
+            } catch (TopologyException e) {
+                geometry = geometry.buffer(0);
+            }
+        }
+        List<Polygon> polygons = new ArrayList<>();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Geometry part = geometry.getGeometryN(i);
+            if (part instanceof Polygon && !part.isEmpty()) {
+                polygons.add((Polygon) part);
+            }
+        }
+        if (polygons.isEmpty()) {
+            return null;
+        }
+        return factory.createMultiPolygon(polygons.toArray(new Polygon[polygons.size()]));
+    }
+
+    /**
+     * Nodes all rings at their intersections and keeps the faces within an odd number of rings. Unlike
+     * buffer(0) this keeps both halves of self-intersecting rings like a figure eight.
+     */
+    private Geometry repair(Geometry geometry) {
+        List<Coordinate[]> rings = new ArrayList<>();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Polygon polygon = (Polygon) geometry.getGeometryN(i);
+            rings.add(polygon.getExteriorRing().getCoordinates());
+            for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+                rings.add(polygon.getInteriorRingN(j).getCoordinates());
+            }
+        }
+
+        LineString[] lines = new LineString[rings.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = factory.createLineString(rings.get(i));
+        }
+        // the union with one of its points nodes the lines, which a unary union does not do reliably
+        Geometry boundary = factory.createMultiLineString(lines);
+        Polygonizer polygonizer = new Polygonizer();
+        polygonizer.add(boundary.union(factory.createPoint(boundary.getCoordinate())));
+        List<Polygon> faces = new ArrayList<>();
+        for (Object face : polygonizer.getPolygons()) {
+            Coordinate inside = ((Polygon) face).getInteriorPoint().getCoordinate();
+            int within = 0;
+            // a ray crossing test, as the rings may intersect themselves
+            for (Coordinate[] ring : rings) {
+                if (CGAlgorithms.isPointInRing(inside, ring)) {
+                    within++;
+                }
+            }
+            if (within % 2 == 1) {
+                faces.add((Polygon) face);
+            }
+        }
+        // adjacent faces are merged
+        return factory.buildGeometry(faces).union();
+    }
+
+    /**
+     * @return the locations of the nodes of a closed ring, or null when some are missing
+     */
+    private static Coordinate[] coordinates(long[] refs, NodeLocationStore locations) throws IOException {
+        Coordinate[] coordinates = new Coordinate[refs.length];
+        for (int i = 0; i < refs.length; i++) {
+            coordinates[i] = locations.get(refs[i]);
+            if (coordinates[i] == null) {
+                return null;
+            }
+        }
+        return coordinates;
+    }
+
+    private static Envelope envelope(Coordinate[] coordinates) {
+        Envelope envelope = new Envelope();
+        for (Coordinate coordinate : coordinates) {
+            envelope.expandToInclude(coordinate);
+        }
+        return envelope;
+    }
+}
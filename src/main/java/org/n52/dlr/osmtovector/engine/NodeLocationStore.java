@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Locations of the nodes referenced by the extracted ways. Only the nodes requested while the
+ * store is built are kept.
+ */
+public abstract class NodeLocationStore implements Closeable {
+
+    /**
+     * Number of nodes up to which the locations are kept in sorted arrays on the heap. Larger
+     * sets of nodes are stored in a memory-mapped file.
+     */
+    public static final int SPARSE_STORE_MAX_NODES = 4 * 1024 * 1024;
+
+    // locations are stored with the precision of the OSM database
+    private static final double SCALE = 1e7;
+    private static final long LAT_OFFSET = 900000001L;
+
+    /**
+     * @param workDirectory directory for the file of large stores
+     */
+    public static Builder builder(Path workDirectory) {
+        return new Builder(workDirectory);
+    }
+
+    public abstract int getNodeCount();
+
+    /**
+     * Stores the location if the node is one of the requested nodes.
+     */
+    public abstract void put(long id, double lon, double lat) throws IOException;
+
+    /**
+     * @return the location of the node, or null when the node has not been found
+     */
+    public Coordinate get(long id) throws IOException {
+        long packed = load(id);
+        if (packed == 0) {
+            return null;
+        }
+        return new Coordinate((packed >> 32) / SCALE, ((packed & 0xffffffffL) - LAT_OFFSET) / SCALE);
+    }
+
+    /**
+     * @return the packed location of a node, or 0 when it has not been stored
+     */
+    protected abstract long load(long id) throws IOException;
+
+    /**
+     * @return true when one of the requested nodes may have an id within the range, used to
+     * select the blobs to read
+     */
+    abstract boolean containsAnyNode(long minId, long maxId);
+
+    /**
+     * Packs longitude and latitude into a single value. The latitude is offset to be always
+     * positive, so 0 never is a valid location and marks missing nodes.
+     */
+    static long pack(double lon, double lat) {
+        long lonValue = Math.round(lon * SCALE);
+        long latValue = Math.round(lat * SCALE) + LAT_OFFSET;
+        return (lonValue << 32) | (latValue & 0xffffffffL);
+    }
+
+    /**
+     * Collects the ids of the requested nodes. Duplicates are removed while the ids are added, and
+     * once there are more than {@link #SPARSE_STORE_MAX_NODES} of them they are marked in the file
+     * of a dense store instead of being kept on the heap.
+     */
+    public static class Builder implements Closeable {
+
+        private static final int MIN_COMPACT_SIZE = 64 * 1024;
+
+        private final Path workDirectory;
+        private LongArray ids = new LongArray();
+        private int compactAt = MIN_COMPACT_SIZE;
+        private DenseNodeLocationStore dense;
+
+        private Builder(Path workDirectory) {
+            this.workDirectory = workDirectory;
+        }
+
+        public void add(long id) throws IOException {
+            if (dense != null) {
+                dense.request(id);
+                return;
+            }
+            ids.add(id);
+            if (ids.size() >= compactAt) {
+                compact();
+            }
+        }
+
+        public void addAll(long[] refs) throws IOException {
+            if (dense != null) {
+                for (long ref : refs) {
+                    dense.request(ref);
+                }
+                return;
+            }
+            ids.addAll(refs);
+            if (ids.size() >= compactAt) {
+                compact();
+            }
+        }
+
+        private void compact() throws IOException {
+            ids.sortUnique();
+            if (ids.size() <= SPARSE_STORE_MAX_NODES) {
+                compactAt = Math.max(MIN_COMPACT_SIZE, 2 * ids.size());
+                return;
+            }
+            dense = new DenseNodeLocationStore(workDirectory);
+            for (int i = 0; i < ids.size(); i++) {
+                dense.request(ids.get(i));
+            }
+            ids = null;
+        }
+
+        public boolean isEmpty() {
+            return dense == null && ids.size() == 0;
+        }
+
+        /**
+         * @return the store for the requested nodes, which the caller has to close
+         */
+        public NodeLocationStore build() throws IOException {
+            if (dense == null) {
+                compact();
+            }
+            NodeLocationStore store = dense != null ? dense : new SparseNodeLocationStore(ids.toArray());
+            dense = null;
+            ids = new LongArray();
+            return store;
+        }
+
+        /**
+         * Removes the file of a dense store which has not been built.
+         */
+        @Override
+        public void close() throws IOException {
+            if (dense != null) {
+                dense.close();
+                dense = null;
+            }
+        }
+    }
+}
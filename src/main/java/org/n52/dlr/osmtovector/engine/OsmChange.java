@@ -0,0 +1,232 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The elements created, modified and deleted by OSM change files in the osmChange format of the
+ * replication diffs of openstreetmap.org. Later changes of an element replace earlier ones.
+ * The changes are kept in memory, so this is meant for diffs rather than for whole datasets.
+ */
+public class OsmChange {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    // deleted elements are mapped to null
+    private final TreeMap<Long, OsmNode> nodes = new TreeMap<>();
+    private final TreeMap<Long, OsmWay> ways = new TreeMap<>();
+    private final TreeMap<Long, OsmRelation> relations = new TreeMap<>();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Reads the changes of the files in the given order.
+     */
+    public static OsmChange read(List<Path> paths) throws IOException {
+        OsmChange change = new OsmChange();
+        for (Path path : paths) {
+            change.add(path);
+        }
+        return change;
+    }
+
+    /**
+     * Adds the changes of a file, which is decompressed when its name ends with .gz.
+     */
+    public void add(Path path) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(path));
+        try {
+            if (path.getFileName().toString().endsWith(".gz")) {
+                in = new GZIPInputStream(in);
+            }
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                parse(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException | IllegalArgumentException e) {
+            throw new IOException("Could not read the change file " + path + ": " + e.getMessage(), e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void parse(XMLStreamReader reader) throws XMLStreamException, IOException {
+        String action = null;
+        long id = 0;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+        List<String> tags = new ArrayList<>();
+        LongArray refs = new LongArray();
+        LongArray memberIds = new LongArray();
+        List<Integer> memberTypes = new ArrayList<>();
+        List<String> memberRoles = new ArrayList<>();
+        boolean root = true;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (root && !"osmChange".equals(name)) {
+                    throw new IOException("Not an osmChange document, found the element " + name);
+                }
+                root = false;
+                switch (name) {
+                    case "create":
+                    case "modify":
+                    case "delete":
+                        action = name;
+                        break;
+                    case "node":
+                    case "way":
+                    case "relation":
+                        id = Long.parseLong(requireAttribute(reader, "id"));
+                        String latValue = reader.getAttributeValue(null, "lat");
+                        String lonValue = reader.getAttributeValue(null, "lon");
+                        lat = latValue == null ? Double.NaN : Double.parseDouble(latValue);
+                        lon = lonValue == null ? Double.NaN : Double.parseDouble(lonValue);
+                        tags.clear();
+                        refs.clear();
+                        memberIds.clear();
+                        memberTypes.clear();
+                        memberRoles.clear();
+                        break;
+                    case "tag":
+                        tags.add(requireAttribute(reader, "k"));
+                        tags.add(requireAttribute(reader, "v"));
+                        break;
+                    case "nd":
+                        refs.add(Long.parseLong(requireAttribute(reader, "ref")));
+                        break;
+                    case "member":
+                        memberIds.add(Long.parseLong(requireAttribute(reader, "ref")));
+                        memberTypes.add(memberType(requireAttribute(reader, "type")));
+                        String role = reader.getAttributeValue(null, "role");
+                        memberRoles.add(role == null ? "" : role);
+                        break;
+                    default:
+                        // bounds and unknown elements
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                String name = reader.getLocalName();
+                switch (name) {
+                    case "create":
+                    case "modify":
+                    case "delete":
+                        action = null;
+                        break;
+                    case "node":
+                    case "way":
+                    case "relation":
+                        if (action == null) {
+                            throw new IOException("The " + name + " " + id + " is not within create, modify or delete");
+                        }
+                        boolean deleted = "delete".equals(action);
+                        String[] tagArray = tags.isEmpty() ? null : tags.toArray(new String[0]);
+                        if (name.equals("node")) {
+                            if (!deleted && (Double.isNaN(lat) || Double.isNaN(lon))) {
+                                throw new IOException("The node " + id + " has no location");
+                            }
+                            nodes.put(id, deleted ? null : new OsmNode(id, tagArray, lat, lon));
+                        } else if (name.equals("way")) {
+                            ways.put(id, deleted ? null : new OsmWay(id, tagArray, refs.toArray()));
+                        } else {
+                            int[] types = new int[memberTypes.size()];
+                            for (int i = 0; i < types.length; i++) {
+                                types[i] = memberTypes.get(i);
+                            }
+                            relations.put(id, deleted ? null : new OsmRelation(id, tagArray, memberIds.toArray(),
+                                    types, memberRoles.toArray(new String[0])));
+                        }
+                        break;
+                    default:
+                }
+            }
+        }
+    }
+
+    private static String requireAttribute(XMLStreamReader reader, String name) throws IOException {
+        String value = reader.getAttributeValue(null, name);
+        if (value == null) {
+            throw new IOException("The element " + reader.getLocalName() + " has no attribute " + name
+                    + " at line " + reader.getLocation().getLineNumber());
+        }
+        return value;
+    }
+
+    private static int memberType(String type) throws IOException {
+        switch (type) {
+            case "node":
+                return OsmRelation.MEMBER_NODE;
+            case "way":
+                return OsmRelation.MEMBER_WAY;
+            case "relation":
+                return OsmRelation.MEMBER_RELATION;
+            default:
+                throw new IOException("Unknown member type " + type);
+        }
+    }
+
+    /**
+     * @return the changed nodes by id, deleted nodes are mapped to null
+     */
+    public NavigableMap<Long, OsmNode> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the changed ways by id, deleted ways are mapped to null
+     */
+    public NavigableMap<Long, OsmWay> getWays() {
+        return ways;
+    }
+
+    /**
+     * @return the changed relations by id, deleted relations are mapped to null
+     */
+    public NavigableMap<Long, OsmRelation> getRelations() {
+        return relations;
+    }
+
+    public int size() {
+        return nodes.size() + ways.size() + relations.size();
+    }
+}
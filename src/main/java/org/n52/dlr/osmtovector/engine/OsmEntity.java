@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import java.util.Collection;
+
+/**
+ * Common base of the decoded OSM elements. Tags are stored as alternating keys and values.
+ */
+public abstract class OsmEntity {
+
+    private static final String[] NO_TAGS = new String[0];
+
+    private final long id;
+    private final String[] tags;
+
+    protected OsmEntity(long id, String[] tags) {
+        this.id = id;
+        this.tags = tags == null ? NO_TAGS : tags;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public boolean hasTags() {
+        return tags.length > 0;
+    }
+
+    public int getTagCount() {
+        return tags.length / 2;
+    }
+
+    public String getTagKey(int i) {
+        return tags[2 * i];
+    }
+
+    public String getTagValue(int i) {
+        return tags[2 * i + 1];
+    }
+
+    public String getTag(String key) {
+        for (int i = 0; i < tags.length; i += 2) {
+            if (tags[i].equals(key)) {
+                return tags[i + 1];
+            }
+        }
+        return null;
+    }
+
+    public boolean hasAnyTag(Collection<String> keys) {
+        for (int i = 0; i < tags.length; i += 2) {
+            if (keys.contains(tags[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Python process which has imported the modules of osm_extract and runs its jobs in forks of itself,
+ * so they do not pay for starting the interpreter and loading GDAL.
+ *
+ * The protocol is described in osm_extract_worker.py. A worker runs one job at a time.
+ */
+class OsmExtractWorker implements Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(OsmExtractWorker.class);
+
+    private static final String END_OF_REPLIES = "";
+    private static final long REPLY_TIMEOUT_MILLIS = 30 * 1000;
+    private static final String[] FIFOS = {".osm_extract.stdout", ".osm_extract.stderr"};
+
+    private final Process process;
+    private final Writer requests;
+    private final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+    private int jobs = 0;
+    private volatile boolean broken = false;
+
+    OsmExtractWorker(List<String> command) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.environment().clear();
+        process = builder.start();
+        requests = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+
+        Thread replyReader = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        replies.add(line);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Could not read from worker", e);
+            }
+            replies.add(END_OF_REPLIES);
+        }, "osmtovector-worker-replies");
+        replyReader.setDaemon(true);
+        replyReader.start();
+
+        Thread errorReader = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    LOGGER.warn("osm_extract worker: {}", line);
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Could not read from worker", e);
+            }
+        }, "osmtovector-worker-stderr");
+        errorReader.setDaemon(true);
+        errorReader.start();
+    }
+
+    /**
+     * @return the number of jobs started by this worker
+     */
+    int getJobs() {
+        return jobs;
+    }
+
+    /**
+     * @return false when the worker has failed or ended and must not be used any more
+     */
+    boolean isHealthy() {
+        return !broken && process.isAlive();
+    }
+
+    /**
+     * @return true when the worker answered within the timeout
+     */
+    boolean ping(long timeoutMillis) {
+        try {
+            send("ping");
+            if ("pong".equals(JSONValue.parse(awaitReply(timeoutMillis)))) {
+                return true;
+            }
+        } catch (IOException e) {
+            LOGGER.debug("worker did not answer", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        broken = true;
+        return false;
+    }
+
+    /**
+     * Starts osm_extract with the arguments in a fork of the worker.
+     *
+     * @param maxMemoryBytes maximum virtual memory of the job, 0 for no limit
+     * @param maxCpuSeconds maximum CPU time of the job, 0 for no limit
+     */
+    @SuppressWarnings("unchecked")
+    SubprocessRunner.Subprocess start(List<String> args, File directory, long maxMemoryBytes, long maxCpuSeconds)
+            throws IOException {
+        jobs++;
+        JSONObject job = new JSONObject();
+        JSONArray jobArgs = new JSONArray();
+        jobArgs.addAll(args);
+        job.put("args", jobArgs);
+        job.put("directory", directory.getAbsolutePath());
+        job.put("memory", maxMemoryBytes);
+        job.put("cpu", maxCpuSeconds);
+
+        InputStream stdout = null;
+        InputStream stderr = null;
+        boolean started = false;
+        try {
+            send(job.toJSONString());
+            expect("ready");
+            // the worker keeps the fifos open, so opening them does not block
+            stdout = new FileInputStream(new File(directory, FIFOS[0]));
+            stderr = new FileInputStream(new File(directory, FIFOS[1]));
+            send("\"go\"");
+            long pid = ((Number) expect("pid")).longValue();
+            started = true;
+            return new Job(pid, stdout, stderr);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while starting osm_extract in a worker");
+        } finally {
+            if (!started) {
+                broken = true;
+                closeQuietly(stdout);
+                closeQuietly(stderr);
+            }
+        }
+    }
+
+    /**
+     * Ends the worker. A running job is not affected.
+     */
+    @Override
+    public void close() {
+        broken = true;
+        try {
+            requests.close();
+        } catch (IOException e) {
+            // the worker has ended already
+        }
+        process.destroy();
+    }
+
+    private void send(String message) throws IOException {
+        requests.write(message);
+        requests.write('\n');
+        requests.flush();
+    }
+
+    private String awaitReply(long timeoutMillis) throws IOException, InterruptedException {
+        String reply = replies.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (reply == null) {
+            throw new IOException("worker did not answer within " + timeoutMillis / 1000.0 + " seconds");
+        }
+        if (reply.equals(END_OF_REPLIES)) {
+            replies.add(END_OF_REPLIES);
+            broken = true;
+            throw new IOException("worker has ended");
+        }
+        return reply;
+    }
+
+    private Object expect(String key) throws IOException, InterruptedException {
+        String reply = awaitReply(REPLY_TIMEOUT_MILLIS);
+        Object message = JSONValue.parse(reply);
+        if (!(message instanceof JSONObject) || !((JSONObject) message).containsKey(key)) {
+            throw new IOException("unexpected answer of worker: " + reply);
+        }
+        return ((JSONObject) message).get(key);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing was read from it
+            }
+        }
+    }
+
+    /**
+     * A job running in a fork of the worker.
+     */
+    private class Job implements SubprocessRunner.Subprocess {
+        private final long pid;
+        private final InputStream stdout;
+        private final InputStream stderr;
+        private Integer exitValue;
+
+        Job(long pid, InputStream stdout, InputStream stderr) {
+            this.pid = pid;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+
+        @Override
+        public long getPid() {
+            return pid;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return stdout;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return stderr;
+        }
+
+        @Override
+        public boolean isAlive() {
+            try {
+                return !waitFor(0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return true;
+            }
+        }
+
+        @Override
+        public synchronized boolean waitFor(long timeoutMillis) throws InterruptedException {
+            if (exitValue != null) {
+                return true;
+            }
+            String reply = replies.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (reply == null) {
+                return false;
+            }
+            Object message = JSONValue.parse(reply);
+            if (message instanceof JSONObject && ((JSONObject) message).get("exit") instanceof Number) {
+                exitValue = ((Number) ((JSONObject) message).get("exit")).intValue();
+            } else {
+                if (reply.equals(END_OF_REPLIES)) {
+                    replies.add(END_OF_REPLIES);
+                } else {
+                    LOGGER.warn("unexpected answer of worker: {}", reply);
+                }
+                // without the worker the returncode is lost
+                broken = true;
+                exitValue = -1;
+            }
+            return true;
+        }
+
+        @Override
+        public int exitValue() {
+            if (exitValue == null) {
+                throw new IllegalStateException("osm_extract is running");
+            }
+            return exitValue;
+        }
+
+        @Override
+        public void kill() {
+            SubprocessRunner.killTree(pid);
+            try {
+                if (!waitFor(SubprocessRunner.KILL_WAIT_MILLIS)) {
+                    LOGGER.warn("worker did not report the end of killed job {}", pid);
+                    broken = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                broken = true;
+            }
+        }
+
+        @Override
+        public void destroy() {
+            closeQuietly(stdout);
+            closeQuietly(stderr);
+        }
+    }
+}
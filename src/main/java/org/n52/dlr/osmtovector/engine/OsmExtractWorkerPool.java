@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Keeps osm_extract workers with their modules imported for the subprocess engine.
+ *
+ * Up to size idle workers are kept. A worker is replaced after maxJobs jobs, when a job could not be
+ * started or killed cleanly, or when it does not answer the health check of {@link #maintain()}.
+ */
+public class OsmExtractWorkerPool implements Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(OsmExtractWorkerPool.class);
+
+    private static final String WORKER_SCRIPT = "osm_extract_worker.py";
+    private static final long PING_TIMEOUT_MILLIS = 10 * 1000;
+
+    private final String osmExtractBinary;
+    private final List<String> command;
+    private final int size;
+    private final int maxJobs;
+    private final Deque<OsmExtractWorker> idle = new ArrayDeque<>();
+    private boolean closed = false;
+
+    /**
+     * @param osmExtractBinary the osm_extract script as configured, jobs are run for commands starting with it
+     * @param directory receives the script of the workers
+     * @param size number of idle workers to keep
+     * @param maxJobs number of jobs after which a worker is replaced, 0 for no limit
+     * @throws IOException when osm_extract is not a Python script
+     */
+    public OsmExtractWorkerPool(String osmExtractBinary, Path directory, int size, int maxJobs) throws IOException {
+        this.osmExtractBinary = osmExtractBinary;
+        this.size = size;
+        this.maxJobs = maxJobs;
+
+        Path script = resolve(osmExtractBinary);
+        List<String> interpreter = interpreter(script);
+        Path workerScript = directory.resolve(WORKER_SCRIPT);
+        try (InputStream in = OsmExtractWorkerPool.class.getResourceAsStream(WORKER_SCRIPT)) {
+            if (in == null) {
+                throw new IOException("missing resource " + WORKER_SCRIPT);
+            }
+            Files.copy(in, workerScript, StandardCopyOption.REPLACE_EXISTING);
+        }
+        List<String> workerCommand = new ArrayList<>(interpreter);
+        workerCommand.add(workerScript.toString());
+        workerCommand.add(script.toString());
+        this.command = Collections.unmodifiableList(workerCommand);
+    }
+
+    /**
+     * @return true when the command runs the osm_extract of this pool
+     */
+    boolean handles(List<String> command) {
+        return !command.isEmpty() && osmExtractBinary.equals(command.get(0));
+    }
+
+    /**
+     * @return an idle worker, or a new one when none is idle. Null when no worker could be started.
+     */
+    OsmExtractWorker acquire() {
+        synchronized (this) {
+            if (closed) {
+                return null;
+            }
+            OsmExtractWorker worker = idle.pollFirst();
+            if (worker != null) {
+                return worker;
+            }
+        }
+        try {
+            return new OsmExtractWorker(command);
+        } catch (IOException e) {
+            LOGGER.error("Could not start an osm_extract worker", e);
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the worker for the next job unless it has to be replaced.
+     */
+    void release(OsmExtractWorker worker) {
+        synchronized (this) {
+            if (!closed && worker.isHealthy() && (maxJobs <= 0 || worker.getJobs() < maxJobs) && idle.size() < size) {
+                idle.addFirst(worker);
+                return;
+            }
+        }
+        worker.close();
+    }
+
+    /**
+     * Replaces the idle workers which do not answer and starts workers until size are idle.
+     */
+    public void maintain() {
+        List<OsmExtractWorker> checked;
+        synchronized (this) {
+            checked = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (OsmExtractWorker worker : checked) {
+            if (worker.ping(PING_TIMEOUT_MILLIS)) {
+                release(worker);
+            } else {
+                LOGGER.warn("osm_extract worker did not answer, replacing it");
+                worker.close();
+            }
+        }
+        while (true) {
+            synchronized (this) {
+                if (closed || idle.size() >= size) {
+                    return;
+                }
+            }
+            try {
+                release(new OsmExtractWorker(command));
+            } catch (IOException e) {
+                LOGGER.error("Could not start an osm_extract worker", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Ends the idle workers, the others end when their job has finished.
+     */
+    @Override
+    public void close() {
+        List<OsmExtractWorker> workers;
+        synchronized (this) {
+            closed = true;
+            workers = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (OsmExtractWorker worker : workers) {
+            worker.close();
+        }
+    }
+
+    /**
+     * Looks the binary up like the shell does.
+     */
+    private static Path resolve(String binary) throws IOException {
+        if (binary.contains(File.separator)) {
+            return Paths.get(binary).toAbsolutePath();
+        }
+        String path = System.getenv("PATH");
+        if (path != null) {
+            for (String directory : path.split(File.pathSeparator)) {
+                Path candidate = Paths.get(directory.isEmpty() ? "." : directory, binary);
+                if (Files.isRegularFile(candidate)) {
+                    return candidate.toAbsolutePath();
+                }
+            }
+        }
+        throw new IOException("could not find " + binary);
+    }
+
+    /**
+     * @return the interpreter of the #! line of the script
+     */
+    private static List<String> interpreter(Path script) throws IOException {
+        String line;
+        try (BufferedReader reader = Files.newBufferedReader(script, StandardCharsets.ISO_8859_1)) {
+            line = reader.readLine();
+        }
+        if (line != null && line.startsWith("#!")) {
+            List<String> interpreter = Arrays.asList(line.substring(2).trim().split("\\s+"));
+            for (String part : interpreter) {
+                if (Paths.get(part).getFileName().toString().startsWith("python")) {
+                    return interpreter;
+                }
+            }
+        }
+        throw new IOException(script + " is not a Python script");
+    }
+}
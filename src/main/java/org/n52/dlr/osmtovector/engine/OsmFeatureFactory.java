@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the features of an extraction. The schema consists of the geometry, the id of the
+ * OSM element, one attribute per requested tag and - for ways - the length in meters. Areas
+ * may be ways or relations, so their schema also holds the type of the element.
+ */
+public class OsmFeatureFactory {
+
+    public static final String TYPE_NAME = "export";
+    public static final String GEOMETRY_ATTRIBUTE = "the_geom";
+    public static final String ID_ATTRIBUTE = "osm_id";
+    public static final String LENGTH_ATTRIBUTE = "length";
+    public static final String OSM_TYPE_ATTRIBUTE = "osm_type";
+
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+    private final ExtractionQuery query;
+    private final SimpleFeatureType featureType;
+    // attribute names by tag key
+    private final Map<String, String> attributeNames;
+
+    public OsmFeatureFactory(ExtractionQuery query) {
+        this.query = query;
+
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName(TYPE_NAME);
+        builder.setSRS("EPSG:4326");
+        switch (query.getElementType()) {
+            case WAYS:
+                builder.add(GEOMETRY_ATTRIBUTE, LineString.class);
+                break;
+            case AREAS:
+                builder.add(GEOMETRY_ATTRIBUTE, MultiPolygon.class);
+                break;
+            default:
+                builder.add(GEOMETRY_ATTRIBUTE, Point.class);
+        }
+        builder.setDefaultGeometry(GEOMETRY_ATTRIBUTE);
+        builder.add(ID_ATTRIBUTE, Long.class);
+        if (query.getElementType() == ElementType.AREAS) {
+            builder.add(OSM_TYPE_ATTRIBUTE, String.class);
+        }
+        attributeNames = attributeNames(query.getElementType(), query.getTags());
+        for (String name : attributeNames.values()) {
+            builder.add(name, String.class);
+        }
+        if (query.getElementType() == ElementType.WAYS) {
+            builder.add(LENGTH_ATTRIBUTE, Double.class);
+        }
+        featureType = builder.buildFeatureType();
+    }
+
+    /**
+     * OSM keys like "addr:street" are not valid attribute names in most output formats.
+     */
+    public static String attributeName(String tag) {
+        return tag.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    /**
+     * Names the attributes of the tags. Names which collide with the fixed attributes or with the
+     * name of an earlier tag, like "addr:street" and "addr_street", get a numbered suffix. Names
+     * are compared ignoring case, as many output formats do.
+     *
+     * @return the attribute names by tag key, in the order of the tags
+     */
+    static Map<String, String> attributeNames(ElementType elementType, List<String> tags) {
+        Set<String> used = new HashSet<>();
+        used.add(GEOMETRY_ATTRIBUTE);
+        used.add(ID_ATTRIBUTE);
+        if (elementType == ElementType.AREAS) {
+            used.add(OSM_TYPE_ATTRIBUTE);
+        }
+        if (elementType == ElementType.WAYS) {
+            used.add(LENGTH_ATTRIBUTE);
+        }
+        Map<String, String> names = new LinkedHashMap<>();
+        for (String tag : tags) {
+            String base = attributeName(tag);
+            String name = base;
+            for (int suffix = 2; used.contains(name.toLowerCase(Locale.ROOT)); suffix++) {
+                name = base + "_" + suffix;
+            }
+            used.add(name.toLowerCase(Locale.ROOT));
+            names.put(tag, name);
+        }
+        return names;
+    }
+
+    /**
+     * @return the name of the attribute of a requested tag, or null when the tag has not been requested
+     */
+    public String getAttributeName(String tag) {
+        return attributeNames.get(tag);
+    }
+
+    public SimpleFeatureType getFeatureType() {
+        return featureType;
+    }
+
+    public GeometryFactory getGeometryFactory() {
+        return geometryFactory;
+    }
+
+    public Point createPoint(OsmNode node) {
+        return geometryFactory.createPoint(new Coordinate(node.getLon(), node.getLat()));
+    }
+
+    public SimpleFeature createNodeFeature(OsmNode node, Geometry geometry) {
+        return createFeature("node." + node.getId(), node, geometry, null);
+    }
+
+    public SimpleFeature createWayFeature(OsmWay way, LineString geometry) {
+        return createFeature("way." + way.getId(), way, geometry, length(geometry.getCoordinates()));
+    }
+
+    /**
+     * @param osmType "way" or "relation"
+     */
+    public SimpleFeature createAreaFeature(String osmType, OsmEntity entity, MultiPolygon geometry) {
+        return createFeature(osmType + "." + entity.getId(), osmType, entity, geometry, null);
+    }
+
+    private SimpleFeature createFeature(String fid, OsmEntity entity, Geometry geometry, Double length) {
+        return createFeature(fid, null, entity, geometry, length);
+    }
+
+    private SimpleFeature createFeature(String fid, String osmType, OsmEntity entity, Geometry geometry,
+                                        Double length) {
+        List<String> tags = query.getTags();
+        Object[] values = new Object[featureType.getAttributeCount()];
+        int i = 0;
+        values[i++] = geometry;
+        values[i++] = entity.getId();
+        if (osmType != null) {
+            values[i++] = osmType;
+        }
+        for (String tag : tags) {
+            values[i++] = entity.getTag(tag);
+        }
+        if (length != null) {
+            values[i] = length;
+        }
+        return SimpleFeatureBuilder.build(featureType, values, fid);
+    }
+
+    /**
+     * @return the length of the line on a spherical earth in meters
+     */
+    public static double length(Coordinate[] coordinates) {
+        double length = 0.0;
+        for (int i = 1; i < coordinates.length; i++) {
+            double lat1 = Math.toRadians(coordinates[i - 1].y);
+            double lat2 = Math.toRadians(coordinates[i].y);
+            double dLat = lat2 - lat1;
+            double dLon = Math.toRadians(coordinates[i].x - coordinates[i - 1].x);
+            double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                    + Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+            length += 2 * EARTH_RADIUS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+        }
+        return length;
+    }
+}
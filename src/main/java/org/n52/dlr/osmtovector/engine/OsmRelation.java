@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+public class OsmRelation extends OsmEntity {
+
+    public static final int MEMBER_NODE = 0;
+    public static final int MEMBER_WAY = 1;
+    public static final int MEMBER_RELATION = 2;
+
+    private final long[] memberIds;
+    private final int[] memberTypes;
+    private final String[] memberRoles;
+
+    /**
+     * @param memberTypes one of the MEMBER_ constants per member
+     */
+    public OsmRelation(long id, String[] tags, long[] memberIds, int[] memberTypes, String[] memberRoles) {
+        super(id, tags);
+        this.memberIds = memberIds;
+        this.memberTypes = memberTypes;
+        this.memberRoles = memberRoles;
+    }
+
+    public int getMemberCount() {
+        return memberIds.length;
+    }
+
+    public long getMemberId(int i) {
+        return memberIds[i];
+    }
+
+    public int getMemberType(int i) {
+        return memberTypes[i];
+    }
+
+    public String getMemberRole(int i) {
+        return memberRoles[i];
+    }
+
+    /**
+     * @return true for relations describing an area by the rings formed by their member ways
+     */
+    public boolean isMultipolygon() {
+        return "multipolygon".equals(getTag("type"));
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+public class OsmWay extends OsmEntity {
+
+    private final long[] refs;
+
+    public OsmWay(long id, String[] tags, long[] refs) {
+        super(id, tags);
+        this.refs = refs;
+    }
+
+    /**
+     * @return ids of the nodes of this way in their order
+     */
+    public long[] getRefs() {
+        return refs;
+    }
+
+    public boolean isClosed() {
+        return refs.length > 3 && refs[0] == refs[refs.length - 1];
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decompresses and decodes the data blobs of a PBF file on a fork-join pool. The blobs
+ * are read sequentially while up to a fixed number of them are processed concurrently.
+ * The results are handed to the consumer in the order of the blobs in the file, so the
+ * output does not depend on the scheduling of the pool.
+ */
+public class ParallelBlockReader {
+
+    public interface BlockTask<T> {
+        T process(PbfBlob blob) throws IOException;
+    }
+
+    public interface BlockConsumer<T> {
+        void accept(T result) throws IOException;
+    }
+
+    private interface BlobSource {
+        PbfBlob next() throws IOException;
+    }
+
+    private final ForkJoinPool pool;
+    private final int window;
+
+    /**
+     * @param pool the pool to process the blobs on, or null to process them in the calling thread
+     */
+    public ParallelBlockReader(ForkJoinPool pool) {
+        this.pool = pool;
+        this.window = pool == null ? 1 : 2 * pool.getParallelism();
+    }
+
+    /**
+     * Processes all data blobs of the file.
+     */
+    public <T> void read(PbfFile file, BlockTask<T> task, BlockConsumer<T> consumer) throws IOException {
+        read(file, task, consumer, () -> false);
+    }
+
+    /**
+     * Processes the data blobs of the file until the consumer is done.
+     *
+     * @param done checked after each result, no more blobs are read once it returns true
+     */
+    public <T> void read(PbfFile file, BlockTask<T> task, BlockConsumer<T> consumer, BooleanSupplier done)
+            throws IOException {
+        read(file::next, task, consumer, done);
+    }
+
+    /**
+     * Processes only the given blobs of the file.
+     */
+    public <T> void read(PbfFile file, List<BlobIndex.Entry> entries, BlockTask<T> task,
+                         BlockConsumer<T> consumer) throws IOException {
+        read(file, entries, task, consumer, () -> false);
+    }
+
+    /**
+     * Processes the given blobs of the file until the consumer is done.
+     *
+     * @param done checked after each result, no more blobs are read once it returns true
+     */
+    public <T> void read(PbfFile file, List<BlobIndex.Entry> entries, BlockTask<T> task,
+                         BlockConsumer<T> consumer, BooleanSupplier done) throws IOException {
+        Iterator<BlobIndex.Entry> iterator = entries.iterator();
+        read(() -> iterator.hasNext() ? file.readBlobAt(iterator.next().getOffset()) : null, task, consumer, done);
+    }
+
+    private <T> void read(BlobSource source, BlockTask<T> task, BlockConsumer<T> consumer, BooleanSupplier done)
+            throws IOException {
+        if (pool == null) {
+            for (PbfBlob blob = source.next(); blob != null; blob = source.next()) {
+                if (blob.isData()) {
+                    consumer.accept(task.process(blob));
+                    if (done.getAsBoolean()) {
+                        return;
+                    }
+                }
+            }
+            return;
+        }
+
+        // blobs still being decoded when the consumer is done are cancelled
+        Deque<Future<T>> pending = new ArrayDeque<>(window);
+        try {
+            for (PbfBlob blob = source.next(); blob != null; blob = source.next()) {
+                if (!blob.isData()) {
+                    continue;
+                }
+                final PbfBlob dataBlob = blob;
+                pending.add(pool.submit(() -> task.process(dataBlob)));
+
+                // limit the number of decoded blobs held in memory
+                if (pending.size() >= window) {
+                    consumer.accept(await(pending.poll()));
+                    if (done.getAsBoolean()) {
+                        return;
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                consumer.accept(await(pending.poll()));
+                if (done.getAsBoolean()) {
+                    return;
+                }
+            }
+        } finally {
+            for (Future<T> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while decoding PBF blobs");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not decode PBF blob", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A still compressed blob of an OSM PBF file together with its position in the file.
+ */
+public class PbfBlob {
+
+    private final long offset;
+    private final int length;
+    private final String type;
+    private final byte[] data;
+
+    public PbfBlob(long offset, int length, String type, byte[] data) {
+        this.offset = offset;
+        this.length = length;
+        this.type = type;
+        this.data = data;
+    }
+
+    /**
+     * @return file offset of the blob, including the leading length of its header
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return number of bytes the blob and its header occupy in the file
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the still compressed Blob message
+     */
+    byte[] getData() {
+        return data;
+    }
+
+    public boolean isHeader() {
+        return PbfFile.TYPE_HEADER.equals(type);
+    }
+
+    public boolean isData() {
+        return PbfFile.TYPE_DATA.equals(type);
+    }
+
+    public byte[] decompress() throws IOException {
+        byte[] raw = null;
+        byte[] zlibData = null;
+        int rawSize = -1;
+
+        ProtobufReader reader = new ProtobufReader(data);
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtobufReader.fieldNumber(tag)) {
+                case 1:
+                    raw = reader.readBytes();
+                    break;
+                case 2:
+                    rawSize = reader.readInt32();
+                    break;
+                case 3:
+                    zlibData = reader.readBytes();
+                    break;
+                case 4:
+                case 6:
+                case 7:
+                    throw new IOException("Unsupported compression of PBF blob at offset " + offset);
+                default:
+                    reader.skip(tag);
+            }
+        }
+
+        if (raw != null) {
+            return raw;
+        }
+        if (zlibData == null || rawSize < 0) {
+            throw new IOException("PBF blob at offset " + offset + " contains no data");
+        }
+        if (rawSize > PbfFile.MAX_BLOB_SIZE) {
+            throw new IOException("PBF blob at offset " + offset + " exceeds the maximum uncompressed size with "
+                    + rawSize + " bytes");
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(zlibData);
+            byte[] result = new byte[rawSize];
+            int inflated = 0;
+            while (inflated < rawSize && !inflater.finished()) {
+                int n = inflater.inflate(result, inflated, rawSize - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != rawSize) {
+                throw new IOException("PBF blob at offset " + offset + " is truncated");
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Could not decompress PBF blob at offset " + offset, e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
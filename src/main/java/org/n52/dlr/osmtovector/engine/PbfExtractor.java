@@ -0,0 +1,686 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import org.opengis.feature.simple.SimpleFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Extracts features directly from an OSM PBF file without any external tools.
+ */
+public class PbfExtractor implements Extractor {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(PbfExtractor.class);
+
+    private final ParallelBlockReader blockReader;
+    private final BlobIndex index;
+    private final Path workDirectory;
+
+    public PbfExtractor() {
+        this(null, null, null);
+    }
+
+    /**
+     * @param decoderPool pool used to decode the blobs of the file, or null to decode them sequentially
+     * @param index index of the blobs of the dataset, or null to read the whole file
+     * @param workDirectory directory for temporary files, or null to use the default temporary directory
+     */
+    public PbfExtractor(ForkJoinPool decoderPool, BlobIndex index, Path workDirectory) {
+        this.blockReader = new ParallelBlockReader(decoderPool);
+        this.index = index;
+        this.workDirectory = workDirectory == null ? Paths.get(System.getProperty("java.io.tmpdir")) : workDirectory;
+    }
+
+    @Override
+    public void extract(Path dataset, ExtractionQuery query, FeatureSink sink) throws IOException {
+        try (PbfFile file = new PbfFile(dataset)) {
+            file.readHeader();
+            extract(file, query, sink);
+        }
+    }
+
+    /**
+     * Extracts from a file which has already been opened and whose header has been checked. The
+     * file is not closed, so it can be used for further extractions.
+     */
+    public void extract(PbfFile file, ExtractionQuery query, FeatureSink sink) throws IOException {
+        OsmFeatureFactory factory = new OsmFeatureFactory(query);
+        sink.start(factory.getFeatureType());
+        extract(file, query, factory, sink instanceof FeatureSummary ? sink : LimitedFeatureSink.wrap(query, sink));
+    }
+
+    /**
+     * Passes the features to a sink which has already been started, so the features of several
+     * files can be passed to the same sink. A {@link FeatureSummary} only receives the locations of
+     * the elements.
+     */
+    void extract(PbfFile file, ExtractionQuery query, OsmFeatureFactory factory, FeatureSink sink)
+            throws IOException {
+        file.rewind();
+        // areas need the passes of their extraction, which summarizes them without building polygons
+        if (sink instanceof FeatureSummary && query.getElementType() != ElementType.AREAS) {
+            summarize(file, query, factory, (FeatureSummary) sink);
+            return;
+        }
+        switch (query.getElementType()) {
+            case NODES:
+                extractNodes(file, query, factory, sink);
+                break;
+            case WAYS:
+                extractWays(file, query, factory, sink);
+                break;
+            case AREAS:
+                extractAreas(file, query, factory, sink);
+                break;
+            default:
+                throw new IOException("Unsupported elementType: " + query.getElementType().getName());
+        }
+    }
+
+    private void extractNodes(PbfFile file, ExtractionQuery query, OsmFeatureFactory factory,
+                              FeatureSink sink) throws IOException {
+        SpatialFilter filter = createFilter(query);
+        Envelope filterEnvelope = filter == null ? null : filter.getEnvelope();
+
+        List<BlobIndex.Entry> entries = index == null ? null : index.getNodeEntries(filterEnvelope, query.getTags());
+        read(file, entries, blob -> {
+            List<SimpleFeature> blockFeatures = new ArrayList<>();
+            PrimitiveBlock block = PrimitiveBlock.decode(blob.decompress(), true, false);
+            for (OsmNode node : block.getNodes()) {
+                if (!query.matchesTags(node)) {
+                    continue;
+                }
+                if (filter != null && !filter.contains(node.getLon(), node.getLat())) {
+                    continue;
+                }
+                blockFeatures.add(factory.createNodeFeature(node, factory.createPoint(node)));
+            }
+            return blockFeatures;
+        }, blockFeatures -> {
+            for (SimpleFeature feature : blockFeatures) {
+                sink.accept(feature);
+            }
+        }, () -> sink.remaining() <= 0);
+    }
+
+    /**
+     * Ways reference their nodes only by id, see {@link #readWays} for the passes over the file.
+     * Without a spatial filter only as many ways as the sink wants are read.
+     */
+    private void extractWays(PbfFile file, ExtractionQuery query, OsmFeatureFactory factory,
+                             FeatureSink sink) throws IOException {
+        SpatialFilter filter = createFilter(query);
+        readWays(file, index == null ? null : index.getWayEntries(query.getTags()), query::matchesTags,
+                filter == null ? sink.remaining() : -1, () -> sink.remaining() <= 0, (way, locations) -> {
+                    LineString line = createLineString(way.getId(), way.getRefs(), locations, factory);
+                    if (line != null && (filter == null || filter.intersects(line))) {
+                        sink.accept(factory.createWayFeature(way, line));
+                    }
+                });
+    }
+
+    /**
+     * Reads the ways matching a predicate and the locations of their nodes. The first pass only keeps
+     * the node ids of the matching ways and the blobs containing them, the second pass reads the
+     * locations of these nodes and the third pass reads the ways from these blobs again, so only the
+     * ways of the blobs being read are held in memory.
+     *
+     * @param entries the blobs with the ways, null for all blobs
+     * @param limit number of matching ways to read, -1 for all
+     * @param done stops the last pass once it returns true
+     */
+    private void readWays(PbfFile file, List<BlobIndex.Entry> entries, Predicate<OsmWay> matches, long limit,
+                          BooleanSupplier done, WayConsumer consumer) throws IOException {
+        try (NodeLocationStore.Builder nodes = NodeLocationStore.builder(workDirectory)) {
+            List<BlobIndex.Entry> wayEntries = new ArrayList<>();
+            long[] matched = {0};
+            BooleanSupplier enough = () -> limit >= 0 && matched[0] >= limit;
+            read(file, entries, blob -> {
+                WayBlob wayBlob = new WayBlob(blob);
+                PrimitiveBlock block = PrimitiveBlock.decode(blob.decompress(), false, true);
+                for (OsmWay way : block.getWays()) {
+                    if (matches.test(way)) {
+                        wayBlob.refs.add(way.getRefs());
+                    }
+                }
+                return wayBlob;
+            }, wayBlob -> {
+                for (long[] refs : wayBlob.refs) {
+                    if (enough.getAsBoolean()) {
+                        break;
+                    }
+                    nodes.addAll(refs);
+                    matched[0]++;
+                }
+                if (!wayBlob.refs.isEmpty()) {
+                    wayEntries.add(wayBlob.entry);
+                }
+            }, enough);
+
+            resolveWays(file, nodes, wayEntries, matches, matched[0], done, consumer);
+        }
+    }
+
+    /**
+     * Reads the locations of the nodes, then the ways matching the predicate from the blobs of the
+     * entries, which are the blobs the nodes have been collected from.
+     *
+     * @param count number of matching ways the nodes have been collected for
+     */
+    private void resolveWays(PbfFile file, NodeLocationStore.Builder nodes, List<BlobIndex.Entry> wayEntries,
+                             Predicate<OsmWay> matches, long count, BooleanSupplier done, WayConsumer consumer)
+            throws IOException {
+        if (count == 0) {
+            return;
+        }
+        try (NodeLocationStore locations = readLocations(file, nodes)) {
+            long[] resolved = {0};
+            file.rewind();
+            blockReader.read(file, wayEntries, blob -> {
+                List<OsmWay> ways = new ArrayList<>();
+                PrimitiveBlock block = PrimitiveBlock.decode(blob.decompress(), false, true);
+                for (OsmWay way : block.getWays()) {
+                    if (matches.test(way)) {
+                        ways.add(way);
+                    }
+                }
+                return ways;
+            }, ways -> {
+                // the blobs are read in the same order, so these are the ways the nodes have been collected for
+                for (OsmWay way : ways) {
+                    if (resolved[0] >= count || done.getAsBoolean()) {
+                        break;
+                    }
+                    resolved[0]++;
+                    consumer.accept(way, locations);
+                }
+            }, () -> resolved[0] >= count || done.getAsBoolean());
+        }
+    }
+
+    /**
+     * Areas are the closed ways and the multipolygon relations matching the query. The relations are
+     * read first, so the following pass over the ways only keeps the matching closed ways and the
+     * members of these relations instead of all ways. A third pass resolves their nodes.
+     *
+     * A {@link FeatureSummary} only receives the extents of the areas, taken from the locations of
+     * their nodes. Polygons are only built when the spatial filter has to be tested, so areas which
+     * would turn out to be empty after their repair are counted as well.
+     */
+    private void extractAreas(PbfFile file, ExtractionQuery query, OsmFeatureFactory factory,
+                              FeatureSink sink) throws IOException {
+        List<OsmRelation> relations = new ArrayList<>();
+        LongArray memberIds = new LongArray();
+        read(file, index == null ? null : index.getRelationEntries(), blob -> {
+            List<OsmRelation> matching = new ArrayList<>();
+            PrimitiveBlock block = PrimitiveBlock.decode(blob.decompress(), false, false, true);
+            for (OsmRelation relation : block.getRelations()) {
+                if (relation.isMultipolygon() && query.matchesTags(relation)) {
+                    matching.add(relation);
+                }
+            }
+            return matching;
+        }, matching -> {
+            for (OsmRelation relation : matching) {
+                relations.add(relation);
+                for (int i = 0; i < relation.getMemberCount(); i++) {
+                    if (relation.getMemberType(i) == OsmRelation.MEMBER_WAY) {
+                        memberIds.add(relation.getMemberId(i));
+                    }
+                }
+            }
+        });
+        long[] members = memberIds.toSortedUniqueArray();
+
+        // the member ways of the relations do not need to carry the requested tags
+        List<BlobIndex.Entry> wayEntries = index == null
+                ? null : members.length == 0 ? index.getWayEntries(query.getTags()) : index.getWayEntries();
+        List<OsmWay> areaWays = new ArrayList<>();
+        Map<Long, long[]> memberRefs = new HashMap<>();
+        try (NodeLocationStore.Builder nodes = NodeLocationStore.builder(workDirectory)) {
+            file.rewind();
+            read(file, wayEntries, blob -> {
+                List<OsmWay> needed = new ArrayList<>();
+                PrimitiveBlock block = PrimitiveBlock.decode(blob.decompress(), false, true);
+                for (OsmWay way : block.getWays()) {
+                    if (isArea(way, query) || Arrays.binarySearch(members, way.getId()) >= 0) {
+                        needed.add(way);
+                    }
+                }
+                return needed;
+            }, needed -> {
+                for (OsmWay way : needed) {
+                    if (isArea(way, query)) {
+                        areaWays.add(way);
+                    }
+                    if (Arrays.binarySearch(members, way.getId()) >= 0) {
+                        memberRefs.put(way.getId(), way.getRefs());
+                    }
+                    nodes.addAll(way.getRefs());
+                }
+            });
+
+            if (areaWays.isEmpty() && memberRefs.isEmpty()) {
+                return;
+            }
+
+            try (NodeLocationStore locations = readLocations(file, nodes)) {
+                SpatialFilter filter = createFilter(query);
+                FeatureSummary summary = sink instanceof FeatureSummary && filter == null
+                        ? (FeatureSummary) sink : null;
+                MultipolygonBuilder builder = new MultipolygonBuilder(factory.getGeometryFactory());
+                for (OsmWay way : areaWays) {
+                    if (sink.remaining() <= 0) {
+                        return;
+                    }
+                    if (summary != null) {
+                        Envelope envelope = MultipolygonBuilder.getWayEnvelope(way.getRefs(), locations);
+                        if (envelope != null) {
+                            summary.addEnvelope(envelope);
+                        }
+                        continue;
+                    }
+                    MultiPolygon area = builder.buildFromWay(way.getId(), way.getRefs(), locations);
+                    if (area != null && (filter == null || filter.intersects(area))) {
+                        acceptArea(sink, factory, "way", way, area);
+                    }
+                }
+                for (OsmRelation relation : relations) {
+                    if (sink.remaining() <= 0) {
+                        return;
+                    }
+                    List<long[]> relationRefs = new ArrayList<>();
+                    for (int i = 0; i < relation.getMemberCount(); i++) {
+                        long[] wayRefs = relation.getMemberType(i) == OsmRelation.MEMBER_WAY
+                                ? memberRefs.get(relation.getMemberId(i)) : null;
+                        // members may be missing when the dataset has been clipped
+                        if (wayRefs != null) {
+                            relationRefs.add(wayRefs);
+                        }
+                    }
+                    if (summary != null) {
+                        Envelope envelope = MultipolygonBuilder.getRelationEnvelope(relationRefs, locations);
+                        if (envelope != null) {
+                            summary.addEnvelope(envelope);
+                        }
+                        continue;
+                    }
+                    MultiPolygon area = builder.buildFromRelation(relation.getId(), relationRefs, locations);
+                    if (area != null && (filter == null || filter.intersects(area))) {
+                        acceptArea(sink, factory, "relation", relation, area);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes an area to the sink, a summary only gets its extent.
+     */
+    private static void acceptArea(FeatureSink sink, OsmFeatureFactory factory, String osmType, OsmEntity entity,
+                                   MultiPolygon area) throws IOException {
+        if (sink instanceof FeatureSummary) {
+            ((FeatureSummary) sink).addEnvelope(area.getEnvelopeInternal());
+        } else {
+            sink.accept(factory.createAreaFeature(osmType, entity, area));
+        }
+    }
+
+    /**
+     * Closed ways are areas unless they are tagged area=no.
+     */
+    private static boolean isArea(OsmWay way, ExtractionQuery query) {
+        return way.isClosed() && query.matchesTags(way) && !"no".equals(way.getTag("area"));
+    }
+
+    /**
+     * Counts the matching elements and computes their extent. Node locations are passed to the
+     * summary directly, ways only become geometries when the spatial filter has to be tested.
+     */
+    private void summarize(PbfFile file, ExtractionQuery query, OsmFeatureFactory factory, FeatureSummary summary)
+            throws IOException {
+        BooleanSupplier done = () -> summary.remaining() <= 0;
+        SpatialFilter filter = createFilter(query);
+
+        switch (query.getElementType()) {
+            case NODES: {
+                Envelope filterEnvelope = filter == null ? null : filter.getEnvelope();
+                List<BlobIndex.Entry> entries = index == null
+                        ? null : index.getNodeEntries(filterEnvelope, query.getTags());
+                read(file, entries, blob -> {
+                    List<OsmNode> matching = new ArrayList<>();
+                    PrimitiveBlock block = PrimitiveBlock.decode(blob.decompress(), true, false);
+                    for (OsmNode node : block.getNodes()) {
+                        if (query.matchesTags(node)
+                                && (filter == null || filter.contains(node.getLon(), node.getLat()))) {
+                            matching.add(node);
+                        }
+                    }
+                    return matching;
+                }, matching -> {
+                    for (OsmNode node : matching) {
+                        if (done.getAsBoolean()) {
+                            break;
+                        }
+                        summary.addNode(node.getLon(), node.getLat());
+                    }
+                }, done);
+                break;
+            }
+            case WAYS:
+                readWays(file, index == null ? null : index.getWayEntries(query.getTags()), query::matchesTags,
+                        filter == null ? summary.remaining() : -1, done, (way, locations) -> {
+                            if (filter == null) {
+                                Envelope envelope = createEnvelope(way.getRefs(), locations);
+                                if (envelope != null) {
+                                    summary.addEnvelope(envelope);
+                                }
+                                return;
+                            }
+                            LineString line = createLineString(way.getId(), way.getRefs(), locations, factory);
+                            if (line != null && filter.intersects(line)) {
+                                summary.addEnvelope(line.getEnvelopeInternal());
+                            }
+                        });
+                break;
+            default:
+                throw new IOException("Unsupported elementType: " + query.getElementType().getName());
+        }
+    }
+
+    /**
+     * Answers several queries with a single pass over the file, plus one pass to resolve the nodes
+     * of the matching ways. The features of each query are passed to the sink at the same position.
+     */
+    @Override
+    public void extract(Path dataset, List<ExtractionQuery> queries, List<? extends FeatureSink> sinks)
+            throws IOException {
+        try (PbfFile file = new PbfFile(dataset)) {
+            file.readHeader();
+            extract(file, queries, sinks);
+        }
+    }
+
+    public void extract(PbfFile file, List<ExtractionQuery> queries, List<? extends FeatureSink> sinks)
+            throws IOException {
+        OsmFeatureFactory[] factories = new OsmFeatureFactory[queries.size()];
+        List<FeatureSink> limitedSinks = new ArrayList<>();
+        for (int i = 0; i < factories.length; i++) {
+            factories[i] = new OsmFeatureFactory(queries.get(i));
+            sinks.get(i).start(factories[i].getFeatureType());
+            limitedSinks.add(LimitedFeatureSink.wrap(queries.get(i), sinks.get(i)));
+        }
+        extract(file, queries, factories, limitedSinks);
+    }
+
+    /**
+     * Batch extraction into sinks which have already been started. The batch is read completely,
+     * sinks limited to a number of features drop the rest. Areas need passes of their own, so
+     * they are extracted one query after the other.
+     */
+    void extract(PbfFile file, List<ExtractionQuery> queries, OsmFeatureFactory[] factories,
+                 List<? extends FeatureSink> sinks) throws IOException {
+        int numQueries = queries.size();
+        SpatialFilter[] filters = new SpatialFilter[numQueries];
+        boolean decodeNodes = false;
+        boolean decodeWays = false;
+        // blobs needed by any of the queries, in file order
+        TreeMap<Long, BlobIndex.Entry> entries = index == null ? null : new TreeMap<>();
+        for (int i = 0; i < numQueries; i++) {
+            ExtractionQuery query = queries.get(i);
+            filters[i] = createFilter(query);
+            List<BlobIndex.Entry> queryEntries;
+            switch (query.getElementType()) {
+                case NODES:
+                    decodeNodes = true;
+                    queryEntries = index == null ? null : index.getNodeEntries(
+                            filters[i] == null ? null : filters[i].getEnvelope(), query.getTags());
+                    break;
+                case WAYS:
+                    decodeWays = true;
+                    queryEntries = index == null ? null : index.getWayEntries(query.getTags());
+                    break;
+                case AREAS:
+                    file.rewind();
+                    extractAreas(file, query, factories[i], sinks.get(i));
+                    continue;
+                default:
+                    throw new IOException("Unsupported elementType: " + query.getElementType().getName());
+            }
+            if (queryEntries != null) {
+                for (BlobIndex.Entry entry : queryEntries) {
+                    entries.put(entry.getOffset(), entry);
+                }
+            }
+        }
+        if (!decodeNodes && !decodeWays) {
+            return;
+        }
+        boolean nodes = decodeNodes;
+        boolean ways = decodeWays;
+        Predicate<OsmWay> matchesWayQuery = way -> {
+            for (ExtractionQuery query : queries) {
+                if (query.getElementType() == ElementType.WAYS && query.matchesTags(way)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+        List<BlobIndex.Entry> wayEntries = new ArrayList<>();
+        long[] matchedWays = {0};
+        try (NodeLocationStore.Builder wayNodes = NodeLocationStore.builder(workDirectory)) {
+            file.rewind();
+            read(file, entries == null ? null : new ArrayList<>(entries.values()), blob -> {
+                BatchBlock result = new BatchBlock(numQueries, blob);
+                PrimitiveBlock block = PrimitiveBlock.decode(blob.decompress(), nodes, ways);
+                for (OsmNode node : block.getNodes()) {
+                    Point point = null;
+                    for (int i = 0; i < numQueries; i++) {
+                        ExtractionQuery query = queries.get(i);
+                        if (query.getElementType() != ElementType.NODES || !query.matchesTags(node)) {
+                            continue;
+                        }
+                        if (filters[i] != null && !filters[i].contains(node.getLon(), node.getLat())) {
+                            continue;
+                        }
+                        if (point == null) {
+                            point = factories[i].createPoint(node);
+                        }
+                        result.features.get(i).add(factories[i].createNodeFeature(node, point));
+                    }
+                }
+                for (OsmWay way : block.getWays()) {
+                    if (matchesWayQuery.test(way)) {
+                        result.ways.refs.add(way.getRefs());
+                    }
+                }
+                return result;
+            }, result -> {
+                for (int i = 0; i < numQueries; i++) {
+                    for (SimpleFeature feature : result.features.get(i)) {
+                        sinks.get(i).accept(feature);
+                    }
+                }
+                for (long[] refs : result.ways.refs) {
+                    wayNodes.addAll(refs);
+                }
+                matchedWays[0] += result.ways.refs.size();
+                if (!result.ways.refs.isEmpty()) {
+                    wayEntries.add(result.ways.entry);
+                }
+            });
+
+            resolveWays(file, wayNodes, wayEntries, matchesWayQuery, matchedWays[0], () -> false, (way, locations) -> {
+                LineString line = null;
+                for (int i = 0; i < numQueries; i++) {
+                    ExtractionQuery query = queries.get(i);
+                    if (query.getElementType() != ElementType.WAYS || !query.matchesTags(way)) {
+                        continue;
+                    }
+                    if (line == null) {
+                        line = createLineString(way.getId(), way.getRefs(), locations, factories[i]);
+                        if (line == null) {
+                            break;
+                        }
+                    }
+                    if (filters[i] != null && !filters[i].intersects(line)) {
+                        continue;
+                    }
+                    sinks.get(i).accept(factories[i].createWayFeature(way, line));
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the locations of the requested nodes in a pass over the file.
+     */
+    private NodeLocationStore readLocations(PbfFile file, NodeLocationStore.Builder nodes) throws IOException {
+        NodeLocationStore locations = nodes.build();
+        try {
+            List<BlobIndex.Entry> nodeEntries = index == null ? null : index.getNodeEntries(locations);
+            file.rewind();
+            read(file, nodeEntries, blob -> PrimitiveBlock.decode(blob.decompress(), true, false), block -> {
+                for (OsmNode node : block.getNodes()) {
+                    locations.put(node.getId(), node.getLon(), node.getLat());
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            locations.close();
+            throw e;
+        }
+        return locations;
+    }
+
+    private SpatialFilter createFilter(ExtractionQuery query) {
+        Geometry geometry = query.getSpatialFilter();
+        return geometry == null ? null : new SpatialFilter(geometry);
+    }
+
+    /**
+     * Reads the given blobs, or all blobs of the file when there is no index.
+     */
+    private <T> void read(PbfFile file, List<BlobIndex.Entry> entries, ParallelBlockReader.BlockTask<T> task,
+                          ParallelBlockReader.BlockConsumer<T> consumer) throws IOException {
+        read(file, entries, task, consumer, () -> false);
+    }
+
+    /**
+     * @param done stops the reading once it returns true
+     */
+    private <T> void read(PbfFile file, List<BlobIndex.Entry> entries, ParallelBlockReader.BlockTask<T> task,
+                          ParallelBlockReader.BlockConsumer<T> consumer, BooleanSupplier done)
+            throws IOException {
+        if (entries == null) {
+            blockReader.read(file, task, consumer, done);
+        } else {
+            LOGGER.debug("reading {} of {} blobs", entries.size(), index.getEntries().size());
+            blockReader.read(file, entries, task, consumer, done);
+        }
+    }
+
+    /**
+     * @return the envelope of the known nodes of a way, or null when less than two of them are known,
+     * like the ways skipped by {@link #createLineString}
+     */
+    private Envelope createEnvelope(long[] wayRefs, NodeLocationStore locations) throws IOException {
+        Envelope envelope = new Envelope();
+        int known = 0;
+        for (long ref : wayRefs) {
+            Coordinate coordinate = locations.get(ref);
+            if (coordinate != null) {
+                envelope.expandToInclude(coordinate);
+                known++;
+            }
+        }
+        return known < 2 ? null : envelope;
+    }
+
+    private LineString createLineString(long wayId, long[] wayRefs, NodeLocationStore locations,
+                                        OsmFeatureFactory factory) throws IOException {
+        List<Coordinate> coordinates = new ArrayList<>(wayRefs.length);
+        for (long ref : wayRefs) {
+            Coordinate coordinate = locations.get(ref);
+            // nodes may be missing when the dataset has been clipped
+            if (coordinate != null) {
+                coordinates.add(coordinate);
+            }
+        }
+        if (coordinates.size() < 2) {
+            LOGGER.debug("skipping way {} with less than two known nodes", wayId);
+            return null;
+        }
+        return factory.getGeometryFactory().createLineString(coordinates.toArray(new Coordinate[coordinates.size()]));
+    }
+
+    /**
+     * The matches of a batch extraction within one block.
+     */
+    private static class BatchBlock {
+        private final List<List<SimpleFeature>> features;
+        private final WayBlob ways;
+
+        BatchBlock(int numQueries, PbfBlob blob) {
+            ways = new WayBlob(blob);
+            features = new ArrayList<>(numQueries);
+            for (int i = 0; i < numQueries; i++) {
+                features.add(new ArrayList<>());
+            }
+        }
+    }
+
+    /**
+     * The node ids of the matching ways of a blob.
+     */
+    private static class WayBlob {
+        private final BlobIndex.Entry entry;
+        private final List<long[]> refs = new ArrayList<>();
+
+        WayBlob(PbfBlob blob) {
+            entry = new BlobIndex.Entry(blob.getOffset(), blob.getLength());
+        }
+    }
+
+    @FunctionalInterface
+    private interface WayConsumer {
+        void accept(OsmWay way, NodeLocationStore locations) throws IOException;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the blobs of an OSM PBF file, either sequentially or at known offsets.
+ */
+public class PbfFile implements Closeable {
+
+    public static final String TYPE_HEADER = "OSMHeader";
+    public static final String TYPE_DATA = "OSMData";
+
+    private static final int MAX_BLOB_HEADER_SIZE = 64 * 1024;
+    // limit of the format for compressed as well as uncompressed blobs
+    static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    // the blobs are read by the thread running the extraction, only their decoding is parallel
+    private static final ThreadLocal<long[]> threadBytesRead = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long size;
+    private long position = 0;
+
+    public PbfFile(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+
+    /**
+     * @return the number of bytes the current thread has read from PBF files so far
+     */
+    public static long getThreadBytesRead() {
+        return threadBytesRead.get()[0];
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * @return the next blob of the file, or null when the end of the file has been reached
+     */
+    public PbfBlob next() throws IOException {
+        if (position >= size) {
+            return null;
+        }
+        PbfBlob blob = readBlobAt(position);
+        position += blob.getLength();
+        return blob;
+    }
+
+    /**
+     * Restarts the sequential reading at the beginning of the file.
+     */
+    public void rewind() {
+        position = 0;
+    }
+
+    /**
+     * Reads the header blob at the start of the file.
+     */
+    public PbfHeader readHeader() throws IOException {
+        PbfBlob blob = readBlobAt(0);
+        if (!blob.isHeader()) {
+            throw new IOException("File " + path + " does not start with an OSMHeader blob");
+        }
+        return PbfHeader.parse(blob.decompress());
+    }
+
+    public PbfBlob readBlobAt(long offset) throws IOException {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        readFully(lengthBuffer, offset);
+        lengthBuffer.flip();
+        int headerLength = lengthBuffer.getInt();
+        if (headerLength < 0 || headerLength > MAX_BLOB_HEADER_SIZE) {
+            throw new IOException("Invalid blob header size " + headerLength + " at offset " + offset + " in " + path);
+        }
+
+        ByteBuffer headerBuffer = ByteBuffer.allocate(headerLength);
+        readFully(headerBuffer, offset + 4);
+
+        String type = null;
+        int dataSize = -1;
+        ProtobufReader reader = new ProtobufReader(headerBuffer.array());
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtobufReader.fieldNumber(tag)) {
+                case 1:
+                    type = reader.readString();
+                    break;
+                case 3:
+                    dataSize = reader.readInt32();
+                    break;
+                default:
+                    reader.skip(tag);
+            }
+        }
+        if (type == null || dataSize < 0 || dataSize > MAX_BLOB_SIZE) {
+            throw new IOException("Invalid blob header at offset " + offset + " in " + path);
+        }
+
+        ByteBuffer dataBuffer = ByteBuffer.allocate(dataSize);
+        readFully(dataBuffer, offset + 4 + headerLength);
+        return new PbfBlob(offset, 4 + headerLength + dataSize, type, dataBuffer.array());
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        long filePosition = offset;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, filePosition);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of file " + path + " at offset " + filePosition);
+            }
+            filePosition += n;
+        }
+        threadBytesRead.get()[0] += filePosition - offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Contents of the OSMHeader block of a PBF file.
+ */
+public class PbfHeader {
+
+    public static final List<String> SUPPORTED_FEATURES = Arrays.asList(
+            "OsmSchema-V0.6",
+            "DenseNodes"
+    );
+
+    private Envelope bbox;
+    private long replicationTimestamp;
+    private String writingProgram;
+    private List<String> requiredFeatures = new ArrayList<>();
+
+    public static PbfHeader parse(byte[] data) throws IOException {
+        PbfHeader header = new PbfHeader();
+        ProtobufReader reader = new ProtobufReader(data);
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtobufReader.fieldNumber(tag)) {
+                case 1:
+                    header.bbox = parseBBox(reader.readMessage());
+                    break;
+                case 4:
+                    header.requiredFeatures.add(reader.readString());
+                    break;
+                case 16:
+                    header.writingProgram = reader.readString();
+                    break;
+                case 32:
+                    header.replicationTimestamp = reader.readInt64();
+                    break;
+                default:
+                    reader.skip(tag);
+            }
+        }
+
+        for (String feature : header.requiredFeatures) {
+            if (!SUPPORTED_FEATURES.contains(feature)) {
+                throw new IOException("Unsupported feature required by PBF file: " + feature);
+            }
+        }
+        return header;
+    }
+
+    private static Envelope parseBBox(ProtobufReader reader) throws IOException {
+        long left = 0, right = 0, top = 0, bottom = 0;
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtobufReader.fieldNumber(tag)) {
+                case 1:
+                    left = reader.readSInt64();
+                    break;
+                case 2:
+                    right = reader.readSInt64();
+                    break;
+                case 3:
+                    top = reader.readSInt64();
+                    break;
+                case 4:
+                    bottom = reader.readSInt64();
+                    break;
+                default:
+                    reader.skip(tag);
+            }
+        }
+        return new Envelope(left * 1e-9, right * 1e-9, bottom * 1e-9, top * 1e-9);
+    }
+
+    /**
+     * @return the bounding box declared in the header, or null if there is none
+     */
+    public Envelope getBBox() {
+        return bbox;
+    }
+
+    /**
+     * @return the replication timestamp in seconds since the epoch, or 0 if unknown
+     */
+    public long getReplicationTimestamp() {
+        return replicationTimestamp;
+    }
+
+    public String getWritingProgram() {
+        return writingProgram;
+    }
+
+    public List<String> getRequiredFeatures() {
+        return requiredFeatures;
+    }
+}
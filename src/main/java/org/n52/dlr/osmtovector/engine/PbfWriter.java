@@ -0,0 +1,371 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes OSM PBF files which can be read by {@link PbfFile} and other tools. Nodes are written
+ * as DenseNodes. The elements are written in the order they are passed in, so callers write all
+ * nodes before the ways and the ways before the relations.
+ */
+public class PbfWriter implements Closeable {
+
+    private static final int MAX_ENTITIES_PER_BLOCK = 8000;
+    private static final int GRANULARITY = 100;
+
+    private final DataOutputStream out;
+    private final Deflater deflater = new Deflater();
+    private byte[] deflateBuffer = new byte[4 * 1024];
+
+    private final StringTable nodeStrings = new StringTable();
+    // grown on demand, as many writers may be open at the same time
+    private long[] nodeIds = new long[256];
+    private long[] nodeLats = new long[256];
+    private long[] nodeLons = new long[256];
+    private int[] nodeKeysVals = new int[256];
+    private int nodeKeysValsSize = 0;
+    private boolean nodesTagged = false;
+    private int pendingNodes = 0;
+
+    private final List<OsmWay> pendingWays = new ArrayList<>();
+    private final List<OsmRelation> pendingRelations = new ArrayList<>();
+
+    private long nodeCount = 0;
+    private long wayCount = 0;
+    private long relationCount = 0;
+    private long position = 0;
+
+    /**
+     * @param bbox bounding box to write into the header, may be null
+     * @param replicationTimestamp replication timestamp in seconds to write into the header, 0 for none
+     */
+    public PbfWriter(Path path, Envelope bbox, String writingProgram, long replicationTimestamp) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+        writeHeader(bbox, writingProgram, replicationTimestamp);
+    }
+
+    private void writeHeader(Envelope bbox, String writingProgram, long replicationTimestamp) throws IOException {
+        ProtobufWriter header = new ProtobufWriter();
+        if (bbox != null && !bbox.isNull()) {
+            ProtobufWriter bboxMessage = new ProtobufWriter();
+            bboxMessage.writeSInt64(1, Math.round(bbox.getMinX() * 1e9));
+            bboxMessage.writeSInt64(2, Math.round(bbox.getMaxX() * 1e9));
+            bboxMessage.writeSInt64(3, Math.round(bbox.getMaxY() * 1e9));
+            bboxMessage.writeSInt64(4, Math.round(bbox.getMinY() * 1e9));
+            header.writeMessage(1, bboxMessage);
+        }
+        header.writeString(4, "OsmSchema-V0.6");
+        header.writeString(4, "DenseNodes");
+        if (writingProgram != null) {
+            header.writeString(16, writingProgram);
+        }
+        if (replicationTimestamp > 0) {
+            header.writeInt64(32, replicationTimestamp);
+        }
+        writeBlob(PbfFile.TYPE_HEADER, header);
+    }
+
+    public void write(OsmNode node) throws IOException {
+        if (!pendingWays.isEmpty()) {
+            flushWays();
+        }
+        if (!pendingRelations.isEmpty()) {
+            flushRelations();
+        }
+        if (pendingNodes == MAX_ENTITIES_PER_BLOCK) {
+            flushNodes();
+        } else if (pendingNodes == nodeIds.length) {
+            int capacity = Math.min(MAX_ENTITIES_PER_BLOCK, nodeIds.length * 2);
+            nodeIds = Arrays.copyOf(nodeIds, capacity);
+            nodeLats = Arrays.copyOf(nodeLats, capacity);
+            nodeLons = Arrays.copyOf(nodeLons, capacity);
+        }
+        nodeIds[pendingNodes] = node.getId();
+        nodeLats[pendingNodes] = Math.round(node.getLat() * 1e9 / GRANULARITY);
+        nodeLons[pendingNodes] = Math.round(node.getLon() * 1e9 / GRANULARITY);
+        ensureKeysValsCapacity(node.getTagCount() * 2 + 1);
+        for (int i = 0; i < node.getTagCount(); i++) {
+            nodeKeysVals[nodeKeysValsSize++] = nodeStrings.index(node.getTagKey(i));
+            nodeKeysVals[nodeKeysValsSize++] = nodeStrings.index(node.getTagValue(i));
+            nodesTagged = true;
+        }
+        nodeKeysVals[nodeKeysValsSize++] = 0;
+        pendingNodes++;
+        nodeCount++;
+    }
+
+    public void write(OsmWay way) throws IOException {
+        if (pendingNodes > 0) {
+            flushNodes();
+        }
+        if (!pendingRelations.isEmpty()) {
+            flushRelations();
+        }
+        if (pendingWays.size() == MAX_ENTITIES_PER_BLOCK) {
+            flushWays();
+        }
+        pendingWays.add(way);
+        wayCount++;
+    }
+
+    public void write(OsmRelation relation) throws IOException {
+        if (pendingNodes > 0) {
+            flushNodes();
+        }
+        if (!pendingWays.isEmpty()) {
+            flushWays();
+        }
+        if (pendingRelations.size() == MAX_ENTITIES_PER_BLOCK) {
+            flushRelations();
+        }
+        pendingRelations.add(relation);
+        relationCount++;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getWayCount() {
+        return wayCount;
+    }
+
+    public long getRelationCount() {
+        return relationCount;
+    }
+
+    /**
+     * @return the number of bytes written so far, excluding the pending elements
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Writes the pending elements, so the following blobs start with the next element.
+     */
+    public void flush() throws IOException {
+        if (pendingNodes > 0) {
+            flushNodes();
+        }
+        if (!pendingWays.isEmpty()) {
+            flushWays();
+        }
+        if (!pendingRelations.isEmpty()) {
+            flushRelations();
+        }
+    }
+
+    /**
+     * Copies a blob of another file without decoding it. The pending elements are written first.
+     *
+     * @return the offset of the copy in this file
+     */
+    public long copy(PbfBlob blob) throws IOException {
+        flush();
+        long offset = position;
+        ProtobufWriter blobHeader = new ProtobufWriter();
+        blobHeader.writeString(1, blob.getType());
+        blobHeader.writeInt32(3, blob.getData().length);
+        writeFramed(blobHeader.toByteArray(), blob.getData());
+        return offset;
+    }
+
+    private void ensureKeysValsCapacity(int additional) {
+        if (nodeKeysValsSize + additional > nodeKeysVals.length) {
+            nodeKeysVals = Arrays.copyOf(nodeKeysVals, Math.max(nodeKeysVals.length * 2, nodeKeysValsSize + additional));
+        }
+    }
+
+    private void flushNodes() throws IOException {
+        ProtobufWriter dense = new ProtobufWriter(pendingNodes * 8);
+        dense.writePackedDeltaSInt64(1, nodeIds, pendingNodes);
+        dense.writePackedDeltaSInt64(8, nodeLats, pendingNodes);
+        dense.writePackedDeltaSInt64(9, nodeLons, pendingNodes);
+        if (nodesTagged) {
+            dense.writePackedInt32(10, nodeKeysVals, nodeKeysValsSize);
+        }
+        ProtobufWriter group = new ProtobufWriter(dense.size() + 8);
+        group.writeMessage(2, dense);
+
+        writeBlock(nodeStrings, group);
+        nodeStrings.clear();
+        pendingNodes = 0;
+        nodeKeysValsSize = 0;
+        nodesTagged = false;
+    }
+
+    private void flushWays() throws IOException {
+        StringTable strings = new StringTable();
+        ProtobufWriter group = new ProtobufWriter();
+        ProtobufWriter message = new ProtobufWriter();
+        for (OsmWay way : pendingWays) {
+            message.clear();
+            message.writeInt64(1, way.getId());
+            writeTags(message, way, strings);
+            message.writePackedDeltaSInt64(8, way.getRefs(), way.getRefs().length);
+            group.writeMessage(3, message);
+        }
+        writeBlock(strings, group);
+        pendingWays.clear();
+    }
+
+    private void flushRelations() throws IOException {
+        StringTable strings = new StringTable();
+        ProtobufWriter group = new ProtobufWriter();
+        ProtobufWriter message = new ProtobufWriter();
+        for (OsmRelation relation : pendingRelations) {
+            message.clear();
+            message.writeInt64(1, relation.getId());
+            writeTags(message, relation, strings);
+            int memberCount = relation.getMemberCount();
+            int[] roles = new int[memberCount];
+            long[] memberIds = new long[memberCount];
+            int[] memberTypes = new int[memberCount];
+            for (int i = 0; i < memberCount; i++) {
+                roles[i] = strings.index(relation.getMemberRole(i));
+                memberIds[i] = relation.getMemberId(i);
+                memberTypes[i] = relation.getMemberType(i);
+            }
+            message.writePackedInt32(8, roles, memberCount);
+            message.writePackedDeltaSInt64(9, memberIds, memberCount);
+            message.writePackedInt32(10, memberTypes, memberCount);
+            group.writeMessage(4, message);
+        }
+        writeBlock(strings, group);
+        pendingRelations.clear();
+    }
+
+    private static void writeTags(ProtobufWriter message, OsmEntity entity, StringTable strings) {
+        if (entity.hasTags()) {
+            int[] keys = new int[entity.getTagCount()];
+            int[] vals = new int[entity.getTagCount()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = strings.index(entity.getTagKey(i));
+                vals[i] = strings.index(entity.getTagValue(i));
+            }
+            message.writePackedInt32(2, keys, keys.length);
+            message.writePackedInt32(3, vals, vals.length);
+        }
+    }
+
+    private void writeBlock(StringTable strings, ProtobufWriter group) throws IOException {
+        ProtobufWriter block = new ProtobufWriter(group.size() + 1024);
+        block.writeMessage(1, strings.encode());
+        block.writeMessage(2, group);
+        writeBlob(PbfFile.TYPE_DATA, block);
+    }
+
+    private void writeBlob(String type, ProtobufWriter content) throws IOException {
+        byte[] raw = content.toByteArray();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        int compressedSize = 0;
+        while (!deflater.finished()) {
+            if (compressedSize == deflateBuffer.length) {
+                deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+            }
+            compressedSize += deflater.deflate(deflateBuffer, compressedSize, deflateBuffer.length - compressedSize);
+        }
+
+        ProtobufWriter blob = new ProtobufWriter(compressedSize + 16);
+        blob.writeInt32(2, raw.length);
+        blob.writeBytes(3, deflateBuffer, 0, compressedSize);
+
+        ProtobufWriter blobHeader = new ProtobufWriter();
+        blobHeader.writeString(1, type);
+        blobHeader.writeInt32(3, blob.size());
+
+        writeFramed(blobHeader.toByteArray(), blob.toByteArray());
+    }
+
+    private void writeFramed(byte[] blobHeader, byte[] blob) throws IOException {
+        out.writeInt(blobHeader.length);
+        out.write(blobHeader);
+        out.write(blob);
+        position += 4 + blobHeader.length + blob.length;
+    }
+
+    /**
+     * Writes the pending elements and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+            deflater.end();
+        }
+    }
+
+    /**
+     * The strings of a block. Index 0 is reserved as the separator of the DenseNodes tags.
+     */
+    private static class StringTable {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        StringTable() {
+            clear();
+        }
+
+        int index(String value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.add(value);
+                indexes.put(value, index);
+            }
+            return index;
+        }
+
+        void clear() {
+            indexes.clear();
+            strings.clear();
+            strings.add("");
+        }
+
+        ProtobufWriter encode() {
+            ProtobufWriter table = new ProtobufWriter();
+            for (String value : strings) {
+                table.writeBytes(1, value.getBytes(StandardCharsets.UTF_8));
+            }
+            return table;
+        }
+    }
+}
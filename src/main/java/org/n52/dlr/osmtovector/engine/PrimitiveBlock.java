@@ -0,0 +1,336 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decoded contents of an OSMData blob.
+ */
+public class PrimitiveBlock {
+
+    private final List<OsmNode> nodes = new ArrayList<>();
+    private final List<OsmWay> ways = new ArrayList<>();
+    private final List<OsmRelation> relations = new ArrayList<>();
+    private int wayCount = 0;
+    private int relationCount = 0;
+
+    public List<OsmNode> getNodes() {
+        return nodes;
+    }
+
+    public List<OsmWay> getWays() {
+        return ways;
+    }
+
+    public List<OsmRelation> getRelations() {
+        return relations;
+    }
+
+    /**
+     * @return number of ways in the block, including the ways which have not been decoded
+     */
+    public int getWayCount() {
+        return wayCount;
+    }
+
+    /**
+     * @return number of relations in the block, including the relations which have not been decoded
+     */
+    public int getRelationCount() {
+        return relationCount;
+    }
+
+    /**
+     * Decodes a decompressed OSMData blob. Element kinds which are not requested are skipped
+     * without being decoded.
+     */
+    public static PrimitiveBlock decode(byte[] data, boolean decodeNodes, boolean decodeWays) throws IOException {
+        return decode(data, decodeNodes, decodeWays, false);
+    }
+
+    public static PrimitiveBlock decode(byte[] data, boolean decodeNodes, boolean decodeWays, boolean decodeRelations)
+            throws IOException {
+        PrimitiveBlock block = new PrimitiveBlock();
+        String[] stringTable = new String[0];
+        int granularity = 100;
+        long latOffset = 0;
+        long lonOffset = 0;
+        List<ProtobufReader> groups = new ArrayList<>();
+
+        // the fields describing the coordinate encoding may follow the groups, so collect everything first
+        ProtobufReader reader = new ProtobufReader(data);
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtobufReader.fieldNumber(tag)) {
+                case 1:
+                    stringTable = readStringTable(reader.readMessage());
+                    break;
+                case 2:
+                    groups.add(reader.readMessage());
+                    break;
+                case 17:
+                    granularity = reader.readInt32();
+                    break;
+                case 19:
+                    latOffset = reader.readInt64();
+                    break;
+                case 20:
+                    lonOffset = reader.readInt64();
+                    break;
+                default:
+                    reader.skip(tag);
+            }
+        }
+
+        CoordinateDecoder coordinates = new CoordinateDecoder(granularity, latOffset, lonOffset);
+        for (ProtobufReader group : groups) {
+            while (group.hasRemaining()) {
+                int tag = group.readTag();
+                int field = ProtobufReader.fieldNumber(tag);
+                if (field == 3) {
+                    block.wayCount++;
+                } else if (field == 4) {
+                    block.relationCount++;
+                }
+
+                if (field == 1 && decodeNodes) {
+                    block.nodes.add(readNode(group.readMessage(), stringTable, coordinates));
+                } else if (field == 2 && decodeNodes) {
+                    readDenseNodes(group.readMessage(), stringTable, coordinates, block.nodes);
+                } else if (field == 3 && decodeWays) {
+                    block.ways.add(readWay(group.readMessage(), stringTable));
+                } else if (field == 4 && decodeRelations) {
+                    block.relations.add(readRelation(group.readMessage(), stringTable));
+                } else {
+                    group.skip(tag);
+                }
+            }
+        }
+        return block;
+    }
+
+    static String[] readStringTable(ProtobufReader reader) throws IOException {
+        List<String> strings = new ArrayList<>();
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            if (ProtobufReader.fieldNumber(tag) == 1) {
+                strings.add(new String(reader.readBytes(), StandardCharsets.UTF_8));
+            } else {
+                reader.skip(tag);
+            }
+        }
+        return strings.toArray(new String[strings.size()]);
+    }
+
+    private static OsmNode readNode(ProtobufReader reader, String[] stringTable, CoordinateDecoder coordinates) throws IOException {
+        long id = 0, lat = 0, lon = 0;
+        int[] keys = new int[0];
+        int[] vals = new int[0];
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtobufReader.fieldNumber(tag)) {
+                case 1:
+                    id = reader.readSInt64();
+                    break;
+                case 2:
+                    keys = reader.readPackedInt32();
+                    break;
+                case 3:
+                    vals = reader.readPackedInt32();
+                    break;
+                case 8:
+                    lat = reader.readSInt64();
+                    break;
+                case 9:
+                    lon = reader.readSInt64();
+                    break;
+                default:
+                    reader.skip(tag);
+            }
+        }
+        return new OsmNode(id, tags(keys, vals, stringTable), coordinates.lat(lat), coordinates.lon(lon));
+    }
+
+    private static void readDenseNodes(ProtobufReader reader, String[] stringTable, CoordinateDecoder coordinates,
+                                       List<OsmNode> nodes) throws IOException {
+        long[] ids = new long[0];
+        long[] lats = new long[0];
+        long[] lons = new long[0];
+        int[] keysVals = null;
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtobufReader.fieldNumber(tag)) {
+                case 1:
+                    ids = reader.readPackedDeltaSInt64();
+                    break;
+                case 8:
+                    lats = reader.readPackedDeltaSInt64();
+                    break;
+                case 9:
+                    lons = reader.readPackedDeltaSInt64();
+                    break;
+                case 10:
+                    keysVals = reader.readPackedInt32();
+                    break;
+                default:
+                    reader.skip(tag);
+            }
+        }
+        if (lats.length != ids.length || lons.length != ids.length) {
+            throw new IOException("Inconsistent DenseNodes block");
+        }
+
+        // keys and values of all nodes are stored in one array, the nodes being separated by a 0
+        int kvPos = 0;
+        for (int i = 0; i < ids.length; i++) {
+            String[] tags = null;
+            if (keysVals != null && kvPos < keysVals.length) {
+                int start = kvPos;
+                while (kvPos < keysVals.length && keysVals[kvPos] != 0) {
+                    kvPos += 2;
+                }
+                if (kvPos > start) {
+                    tags = new String[kvPos - start];
+                    for (int j = 0; j < tags.length; j++) {
+                        tags[j] = string(stringTable, keysVals[start + j]);
+                    }
+                }
+                kvPos++;
+            }
+            nodes.add(new OsmNode(ids[i], tags, coordinates.lat(lats[i]), coordinates.lon(lons[i])));
+        }
+    }
+
+    private static OsmWay readWay(ProtobufReader reader, String[] stringTable) throws IOException {
+        long id = 0;
+        int[] keys = new int[0];
+        int[] vals = new int[0];
+        long[] refs = new long[0];
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtobufReader.fieldNumber(tag)) {
+                case 1:
+                    id = reader.readInt64();
+                    break;
+                case 2:
+                    keys = reader.readPackedInt32();
+                    break;
+                case 3:
+                    vals = reader.readPackedInt32();
+                    break;
+                case 8:
+                    refs = reader.readPackedDeltaSInt64();
+                    break;
+                default:
+                    reader.skip(tag);
+            }
+        }
+        return new OsmWay(id, tags(keys, vals, stringTable), refs);
+    }
+
+    private static OsmRelation readRelation(ProtobufReader reader, String[] stringTable) throws IOException {
+        long id = 0;
+        int[] keys = new int[0];
+        int[] vals = new int[0];
+        int[] roles = new int[0];
+        long[] memberIds = new long[0];
+        int[] memberTypes = new int[0];
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtobufReader.fieldNumber(tag)) {
+                case 1:
+                    id = reader.readInt64();
+                    break;
+                case 2:
+                    keys = reader.readPackedInt32();
+                    break;
+                case 3:
+                    vals = reader.readPackedInt32();
+                    break;
+                case 8:
+                    roles = reader.readPackedInt32();
+                    break;
+                case 9:
+                    memberIds = reader.readPackedDeltaSInt64();
+                    break;
+                case 10:
+                    memberTypes = reader.readPackedInt32();
+                    break;
+                default:
+                    reader.skip(tag);
+            }
+        }
+        if (roles.length != memberIds.length || memberTypes.length != memberIds.length) {
+            throw new IOException("Inconsistent members of relation " + id);
+        }
+        String[] memberRoles = new String[roles.length];
+        for (int i = 0; i < roles.length; i++) {
+            memberRoles[i] = string(stringTable, roles[i]);
+        }
+        return new OsmRelation(id, tags(keys, vals, stringTable), memberIds, memberTypes, memberRoles);
+    }
+
+    private static String[] tags(int[] keys, int[] vals, String[] stringTable) throws IOException {
+        if (keys.length != vals.length) {
+            throw new IOException("Number of tag keys and values differ");
+        }
+        if (keys.length == 0) {
+            return null;
+        }
+        String[] tags = new String[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            tags[2 * i] = string(stringTable, keys[i]);
+            tags[2 * i + 1] = string(stringTable, vals[i]);
+        }
+        return tags;
+    }
+
+    private static String string(String[] stringTable, int index) throws IOException {
+        if (index < 0 || index >= stringTable.length) {
+            throw new IOException("Invalid string table index " + index);
+        }
+        return stringTable[index];
+    }
+
+    private static class CoordinateDecoder {
+        private final int granularity;
+        private final long latOffset;
+        private final long lonOffset;
+
+        CoordinateDecoder(int granularity, long latOffset, long lonOffset) {
+            this.granularity = granularity;
+            this.latOffset = latOffset;
+            this.lonOffset = lonOffset;
+        }
+
+        double lat(long value) {
+            return 1e-9 * (latOffset + (long) granularity * value);
+        }
+
+        double lon(long value) {
+            return 1e-9 * (lonOffset + (long) granularity * value);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal reader for the protobuf wire format, covering what is needed to decode
+ * the messages of the OSM PBF format.
+ */
+public class ProtobufReader {
+
+    public static final int WIRETYPE_VARINT = 0;
+    public static final int WIRETYPE_FIXED64 = 1;
+    public static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    public static final int WIRETYPE_FIXED32 = 5;
+
+    private final byte[] buffer;
+    private int pos;
+    private final int limit;
+
+    public ProtobufReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public ProtobufReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    public boolean hasRemaining() {
+        return pos < limit;
+    }
+
+    /**
+     * @return the next tag, consisting of the field number and the wire type
+     */
+    public int readTag() throws IOException {
+        return (int) readRawVarint();
+    }
+
+    public static int fieldNumber(int tag) {
+        return tag >>> 3;
+    }
+
+    public static int wireType(int tag) {
+        return tag & 0x7;
+    }
+
+    public long readRawVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) {
+                throw new IOException("Truncated protobuf message");
+            }
+            byte b = buffer[pos++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint in protobuf message");
+    }
+
+    public int readInt32() throws IOException {
+        return (int) readRawVarint();
+    }
+
+    public long readInt64() throws IOException {
+        return readRawVarint();
+    }
+
+    public long readSInt64() throws IOException {
+        return decodeZigZag(readRawVarint());
+    }
+
+    public static long decodeZigZag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    public byte[] readBytes() throws IOException {
+        int length = readLength();
+        byte[] result = new byte[length];
+        System.arraycopy(buffer, pos, result, 0, length);
+        pos += length;
+        return result;
+    }
+
+    public String readString() throws IOException {
+        int length = readLength();
+        String result = new String(buffer, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return result;
+    }
+
+    /**
+     * @return a reader limited to the embedded message at the current position
+     */
+    public ProtobufReader readMessage() throws IOException {
+        int length = readLength();
+        ProtobufReader message = new ProtobufReader(buffer, pos, length);
+        pos += length;
+        return message;
+    }
+
+    public long[] readPackedSInt64() throws IOException {
+        ProtobufReader packed = readMessage();
+        long[] values = new long[packed.countVarints()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = packed.readSInt64();
+        }
+        return values;
+    }
+
+    /**
+     * Reads packed signed values and resolves the delta coding used for ids and coordinates.
+     */
+    public long[] readPackedDeltaSInt64() throws IOException {
+        long[] values = readPackedSInt64();
+        for (int i = 1; i < values.length; i++) {
+            values[i] += values[i - 1];
+        }
+        return values;
+    }
+
+    public int[] readPackedInt32() throws IOException {
+        ProtobufReader packed = readMessage();
+        int[] values = new int[packed.countVarints()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = packed.readInt32();
+        }
+        return values;
+    }
+
+    public void skip(int tag) throws IOException {
+        switch (wireType(tag)) {
+            case WIRETYPE_VARINT:
+                readRawVarint();
+                break;
+            case WIRETYPE_FIXED64:
+                advance(8);
+                break;
+            case WIRETYPE_LENGTH_DELIMITED:
+                advance(readLength());
+                break;
+            case WIRETYPE_FIXED32:
+                advance(4);
+                break;
+            default:
+                throw new IOException("Unsupported protobuf wire type " + wireType(tag));
+        }
+    }
+
+    private int readLength() throws IOException {
+        int length = readInt32();
+        if (length < 0 || length > limit - pos) {
+            throw new IOException("Invalid length of protobuf field: " + length);
+        }
+        return length;
+    }
+
+    private void advance(int count) throws IOException {
+        if (count > limit - pos) {
+            throw new IOException("Truncated protobuf message");
+        }
+        pos += count;
+    }
+
+    private int countVarints() {
+        int count = 0;
+        for (int i = pos; i < limit; i++) {
+            if ((buffer[i] & 0x80) == 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
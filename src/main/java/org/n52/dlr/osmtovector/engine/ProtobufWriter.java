@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal writer for the protobuf wire format, the counterpart of {@link ProtobufReader}.
+ */
+public class ProtobufWriter {
+
+    private byte[] buffer;
+    private int size = 0;
+
+    public ProtobufWriter() {
+        this(256);
+    }
+
+    public ProtobufWriter(int initialCapacity) {
+        this.buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+
+    public void writeRawVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    public void writeTag(int field, int wireType) {
+        writeRawVarint((field << 3) | wireType);
+    }
+
+    public void writeInt32(int field, int value) {
+        writeTag(field, ProtobufReader.WIRETYPE_VARINT);
+        // negative values are sign extended to ten bytes, as the protobuf encoding requires
+        writeRawVarint(value);
+    }
+
+    public void writeInt64(int field, long value) {
+        writeTag(field, ProtobufReader.WIRETYPE_VARINT);
+        writeRawVarint(value);
+    }
+
+    public void writeSInt64(int field, long value) {
+        writeTag(field, ProtobufReader.WIRETYPE_VARINT);
+        writeRawVarint(encodeZigZag(value));
+    }
+
+    public static long encodeZigZag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    public void writeBytes(int field, byte[] bytes) {
+        writeBytes(field, bytes, 0, bytes.length);
+    }
+
+    public void writeBytes(int field, byte[] bytes, int offset, int length) {
+        writeTag(field, ProtobufReader.WIRETYPE_LENGTH_DELIMITED);
+        writeRawVarint(length);
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    public void writeString(int field, String value) {
+        writeBytes(field, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void writeMessage(int field, ProtobufWriter message) {
+        writeBytes(field, message.buffer, 0, message.size);
+    }
+
+    public void writePackedInt32(int field, int[] values, int count) {
+        ProtobufWriter packed = new ProtobufWriter(count * 2);
+        for (int i = 0; i < count; i++) {
+            packed.writeRawVarint(values[i]);
+        }
+        writeMessage(field, packed);
+    }
+
+    /**
+     * Writes the differences between consecutive values, the counterpart of
+     * {@link ProtobufReader#readPackedDeltaSInt64()}.
+     */
+    public void writePackedDeltaSInt64(int field, long[] values, int count) {
+        ProtobufWriter packed = new ProtobufWriter(count * 3);
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            packed.writeRawVarint(encodeZigZag(values[i] - previous));
+            previous = values[i];
+        }
+        writeMessage(field, packed);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What an extraction returns: the features themselves, only their number, or their number and extent.
+ */
+public enum ResultMode {
+    FEATURES("features"),
+    COUNT("count"),
+    EXTENT("extent");
+
+    private final String name;
+
+    ResultMode(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static ResultMode fromName(String name) {
+        for (ResultMode resultMode : values()) {
+            if (resultMode.name.equals(name)) {
+                return resultMode;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported resultMode: " + name
+                + ". Supported are " + String.join(", ", quotedNames()));
+    }
+
+    private static List<String> quotedNames() {
+        List<String> names = new ArrayList<>();
+        for (ResultMode resultMode : values()) {
+            names.add("'" + resultMode.name + "'");
+        }
+        return names;
+    }
+}
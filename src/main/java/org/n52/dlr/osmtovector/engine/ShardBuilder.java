@@ -0,0 +1,290 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Divides a dataset into the shards described by a {@link ShardManifest}. The nodes are counted
+ * on the grid of the finest tiles, and tiles are divided as long as they hold more than the
+ * maximum number of nodes. Ways are written to the shard containing their first known node.
+ * Relations are not written to the shards.
+ */
+public class ShardBuilder {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ShardBuilder.class);
+
+    private static final int GRID_SIZE = 1 << ShardManifest.MAX_ZOOM;
+
+    // shard numbers are stored in the lower bits next to node ids
+    private static final int SHARD_BITS = 2 * ShardManifest.MAX_ZOOM;
+    private static final long SHARD_MASK = (1L << SHARD_BITS) - 1;
+
+    // limits the number of files written at the same time, more shards need further passes
+    private static final int MAX_OPEN_SHARDS = 128;
+
+    private static final String WRITING_PROGRAM = "osmtovector";
+
+    private final ParallelBlockReader blockReader;
+    private final Path workDirectory;
+
+    /**
+     * @param workDirectory directory for the node locations of large datasets
+     */
+    public ShardBuilder(ParallelBlockReader blockReader, Path workDirectory) {
+        this.blockReader = blockReader;
+        this.workDirectory = workDirectory;
+    }
+
+    /**
+     * Writes the shards and the manifest into the directory, which has to exist.
+     */
+    public ShardManifest build(Path dataset, Path directory, long maxNodes) throws IOException {
+        long size = Files.size(dataset);
+        long lastModified = Files.getLastModifiedTime(dataset).toMillis();
+
+        try (PbfFile file = new PbfFile(dataset)) {
+            PbfHeader header = file.readHeader();
+
+            int[] cellCounts = new int[GRID_SIZE * GRID_SIZE];
+            List<ShardManifest.Shard> shards = new ArrayList<>();
+            try (NodeLocationStore.Builder nodes = NodeLocationStore.builder(workDirectory)) {
+                blockReader.read(file, blob -> PrimitiveBlock.decode(blob.decompress(), true, false), block -> {
+                    for (OsmNode node : block.getNodes()) {
+                        cellCounts[cell(node.getLon(), node.getLat())]++;
+                        nodes.add(node.getId());
+                    }
+                });
+
+                long nodeCount = 0;
+                for (int count : cellCounts) {
+                    nodeCount += count;
+                }
+                if (nodeCount > maxNodes) {
+                    List<int[]> tiles = new ArrayList<>();
+                    collectTiles(countPyramid(cellCounts), 0, 0, 0, maxNodes, tiles);
+                    LOGGER.info("Dividing {} nodes of {} into {} shards", nodeCount, dataset, tiles.size());
+                    shards = writeShards(file, header, directory, nodes, tiles);
+                }
+            }
+
+            ShardManifest manifest = new ShardManifest(directory, size, lastModified, maxNodes, shards);
+            manifest.write(directory.resolve(ShardManifest.FILE_NAME));
+            return manifest;
+        }
+    }
+
+    private List<ShardManifest.Shard> writeShards(PbfFile file, PbfHeader header, Path directory,
+                                                  NodeLocationStore.Builder nodes, List<int[]> tiles)
+            throws IOException {
+        int[] cellShards = new int[GRID_SIZE * GRID_SIZE];
+        Arrays.fill(cellShards, -1);
+        for (int shard = 0; shard < tiles.size(); shard++) {
+            int[] tile = tiles.get(shard);
+            int span = 1 << (ShardManifest.MAX_ZOOM - tile[0]);
+            for (int y = tile[2] * span; y < (tile[2] + 1) * span; y++) {
+                Arrays.fill(cellShards, y * GRID_SIZE + tile[1] * span, y * GRID_SIZE + (tile[1] + 1) * span, shard);
+            }
+        }
+
+        long[] nodeCounts = new long[tiles.size()];
+        long[] wayCounts = new long[tiles.size()];
+        Envelope[] envelopes = new Envelope[tiles.size()];
+        for (int shard = 0; shard < tiles.size(); shard++) {
+            envelopes[shard] = new Envelope();
+        }
+
+        try (NodeLocationStore locations = nodes.build()) {
+            file.rewind();
+            blockReader.read(file, blob -> PrimitiveBlock.decode(blob.decompress(), true, false), block -> {
+                for (OsmNode node : block.getNodes()) {
+                    locations.put(node.getId(), node.getLon(), node.getLat());
+                }
+            });
+
+            // nodes of ways located in another shard than the way, as (id << SHARD_BITS) | shard of the way
+            LongArray foreignNodes = new LongArray();
+            file.rewind();
+            blockReader.read(file, blob -> PrimitiveBlock.decode(blob.decompress(), false, true), block -> {
+                for (OsmWay way : block.getWays()) {
+                    int owner = owner(way, locations, cellShards);
+                    if (owner < 0) {
+                        continue;
+                    }
+                    for (long ref : way.getRefs()) {
+                        Coordinate coordinate = locations.get(ref);
+                        if (coordinate != null && cellShards[cell(coordinate.x, coordinate.y)] != owner) {
+                            foreignNodes.add((ref << SHARD_BITS) | owner);
+                        }
+                    }
+                }
+            });
+            long[] sortedForeignNodes = foreignNodes.toSortedUniqueArray();
+
+            for (int first = 0; first < tiles.size(); first += MAX_OPEN_SHARDS) {
+                writeShardGroup(file, header, directory, tiles, first, Math.min(tiles.size(), first + MAX_OPEN_SHARDS),
+                        cellShards, locations, sortedForeignNodes, nodeCounts, wayCounts, envelopes);
+            }
+        }
+
+        List<ShardManifest.Shard> shards = new ArrayList<>();
+        for (int shard = 0; shard < tiles.size(); shard++) {
+            int[] tile = tiles.get(shard);
+            Path path = directory.resolve(ShardManifest.Shard.fileName(tile[0], tile[1], tile[2]));
+            shards.add(new ShardManifest.Shard(tile[0], tile[1], tile[2], Files.size(path),
+                    nodeCounts[shard], wayCounts[shard], envelopes[shard]));
+        }
+        return shards;
+    }
+
+    /**
+     * Writes the shards from first (inclusive) to last (exclusive) with a pass over the nodes and one over the ways.
+     */
+    private void writeShardGroup(PbfFile file, PbfHeader header, Path directory, List<int[]> tiles, int first,
+                                 int last, int[] cellShards, NodeLocationStore locations, long[] foreignNodes,
+                                 long[] nodeCounts, long[] wayCounts, Envelope[] envelopes) throws IOException {
+        List<PbfWriter> writers = new ArrayList<>();
+        try {
+            for (int shard = first; shard < last; shard++) {
+                int[] tile = tiles.get(shard);
+                writers.add(new PbfWriter(directory.resolve(ShardManifest.Shard.fileName(tile[0], tile[1], tile[2])),
+                        null, WRITING_PROGRAM, header.getReplicationTimestamp()));
+            }
+
+            file.rewind();
+            blockReader.read(file, blob -> PrimitiveBlock.decode(blob.decompress(), true, false), block -> {
+                for (OsmNode node : block.getNodes()) {
+                    int shard = cellShards[cell(node.getLon(), node.getLat())];
+                    if (shard >= first && shard < last) {
+                        writers.get(shard - first).write(node);
+                        nodeCounts[shard]++;
+                        envelopes[shard].expandToInclude(node.getLon(), node.getLat());
+                    }
+
+                    int i = Arrays.binarySearch(foreignNodes, node.getId() << SHARD_BITS);
+                    for (i = i < 0 ? -i - 1 : i; i < foreignNodes.length
+                            && foreignNodes[i] >> SHARD_BITS == node.getId(); i++) {
+                        int wayShard = (int) (foreignNodes[i] & SHARD_MASK);
+                        if (wayShard >= first && wayShard < last) {
+                            // without tags, so the copy is not extracted as a node of this shard
+                            writers.get(wayShard - first).write(
+                                    new OsmNode(node.getId(), null, node.getLat(), node.getLon()));
+                            envelopes[wayShard].expandToInclude(node.getLon(), node.getLat());
+                        }
+                    }
+                }
+            });
+
+            file.rewind();
+            blockReader.read(file, blob -> PrimitiveBlock.decode(blob.decompress(), false, true), block -> {
+                for (OsmWay way : block.getWays()) {
+                    int shard = owner(way, locations, cellShards);
+                    if (shard >= first && shard < last) {
+                        writers.get(shard - first).write(way);
+                        wayCounts[shard]++;
+                    }
+                }
+            });
+        } finally {
+            IOException closeError = null;
+            for (PbfWriter writer : writers) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    closeError = e;
+                }
+            }
+            if (closeError != null) {
+                throw closeError;
+            }
+        }
+    }
+
+    /**
+     * @return the shard of the first known node of the way, or -1 when none of the nodes is known
+     */
+    private static int owner(OsmWay way, NodeLocationStore locations, int[] cellShards) throws IOException {
+        for (long ref : way.getRefs()) {
+            Coordinate coordinate = locations.get(ref);
+            if (coordinate != null) {
+                return cellShards[cell(coordinate.x, coordinate.y)];
+            }
+        }
+        return -1;
+    }
+
+    private static int cell(double lon, double lat) {
+        return ShardManifest.cellY(lat) * GRID_SIZE + ShardManifest.cellX(lon);
+    }
+
+    /**
+     * @return the number of nodes per tile for every zoom level up to the grid
+     */
+    private static long[][] countPyramid(int[] cellCounts) {
+        long[][] pyramid = new long[ShardManifest.MAX_ZOOM + 1][];
+        pyramid[ShardManifest.MAX_ZOOM] = new long[cellCounts.length];
+        for (int i = 0; i < cellCounts.length; i++) {
+            pyramid[ShardManifest.MAX_ZOOM][i] = cellCounts[i];
+        }
+        for (int zoom = ShardManifest.MAX_ZOOM - 1; zoom >= 0; zoom--) {
+            int tiles = 1 << zoom;
+            long[] finer = pyramid[zoom + 1];
+            long[] counts = new long[tiles * tiles];
+            for (int y = 0; y < tiles; y++) {
+                for (int x = 0; x < tiles; x++) {
+                    counts[y * tiles + x] = finer[(2 * y) * 2 * tiles + 2 * x] + finer[(2 * y) * 2 * tiles + 2 * x + 1]
+                            + finer[(2 * y + 1) * 2 * tiles + 2 * x] + finer[(2 * y + 1) * 2 * tiles + 2 * x + 1];
+                }
+            }
+            pyramid[zoom] = counts;
+        }
+        return pyramid;
+    }
+
+    /**
+     * Collects the tiles with nodes which are not divided further, as {zoom, x, y}.
+     */
+    private static void collectTiles(long[][] pyramid, int zoom, int x, int y, long maxNodes, List<int[]> tiles) {
+        long count = pyramid[zoom][y * (1 << zoom) + x];
+        if (count == 0) {
+            return;
+        }
+        if (count <= maxNodes || zoom == ShardManifest.MAX_ZOOM) {
+            tiles.add(new int[]{zoom, x, y});
+            return;
+        }
+        for (int dy = 0; dy < 2; dy++) {
+            for (int dx = 0; dx < 2; dx++) {
+                collectTiles(pyramid, zoom + 1, 2 * x + dx, 2 * y + dy, maxNodes, tiles);
+            }
+        }
+    }
+}
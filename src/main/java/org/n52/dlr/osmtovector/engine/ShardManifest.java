@@ -0,0 +1,288 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes the shards of a dataset. The dataset is divided into the tiles of a quadtree over
+ * longitude and latitude, each tile holding at most a configured number of nodes. Every shard
+ * is a PBF file with the nodes located in its tile and the ways starting in it. The nodes of
+ * these ways located in other tiles are copied into the shard without their tags, so each
+ * shard can be read on its own.
+ *
+ * Datasets with at most the configured number of nodes have a manifest without shards.
+ */
+public class ShardManifest {
+
+    public static final String FILE_NAME = "manifest.json";
+
+    /**
+     * Zoom level of the finest tiles. Tiles at this level are not divided further.
+     */
+    public static final int MAX_ZOOM = 10;
+
+    private final Path directory;
+    private final long sourceSize;
+    private final long sourceLastModified;
+    private final long maxNodes;
+    private final List<Shard> shards;
+
+    public ShardManifest(Path directory, long sourceSize, long sourceLastModified, long maxNodes,
+                         List<Shard> shards) {
+        this.directory = directory;
+        this.sourceSize = sourceSize;
+        this.sourceLastModified = sourceLastModified;
+        this.maxNodes = maxNodes;
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+    }
+
+    /**
+     * @return true if the shards have been built from a file with the given attributes
+     */
+    public boolean isCurrent(long size, long lastModified) {
+        return this.sourceSize == size && this.sourceLastModified == lastModified;
+    }
+
+    public long getMaxNodes() {
+        return maxNodes;
+    }
+
+    /**
+     * @return false when the dataset is small enough to be read as a single file
+     */
+    public boolean isSharded() {
+        return !shards.isEmpty();
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * @param filter area of interest, or null for all shards
+     * @return the shards with elements within the envelope of the area
+     */
+    public List<Shard> getShards(Geometry filter) {
+        if (filter == null) {
+            return shards;
+        }
+        Envelope envelope = filter.getEnvelopeInternal();
+        List<Shard> result = new ArrayList<>();
+        for (Shard shard : shards) {
+            if (shard.getEnvelope().intersects(envelope)) {
+                result.add(shard);
+            }
+        }
+        return result;
+    }
+
+    public Path getPath(Shard shard) {
+        return directory.resolve(shard.getFileName());
+    }
+
+    /**
+     * @return the column of the cell at {@link #MAX_ZOOM} containing the longitude
+     */
+    public static int cellX(double lon) {
+        // computed on the precision of the OSM database, so every representation of a location
+        // ends up in the same cell
+        return clampCell((Math.round(lon * 1e7) + 1800000000L) * (1 << MAX_ZOOM) / 3600000000L);
+    }
+
+    /**
+     * @return the row of the cell at {@link #MAX_ZOOM} containing the latitude, counted from the south
+     */
+    public static int cellY(double lat) {
+        return clampCell((Math.round(lat * 1e7) + 900000000L) * (1 << MAX_ZOOM) / 1800000000L);
+    }
+
+    private static int clampCell(long cell) {
+        return (int) Math.max(0, Math.min((1 << MAX_ZOOM) - 1, cell));
+    }
+
+    /**
+     * @return the area covered by a tile
+     */
+    public static Envelope tileEnvelope(int zoom, int x, int y) {
+        double width = 360.0 / (1 << zoom);
+        double height = 180.0 / (1 << zoom);
+        return new Envelope(-180.0 + x * width, -180.0 + (x + 1) * width, -90.0 + y * height, -90.0 + (y + 1) * height);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void write(Path path) throws IOException {
+        JSONObject json = new JSONObject();
+        json.put("sourceSize", sourceSize);
+        json.put("sourceLastModified", sourceLastModified);
+        json.put("maxNodes", maxNodes);
+        JSONArray shardArray = new JSONArray();
+        for (Shard shard : shards) {
+            shardArray.add(shard.toJSON());
+        }
+        json.put("shards", shardArray);
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            json.writeJSONString(writer);
+        }
+    }
+
+    /**
+     * Reads the manifest in the directory of the shards.
+     */
+    public static ShardManifest read(Path directory) throws IOException {
+        Path path = directory.resolve(FILE_NAME);
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            JSONObject json = (JSONObject) new JSONParser().parse(reader);
+            List<Shard> shards = new ArrayList<>();
+            for (Object shard : (JSONArray) json.get("shards")) {
+                shards.add(Shard.fromJSON((JSONObject) shard));
+            }
+            return new ShardManifest(directory,
+                    getLong(json, "sourceSize"),
+                    getLong(json, "sourceLastModified"),
+                    getLong(json, "maxNodes"),
+                    shards);
+        } catch (ParseException | ClassCastException | NullPointerException | IndexOutOfBoundsException e) {
+            throw new IOException("Invalid shard manifest " + path, e);
+        }
+    }
+
+    private static long getLong(JSONObject json, String key) throws IOException {
+        Object value = json.get(key);
+        if (!(value instanceof Number)) {
+            throw new IOException("Missing value for '" + key + "' in shard manifest");
+        }
+        return ((Number) value).longValue();
+    }
+
+    public static class Shard {
+        private final int zoom;
+        private final int x;
+        private final int y;
+        private final long size;
+        private final long nodeCount;
+        private final long wayCount;
+        // extent of all nodes in the shard, including the copied ones
+        private final Envelope envelope;
+
+        public Shard(int zoom, int x, int y, long size, long nodeCount, long wayCount, Envelope envelope) {
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+            this.size = size;
+            this.nodeCount = nodeCount;
+            this.wayCount = wayCount;
+            this.envelope = envelope;
+        }
+
+        public static String fileName(int zoom, int x, int y) {
+            return zoom + "-" + x + "-" + y + ".osm.pbf";
+        }
+
+        public String getFileName() {
+            return fileName(zoom, x, y);
+        }
+
+        public int getZoom() {
+            return zoom;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        /**
+         * @return the size of the file, used to detect shards which have been replaced
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the number of nodes located in the tile of the shard
+         */
+        public long getNodeCount() {
+            return nodeCount;
+        }
+
+        public long getWayCount() {
+            return wayCount;
+        }
+
+        public Envelope getEnvelope() {
+            return envelope;
+        }
+
+        @SuppressWarnings("unchecked")
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("zoom", zoom);
+            json.put("x", x);
+            json.put("y", y);
+            json.put("size", size);
+            json.put("nodes", nodeCount);
+            json.put("ways", wayCount);
+            JSONArray bbox = new JSONArray();
+            bbox.add(envelope.getMinX());
+            bbox.add(envelope.getMinY());
+            bbox.add(envelope.getMaxX());
+            bbox.add(envelope.getMaxY());
+            json.put("bbox", bbox);
+            return json;
+        }
+
+        static Shard fromJSON(JSONObject json) throws IOException {
+            JSONArray bbox = (JSONArray) json.get("bbox");
+            Envelope envelope = new Envelope(
+                    ((Number) bbox.get(0)).doubleValue(),
+                    ((Number) bbox.get(2)).doubleValue(),
+                    ((Number) bbox.get(1)).doubleValue(),
+                    ((Number) bbox.get(3)).doubleValue());
+            return new Shard(
+                    (int) getLong(json, "zoom"),
+                    (int) getLong(json, "x"),
+                    (int) getLong(json, "y"),
+                    getLong(json, "size"),
+                    getLong(json, "nodes"),
+                    getLong(json, "ways"),
+                    envelope);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Extracts features from the shards of a dataset, reading only the shards within the envelope
+ * of the spatial filter. The features of all shards are passed to the same sink.
+ */
+public class ShardedExtractor implements Extractor {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ShardedExtractor.class);
+
+    private final ShardManifest manifest;
+    private final PbfExtractor extractor;
+
+    /**
+     * @param decoderPool pool used to decode the blobs of the shards, or null to decode them sequentially
+     * @param workDirectory directory for temporary files, or null to use the default temporary directory
+     */
+    public ShardedExtractor(ShardManifest manifest, ForkJoinPool decoderPool, Path workDirectory) {
+        this.manifest = manifest;
+        // the shards are small, so they are read without an index
+        this.extractor = new PbfExtractor(decoderPool, null, workDirectory);
+    }
+
+    /**
+     * @param dataset the dataset the shards have been built from, it is not read
+     */
+    @Override
+    public void extract(Path dataset, ExtractionQuery query, FeatureSink sink) throws IOException {
+        OsmFeatureFactory factory = new OsmFeatureFactory(query);
+        sink.start(factory.getFeatureType());
+        FeatureSink shardSink = sink instanceof FeatureSummary ? sink : LimitedFeatureSink.wrap(query, sink);
+
+        List<ShardManifest.Shard> shards = manifest.getShards(query.getSpatialFilter());
+        LOGGER.debug("reading {} of {} shards of {}", shards.size(), manifest.getShards().size(), dataset);
+        for (ShardManifest.Shard shard : shards) {
+            if (shardSink.remaining() <= 0) {
+                break;
+            }
+            try (PbfFile file = open(shard)) {
+                extractor.extract(file, query, factory, shardSink);
+            }
+        }
+    }
+
+    /**
+     * Answers the queries with a single pass over each shard needed by any of them. Each shard is
+     * only asked for the queries whose spatial filter it intersects.
+     */
+    @Override
+    public void extract(Path dataset, List<ExtractionQuery> queries, List<? extends FeatureSink> sinks)
+            throws IOException {
+        OsmFeatureFactory[] factories = new OsmFeatureFactory[queries.size()];
+        List<FeatureSink> limitedSinks = new ArrayList<>();
+        for (int i = 0; i < factories.length; i++) {
+            factories[i] = new OsmFeatureFactory(queries.get(i));
+            sinks.get(i).start(factories[i].getFeatureType());
+            limitedSinks.add(LimitedFeatureSink.wrap(queries.get(i), sinks.get(i)));
+        }
+
+        for (ShardManifest.Shard shard : manifest.getShards()) {
+            List<ExtractionQuery> shardQueries = new ArrayList<>();
+            List<OsmFeatureFactory> shardFactories = new ArrayList<>();
+            List<FeatureSink> shardSinks = new ArrayList<>();
+            for (int i = 0; i < factories.length; i++) {
+                Geometry filter = queries.get(i).getSpatialFilter();
+                if (filter == null || intersects(shard.getEnvelope(), filter)) {
+                    shardQueries.add(queries.get(i));
+                    shardFactories.add(factories[i]);
+                    shardSinks.add(limitedSinks.get(i));
+                }
+            }
+            if (shardQueries.isEmpty()) {
+                continue;
+            }
+            try (PbfFile file = open(shard)) {
+                extractor.extract(file, shardQueries,
+                        shardFactories.toArray(new OsmFeatureFactory[shardFactories.size()]), shardSinks);
+            }
+        }
+    }
+
+    private static boolean intersects(Envelope envelope, Geometry filter) {
+        return envelope.intersects(filter.getEnvelopeInternal());
+    }
+
+    /**
+     * Opens a shard and checks that it has not been replaced by a rebuild since the manifest was read.
+     */
+    private PbfFile open(ShardManifest.Shard shard) throws IOException {
+        PbfFile file = new PbfFile(manifest.getPath(shard));
+        if (file.size() != shard.getSize()) {
+            file.close();
+            throw new IOException("Shard " + manifest.getPath(shard) + " has been changed, the dataset is being sharded again");
+        }
+        try {
+            file.readHeader();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        return file;
+    }
+}
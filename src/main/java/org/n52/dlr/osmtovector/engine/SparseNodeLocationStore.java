@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the locations in an array parallel to the sorted node ids.
+ */
+class SparseNodeLocationStore extends NodeLocationStore {
+
+    private final long[] nodeIds;
+    private final long[] locations;
+
+    /**
+     * @param sortedNodeIds ids of the requested nodes, sorted and without duplicates
+     */
+    SparseNodeLocationStore(long[] sortedNodeIds) {
+        this.nodeIds = sortedNodeIds;
+        this.locations = new long[sortedNodeIds.length];
+    }
+
+    @Override
+    public int getNodeCount() {
+        return nodeIds.length;
+    }
+
+    @Override
+    public void put(long id, double lon, double lat) {
+        int i = Arrays.binarySearch(nodeIds, id);
+        if (i >= 0) {
+            locations[i] = pack(lon, lat);
+        }
+    }
+
+    @Override
+    protected long load(long id) {
+        int i = Arrays.binarySearch(nodeIds, id);
+        return i < 0 ? 0 : locations[i];
+    }
+
+    @Override
+    boolean containsAnyNode(long minId, long maxId) {
+        int pos = Arrays.binarySearch(nodeIds, minId);
+        if (pos >= 0) {
+            return true;
+        }
+        int insertion = -pos - 1;
+        return insertion < nodeIds.length && nodeIds[insertion] <= maxId;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.geom.util.LinearComponentExtracter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests elements against the polygons of a spatialFilter. The envelope of the filter is
+ * divided into a grid whose cells are classified as inside, outside or crossed by the
+ * boundary. Only elements in cells crossed by the boundary need an exact test against the
+ * prepared geometry.
+ */
+public class SpatialFilter {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(SpatialFilter.class);
+
+    private static final byte OUTSIDE = 0;
+    private static final byte INSIDE = 1;
+    private static final byte BOUNDARY = 2;
+
+    private static final int MIN_GRID_SIZE = 16;
+    private static final int MAX_GRID_SIZE = 256;
+
+    private final Geometry geometry;
+    private final PreparedGeometry prepared;
+    private final Envelope envelope;
+    private final int gridSize;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final byte[] cells;
+
+    public SpatialFilter(Geometry geometry) {
+        this.geometry = geometry;
+        this.prepared = PreparedGeometryFactory.prepare(geometry);
+        this.envelope = geometry.getEnvelopeInternal();
+        this.gridSize = Math.max(MIN_GRID_SIZE,
+                Math.min(MAX_GRID_SIZE, (int) Math.sqrt(geometry.getNumPoints())));
+        this.cellWidth = envelope.getWidth() > 0 ? envelope.getWidth() / gridSize : 1.0;
+        this.cellHeight = envelope.getHeight() > 0 ? envelope.getHeight() / gridSize : 1.0;
+        this.cells = new byte[gridSize * gridSize];
+        classifyCells();
+    }
+
+    private void classifyCells() {
+        // cells touched by a boundary segment, widened by one cell against rounding
+        for (Object ring : LinearComponentExtracter.getLines(geometry)) {
+            markBoundary((LineString) ring);
+        }
+
+        // the other cells do not contain any part of the boundary, so their center decides
+        GeometryFactory geometryFactory = geometry.getFactory();
+        int inside = 0;
+        int boundary = 0;
+        for (int row = 0; row < gridSize; row++) {
+            for (int col = 0; col < gridSize; col++) {
+                int i = row * gridSize + col;
+                if (cells[i] == BOUNDARY) {
+                    boundary++;
+                    continue;
+                }
+                Coordinate center = new Coordinate(
+                        envelope.getMinX() + (col + 0.5) * cellWidth,
+                        envelope.getMinY() + (row + 0.5) * cellHeight);
+                if (prepared.intersects(geometryFactory.createPoint(center))) {
+                    cells[i] = INSIDE;
+                    inside++;
+                }
+            }
+        }
+        LOGGER.debug("spatial filter grid of {}x{} cells: {} inside, {} boundary",
+                gridSize, gridSize, inside, boundary);
+    }
+
+    private void markBoundary(LineString ring) {
+        Coordinate[] coordinates = ring.getCoordinates();
+        for (int i = 1; i < coordinates.length; i++) {
+            Coordinate a = coordinates[i - 1];
+            Coordinate b = coordinates[i];
+            int minCol = Math.max(0, column(Math.min(a.x, b.x)) - 1);
+            int maxCol = Math.min(gridSize - 1, column(Math.max(a.x, b.x)) + 1);
+            int minRow = Math.max(0, row(Math.min(a.y, b.y)) - 1);
+            int maxRow = Math.min(gridSize - 1, row(Math.max(a.y, b.y)) + 1);
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int col = minCol; col <= maxCol; col++) {
+                    cells[row * gridSize + col] = BOUNDARY;
+                }
+            }
+        }
+    }
+
+    private int column(double x) {
+        return Math.min(gridSize - 1, Math.max(0, (int) ((x - envelope.getMinX()) / cellWidth)));
+    }
+
+    private int row(double y) {
+        return Math.min(gridSize - 1, Math.max(0, (int) ((y - envelope.getMinY()) / cellHeight)));
+    }
+
+    private byte cell(double x, double y) {
+        return cells[row(y) * gridSize + column(x)];
+    }
+
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * @return true if the location is inside the filter or on its boundary
+     */
+    public boolean contains(double x, double y) {
+        if (!envelope.contains(x, y)) {
+            return false;
+        }
+        byte cell = cell(x, y);
+        if (cell != BOUNDARY) {
+            return cell == INSIDE;
+        }
+        return prepared.intersects(geometry.getFactory().createPoint(new Coordinate(x, y)));
+    }
+
+    /**
+     * @return true if the geometry intersects the filter
+     */
+    public boolean intersects(Geometry other) {
+        Envelope otherEnvelope = other.getEnvelopeInternal();
+        if (!envelope.intersects(otherEnvelope)) {
+            return false;
+        }
+
+        // a single vertex in an inside cell is sufficient
+        for (Coordinate coordinate : other.getCoordinates()) {
+            if (envelope.contains(coordinate) && cell(coordinate.x, coordinate.y) == INSIDE) {
+                return true;
+            }
+        }
+
+        // the geometry lies within the cells covered by its envelope
+        int minCol = column(otherEnvelope.getMinX());
+        int maxCol = column(otherEnvelope.getMaxX());
+        int minRow = row(otherEnvelope.getMinY());
+        int maxRow = row(otherEnvelope.getMaxY());
+        boolean allOutside = true;
+        for (int row = minRow; row <= maxRow && allOutside; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                if (cells[row * gridSize + col] != OUTSIDE) {
+                    allOutside = false;
+                    break;
+                }
+            }
+        }
+        if (allOutside) {
+            return false;
+        }
+        return prepared.intersects(other);
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geojson.geom.GeometryJSON;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.n52.dlr.osmtovector.io.GeoJSONFileCreator;
+import org.n52.dlr.osmtovector.io.GeoJSONZipWriter;
+import org.n52.dlr.osmtovector.io.IOUtil;
+import org.n52.dlr.osmtovector.io.WorkArea;
+import org.n52.dlr.osmtovector.metrics.RequestMetrics;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Extracts features by running the osm_extract tool of dlr-eoc/osm-ogr-tools.
+ */
+public class SubprocessExtractor implements Extractor {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(SubprocessExtractor.class);
+
+    private static final String STDOUT = "/vsistdout/";
+    private static final String RECORD_SEPARATOR = "\u001e";
+
+    private String exportLayerName = "export";
+    private final String osmExtractBinary;
+    private final File workDirectory;
+    private RequestMetrics metrics;
+    private SubprocessRunner runner = new SubprocessRunner();
+    private IntConsumer progressListener;
+    private WorkArea workArea;
+
+    public SubprocessExtractor(String osmExtractBinary, File workDirectory) {
+        this.osmExtractBinary = osmExtractBinary;
+        this.workDirectory = workDirectory;
+    }
+
+    /**
+     * @param runner runs osm_extract within its limits
+     */
+    public void setRunner(SubprocessRunner runner) {
+        this.runner = runner;
+    }
+
+    /**
+     * @param workArea places and removes the temporary directories, or null to create them in the work
+     *                 directory and remove them right away
+     */
+    public void setWorkArea(WorkArea workArea) {
+        this.workArea = workArea;
+    }
+
+    /**
+     * @param progressListener receives the percentage of the dataset read by osm_extract, may be null
+     */
+    public void setProgressListener(IntConsumer progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * @param metrics records the time needed to remove the temporary files, may be null
+     */
+    public void setMetrics(RequestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void extract(Path dataset, ExtractionQuery query, FeatureSink sink) throws IOException {
+        // newline delimited GeoJSON can be parsed while the subprocess is still running
+        FeatureSink limitedSink = LimitedFeatureSink.wrap(query, sink);
+        run(dataset, query, "GeoJSONSeq", null, stdout -> {
+            OsmFeatureFactory factory = new OsmFeatureFactory(query);
+            limitedSink.start(factory.getFeatureType());
+            return readFeatures(stdout, query, factory, limitedSink);
+        }, null);
+    }
+
+    @Override
+    public boolean canExport(ExportFormat format) {
+        return true;
+    }
+
+    /**
+     * Lets the subprocess write the file itself, the features are never read by the JVM. osm_extract
+     * can not stop after a number of features, so limited exports are written from its GeoJSONSeq output.
+     */
+    @Override
+    public void export(Path dataset, ExtractionQuery query, ExportFormat format, Path target) throws IOException {
+        if (query.getMaxFeatures() > 0) {
+            if (format == ExportFormat.GEOPACKAGE) {
+                throw new IOException("Exporting a limited number of features to "
+                        + format.getName() + " is not supported");
+            }
+            try (ExportWriter writer = Extractor.createExportWriter(format, target)) {
+                extract(dataset, query, writer);
+                writer.finish();
+            }
+            return;
+        }
+        String outputName = exportLayerName + (format == ExportFormat.GEOJSON ? ".geojson" : format.getFileExtension());
+        run(dataset, query, format.getOgrDriver(), outputName, SubprocessExtractor::drain, tmpdir -> {
+            Path output = new File(tmpdir, outputName).toPath();
+            if (format == ExportFormat.GEOJSON) {
+                try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))) {
+                    zip.putNextEntry(new ZipEntry(GeoJSONZipWriter.ENTRY_NAME));
+                    Files.copy(output, zip);
+                    zip.closeEntry();
+                }
+            } else {
+                Files.move(output, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        });
+    }
+
+    /**
+     * osm_extract answers one query per run, so the queries are exported one after the other.
+     */
+    @Override
+    public void export(Path dataset, List<ExtractionQuery> queries, ExportFormat format, List<Path> targets)
+            throws IOException {
+        IntConsumer listener = progressListener;
+        try {
+            for (int i = 0; i < queries.size(); i++) {
+                if (listener != null) {
+                    int done = i;
+                    progressListener = percent -> listener.accept((done * 100 + percent) / queries.size());
+                }
+                export(dataset, queries.get(i), format, targets.get(i));
+            }
+        } finally {
+            progressListener = listener;
+        }
+    }
+
+    /**
+     * Runs osm_extract in a temporary directory.
+     *
+     * @param outputName name of the output file in the temporary directory, or null to write to stdout
+     * @param stdoutHandler reads the stdout of the subprocess while it is running
+     * @param resultHandler called with the temporary directory after the subprocess succeeded, may be null
+     */
+    private void run(Path dataset, ExtractionQuery query, String ogrDriver, String outputName,
+                     SubprocessRunner.StreamHandler stdoutHandler, IOConsumer<File> resultHandler)
+            throws IOException {
+        File tmpdir = null;
+        try {
+            // osm_extract keeps its temporary files in its working directory, they are about as large
+            // as the dataset
+            tmpdir = workArea == null
+                    ? Files.createTempDirectory(this.workDirectory.toPath(), WorkArea.prefix).toFile()
+                    : workArea.createDirectory(Files.size(dataset)).toFile();
+
+            List<String> args = new ArrayList<>();
+            args.add(this.osmExtractBinary);
+            args.add("-l");
+            args.add(exportLayerName);
+
+            if (!query.getTags().isEmpty()) {
+                args.add("-t");
+                for (String tag : query.getTags()) {
+                    args.add(tag);
+                }
+            }
+
+            args.add("-f");
+            args.add(ogrDriver);
+
+            switch (query.getElementType()) {
+                case NODES:
+                    // the default - nothing to do
+                    break;
+                case WAYS:
+                    args.add("--ways");
+                    args.add("--length");
+                    break;
+                default:
+                    throw new IOException("Unsupported elementType: " + query.getElementType().getName());
+            }
+
+            // set the spatial filter if there is one
+            if (query.getSpatialFilter() != null) {
+                File spatialFilterFile = new File(tmpdir, "filter.geojson");
+                GeoJSONFileCreator.writeGeoJSONFeatureCollection(spatialFilterFile, query.getSpatialFilter());
+
+                args.add("--geofilter");
+                args.add(spatialFilterFile.getAbsolutePath());
+            }
+
+            // input file
+            args.add(dataset.toAbsolutePath().toString());
+
+            // output file
+            args.add(outputName == null ? STDOUT : new File(tmpdir, outputName).getAbsolutePath());
+
+            String printableCommand = String.join(" ", args);
+            LOGGER.info("Executing {}", printableCommand);
+
+            Instant procStart = Instant.now();
+            try {
+                runner.run(args, tmpdir, dataset, stdoutHandler, progressListener);
+                if (resultHandler != null) {
+                    resultHandler.accept(tmpdir);
+                }
+            } finally {
+                LOGGER.info("subprocess \"{}\" took {} seconds to execute",
+                        printableCommand,
+                        Duration.between(procStart, Instant.now()).toMillis() / 1000.0);
+            }
+        } finally {
+            if (tmpdir != null && workArea != null) {
+                workArea.delete(tmpdir.toPath()).thenAccept(millis -> {
+                    if (metrics != null) {
+                        metrics.recordCleanup(millis);
+                    }
+                });
+            } else if (tmpdir != null) {
+                if (tmpdir.exists()) {
+                    long cleanupStart = System.nanoTime();
+                    IOUtil.recursiveDelete(tmpdir);
+                    if (metrics != null) {
+                        metrics.recordCleanup((System.nanoTime() - cleanupStart) / 1000000);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) >= 0) {
+            // discard
+        }
+        return true;
+    }
+
+    /**
+     * Parses the GeoJSON features written by the subprocess, one per line, into the schema of the
+     * native engine.
+     *
+     * @return false when the sink did not take all features, so the subprocess can be stopped
+     */
+    private boolean readFeatures(InputStream in, ExtractionQuery query, OsmFeatureFactory factory, FeatureSink sink)
+            throws IOException {
+        SimpleFeatureType featureType = factory.getFeatureType();
+        GeometryJSON geometryJSON = new GeometryJSON(7);
+        JSONParser parser = new JSONParser();
+        long count = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (sink.remaining() <= 0) {
+                    return false;
+                }
+                // records may start with an RS character (RFC 8142)
+                line = line.replace(RECORD_SEPARATOR, "").trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                JSONObject feature;
+                try {
+                    feature = (JSONObject) parser.parse(line);
+                } catch (ParseException | ClassCastException e) {
+                    throw new IOException("subprocess wrote invalid GeoJSON: " + line, e);
+                }
+
+                Object[] values = new Object[featureType.getAttributeCount()];
+                JSONObject geometry = (JSONObject) feature.get("geometry");
+                if (geometry != null) {
+                    values[0] = geometryJSON.read(geometry.toJSONString());
+                }
+                Map<?, ?> properties = (Map<?, ?>) feature.get("properties");
+                if (properties != null) {
+                    for (Map.Entry<?, ?> property : properties.entrySet()) {
+                        String key = property.getKey().toString();
+                        String name = factory.getAttributeName(key);
+                        int i = featureType.indexOf(name == null || key.equals(OsmFeatureFactory.ID_ATTRIBUTE)
+                                || key.equals(OsmFeatureFactory.LENGTH_ATTRIBUTE) ? key : name);
+                        if (i > 0 && property.getValue() != null) {
+                            values[i] = convert(property.getValue(),
+                                    featureType.getDescriptor(i).getType().getBinding());
+                        }
+                    }
+                }
+
+                count++;
+                Object id = values[featureType.indexOf(OsmFeatureFactory.ID_ATTRIBUTE)];
+                String fid = query.getElementType() == ElementType.WAYS ? "way." : "node.";
+                sink.accept(SimpleFeatureBuilder.build(featureType, values, fid + (id == null ? count : id)));
+            }
+        }
+        return true;
+    }
+
+    private static Object convert(Object value, Class<?> binding) {
+        if (Long.class.equals(binding) && value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (Double.class.equals(binding) && value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (String.class.equals(binding)) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    @FunctionalInterface
+    private interface IOConsumer<T> {
+        void accept(T value) throws IOException;
+    }
+}
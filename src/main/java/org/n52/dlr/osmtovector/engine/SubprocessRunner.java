@@ -0,0 +1,581 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs a subprocess without letting it block the calling thread for longer than allowed.
+ *
+ * Standard output is passed to a handler and standard error is kept in a bounded buffer, both read on
+ * their own threads while the subprocess runs, so it can never block on a full pipe. The subprocess and
+ * all processes started by it are killed when the timeout expires, when the handler fails or when the
+ * calling thread is interrupted. Memory and CPU time are limited with the ulimit of /bin/sh.
+ *
+ * With a worker pool, osm_extract is run in a fork of a warm worker instead of a new process.
+ */
+public class SubprocessRunner {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(SubprocessRunner.class);
+
+    private static final int STDERR_BUFFER_SIZE = 64 * 1024;
+    private static final long POLL_MILLIS = 1000;
+    static final long KILL_WAIT_MILLIS = 5000;
+    private static final Path PROC = Paths.get("/proc");
+
+    /**
+     * Reads the standard output of the subprocess.
+     */
+    @FunctionalInterface
+    public interface StreamHandler {
+        /**
+         * @return false when the handler does not need the rest of the output, the subprocess is then
+         * killed instead of waiting for it to finish
+         */
+        boolean accept(InputStream in) throws IOException;
+    }
+
+    /**
+     * A running subprocess.
+     */
+    interface Subprocess {
+        /**
+         * @return the pid, or -1 when it is not accessible
+         */
+        long getPid();
+
+        InputStream getInputStream();
+
+        InputStream getErrorStream();
+
+        boolean isAlive();
+
+        /**
+         * @return true when the subprocess has ended within the timeout
+         */
+        boolean waitFor(long timeoutMillis) throws InterruptedException;
+
+        int exitValue();
+
+        /**
+         * Kills the subprocess and all processes started by it and waits for it to end.
+         */
+        void kill();
+
+        /**
+         * Releases the resources of the ended subprocess.
+         */
+        void destroy();
+    }
+
+    private final long timeoutMillis;
+    private final long maxMemoryBytes;
+    private final long maxCpuSeconds;
+    private OsmExtractWorkerPool workerPool;
+
+    public SubprocessRunner() {
+        this(0, 0, 0);
+    }
+
+    /**
+     * @param timeoutMillis wall-clock time after which the subprocess is killed, 0 for no limit
+     * @param maxMemoryBytes maximum virtual memory of each process, 0 for no limit
+     * @param maxCpuSeconds maximum CPU time of each process, 0 for no limit
+     */
+    public SubprocessRunner(long timeoutMillis, long maxMemoryBytes, long maxCpuSeconds) {
+        this.timeoutMillis = timeoutMillis;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxCpuSeconds = maxCpuSeconds;
+    }
+
+    /**
+     * @param workerPool runs the commands of its osm_extract, may be null
+     */
+    public void setWorkerPool(OsmExtractWorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Runs the command with an empty environment and waits for it to finish.
+     *
+     * @param input file read by the subprocess, its read position is reported as progress. May be null.
+     * @param stdoutHandler reads the standard output, which is discarded when it returns true early
+     * @param progress receives the percentage of the input read so far, may be null
+     * @throws IOException when the subprocess fails, times out or the handler fails
+     */
+    public void run(List<String> command, File directory, Path input, StreamHandler stdoutHandler,
+                    IntConsumer progress) throws IOException {
+        Path progressInput = progress == null || input == null ? null : input.toRealPath();
+        OsmExtractWorker worker = workerPool != null && workerPool.handles(command) ? workerPool.acquire() : null;
+        if (worker == null) {
+            ProcessBuilder builder = new ProcessBuilder(limit(command)).directory(directory);
+            builder.environment().clear();
+            run(new SpawnedProcess(builder.start()), stdoutHandler, progressInput, progress);
+            return;
+        }
+        try {
+            run(worker.start(command, directory, maxMemoryBytes, maxCpuSeconds), stdoutHandler, progressInput,
+                    progress);
+        } finally {
+            workerPool.release(worker);
+        }
+    }
+
+    private void run(Subprocess proc, StreamHandler stdoutHandler, Path progressInput, IntConsumer progress)
+            throws IOException {
+        long pid = proc.getPid();
+
+        StreamReader stdout = new StreamReader(proc.getInputStream(), in -> {
+            if (!stdoutHandler.accept(in)) {
+                return false;
+            }
+            drain(in);
+            return true;
+        }, "osmtovector-subprocess-stdout");
+        TailBuffer stderrTail = new TailBuffer(STDERR_BUFFER_SIZE);
+        StreamReader stderr = new StreamReader(proc.getErrorStream(), in -> {
+            stderrTail.readFrom(in);
+            return true;
+        }, "osmtovector-subprocess-stderr");
+        stdout.start();
+        stderr.start();
+
+        ProgressMonitor monitor = progressInput == null || pid < 0
+                ? null : new ProgressMonitor(pid, progressInput, progress);
+        long deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        boolean finished = false;
+        try {
+            while (stdout.isAlive() || proc.isAlive()) {
+                if (stdout.getFailure() != null) {
+                    throw stdout.getFailure();
+                }
+                if (stdout.isStopped()) {
+                    break;
+                }
+                long wait = POLL_MILLIS;
+                if (deadline != 0) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        throw new IOException("subprocess did not finish within " + timeoutMillis / 1000.0
+                                + " seconds and has been killed");
+                    }
+                    wait = Math.min(wait, remaining);
+                }
+                if (stdout.isAlive()) {
+                    stdout.join(wait);
+                } else {
+                    proc.waitFor(wait);
+                }
+                if (monitor != null) {
+                    monitor.update();
+                }
+            }
+            if (stdout.getFailure() != null) {
+                throw stdout.getFailure();
+            }
+            if (stdout.isStopped()) {
+                LOGGER.info("the output of the subprocess is complete, stopping it");
+                if (proc.isAlive()) {
+                    proc.kill();
+                }
+                finished = true;
+                return;
+            }
+            stderr.join(KILL_WAIT_MILLIS);
+
+            int returnCode = proc.exitValue();
+            if (returnCode != 0) {
+                // the stderr of the command goes to the logfile for problem diagnosis
+                LOGGER.error("subprocess failed with returncode " + returnCode + ":\n" + stderrTail);
+                throw new IOException("subprocess failed with returncode " + returnCode);
+            }
+            finished = true;
+        } catch (InterruptedException e) {
+            LOGGER.error("subprocess was interrupted, killing it");
+            throw new InterruptedIOException("subprocess was interrupted");
+        } finally {
+            if (!finished && proc.isAlive()) {
+                proc.kill();
+                String output = stderrTail.toString();
+                if (!output.isEmpty()) {
+                    LOGGER.warn("stderr of the killed subprocess:\n{}", output);
+                }
+            }
+            proc.destroy();
+        }
+    }
+
+    /**
+     * Prefixes the command with the ulimit calls of the configured limits.
+     */
+    private List<String> limit(List<String> command) {
+        if (maxMemoryBytes <= 0 && maxCpuSeconds <= 0) {
+            return command;
+        }
+        StringBuilder script = new StringBuilder();
+        if (maxMemoryBytes > 0) {
+            script.append("ulimit -v ").append(Math.max(1, maxMemoryBytes / 1024)).append(" && ");
+        }
+        if (maxCpuSeconds > 0) {
+            script.append("ulimit -t ").append(maxCpuSeconds).append(" && ");
+        }
+        script.append("exec \"$0\" \"$@\"");
+
+        List<String> limited = new ArrayList<>();
+        limited.add("/bin/sh");
+        limited.add("-c");
+        limited.add(script.toString());
+        limited.addAll(command);
+        return limited;
+    }
+
+    /**
+     * Kills the process and all of its descendants. The descendants are collected first, as they are
+     * adopted by another process once their parent is gone.
+     */
+    static void killTree(long pid) {
+        List<Long> processes = new ArrayList<>();
+        processes.add(pid);
+        processes.addAll(descendants(pid));
+        LOGGER.info("killing subprocess {} and {} processes started by it", pid, processes.size() - 1);
+        kill(processes);
+    }
+
+    private static void kill(List<Long> processes) {
+        if (processes.isEmpty()) {
+            return;
+        }
+        List<String> kill = new ArrayList<>();
+        kill.add("/bin/kill");
+        kill.add("-KILL");
+        for (Long process : processes) {
+            kill.add(process.toString());
+        }
+        try {
+            Process killer = new ProcessBuilder(kill).redirectErrorStream(true).start();
+            drain(killer.getInputStream());
+            killer.waitFor(KILL_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            LOGGER.warn("Could not kill the processes " + processes, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the processes started by the process and their descendants, empty without /proc
+     */
+    static List<Long> descendants(long pid) {
+        Map<Long, List<Long>> children = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(PROC, "[0-9]*")) {
+            for (Path process : stream) {
+                long parent = parentPid(process.resolve("stat"));
+                if (parent > 0) {
+                    children.computeIfAbsent(parent, p -> new ArrayList<>())
+                            .add(Long.parseLong(process.getFileName().toString()));
+                }
+            }
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+
+        List<Long> descendants = new ArrayList<>();
+        ArrayDeque<Long> pending = new ArrayDeque<>();
+        pending.add(pid);
+        while (!pending.isEmpty()) {
+            List<Long> direct = children.get(pending.poll());
+            if (direct != null) {
+                descendants.addAll(direct);
+                pending.addAll(direct);
+            }
+        }
+        return descendants;
+    }
+
+    private static long parentPid(Path stat) {
+        try {
+            String content = new String(Files.readAllBytes(stat), StandardCharsets.US_ASCII);
+            // the command name in parentheses may contain spaces, the fields after it do not
+            String[] fields = content.substring(content.lastIndexOf(')') + 2).split(" ");
+            return Long.parseLong(fields[1]);
+        } catch (IOException | RuntimeException e) {
+            // the process has ended in the meantime
+            return -1;
+        }
+    }
+
+    /**
+     * @return the pid of the process, or -1 when it is not accessible
+     */
+    static long pid(Process proc) {
+        try {
+            // Java 9 and newer
+            Method method = Process.class.getMethod("pid");
+            return (Long) method.invoke(proc);
+        } catch (ReflectiveOperationException e) {
+            // UNIXProcess of Java 8
+            try {
+                Field field = proc.getClass().getDeclaredField("pid");
+                field.setAccessible(true);
+                return field.getInt(proc);
+            } catch (ReflectiveOperationException | RuntimeException e2) {
+                return -1;
+            }
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) >= 0) {
+            // discard
+        }
+    }
+
+    /**
+     * A subprocess started by this runner.
+     */
+    private static class SpawnedProcess implements Subprocess {
+        private final Process proc;
+        private final long pid;
+
+        SpawnedProcess(Process proc) {
+            this.proc = proc;
+            this.pid = pid(proc);
+        }
+
+        @Override
+        public long getPid() {
+            return pid;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return proc.getInputStream();
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return proc.getErrorStream();
+        }
+
+        @Override
+        public boolean isAlive() {
+            return proc.isAlive();
+        }
+
+        @Override
+        public boolean waitFor(long timeoutMillis) throws InterruptedException {
+            return proc.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int exitValue() {
+            return proc.exitValue();
+        }
+
+        @Override
+        public void kill() {
+            List<Long> descendants = pid < 0 ? Collections.<Long>emptyList() : descendants(pid);
+            LOGGER.info("killing subprocess {} and {} processes started by it", pid, descendants.size());
+            proc.destroyForcibly();
+            SubprocessRunner.kill(descendants);
+            try {
+                proc.waitFor(KILL_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void destroy() {
+            proc.destroy();
+        }
+    }
+
+    /**
+     * Reads a stream of the subprocess on its own thread.
+     */
+    private static class StreamReader extends Thread {
+        private final InputStream in;
+        private final StreamHandler handler;
+        private volatile IOException failure;
+        private volatile boolean stopped = false;
+
+        StreamReader(InputStream in, StreamHandler handler, String name) {
+            super(name);
+            this.in = in;
+            this.handler = handler;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try (InputStream stream = in) {
+                stopped = !handler.accept(stream);
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException(e);
+            }
+        }
+
+        IOException getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return true when the handler returned without needing the rest of the stream
+         */
+        boolean isStopped() {
+            return stopped;
+        }
+    }
+
+    /**
+     * Keeps the last bytes written to it.
+     */
+    static class TailBuffer {
+        private final byte[] buffer;
+        private long written = 0;
+
+        TailBuffer(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        void readFrom(InputStream in) throws IOException {
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = in.read(chunk)) >= 0) {
+                write(chunk, n);
+            }
+        }
+
+        synchronized void write(byte[] chunk, int length) {
+            int offset = Math.max(0, length - buffer.length);
+            written += offset;
+            for (int i = offset; i < length; i++) {
+                buffer[(int) (written++ % buffer.length)] = chunk[i];
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (written <= buffer.length) {
+                return new String(buffer, 0, (int) written, StandardCharsets.UTF_8);
+            }
+            int start = (int) (written % buffer.length);
+            byte[] ordered = new byte[buffer.length];
+            System.arraycopy(buffer, start, ordered, 0, buffer.length - start);
+            System.arraycopy(buffer, 0, ordered, buffer.length - start, start);
+            return "[" + (written - buffer.length) + " bytes omitted]\n" + new String(ordered, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Reports how far the processes of the subprocess have read the input file, using the file
+     * positions in /proc.
+     */
+    private static class ProgressMonitor {
+        private final long pid;
+        private final Path input;
+        private final long size;
+        private final IntConsumer listener;
+        private int reported = -1;
+
+        /**
+         * @param input the real path of the input file
+         */
+        ProgressMonitor(long pid, Path input, IntConsumer listener) {
+            this.pid = pid;
+            this.input = input;
+            this.size = input.toFile().length();
+            this.listener = listener;
+        }
+
+        void update() {
+            if (size <= 0) {
+                return;
+            }
+            long position = -1;
+            List<Long> processes = new ArrayList<>();
+            processes.add(pid);
+            processes.addAll(descendants(pid));
+            for (Long process : processes) {
+                position = Math.max(position, readPosition(process));
+            }
+            if (position < 0) {
+                return;
+            }
+            // the end is reported when the subprocess has finished
+            int percent = (int) Math.min(99, position * 100 / size);
+            if (percent > reported) {
+                reported = percent;
+                listener.accept(percent);
+            }
+        }
+
+        private long readPosition(long process) {
+            Path fds = PROC.resolve(Long.toString(process)).resolve("fd");
+            long position = -1;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(fds)) {
+                for (Path fd : stream) {
+                    try {
+                        if (!input.equals(Files.readSymbolicLink(fd))) {
+                            continue;
+                        }
+                        Path info = PROC.resolve(Long.toString(process)).resolve("fdinfo").resolve(fd.getFileName());
+                        for (String line : Files.readAllLines(info, StandardCharsets.US_ASCII)) {
+                            if (line.startsWith("pos:")) {
+                                position = Math.max(position, Long.parseLong(line.substring(4).trim()));
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // the file has been closed in the meantime
+                    }
+                }
+            } catch (IOException e) {
+                // the process has ended or its files are not accessible
+            }
+            return position;
+        }
+    }
+}
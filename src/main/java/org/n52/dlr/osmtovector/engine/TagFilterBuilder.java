@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes a copy of a dataset with only the elements carrying at least one of the given tag
+ * keys. The nodes of the copied ways are copied as well, without their tags unless they carry
+ * one of the keys. Extractions of any subset of the keys give the same results from the copy
+ * as from the dataset. Relations are not copied.
+ */
+public class TagFilterBuilder {
+
+    private static final String WRITING_PROGRAM = "osmtovector";
+
+    private final ParallelBlockReader blockReader;
+
+    public TagFilterBuilder(ParallelBlockReader blockReader) {
+        this.blockReader = blockReader;
+    }
+
+    public void build(Path dataset, Collection<String> tags, Path target) throws IOException {
+        Set<String> tagSet = new HashSet<>(tags);
+
+        try (PbfFile file = new PbfFile(dataset)) {
+            PbfHeader header = file.readHeader();
+
+            LongArray refs = new LongArray();
+            blockReader.read(file, blob -> PrimitiveBlock.decode(blob.decompress(), false, true), block -> {
+                for (OsmWay way : block.getWays()) {
+                    if (way.hasAnyTag(tagSet)) {
+                        refs.addAll(way.getRefs());
+                    }
+                }
+            });
+            long[] wayNodes = refs.toSortedUniqueArray();
+
+            try (PbfWriter writer = new PbfWriter(target, header.getBBox(), WRITING_PROGRAM,
+                    header.getReplicationTimestamp())) {
+                file.rewind();
+                blockReader.read(file, blob -> PrimitiveBlock.decode(blob.decompress(), true, false), block -> {
+                    for (OsmNode node : block.getNodes()) {
+                        if (node.hasAnyTag(tagSet)) {
+                            writer.write(node);
+                        } else if (Arrays.binarySearch(wayNodes, node.getId()) >= 0) {
+                            writer.write(new OsmNode(node.getId(), null, node.getLat(), node.getLon()));
+                        }
+                    }
+                });
+
+                file.rewind();
+                blockReader.read(file, blob -> PrimitiveBlock.decode(blob.decompress(), false, true), block -> {
+                    for (OsmWay way : block.getWays()) {
+                        if (way.hasAnyTag(tagSet)) {
+                            writer.write(way);
+                        }
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import org.n52.dlr.osmtovector.engine.ChangeSummary;
+
+/**
+ * Is told about datasets which have been updated in place by applying OSM change files.
+ */
+public interface DatasetChangeListener {
+
+    /**
+     * Called after the dataset has been replaced and before the catalog returns its new metadata.
+     */
+    void datasetChanged(DatasetMetadata previous, DatasetMetadata current, ChangeSummary changes);
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.n52.dlr.osmtovector.engine.PbfFile;
+import org.n52.dlr.osmtovector.engine.PbfHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * File attributes of a dataset and the metadata of its PBF header.
+ */
+public class DatasetMetadata {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(DatasetMetadata.class);
+
+    private final String name;
+    private final Path path;
+    private final long size;
+    private final long lastModified;
+    private final Envelope bbox;
+    private final long replicationTimestamp;
+    private final String writingProgram;
+
+    public DatasetMetadata(String name, Path path, long size, long lastModified, Envelope bbox,
+                           long replicationTimestamp, String writingProgram) {
+        this.name = name;
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.bbox = bbox;
+        this.replicationTimestamp = replicationTimestamp;
+        this.writingProgram = writingProgram;
+    }
+
+    /**
+     * Reads the metadata of a dataset. When the header can not be read, only the file
+     * attributes are set.
+     */
+    public static DatasetMetadata read(String name, Path path) throws IOException {
+        long size = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        try (PbfFile file = new PbfFile(path)) {
+            PbfHeader header = file.readHeader();
+            return new DatasetMetadata(name, path, size, lastModified, header.getBBox(),
+                    header.getReplicationTimestamp(), header.getWritingProgram());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not read the header of dataset '{}': {}", name, e.getMessage());
+            return new DatasetMetadata(name, path, size, lastModified, null, 0, null);
+        }
+    }
+
+    /**
+     * @return true if the file attributes are the same as those of the file the metadata has been read from
+     */
+    public boolean isCurrent(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the bounding box from the header, or null when the header does not have one
+     */
+    public Envelope getBBox() {
+        return bbox;
+    }
+
+    /**
+     * @return the replication timestamp in seconds since the epoch, or 0 when it is unknown
+     */
+    public long getReplicationTimestamp() {
+        return replicationTimestamp;
+    }
+
+    public String getWritingProgram() {
+        return writingProgram;
+    }
+}
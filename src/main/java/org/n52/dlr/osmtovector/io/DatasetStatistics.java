@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.n52.dlr.osmtovector.engine.OsmEntity;
+import org.n52.dlr.osmtovector.engine.ParallelBlockReader;
+import org.n52.dlr.osmtovector.engine.PbfFile;
+import org.n52.dlr.osmtovector.engine.PrimitiveBlock;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Element counts and the most frequent tag keys of a dataset. Computing them requires a pass
+ * over the whole file, so they are stored in a JSON file next to the dataset.
+ */
+public class DatasetStatistics {
+
+    public static final int TOP_TAG_KEYS = 25;
+
+    private final long size;
+    private final long lastModified;
+    private final long nodeCount;
+    private final long wayCount;
+    private final long relationCount;
+    // most frequent first
+    private final Map<String, Long> topTagKeys;
+
+    public DatasetStatistics(long size, long lastModified, long nodeCount, long wayCount, long relationCount,
+                             Map<String, Long> topTagKeys) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.nodeCount = nodeCount;
+        this.wayCount = wayCount;
+        this.relationCount = relationCount;
+        this.topTagKeys = Collections.unmodifiableMap(topTagKeys);
+    }
+
+    /**
+     * Counts the elements and tag keys of the dataset. Tag keys of relations are not counted.
+     */
+    public static DatasetStatistics compute(Path dataset, ParallelBlockReader blockReader) throws IOException {
+        long size = Files.size(dataset);
+        long lastModified = Files.getLastModifiedTime(dataset).toMillis();
+        long[] counts = new long[3];
+        Map<String, Long> tagKeyCounts = new HashMap<>();
+
+        try (PbfFile file = new PbfFile(dataset)) {
+            file.readHeader();
+            blockReader.read(file, blob -> PrimitiveBlock.decode(blob.decompress(), true, true), block -> {
+                counts[0] += block.getNodes().size();
+                counts[1] += block.getWayCount();
+                counts[2] += block.getRelationCount();
+                countTagKeys(block.getNodes(), tagKeyCounts);
+                countTagKeys(block.getWays(), tagKeyCounts);
+            });
+        }
+
+        return new DatasetStatistics(size, lastModified, counts[0], counts[1], counts[2],
+                mostFrequent(tagKeyCounts, TOP_TAG_KEYS));
+    }
+
+    private static Map<String, Long> mostFrequent(Map<String, Long> counts, int limit) {
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(counts.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : sorted.subList(0, Math.min(limit, sorted.size()))) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private static void countTagKeys(List<? extends OsmEntity> entities, Map<String, Long> tagKeyCounts) {
+        for (OsmEntity entity : entities) {
+            for (int i = 0; i < entity.getTagCount(); i++) {
+                tagKeyCounts.merge(entity.getTagKey(i), 1L, Long::sum);
+            }
+        }
+    }
+
+    /**
+     * @return true if the statistics have been computed from a file with the given attributes
+     */
+    public boolean isCurrent(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getWayCount() {
+        return wayCount;
+    }
+
+    public long getRelationCount() {
+        return relationCount;
+    }
+
+    /**
+     * @return the most frequent tag keys of nodes and ways with the number of elements using them
+     */
+    public Map<String, Long> getTopTagKeys() {
+        return topTagKeys;
+    }
+
+    @SuppressWarnings("unchecked")
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("nodes", nodeCount);
+        json.put("ways", wayCount);
+        json.put("relations", relationCount);
+        JSONObject tagKeys = new JSONObject();
+        tagKeys.putAll(topTagKeys);
+        json.put("topTagKeys", tagKeys);
+        return json;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void write(Path path) throws IOException {
+        JSONObject json = toJSON();
+        json.put("size", size);
+        json.put("lastModified", lastModified);
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            json.writeJSONString(writer);
+        }
+    }
+
+    public static DatasetStatistics read(Path path) throws IOException {
+        JSONObject json;
+        Map<String, Long> tagKeyCounts = new HashMap<>();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            json = (JSONObject) new JSONParser().parse(reader);
+            // the order of the keys is not kept in the file
+            for (Object entry : ((Map<?, ?>) json.get("topTagKeys")).entrySet()) {
+                Map.Entry<?, ?> tagKey = (Map.Entry<?, ?>) entry;
+                tagKeyCounts.put((String) tagKey.getKey(), ((Number) tagKey.getValue()).longValue());
+            }
+        } catch (ParseException | ClassCastException | NullPointerException e) {
+            throw new IOException("Invalid statistics file " + path, e);
+        }
+        Map<String, Long> topTagKeys = mostFrequent(tagKeyCounts, tagKeyCounts.size());
+
+        return new DatasetStatistics(
+                getLong(json, "size"),
+                getLong(json, "lastModified"),
+                getLong(json, "nodes"),
+                getLong(json, "ways"),
+                getLong(json, "relations"),
+                topTagKeys);
+    }
+
+    private static long getLong(JSONObject json, String key) throws IOException {
+        Object value = json.get(key);
+        if (!(value instanceof Number)) {
+            throw new IOException("Missing value for '" + key + "' in statistics file");
+        }
+        return ((Number) value).longValue();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import org.n52.dlr.osmtovector.engine.ExportFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Directory holding the files returned by the exportedFile output. The WPS reads them after the
+ * algorithm has finished, so they are only deleted once they are older than the retention time.
+ */
+public class ExportDirectory {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ExportDirectory.class);
+    private static final String prefix = "osmtovector-export";
+
+    private final Path directory;
+    private final long retentionMillis;
+
+    public ExportDirectory(Path directory, long retentionMillis) throws IOException {
+        this.directory = directory;
+        this.retentionMillis = retentionMillis;
+        Files.createDirectories(directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Creates an empty file for a new export.
+     */
+    public Path createFile(ExportFormat format) throws IOException {
+        return createFile(format.getFileExtension());
+    }
+
+    public Path createFile(String suffix) throws IOException {
+        return Files.createTempFile(directory, prefix, suffix);
+    }
+
+    /**
+     * Deletes the exports which are older than the retention time.
+     */
+    public void deleteExpired() {
+        long limit = System.currentTimeMillis() - retentionMillis;
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < limit) {
+                        Files.deleteIfExists(file);
+                        deleted++;
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Could not delete the expired export " + file, e);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not list the exports in " + directory, e);
+        }
+        if (deleted > 0) {
+            LOGGER.info("deleted {} expired exports from {}", deleted, directory);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A copy of a dataset holding only the elements with some tag keys, which is used instead of the
+ * dataset for extractions of these keys. It is described by a JSON file next to the copy.
+ */
+public class FilteredDataset {
+
+    public static final String DESCRIPTION_EXTENSION = ".json";
+
+    private final Path path;
+    // sorted
+    private final List<String> tags;
+    private final long sourceSize;
+    private final long sourceLastModified;
+    private final long size;
+    private final long lastModified;
+
+    public FilteredDataset(Path path, Collection<String> tags, long sourceSize, long sourceLastModified, long size,
+                           long lastModified) {
+        this.path = path;
+        this.tags = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(tags)));
+        this.sourceSize = sourceSize;
+        this.sourceLastModified = sourceLastModified;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the identifier of a set of tag keys, independent of their order
+     */
+    public static String key(Collection<String> tags) {
+        return String.join(",", new TreeSet<>(tags));
+    }
+
+    /**
+     * @return the name of the file of the copy with the given tag keys
+     */
+    public static String fileName(Collection<String> tags) {
+        String key = key(tags);
+        String readable = key.replaceAll("[^a-zA-Z0-9_,]", "_").replace(',', '-');
+        if (readable.length() > 64) {
+            readable = readable.substring(0, 64);
+        }
+        return readable + "-" + Integer.toHexString(key.hashCode()) + OSMDatasetStore.fileNameExtension;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public String getKey() {
+        return key(tags);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the modification time of the copy in milliseconds
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return true if the copy has been made from a dataset with the given attributes
+     */
+    public boolean isCurrent(long sourceSize, long sourceLastModified) {
+        return this.sourceSize == sourceSize && this.sourceLastModified == sourceLastModified;
+    }
+
+    /**
+     * @return true if the copy holds all elements with any of the tag keys
+     */
+    public boolean covers(Collection<String> requestedTags) {
+        return !requestedTags.isEmpty() && tags.containsAll(requestedTags);
+    }
+
+    public Path getDescriptionPath() {
+        return path.resolveSibling(path.getFileName().toString() + DESCRIPTION_EXTENSION);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void write() throws IOException {
+        JSONObject json = new JSONObject();
+        JSONArray tagArray = new JSONArray();
+        tagArray.addAll(tags);
+        json.put("tags", tagArray);
+        json.put("sourceSize", sourceSize);
+        json.put("sourceLastModified", sourceLastModified);
+        json.put("size", size);
+        json.put("lastModified", lastModified);
+        try (Writer writer = Files.newBufferedWriter(getDescriptionPath(), StandardCharsets.UTF_8)) {
+            json.writeJSONString(writer);
+        }
+    }
+
+    /**
+     * Reads the description of a copy.
+     *
+     * @param descriptionPath path of the JSON file next to the copy
+     */
+    public static FilteredDataset read(Path descriptionPath) throws IOException {
+        String fileName = descriptionPath.getFileName().toString();
+        Path path = descriptionPath.resolveSibling(
+                fileName.substring(0, fileName.length() - DESCRIPTION_EXTENSION.length()));
+        try (Reader reader = Files.newBufferedReader(descriptionPath, StandardCharsets.UTF_8)) {
+            JSONObject json = (JSONObject) new JSONParser().parse(reader);
+            List<String> tags = new ArrayList<>();
+            for (Object tag : (JSONArray) json.get("tags")) {
+                tags.add((String) tag);
+            }
+            // descriptions written before the modification time of the copy was stored lack it
+            Number lastModified = (Number) json.get("lastModified");
+            return new FilteredDataset(path, tags,
+                    ((Number) json.get("sourceSize")).longValue(),
+                    ((Number) json.get("sourceLastModified")).longValue(),
+                    ((Number) json.get("size")).longValue(),
+                    lastModified != null ? lastModified.longValue() : Files.getLastModifiedTime(path).toMillis());
+        } catch (ParseException | ClassCastException | NullPointerException e) {
+            throw new IOException("Invalid description of a filtered dataset " + descriptionPath, e);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal FlatBuffers encoder. Like the reference implementation, the buffer is built from the end
+ * towards the start, so tables can only reference objects which have been finished before.
+ */
+class FlatBufferBuilder {
+
+    private byte[] buffer;
+    private int space;
+    private int minAlign = 1;
+    private int[] vtable;
+    private int objectStart;
+
+    FlatBufferBuilder(int initialSize) {
+        buffer = new byte[Math.max(initialSize, 16)];
+        space = buffer.length;
+    }
+
+    /**
+     * Discards the content to start a new buffer.
+     */
+    void clear() {
+        space = buffer.length;
+        minAlign = 1;
+        vtable = null;
+    }
+
+    /**
+     * @return the number of bytes written so far, which is also the reference to the last finished object
+     */
+    int offset() {
+        return buffer.length - space;
+    }
+
+    private void grow(int needed) {
+        while (space < needed) {
+            int oldLength = buffer.length;
+            byte[] grown = new byte[oldLength * 2];
+            System.arraycopy(buffer, 0, grown, oldLength, oldLength);
+            buffer = grown;
+            space += oldLength;
+        }
+    }
+
+    /**
+     * Pads the buffer so that a value of the given size is aligned after additionalBytes have been written.
+     */
+    private void prep(int size, int additionalBytes) {
+        if (size > minAlign) {
+            minAlign = size;
+        }
+        int alignSize = (~(offset() + additionalBytes) + 1) & (size - 1);
+        grow(alignSize + size + additionalBytes);
+        for (int i = 0; i < alignSize; i++) {
+            buffer[--space] = 0;
+        }
+    }
+
+    private void putByte(byte value) {
+        buffer[--space] = value;
+    }
+
+    private void putShort(short value) {
+        space -= 2;
+        buffer[space] = (byte) value;
+        buffer[space + 1] = (byte) (value >> 8);
+    }
+
+    private void putInt(int value) {
+        space -= 4;
+        writeInt(buffer, space, value);
+    }
+
+    private void putLong(long value) {
+        space -= 8;
+        for (int i = 0; i < 8; i++) {
+            buffer[space + i] = (byte) (value >> (8 * i));
+        }
+    }
+
+    void addByte(byte value) {
+        prep(1, 0);
+        putByte(value);
+    }
+
+    void addShort(short value) {
+        prep(2, 0);
+        putShort(value);
+    }
+
+    void addInt(int value) {
+        prep(4, 0);
+        putInt(value);
+    }
+
+    void addLong(long value) {
+        prep(8, 0);
+        putLong(value);
+    }
+
+    void addDouble(double value) {
+        addLong(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Adds a reference to an object which has been finished before.
+     */
+    void addOffset(int reference) {
+        prep(4, 0);
+        putInt(offset() - reference + 4);
+    }
+
+    int createString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        prep(4, bytes.length + 1);
+        putByte((byte) 0);
+        space -= bytes.length;
+        System.arraycopy(bytes, 0, buffer, space, bytes.length);
+        putInt(bytes.length);
+        return offset();
+    }
+
+    int createByteVector(byte[] bytes, int length) {
+        prep(4, length);
+        space -= length;
+        System.arraycopy(bytes, 0, buffer, space, length);
+        putInt(length);
+        return offset();
+    }
+
+    int createDoubleVector(double[] values, int from, int to) {
+        startVector(8, to - from, 8);
+        for (int i = to - 1; i >= from; i--) {
+            putLong(Double.doubleToRawLongBits(values[i]));
+        }
+        return endVector(to - from);
+    }
+
+    int createIntVector(int[] values, int length) {
+        startVector(4, length, 4);
+        for (int i = length - 1; i >= 0; i--) {
+            putInt(values[i]);
+        }
+        return endVector(length);
+    }
+
+    int createOffsetVector(int[] references) {
+        startVector(4, references.length, 4);
+        for (int i = references.length - 1; i >= 0; i--) {
+            addOffset(references[i]);
+        }
+        return endVector(references.length);
+    }
+
+    private void startVector(int elementSize, int count, int alignment) {
+        prep(4, elementSize * count);
+        prep(alignment, elementSize * count);
+    }
+
+    private int endVector(int count) {
+        prep(4, 0);
+        putInt(count);
+        return offset();
+    }
+
+    void startTable(int numFields) {
+        vtable = new int[numFields];
+        objectStart = offset();
+    }
+
+    void addField(int slot, byte value) {
+        addByte(value);
+        vtable[slot] = offset();
+    }
+
+    void addField(int slot, short value) {
+        addShort(value);
+        vtable[slot] = offset();
+    }
+
+    void addField(int slot, int value) {
+        addInt(value);
+        vtable[slot] = offset();
+    }
+
+    void addField(int slot, long value) {
+        addLong(value);
+        vtable[slot] = offset();
+    }
+
+    void addOffsetField(int slot, int reference) {
+        addOffset(reference);
+        vtable[slot] = offset();
+    }
+
+    int endTable() {
+        addInt(0);
+        int objectOffset = offset();
+        int numFields = vtable.length;
+        while (numFields > 0 && vtable[numFields - 1] == 0) {
+            numFields--;
+        }
+        for (int i = numFields - 1; i >= 0; i--) {
+            addShort((short) (vtable[i] != 0 ? objectOffset - vtable[i] : 0));
+        }
+        addShort((short) (objectOffset - objectStart));
+        addShort((short) ((numFields + 2) * 2));
+        writeInt(buffer, buffer.length - objectOffset, offset() - objectOffset);
+        vtable = null;
+        return objectOffset;
+    }
+
+    /**
+     * Finishes the buffer with the root table, prefixed by the size of the buffer as FlatGeobuf expects it.
+     *
+     * @return the finished buffer
+     */
+    byte[] finishSizePrefixed(int root) {
+        prep(minAlign, 8);
+        addOffset(root);
+        addInt(offset());
+        return Arrays.copyOfRange(buffer, space, buffer.length);
+    }
+
+    static void writeInt(byte[] bytes, int position, int value) {
+        bytes[position] = (byte) value;
+        bytes[position + 1] = (byte) (value >> 8);
+        bytes[position + 2] = (byte) (value >> 16);
+        bytes[position + 3] = (byte) (value >> 24);
+    }
+}
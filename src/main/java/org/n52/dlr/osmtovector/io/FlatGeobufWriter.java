@@ -0,0 +1,540 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import org.n52.dlr.osmtovector.engine.ExportWriter;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the features passed to it as a FlatGeobuf file including the packed Hilbert R-tree index.
+ * <p>
+ * The index has to precede the features in the file, so the encoded features are first written to a
+ * spool file and copied into the target in the order of the index once all features are known.
+ */
+public class FlatGeobufWriter implements ExportWriter {
+
+    private static final byte[] MAGIC = {0x66, 0x67, 0x62, 0x03, 0x66, 0x67, 0x62, 0x00};
+    private static final int INDEX_NODE_SIZE = 16;
+    private static final int NODE_ITEM_BYTES = 40;
+    private static final int HILBERT_MAX = (1 << 16) - 1;
+
+    // GeometryType enum of the FlatGeobuf schema
+    private static final byte GEOMETRY_UNKNOWN = 0;
+    private static final byte GEOMETRY_POINT = 1;
+    private static final byte GEOMETRY_LINESTRING = 2;
+    private static final byte GEOMETRY_POLYGON = 3;
+    private static final byte GEOMETRY_MULTIPOINT = 4;
+    private static final byte GEOMETRY_MULTILINESTRING = 5;
+    private static final byte GEOMETRY_MULTIPOLYGON = 6;
+    private static final byte GEOMETRY_COLLECTION = 7;
+
+    // ColumnType enum of the FlatGeobuf schema
+    private static final byte COLUMN_BOOL = 2;
+    private static final byte COLUMN_LONG = 7;
+    private static final byte COLUMN_DOUBLE = 10;
+    private static final byte COLUMN_STRING = 11;
+
+    private final Path target;
+    private final Path spoolFile;
+    private final FileChannel spool;
+    private final FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+
+    private String layerName;
+    private byte geometryType = GEOMETRY_UNKNOWN;
+    private int geometryIndex = -1;
+    private final List<String> columnNames = new ArrayList<>();
+    private final List<Integer> columnAttributes = new ArrayList<>();
+    private byte[] columnTypes = new byte[0];
+
+    private int count = 0;
+    private long spoolPosition = 0;
+    private long[] spoolOffsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private double[] boxes = new double[4 * 1024];
+
+    private ByteBuffer properties = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+    private double[] xy = new double[1024];
+    private int[] ends = new int[16];
+    private boolean finished = false;
+
+    /**
+     * @param spoolDirectory directory for the temporary file holding the features until the index is written
+     */
+    public FlatGeobufWriter(Path target, Path spoolDirectory) throws IOException {
+        this.target = target;
+        this.spoolFile = Files.createTempFile(spoolDirectory, "osmtovector-spool", ".fgb");
+        this.spool = FileChannel.open(spoolFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public void start(SimpleFeatureType featureType) {
+        layerName = featureType.getTypeName();
+        for (int i = 0; i < featureType.getAttributeCount(); i++) {
+            Class<?> binding = featureType.getDescriptor(i).getType().getBinding();
+            if (geometryIndex < 0 && Geometry.class.isAssignableFrom(binding)) {
+                geometryIndex = i;
+                geometryType = geometryType(binding);
+            } else {
+                columnNames.add(featureType.getDescriptor(i).getLocalName());
+                columnAttributes.add(i);
+            }
+        }
+        columnTypes = new byte[columnNames.size()];
+        for (int c = 0; c < columnTypes.length; c++) {
+            columnTypes[c] = columnType(featureType.getDescriptor(columnAttributes.get(c)).getType().getBinding());
+        }
+    }
+
+    @Override
+    public void accept(SimpleFeature feature) throws IOException {
+        builder.clear();
+
+        int propertiesLength = encodeProperties(feature);
+        int propertiesReference = propertiesLength > 0
+                ? builder.createByteVector(properties.array(), propertiesLength)
+                : 0;
+
+        Geometry geometry = geometryIndex < 0 ? null : (Geometry) feature.getAttribute(geometryIndex);
+        int geometryReference = geometry == null ? 0 : writeGeometry(geometry);
+
+        builder.startTable(3);
+        if (geometryReference != 0) {
+            builder.addOffsetField(0, geometryReference);
+        }
+        if (propertiesReference != 0) {
+            builder.addOffsetField(1, propertiesReference);
+        }
+        byte[] bytes = builder.finishSizePrefixed(builder.endTable());
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            spoolPosition += spool.write(buffer, spoolPosition);
+        }
+
+        if (count == lengths.length) {
+            spoolOffsets = Arrays.copyOf(spoolOffsets, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+            boxes = Arrays.copyOf(boxes, count * 8);
+        }
+        spoolOffsets[count] = spoolPosition - bytes.length;
+        lengths[count] = bytes.length;
+        Envelope envelope = geometry == null ? new Envelope() : geometry.getEnvelopeInternal();
+        boxes[4 * count] = envelope.isNull() ? Double.POSITIVE_INFINITY : envelope.getMinX();
+        boxes[4 * count + 1] = envelope.isNull() ? Double.POSITIVE_INFINITY : envelope.getMinY();
+        boxes[4 * count + 2] = envelope.isNull() ? Double.NEGATIVE_INFINITY : envelope.getMaxX();
+        boxes[4 * count + 3] = envelope.isNull() ? Double.NEGATIVE_INFINITY : envelope.getMaxY();
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private int encodeProperties(SimpleFeature feature) {
+        properties.clear();
+        for (int c = 0; c < columnTypes.length; c++) {
+            Object value = feature.getAttribute(columnAttributes.get(c));
+            if (value == null) {
+                continue;
+            }
+            switch (columnTypes[c]) {
+                case COLUMN_BOOL:
+                    ensureProperties(3).putShort((short) c).put((byte) (Boolean.TRUE.equals(value) ? 1 : 0));
+                    break;
+                case COLUMN_LONG:
+                    ensureProperties(10).putShort((short) c).putLong(((Number) value).longValue());
+                    break;
+                case COLUMN_DOUBLE:
+                    ensureProperties(10).putShort((short) c).putDouble(((Number) value).doubleValue());
+                    break;
+                default:
+                    byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                    ensureProperties(6 + bytes.length).putShort((short) c).putInt(bytes.length).put(bytes);
+            }
+        }
+        return properties.position();
+    }
+
+    private ByteBuffer ensureProperties(int bytes) {
+        if (properties.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(properties.capacity() * 2, properties.position() + bytes))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            properties.flip();
+            grown.put(properties);
+            properties = grown;
+        }
+        return properties;
+    }
+
+    private int writeGeometry(Geometry geometry) {
+        byte type = geometryType(geometry.getClass());
+        if (type == GEOMETRY_MULTIPOLYGON || type == GEOMETRY_COLLECTION) {
+            int[] parts = new int[geometry.getNumGeometries()];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = writeGeometry(geometry.getGeometryN(i));
+            }
+            int partsReference = builder.createOffsetVector(parts);
+            builder.startTable(8);
+            builder.addOffsetField(7, partsReference);
+            builder.addField(6, type);
+            return builder.endTable();
+        }
+
+        int numEnds = 0;
+        int numCoordinates = 0;
+        if (type == GEOMETRY_POLYGON) {
+            Polygon polygon = (Polygon) geometry;
+            numCoordinates = addCoordinates(polygon.getExteriorRing().getCoordinates(), numCoordinates);
+            numEnds = addEnd(numEnds, numCoordinates);
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                numCoordinates = addCoordinates(polygon.getInteriorRingN(i).getCoordinates(), numCoordinates);
+                numEnds = addEnd(numEnds, numCoordinates);
+            }
+        } else if (type == GEOMETRY_MULTILINESTRING) {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                numCoordinates = addCoordinates(geometry.getGeometryN(i).getCoordinates(), numCoordinates);
+                numEnds = addEnd(numEnds, numCoordinates);
+            }
+        } else {
+            numCoordinates = addCoordinates(geometry.getCoordinates(), numCoordinates);
+        }
+
+        int xyReference = builder.createDoubleVector(xy, 0, 2 * numCoordinates);
+        // a single part does not need its end
+        int endsReference = numEnds > 1 ? builder.createIntVector(ends, numEnds) : 0;
+        builder.startTable(8);
+        builder.addOffsetField(1, xyReference);
+        if (endsReference != 0) {
+            builder.addOffsetField(0, endsReference);
+        }
+        builder.addField(6, type);
+        return builder.endTable();
+    }
+
+    private int addCoordinates(Coordinate[] coordinates, int numCoordinates) {
+        if (xy.length < 2 * (numCoordinates + coordinates.length)) {
+            xy = Arrays.copyOf(xy, Math.max(xy.length * 2, 2 * (numCoordinates + coordinates.length)));
+        }
+        for (Coordinate coordinate : coordinates) {
+            xy[2 * numCoordinates] = coordinate.x;
+            xy[2 * numCoordinates + 1] = coordinate.y;
+            numCoordinates++;
+        }
+        return numCoordinates;
+    }
+
+    private int addEnd(int numEnds, int end) {
+        if (numEnds == ends.length) {
+            ends = Arrays.copyOf(ends, numEnds * 2);
+        }
+        ends[numEnds] = end;
+        return numEnds + 1;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        // the envelope of the dataset, used to normalize the coordinates of the Hilbert curve
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, boxes[4 * i]);
+            minY = Math.min(minY, boxes[4 * i + 1]);
+            maxX = Math.max(maxX, boxes[4 * i + 2]);
+            maxY = Math.max(maxY, boxes[4 * i + 3]);
+        }
+
+        // sorting the features along the Hilbert curve keeps the features of an index node close together
+        long[] order = new long[count];
+        double width = maxX - minX;
+        double height = maxY - minY;
+        for (int i = 0; i < count; i++) {
+            long x = 0;
+            long y = 0;
+            if (width > 0 && !Double.isInfinite(width)) {
+                x = (long) Math.floor(HILBERT_MAX * ((boxes[4 * i] + boxes[4 * i + 2]) / 2 - minX) / width);
+            }
+            if (height > 0 && !Double.isInfinite(height)) {
+                y = (long) Math.floor(HILBERT_MAX * ((boxes[4 * i + 1] + boxes[4 * i + 3]) / 2 - minY) / height);
+            }
+            long h = hilbert((int) Math.max(0, Math.min(HILBERT_MAX, x)), (int) Math.max(0, Math.min(HILBERT_MAX, y)));
+            order[i] = (h << 32) | i;
+        }
+        Arrays.sort(order);
+
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, ByteBuffer.wrap(MAGIC));
+            writeFully(out, ByteBuffer.wrap(encodeHeader(minX, minY, maxX, maxY)));
+            if (count > 0) {
+                writeIndex(out, order);
+            }
+            for (long entry : order) {
+                int i = (int) entry;
+                long position = spoolOffsets[i];
+                long remaining = lengths[i];
+                while (remaining > 0) {
+                    long n = spool.transferTo(position, remaining, out);
+                    position += n;
+                    remaining -= n;
+                }
+            }
+        }
+        finished = true;
+        spool.close();
+        Files.deleteIfExists(spoolFile);
+    }
+
+    private byte[] encodeHeader(double minX, double minY, double maxX, double maxY) {
+        builder.clear();
+        int[] columns = new int[columnNames.size()];
+        for (int c = 0; c < columns.length; c++) {
+            int name = builder.createString(columnNames.get(c));
+            builder.startTable(11);
+            builder.addOffsetField(0, name);
+            builder.addField(1, columnTypes[c]);
+            columns[c] = builder.endTable();
+        }
+        int columnsReference = builder.createOffsetVector(columns);
+
+        int crsOrganization = builder.createString("EPSG");
+        builder.startTable(6);
+        builder.addOffsetField(0, crsOrganization);
+        builder.addField(1, 4326);
+        int crs = builder.endTable();
+
+        int envelope = count > 0 ? builder.createDoubleVector(new double[]{minX, minY, maxX, maxY}, 0, 4) : 0;
+        int name = builder.createString(layerName == null ? "export" : layerName);
+
+        builder.startTable(14);
+        builder.addField(8, (long) count);
+        builder.addOffsetField(0, name);
+        if (envelope != 0) {
+            builder.addOffsetField(1, envelope);
+        }
+        builder.addOffsetField(7, columnsReference);
+        builder.addOffsetField(10, crs);
+        builder.addField(9, (short) (count > 0 ? INDEX_NODE_SIZE : 0));
+        builder.addField(2, geometryType);
+        return builder.finishSizePrefixed(builder.endTable());
+    }
+
+    /**
+     * Writes the packed Hilbert R-tree: the levels from the root to the leaves, each node holding its
+     * bounding box and either the index of its first child or - for the leaves - the offset of the feature.
+     */
+    private void writeIndex(FileChannel out, long[] order) throws IOException {
+        List<Integer> levelSizes = new ArrayList<>();
+        int n = count;
+        int numNodes = n;
+        levelSizes.add(n);
+        do {
+            n = (n + INDEX_NODE_SIZE - 1) / INDEX_NODE_SIZE;
+            numNodes += n;
+            levelSizes.add(n);
+        } while (n != 1);
+
+        // level 0 are the leaves at the end of the array, the root is the first node
+        int[] levelStart = new int[levelSizes.size()];
+        int end = numNodes;
+        for (int level = 0; level < levelSizes.size(); level++) {
+            end -= levelSizes.get(level);
+            levelStart[level] = end;
+        }
+
+        double[] nodeBoxes = new double[4 * numNodes];
+        long[] nodeOffsets = new long[numNodes];
+        long featureOffset = 0;
+        for (int k = 0; k < count; k++) {
+            int i = (int) order[k];
+            int node = levelStart[0] + k;
+            System.arraycopy(boxes, 4 * i, nodeBoxes, 4 * node, 4);
+            nodeOffsets[node] = featureOffset;
+            featureOffset += lengths[i];
+        }
+        for (int level = 0; level < levelSizes.size() - 1; level++) {
+            int pos = levelStart[level];
+            int levelEnd = pos + levelSizes.get(level);
+            int parent = levelStart[level + 1];
+            while (pos < levelEnd) {
+                nodeOffsets[parent] = pos;
+                nodeBoxes[4 * parent] = Double.POSITIVE_INFINITY;
+                nodeBoxes[4 * parent + 1] = Double.POSITIVE_INFINITY;
+                nodeBoxes[4 * parent + 2] = Double.NEGATIVE_INFINITY;
+                nodeBoxes[4 * parent + 3] = Double.NEGATIVE_INFINITY;
+                for (int j = 0; j < INDEX_NODE_SIZE && pos < levelEnd; j++, pos++) {
+                    nodeBoxes[4 * parent] = Math.min(nodeBoxes[4 * parent], nodeBoxes[4 * pos]);
+                    nodeBoxes[4 * parent + 1] = Math.min(nodeBoxes[4 * parent + 1], nodeBoxes[4 * pos + 1]);
+                    nodeBoxes[4 * parent + 2] = Math.max(nodeBoxes[4 * parent + 2], nodeBoxes[4 * pos + 2]);
+                    nodeBoxes[4 * parent + 3] = Math.max(nodeBoxes[4 * parent + 3], nodeBoxes[4 * pos + 3]);
+                }
+                parent++;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(NODE_ITEM_BYTES * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        for (int node = 0; node < numNodes; node++) {
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                writeFully(out, buffer);
+                buffer.clear();
+            }
+            buffer.putDouble(nodeBoxes[4 * node])
+                    .putDouble(nodeBoxes[4 * node + 1])
+                    .putDouble(nodeBoxes[4 * node + 2])
+                    .putDouble(nodeBoxes[4 * node + 3])
+                    .putLong(nodeOffsets[node]);
+        }
+        buffer.flip();
+        writeFully(out, buffer);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Position of the point on a Hilbert curve of order 16, as used by the reference implementation.
+     */
+    static long hilbert(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >>> 1);
+        int B = (a >>> 1) ^ a;
+        int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+        int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = (a & (a >>> 2)) ^ (b & (b >>> 2));
+        B = (a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2));
+        C ^= (a & (c >>> 2)) ^ (b & (d >>> 2));
+        D ^= (b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = (a & (a >>> 4)) ^ (b & (b >>> 4));
+        B = (a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4));
+        C ^= (a & (c >>> 4)) ^ (b & (d >>> 4));
+        D ^= (b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        C ^= (a & (c >>> 8)) ^ (b & (d >>> 8));
+        D ^= (b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8));
+
+        a = C ^ (C >>> 1);
+        b = D ^ (D >>> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+        i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+        i0 = (i0 | (i0 << 2)) & 0x33333333;
+        i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+        i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+        i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+        i1 = (i1 | (i1 << 2)) & 0x33333333;
+        i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+        return ((i1 << 1) | i0) & 0xFFFFFFFFL;
+    }
+
+    private static byte geometryType(Class<?> binding) {
+        if (Point.class.isAssignableFrom(binding)) {
+            return GEOMETRY_POINT;
+        } else if (LineString.class.isAssignableFrom(binding)) {
+            return GEOMETRY_LINESTRING;
+        } else if (Polygon.class.isAssignableFrom(binding)) {
+            return GEOMETRY_POLYGON;
+        } else if (MultiPoint.class.isAssignableFrom(binding)) {
+            return GEOMETRY_MULTIPOINT;
+        } else if (MultiLineString.class.isAssignableFrom(binding)) {
+            return GEOMETRY_MULTILINESTRING;
+        } else if (MultiPolygon.class.isAssignableFrom(binding)) {
+            return GEOMETRY_MULTIPOLYGON;
+        } else if (GeometryCollection.class.isAssignableFrom(binding)) {
+            return GEOMETRY_COLLECTION;
+        }
+        return GEOMETRY_UNKNOWN;
+    }
+
+    private static byte columnType(Class<?> binding) {
+        if (Boolean.class.equals(binding)) {
+            return COLUMN_BOOL;
+        } else if (Long.class.equals(binding) || Integer.class.equals(binding)
+                || Short.class.equals(binding) || Byte.class.equals(binding)) {
+            return COLUMN_LONG;
+        } else if (Double.class.equals(binding) || Float.class.equals(binding)) {
+            return COLUMN_DOUBLE;
+        }
+        return COLUMN_STRING;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            try {
+                spool.close();
+                Files.deleteIfExists(target);
+            } finally {
+                Files.deleteIfExists(spoolFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import org.geotools.geojson.feature.FeatureJSON;
+import org.n52.dlr.osmtovector.engine.ExportWriter;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the features passed to it as newline delimited GeoJSON, one feature per line.
+ */
+public class GeoJSONSeqWriter implements ExportWriter {
+
+    private final Path target;
+    private final Writer writer;
+    private final FeatureJSON featureJSON = new FeatureJSON();
+    private long count = 0;
+    private boolean finished = false;
+
+    public GeoJSONSeqWriter(Path target) throws IOException {
+        this.target = target;
+        this.writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void start(SimpleFeatureType featureType) {
+        // the format has no header
+    }
+
+    @Override
+    public void accept(SimpleFeature feature) throws IOException {
+        writer.write(featureJSON.toString(feature));
+        writer.write('\n');
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writer.close();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            try {
+                writer.close();
+            } finally {
+                Files.deleteIfExists(target);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import org.geotools.geojson.feature.FeatureJSON;
+import org.n52.dlr.osmtovector.engine.ExportWriter;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the features passed to it as a GeoJSON FeatureCollection into a zip file, one
+ * feature at a time.
+ */
+public class GeoJSONZipWriter implements ExportWriter {
+
+    public static final String ENTRY_NAME = "export.geojson";
+
+    private final Path target;
+    private final ZipOutputStream zip;
+    private final Writer writer;
+    private final FeatureJSON featureJSON = new FeatureJSON();
+    private long count = 0;
+    private boolean started = false;
+    private boolean finished = false;
+
+    public GeoJSONZipWriter(Path target) throws IOException {
+        this.target = target;
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(target));
+        this.zip = new ZipOutputStream(out);
+        this.writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void start(SimpleFeatureType featureType) throws IOException {
+        zip.putNextEntry(new ZipEntry(ENTRY_NAME));
+        writer.write("{\"type\":\"FeatureCollection\",\"features\":[");
+        started = true;
+    }
+
+    @Override
+    public void accept(SimpleFeature feature) throws IOException {
+        if (count > 0) {
+            writer.write(",\n");
+        }
+        writer.write(featureJSON.toString(feature));
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!started) {
+            start(null);
+        }
+        writer.write("]}\n");
+        writer.flush();
+        zip.closeEntry();
+        zip.finish();
+        writer.close();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            try {
+                writer.close();
+            } finally {
+                Files.deleteIfExists(target);
+            }
+        }
+    }
+}
@@ -0,0 +1,584 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import org.n52.dlr.osmtovector.engine.ChangeSummary;
+import org.n52.dlr.osmtovector.engine.OsmChange;
+import org.n52.dlr.osmtovector.engine.ShardManifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Catalog of the datasets in the store directory, shared by all requests. The directory is
+ * scanned once and then rescanned whenever the watch service reports a change, and
+ * periodically in case the file system does not deliver events, as is common for network
+ * file systems. Lookups only access the catalog in memory.
+ */
+public class OSMDatasetCatalog implements Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(OSMDatasetCatalog.class);
+
+    /**
+     * Maximum number of filtered copies of a dataset.
+     */
+    public static final int MAX_FILTERED_DATASETS = 4;
+
+    // copies holding more than this share of the dataset are not worth reading instead of it
+    private static final double MAX_FILTERED_SIZE_RATIO = 0.5;
+
+    private final Path directory;
+    // replaced as a whole on every scan
+    private volatile Map<String, DatasetMetadata> datasets = Collections.emptyMap();
+    private final Map<String, DatasetStatistics> statistics = new ConcurrentHashMap<>();
+    private final Set<String> pendingStatistics = ConcurrentHashMap.newKeySet();
+    private final Map<String, ShardManifest> shardManifests = new ConcurrentHashMap<>();
+    private final Set<String> pendingShards = ConcurrentHashMap.newKeySet();
+    private long shardMaxNodes = 0;
+    private Path shardWorkDirectory;
+    // number of requests per dataset and set of tag keys since the start
+    private final Map<String, Map<String, AtomicInteger>> tagUsage = new ConcurrentHashMap<>();
+    private final Map<String, List<FilteredDataset>> filteredDatasets = new ConcurrentHashMap<>();
+    // dataset names while their copies are loaded, "name/keys" while a copy is written
+    private final Set<String> pendingFilteredDatasets = ConcurrentHashMap.newKeySet();
+    private final Set<String> rejectedFilteredDatasets = ConcurrentHashMap.newKeySet();
+    private int filterMinRequests = 0;
+    // change files by dataset name in the order they are applied
+    private volatile Map<String, List<Path>> changeFiles = Collections.emptyMap();
+    private final Set<String> pendingChanges = ConcurrentHashMap.newKeySet();
+    private boolean applyChangeFiles = false;
+    private DatasetChangeListener changeListener;
+    private ExecutorService statisticsExecutor;
+    private WatchService watchService;
+    private Thread watchThread;
+
+    public OSMDatasetCatalog(Path directory) throws IOException {
+        this.directory = directory;
+        rescan();
+    }
+
+    /**
+     * Lets new and changed datasets with more than the given number of nodes be divided into shards
+     * in the background. Has to be called before {@link #start}.
+     *
+     * @param maxNodes maximum number of nodes per shard, 0 to disable sharding
+     * @param workDirectory directory for temporary files while sharding
+     */
+    public void setSharding(long maxNodes, Path workDirectory) {
+        this.shardMaxNodes = maxNodes;
+        this.shardWorkDirectory = workDirectory;
+    }
+
+    /**
+     * Lets copies of the datasets with only the elements of a set of tag keys be written in the
+     * background once the set has been requested often enough. Has to be called before {@link #start}.
+     *
+     * @param minRequests number of requests of a set of tag keys before a copy is made, 0 to disable the copies
+     */
+    public void setFiltering(int minRequests) {
+        this.filterMinRequests = minRequests;
+    }
+
+    /**
+     * Lets OSM change files next to the datasets be applied to them in the background. Has to be
+     * called before {@link #start}.
+     *
+     * @param listener is told about the updated datasets, may be null
+     */
+    public void setChangeFiles(boolean enabled, DatasetChangeListener listener) {
+        this.applyChangeFiles = enabled;
+        this.changeListener = listener;
+    }
+
+    /**
+     * Starts watching the directory for changes.
+     *
+     * @param executor executor to run the periodic rescans on
+     * @param rescanIntervalSeconds interval of the periodic rescans, 0 to rescan only on changes
+     * @param statisticsExecutor executor to compute the statistics of the datasets on
+     */
+    public void start(ScheduledExecutorService executor, long rescanIntervalSeconds,
+                      ExecutorService statisticsExecutor) {
+        this.statisticsExecutor = statisticsExecutor;
+        updateChanges();
+        updateStatistics();
+        updateShards();
+        updateFilteredDatasets();
+
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            watchThread = new Thread(this::watch, "osmtovector-catalog-watch");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        } catch (IOException e) {
+            LOGGER.warn("Could not watch the dataset directory " + directory + ", relying on periodic rescans", e);
+        }
+
+        if (rescanIntervalSeconds > 0) {
+            executor.scheduleWithFixedDelay(() -> {
+                try {
+                    rescan();
+                } catch (IOException e) {
+                    LOGGER.warn("Could not rescan the dataset directory " + directory, e);
+                }
+            }, rescanIntervalSeconds, rescanIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                // a file being copied causes many events, they are handled by a single scan
+                Thread.sleep(1000);
+                key.pollEvents();
+                key.reset();
+                try {
+                    rescan();
+                } catch (IOException e) {
+                    LOGGER.warn("Could not rescan the dataset directory " + directory, e);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOGGER.debug("stopped watching {}", directory);
+        }
+    }
+
+    /**
+     * Scans the directory. The headers are only read for new and changed datasets.
+     */
+    public synchronized void rescan() throws IOException {
+        Map<String, DatasetMetadata> current = datasets;
+        Map<String, DatasetMetadata> scanned = new HashMap<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + OSMDatasetStore.fileNameExtension)) {
+            for (Path path : stream) {
+                String name = OSMDatasetStore.getDatasetName(path);
+                DatasetMetadata metadata = current.get(name);
+                try {
+                    if (metadata == null || !metadata.getPath().equals(path) || !metadata.isCurrent(
+                            Files.size(path), Files.getLastModifiedTime(path).toMillis())) {
+                        metadata = DatasetMetadata.read(name, path);
+                        LOGGER.info("Found dataset '{}'", name);
+                    }
+                    scanned.put(name, metadata);
+                } catch (IOException e) {
+                    // the file has been removed during the scan
+                    LOGGER.debug("skipping {}: {}", path, e.getMessage());
+                }
+            }
+        }
+        for (String name : current.keySet()) {
+            if (!scanned.containsKey(name)) {
+                LOGGER.info("Dataset '{}' has been removed", name);
+            }
+        }
+        datasets = Collections.unmodifiableMap(scanned);
+        statistics.keySet().retainAll(scanned.keySet());
+        shardManifests.keySet().retainAll(scanned.keySet());
+        filteredDatasets.keySet().retainAll(scanned.keySet());
+        tagUsage.keySet().retainAll(scanned.keySet());
+        if (applyChangeFiles) {
+            changeFiles = scanChangeFiles(scanned);
+        }
+        updateChanges();
+        updateStatistics();
+        updateShards();
+        updateFilteredDatasets();
+    }
+
+    /**
+     * Finds the change files of the datasets. A change file belongs to the dataset whose file name
+     * without .osm.pbf is the name of the change file without .osc or .osc.gz, or the start of it
+     * up to a dot. The files of a dataset are applied in the order of their names.
+     */
+    private Map<String, List<Path>> scanChangeFiles(Map<String, DatasetMetadata> scanned) throws IOException {
+        Map<String, List<Path>> result = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                "*{" + OSMDatasetStore.changeFileExtension + "," + OSMDatasetStore.compressedChangeFileExtension + "}")) {
+            for (Path path : stream) {
+                String baseName = OSMDatasetStore.getChangeFileBaseName(path);
+                DatasetMetadata dataset = null;
+                int prefixLength = -1;
+                for (DatasetMetadata metadata : scanned.values()) {
+                    String fileName = metadata.getPath().getFileName().toString();
+                    String prefix = fileName.substring(0, fileName.length() - OSMDatasetStore.fileNameExtension.length());
+                    if ((baseName.equals(prefix) || baseName.startsWith(prefix + "."))
+                            && prefix.length() > prefixLength) {
+                        dataset = metadata;
+                        prefixLength = prefix.length();
+                    }
+                }
+                if (dataset == null) {
+                    LOGGER.debug("skipping {}, there is no dataset for it", path);
+                    continue;
+                }
+                result.computeIfAbsent(dataset.getName(), name -> new ArrayList<>()).add(path);
+            }
+        }
+        for (List<Path> paths : result.values()) {
+            paths.sort(Comparator.comparing(path -> path.getFileName().toString()));
+        }
+        return result;
+    }
+
+    /**
+     * Applies the change files of the datasets which are not being updated already.
+     */
+    private void updateChanges() {
+        if (statisticsExecutor == null || !applyChangeFiles) {
+            return;
+        }
+        for (Map.Entry<String, List<Path>> entry : changeFiles.entrySet()) {
+            String name = entry.getKey();
+            List<Path> paths = entry.getValue();
+            if (pendingChanges.add(name)) {
+                statisticsExecutor.execute(() -> {
+                    try {
+                        applyChanges(name, paths);
+                    } finally {
+                        pendingChanges.remove(name);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Writes a new version of the dataset with the changes applied and lets it replace the dataset,
+     * unless the dataset has been changed otherwise in the meantime.
+     */
+    private void applyChanges(String name, List<Path> paths) {
+        DatasetMetadata previous = datasets.get(name);
+        if (previous == null) {
+            return;
+        }
+        List<Path> readFiles = new ArrayList<>();
+        OsmChange change = OSMDatasetStore.readChangeFiles(paths, readFiles);
+        if (readFiles.isEmpty()) {
+            return;
+        }
+        Path merged = OSMDatasetStore.getMergePath(previous);
+        ChangeSummary changes;
+        try {
+            changes = OSMDatasetStore.mergeChanges(previous, change, merged);
+        } catch (IOException e) {
+            LOGGER.warn("Could not apply the change files " + readFiles + " to dataset '" + name + "'", e);
+            return;
+        }
+
+        DatasetMetadata current;
+        synchronized (this) {
+            try {
+                if (datasets.get(name) != previous || !previous.isCurrent(Files.size(previous.getPath()),
+                        Files.getLastModifiedTime(previous.getPath()).toMillis())) {
+                    LOGGER.info("Dataset '{}' has changed while applying the change files, they are applied again",
+                            name);
+                    Files.deleteIfExists(merged);
+                    return;
+                }
+                current = OSMDatasetStore.replaceDataset(previous, merged, changes);
+            } catch (IOException e) {
+                LOGGER.warn("Could not replace dataset '" + name + "' by the version with the changes applied", e);
+                try {
+                    Files.deleteIfExists(merged);
+                } catch (IOException deleteException) {
+                    LOGGER.warn("Could not delete " + merged, deleteException);
+                }
+                return;
+            }
+            OSMDatasetStore.markChangeFilesApplied(readFiles);
+            if (changeListener != null) {
+                changeListener.datasetChanged(previous, current, changes);
+            }
+            Map<String, DatasetMetadata> updated = new HashMap<>(datasets);
+            updated.put(name, current);
+            datasets = Collections.unmodifiableMap(updated);
+            Map<String, List<Path>> remaining = new HashMap<>(changeFiles);
+            remaining.remove(name);
+            changeFiles = remaining;
+        }
+        LOGGER.info("Applied {} changed elements from {} change files to dataset '{}'",
+                changes.getChangedElementCount(), readFiles.size(), name);
+        updateStatistics();
+        updateShards();
+        updateFilteredDatasets();
+    }
+
+    /**
+     * Loads or computes the statistics of the datasets which do not have current statistics.
+     */
+    private void updateStatistics() {
+        if (statisticsExecutor == null) {
+            return;
+        }
+        for (DatasetMetadata metadata : datasets.values()) {
+            if (getStatistics(metadata.getName()) == null && pendingStatistics.add(metadata.getName())) {
+                statisticsExecutor.execute(() -> {
+                    try {
+                        DatasetStatistics current = OSMDatasetStore.readStatistics(metadata);
+                        if (current == null) {
+                            current = OSMDatasetStore.computeStatistics(metadata);
+                        }
+                        statistics.put(metadata.getName(), current);
+                    } catch (IOException e) {
+                        LOGGER.warn("Could not compute the statistics of dataset '" + metadata.getName() + "'", e);
+                    } finally {
+                        pendingStatistics.remove(metadata.getName());
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Loads or builds the shards of the datasets which do not have current shards. Runs on the
+     * statistics executor, after the statistics of the same scan.
+     */
+    private void updateShards() {
+        if (statisticsExecutor == null || shardMaxNodes <= 0) {
+            return;
+        }
+        for (DatasetMetadata metadata : datasets.values()) {
+            if (getShardManifest(metadata.getName()) == null && pendingShards.add(metadata.getName())) {
+                statisticsExecutor.execute(() -> {
+                    try {
+                        ShardManifest current = OSMDatasetStore.readShardManifest(metadata);
+                        if (current == null || current.getMaxNodes() != shardMaxNodes) {
+                            current = OSMDatasetStore.buildShards(metadata, shardMaxNodes, shardWorkDirectory);
+                        }
+                        shardManifests.put(metadata.getName(), current);
+                    } catch (IOException e) {
+                        LOGGER.warn("Could not shard dataset '" + metadata.getName()
+                                + "', it is read as a single file until it changes", e);
+                        shardManifests.put(metadata.getName(), new ShardManifest(null, metadata.getSize(),
+                                metadata.getLastModified(), shardMaxNodes, Collections.emptyList()));
+                    } finally {
+                        pendingShards.remove(metadata.getName());
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Loads the filtered copies of the datasets which have not been loaded yet and rewrites the
+     * copies of changed datasets.
+     */
+    private void updateFilteredDatasets() {
+        if (statisticsExecutor == null || filterMinRequests <= 0) {
+            return;
+        }
+        for (DatasetMetadata metadata : datasets.values()) {
+            List<FilteredDataset> copies = filteredDatasets.get(metadata.getName());
+            if ((copies == null || !areCurrent(copies, metadata)) && pendingFilteredDatasets.add(metadata.getName())) {
+                statisticsExecutor.execute(() -> {
+                    try {
+                        List<FilteredDataset> current = new CopyOnWriteArrayList<>();
+                        for (FilteredDataset copy : OSMDatasetStore.readFilteredDatasets(metadata)) {
+                            if (!copy.isCurrent(metadata.getSize(), metadata.getLastModified())) {
+                                copy = buildFilteredDataset(metadata, copy.getTags());
+                            }
+                            if (copy != null) {
+                                current.add(copy);
+                            }
+                        }
+                        filteredDatasets.put(metadata.getName(), current);
+                    } finally {
+                        pendingFilteredDatasets.remove(metadata.getName());
+                    }
+                });
+            }
+        }
+    }
+
+    private static boolean areCurrent(List<FilteredDataset> copies, DatasetMetadata metadata) {
+        for (FilteredDataset copy : copies) {
+            if (!copy.isCurrent(metadata.getSize(), metadata.getLastModified())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts a request for the tag keys and lets a copy with these keys be written once they have
+     * been requested often enough.
+     */
+    public void recordTagUsage(String datasetName, Collection<String> tags) {
+        DatasetMetadata metadata = datasets.get(datasetName);
+        if (statisticsExecutor == null || filterMinRequests <= 0 || tags.isEmpty() || metadata == null) {
+            return;
+        }
+        String key = FilteredDataset.key(tags);
+        int requests = tagUsage.computeIfAbsent(datasetName, name -> new ConcurrentHashMap<>())
+                .computeIfAbsent(key, k -> new AtomicInteger())
+                .incrementAndGet();
+        List<FilteredDataset> copies = filteredDatasets.get(datasetName);
+        // the copies which are there already are not known before they have been loaded
+        if (requests < filterMinRequests || copies == null || copies.size() >= MAX_FILTERED_DATASETS) {
+            return;
+        }
+        for (FilteredDataset copy : copies) {
+            if (copy.covers(tags)) {
+                return;
+            }
+        }
+        String pendingKey = datasetName + "/" + key;
+        if (rejectedFilteredDatasets.contains(rejectedKey(metadata, key)) || !pendingFilteredDatasets.add(pendingKey)) {
+            return;
+        }
+        statisticsExecutor.execute(() -> {
+            try {
+                FilteredDataset copy = buildFilteredDataset(metadata, tags);
+                if (copy != null) {
+                    copies.add(copy);
+                }
+            } finally {
+                pendingFilteredDatasets.remove(pendingKey);
+            }
+        });
+    }
+
+    /**
+     * Writes a filtered copy and deletes it again when it is too large to be useful.
+     *
+     * @return the copy, or null when it has been rejected
+     */
+    private FilteredDataset buildFilteredDataset(DatasetMetadata metadata, Collection<String> tags) {
+        String key = FilteredDataset.key(tags);
+        try {
+            FilteredDataset copy = OSMDatasetStore.buildFilteredDataset(metadata, tags);
+            if (copy.getSize() <= MAX_FILTERED_SIZE_RATIO * metadata.getSize()) {
+                return copy;
+            }
+            LOGGER.info("Discarding the copy of dataset '{}' with the tags {}, it is not much smaller than the dataset",
+                    metadata.getName(), key);
+            OSMDatasetStore.deleteFilteredDataset(copy);
+        } catch (IOException e) {
+            LOGGER.warn("Could not write a copy of dataset '" + metadata.getName() + "' with the tags " + key, e);
+        }
+        rejectedFilteredDatasets.add(rejectedKey(metadata, key));
+        return null;
+    }
+
+    private static String rejectedKey(DatasetMetadata metadata, String key) {
+        return metadata.getName() + "/" + metadata.getSize() + "/" + metadata.getLastModified() + "/" + key;
+    }
+
+    /**
+     * @return the smallest current copy of the dataset holding all elements with any of the tag keys,
+     * or null when there is none
+     */
+    public FilteredDataset getFilteredDataset(String datasetName, Collection<String> tags) {
+        DatasetMetadata metadata = datasets.get(datasetName);
+        List<FilteredDataset> copies = filteredDatasets.get(datasetName);
+        if (metadata == null || copies == null) {
+            return null;
+        }
+        FilteredDataset smallest = null;
+        for (FilteredDataset copy : copies) {
+            if (copy.covers(tags) && copy.isCurrent(metadata.getSize(), metadata.getLastModified())
+                    && (smallest == null || copy.getSize() < smallest.getSize())) {
+                smallest = copy;
+            }
+        }
+        return smallest;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public List<String> getDatasetNames() {
+        return new ArrayList<>(datasets.keySet());
+    }
+
+    /**
+     * @return the metadata of the dataset, or null when there is no dataset with the name
+     */
+    public DatasetMetadata getMetadata(String datasetName) {
+        return datasets.get(datasetName);
+    }
+
+    /**
+     * @return the statistics of the dataset, or null when they are not available yet
+     */
+    public DatasetStatistics getStatistics(String datasetName) {
+        DatasetMetadata metadata = datasets.get(datasetName);
+        DatasetStatistics current = statistics.get(datasetName);
+        if (metadata == null || current == null
+                || !current.isCurrent(metadata.getSize(), metadata.getLastModified())) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * @return the shards of the dataset, or null when they are not available yet
+     */
+    public ShardManifest getShardManifest(String datasetName) {
+        DatasetMetadata metadata = datasets.get(datasetName);
+        ShardManifest current = shardManifests.get(datasetName);
+        if (metadata == null || current == null || current.getMaxNodes() != shardMaxNodes
+                || !current.isCurrent(metadata.getSize(), metadata.getLastModified())) {
+            return null;
+        }
+        return current;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (watchThread != null) {
+            watchThread.interrupt();
+        }
+    }
+}
@@ -19,28 +19,78 @@
 
 package org.n52.dlr.osmtovector.io;
 
+import org.n52.dlr.osmtovector.engine.BlobIndex;
+import org.n52.dlr.osmtovector.engine.ChangeMerger;
+import org.n52.dlr.osmtovector.engine.ChangeSummary;
+import org.n52.dlr.osmtovector.engine.OsmChange;
+import org.n52.dlr.osmtovector.engine.ParallelBlockReader;
+import org.n52.dlr.osmtovector.engine.ShardBuilder;
+import org.n52.dlr.osmtovector.engine.ShardManifest;
+import org.n52.dlr.osmtovector.engine.TagFilterBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 public class OSMDatasetStore {
 
+    private static Logger LOGGER = LoggerFactory.getLogger(OSMDatasetStore.class);
+
     public static String fileNameExtension = ".osm.pbf";
+    public static String indexFileNameExtension = ".idx";
+    public static String statisticsFileNameExtension = ".stats.json";
+    public static String shardDirectoryExtension = ".shards";
+    public static String filteredDirectoryExtension = ".filtered";
+    public static String changeFileExtension = ".osc";
+    public static String compressedChangeFileExtension = ".osc.gz";
+    public static String appliedChangeFileExtension = ".applied";
+    public static String failedChangeFileExtension = ".failed";
+
+    // indexes are shared between the stores of all requests
+    private static final Map<Path, BlobIndex> blobIndexes = new ConcurrentHashMap<>();
+    private static final Map<Path, Object> blobIndexLocks = new ConcurrentHashMap<>();
+
     private Path directory;
     private Map<String, Path> datasetMap = new HashMap<>();
+    private OSMDatasetCatalog catalog;
 
     public OSMDatasetStore(String directory) throws IOException {
         this.directory = Paths.get(directory);
         scanDirectory();
     }
 
+    /**
+     * Creates a store using the datasets of the catalog instead of scanning the directory.
+     */
+    public OSMDatasetStore(OSMDatasetCatalog catalog) {
+        this.directory = catalog.getDirectory();
+        this.catalog = catalog;
+    }
+
+    /**
+     * @return true when the datasets are tracked by the catalog of the repository
+     */
+    public boolean hasCatalog() {
+        return catalog != null;
+    }
+
     public void scanDirectory() throws IOException {
+        if (catalog != null) {
+            catalog.rescan();
+            return;
+        }
         datasetMap.clear();
 
         DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*"+ fileNameExtension);
@@ -49,23 +99,423 @@ public class OSMDatasetStore {
         }
     }
 
-    private String getDatasetName(Path path) {
+    static String getDatasetName(Path path) {
         return path.getName(path.getNameCount()-1).toString()
                 .replace(fileNameExtension, "")
                 .replaceAll("[^a-zA-Z0-9\\.\\-_]", "");
     }
 
     public List<String> getDatasetList() {
+        if (catalog != null) {
+            return catalog.getDatasetNames();
+        }
         ArrayList<String> results = new ArrayList<String>();
         results.addAll(datasetMap.keySet());
         return results;
     }
 
     public Path getPathForDataset(String datasetName) throws IOException {
+        if (catalog != null) {
+            // the catalog tracks removed files, so the file is not checked again
+            DatasetMetadata metadata = catalog.getMetadata(datasetName);
+            if (metadata == null) {
+                throw new IOException("OSM dataset with the name " + datasetName + " does not exist");
+            }
+            return metadata.getPath();
+        }
         Path path = datasetMap.get(datasetName);
         if (path == null || (!path.toFile().exists())) {
             throw new IOException("OSM dataset with the name " + datasetName + " does not exist");
         }
         return path;
     }
+
+    /**
+     * @return the metadata of the dataset. Without a catalog the header is read on every call.
+     */
+    public DatasetMetadata getMetadata(String datasetName) throws IOException {
+        if (catalog != null) {
+            DatasetMetadata metadata = catalog.getMetadata(datasetName);
+            if (metadata == null) {
+                throw new IOException("OSM dataset with the name " + datasetName + " does not exist");
+            }
+            return metadata;
+        }
+        return DatasetMetadata.read(datasetName, getPathForDataset(datasetName));
+    }
+
+    /**
+     * Returns the index of the blobs of a dataset. The index is built on first use and stored
+     * in a file next to the dataset. When the directory is not writable, the index is only
+     * kept in memory.
+     *
+     * @param pool pool to decode the dataset on when the index needs to be built, may be null
+     */
+    public BlobIndex getBlobIndex(String datasetName, ForkJoinPool pool) throws IOException {
+        if (catalog != null) {
+            DatasetMetadata metadata = getMetadata(datasetName);
+            return getBlobIndex(metadata.getPath(), metadata.getSize(), metadata.getLastModified(), pool);
+        }
+        Path path = getPathForDataset(datasetName);
+        return getBlobIndex(path, Files.size(path), Files.getLastModifiedTime(path).toMillis(), pool);
+    }
+
+    /**
+     * Returns the index of the blobs of a filtered copy of a dataset.
+     */
+    public BlobIndex getBlobIndex(FilteredDataset filteredDataset, ForkJoinPool pool) throws IOException {
+        return getBlobIndex(filteredDataset.getPath(), filteredDataset.getSize(), filteredDataset.getLastModified(),
+                pool);
+    }
+
+    /**
+     * The index in memory is validated against the size and modification time known to the catalog, so
+     * the file is only checked when they do not match, e.g. while the catalog has not yet noticed a change.
+     */
+    private BlobIndex getBlobIndex(Path path, long size, long lastModified, ForkJoinPool pool) throws IOException {
+        BlobIndex index = blobIndexes.get(path);
+        if (index != null && index.isValidFor(size, lastModified)) {
+            return index;
+        }
+
+        // prevent concurrent requests from building the same index
+        synchronized (blobIndexLocks.computeIfAbsent(path, p -> new Object())) {
+            index = blobIndexes.get(path);
+            if (index != null && (index.isValidFor(size, lastModified) || index.isValidFor(path))) {
+                return index;
+            }
+
+            Path indexPath = getSidecarPath(path, indexFileNameExtension);
+            index = readBlobIndex(indexPath);
+            if (index == null || !index.isValidFor(path)) {
+                LOGGER.info("Building blob index for {}", path);
+                index = BlobIndex.build(path, new ParallelBlockReader(pool));
+                try {
+                    Path tmpPath = getSidecarPath(path, indexFileNameExtension + ".tmp");
+                    index.write(tmpPath);
+                    Files.move(tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    LOGGER.warn("Could not store the blob index of " + path, e);
+                }
+            }
+            blobIndexes.put(path, index);
+            return index;
+        }
+    }
+
+    /**
+     * @return the statistics of the dataset, or null when they have not been computed yet
+     */
+    public DatasetStatistics getStatistics(String datasetName) throws IOException {
+        if (catalog != null) {
+            return catalog.getStatistics(datasetName);
+        }
+        return readStatistics(getMetadata(datasetName));
+    }
+
+    /**
+     * Reads the statistics stored next to the dataset.
+     *
+     * @return the statistics, or null when there are none for the current version of the dataset
+     */
+    static DatasetStatistics readStatistics(DatasetMetadata metadata) {
+        Path statisticsPath = getSidecarPath(metadata.getPath(), statisticsFileNameExtension);
+        if (!Files.exists(statisticsPath)) {
+            return null;
+        }
+        try {
+            DatasetStatistics statistics = DatasetStatistics.read(statisticsPath);
+            return statistics.isCurrent(metadata.getSize(), metadata.getLastModified()) ? statistics : null;
+        } catch (IOException e) {
+            LOGGER.warn("Could not read statistics " + statisticsPath + ", they will be recomputed", e);
+            return null;
+        }
+    }
+
+    /**
+     * Computes the statistics of the dataset and stores them next to it. When the directory is
+     * not writable, the statistics are only returned.
+     */
+    static DatasetStatistics computeStatistics(DatasetMetadata metadata) throws IOException {
+        LOGGER.info("Computing statistics of dataset '{}'", metadata.getName());
+        DatasetStatistics statistics = DatasetStatistics.compute(metadata.getPath(), new ParallelBlockReader(null));
+        Path statisticsPath = getSidecarPath(metadata.getPath(), statisticsFileNameExtension);
+        try {
+            Path tmpPath = getSidecarPath(metadata.getPath(), statisticsFileNameExtension + ".tmp");
+            statistics.write(tmpPath);
+            Files.move(tmpPath, statisticsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Could not store the statistics of dataset '" + metadata.getName() + "'", e);
+        }
+        return statistics;
+    }
+
+    /**
+     * @return the shards of the dataset, or null when it has not been sharded yet
+     */
+    public ShardManifest getShardManifest(String datasetName) throws IOException {
+        if (catalog != null) {
+            return catalog.getShardManifest(datasetName);
+        }
+        return readShardManifest(getMetadata(datasetName));
+    }
+
+    /**
+     * Reads the manifest of the shards stored next to the dataset.
+     *
+     * @return the manifest, or null when there are no shards for the current version of the dataset
+     */
+    static ShardManifest readShardManifest(DatasetMetadata metadata) {
+        Path shardDirectory = getSidecarPath(metadata.getPath(), shardDirectoryExtension);
+        if (!Files.exists(shardDirectory.resolve(ShardManifest.FILE_NAME))) {
+            return null;
+        }
+        try {
+            ShardManifest manifest = ShardManifest.read(shardDirectory);
+            return manifest.isCurrent(metadata.getSize(), metadata.getLastModified()) ? manifest : null;
+        } catch (IOException e) {
+            LOGGER.warn("Could not read shard manifest in " + shardDirectory + ", the shards will be rebuilt", e);
+            return null;
+        }
+    }
+
+    /**
+     * Divides the dataset into shards stored in a directory next to it. The shards are built in a
+     * temporary directory which then replaces the previous shards.
+     *
+     * @param maxNodes maximum number of nodes per shard
+     * @param workDirectory directory for temporary files
+     */
+    static ShardManifest buildShards(DatasetMetadata metadata, long maxNodes, Path workDirectory) throws IOException {
+        Path shardDirectory = getSidecarPath(metadata.getPath(), shardDirectoryExtension);
+        Path tmpDirectory = getSidecarPath(metadata.getPath(), shardDirectoryExtension + ".tmp");
+        if (Files.exists(tmpDirectory)) {
+            IOUtil.recursiveDelete(tmpDirectory.toFile());
+        }
+        Files.createDirectory(tmpDirectory);
+        try {
+            LOGGER.info("Sharding dataset '{}'", metadata.getName());
+            new ShardBuilder(new ParallelBlockReader(null), workDirectory).build(metadata.getPath(), tmpDirectory, maxNodes);
+            if (Files.exists(shardDirectory)) {
+                IOUtil.recursiveDelete(shardDirectory.toFile());
+            }
+            Files.move(tmpDirectory, shardDirectory, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            IOUtil.recursiveDelete(tmpDirectory.toFile());
+            throw e;
+        }
+        return ShardManifest.read(shardDirectory);
+    }
+
+    /**
+     * Records the tag keys requested from the dataset, so copies with only the frequently
+     * requested keys are made. Does nothing without a catalog.
+     */
+    public void recordTagUsage(String datasetName, Collection<String> tags) {
+        if (catalog != null) {
+            catalog.recordTagUsage(datasetName, tags);
+        }
+    }
+
+    /**
+     * @return the smallest filtered copy of the dataset holding all elements with any of the
+     * tag keys, or null when there is none
+     */
+    public FilteredDataset getFilteredDataset(String datasetName, Collection<String> tags) {
+        if (catalog != null) {
+            return catalog.getFilteredDataset(datasetName, tags);
+        }
+        return null;
+    }
+
+    /**
+     * Reads the descriptions of the filtered copies of the dataset, including those of previous
+     * versions of the dataset.
+     */
+    static List<FilteredDataset> readFilteredDatasets(DatasetMetadata metadata) {
+        Path directory = getSidecarPath(metadata.getPath(), filteredDirectoryExtension);
+        List<FilteredDataset> filteredDatasets = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return filteredDatasets;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + FilteredDataset.DESCRIPTION_EXTENSION)) {
+            for (Path descriptionPath : stream) {
+                try {
+                    filteredDatasets.add(FilteredDataset.read(descriptionPath));
+                } catch (IOException e) {
+                    LOGGER.warn("Could not read " + descriptionPath + ", the copy will not be used", e);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not list the filtered copies in " + directory, e);
+        }
+        return filteredDatasets;
+    }
+
+    /**
+     * Writes a copy of the dataset with only the elements with any of the tag keys into a directory
+     * next to the dataset, replacing a previous copy with the same keys.
+     */
+    static FilteredDataset buildFilteredDataset(DatasetMetadata metadata, Collection<String> tags) throws IOException {
+        Path directory = getSidecarPath(metadata.getPath(), filteredDirectoryExtension);
+        Files.createDirectories(directory);
+        Path path = directory.resolve(FilteredDataset.fileName(tags));
+        Path tmpPath = directory.resolve(FilteredDataset.fileName(tags) + ".tmp");
+        LOGGER.info("Writing a copy of dataset '{}' with the tags {}", metadata.getName(), FilteredDataset.key(tags));
+        try {
+            new TagFilterBuilder(new ParallelBlockReader(null)).build(metadata.getPath(), tags, tmpPath);
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmpPath);
+            throw e;
+        }
+        FilteredDataset filteredDataset = new FilteredDataset(path, tags, metadata.getSize(),
+                metadata.getLastModified(), Files.size(path), Files.getLastModifiedTime(path).toMillis());
+        filteredDataset.write();
+        return filteredDataset;
+    }
+
+    /**
+     * Deletes a filtered copy and its description.
+     */
+    static void deleteFilteredDataset(FilteredDataset filteredDataset) throws IOException {
+        Files.deleteIfExists(filteredDataset.getDescriptionPath());
+        Files.deleteIfExists(filteredDataset.getPath());
+        Files.deleteIfExists(getSidecarPath(filteredDataset.getPath(), indexFileNameExtension));
+        blobIndexes.remove(filteredDataset.getPath());
+    }
+
+    /**
+     * @return the name of the change file without its extension, or null when it is no change file
+     */
+    static String getChangeFileBaseName(Path path) {
+        String fileName = path.getFileName().toString();
+        if (fileName.endsWith(compressedChangeFileExtension)) {
+            return fileName.substring(0, fileName.length() - compressedChangeFileExtension.length());
+        }
+        if (fileName.endsWith(changeFileExtension)) {
+            return fileName.substring(0, fileName.length() - changeFileExtension.length());
+        }
+        return null;
+    }
+
+    /**
+     * Reads the change files in the given order. Files which can not be read are renamed with the
+     * extension .failed and skipped.
+     *
+     * @param readFiles receives the files which have been read
+     */
+    static OsmChange readChangeFiles(List<Path> changeFiles, List<Path> readFiles) {
+        OsmChange change = new OsmChange();
+        for (Path changeFile : changeFiles) {
+            try {
+                change.add(changeFile);
+                readFiles.add(changeFile);
+            } catch (IOException e) {
+                LOGGER.error("Could not read the change file " + changeFile + ", it is skipped", e);
+                renameChangeFile(changeFile, failedChangeFileExtension);
+            }
+        }
+        return change;
+    }
+
+    /**
+     * Writes a version of the dataset with the changes applied into a file next to it.
+     *
+     * @return the parts of the dataset touched by the changes
+     */
+    static ChangeSummary mergeChanges(DatasetMetadata metadata, OsmChange change, Path target) throws IOException {
+        // only blobs with changed nodes need to be decoded when the index is available
+        BlobIndex index = readBlobIndex(getSidecarPath(metadata.getPath(), indexFileNameExtension));
+        if (index != null && !index.isValidFor(metadata.getPath())) {
+            index = null;
+        }
+        LOGGER.info("Applying {} changed elements to dataset '{}'", change.size(), metadata.getName());
+        try {
+            return new ChangeMerger(new ParallelBlockReader(null)).merge(metadata.getPath(), index, change, target);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the file a new version of the dataset is written to before it replaces the dataset
+     */
+    static Path getMergePath(DatasetMetadata metadata) {
+        return getSidecarPath(metadata.getPath(), ".merge.tmp");
+    }
+
+    /**
+     * Replaces the dataset by the merged version and stores its index. The filtered copies which
+     * are not affected by the changes are kept for the new version, the others are rewritten by
+     * the catalog like those of any changed dataset.
+     *
+     * @return the metadata of the new version
+     */
+    static DatasetMetadata replaceDataset(DatasetMetadata metadata, Path merged, ChangeSummary changes)
+            throws IOException {
+        Path path = metadata.getPath();
+        Files.move(merged, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        DatasetMetadata current = DatasetMetadata.read(metadata.getName(), path);
+
+        BlobIndex index = changes.getIndex();
+        if (index.isValidFor(path)) {
+            blobIndexes.put(path, index);
+            try {
+                Path tmpPath = getSidecarPath(path, indexFileNameExtension + ".tmp");
+                index.write(tmpPath);
+                Files.move(tmpPath, getSidecarPath(path, indexFileNameExtension),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.warn("Could not store the blob index of " + path, e);
+            }
+        }
+
+        for (FilteredDataset copy : readFilteredDatasets(metadata)) {
+            if (copy.isCurrent(metadata.getSize(), metadata.getLastModified()) && !changes.affectsTags(copy.getTags())) {
+                try {
+                    new FilteredDataset(copy.getPath(), copy.getTags(), current.getSize(), current.getLastModified(),
+                            copy.getSize(), copy.getLastModified()).write();
+                } catch (IOException e) {
+                    LOGGER.warn("Could not update " + copy.getDescriptionPath() + ", the copy will be rewritten", e);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Renames the change files which have been applied, so they are not applied again.
+     */
+    static void markChangeFilesApplied(List<Path> changeFiles) {
+        for (Path changeFile : changeFiles) {
+            renameChangeFile(changeFile, appliedChangeFileExtension);
+        }
+    }
+
+    private static void renameChangeFile(Path changeFile, String extension) {
+        try {
+            Files.move(changeFile, changeFile.resolveSibling(changeFile.getFileName().toString() + extension),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.warn("Could not rename the change file " + changeFile, e);
+        }
+    }
+
+    private static BlobIndex readBlobIndex(Path indexPath) {
+        if (!Files.exists(indexPath)) {
+            return null;
+        }
+        try {
+            return BlobIndex.read(indexPath);
+        } catch (IOException e) {
+            LOGGER.warn("Could not read blob index " + indexPath + ", it will be rebuilt", e);
+            return null;
+        }
+    }
+
+    private static Path getSidecarPath(Path dataset, String extension) {
+        return dataset.resolveSibling(dataset.getFileName().toString() + extension);
+    }
 }
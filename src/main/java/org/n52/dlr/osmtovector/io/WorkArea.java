@@ -0,0 +1,312 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Scratch space of the requests in the work directory.
+ *
+ * Directories are placed in a RAM-backed directory (e.g. on a tmpfs) as long as the sizes expected for
+ * them fit into its budget, otherwise in the work directory. They are deleted on a background thread,
+ * so the removal of large outputs does not delay the response.
+ *
+ * Each instance keeps its files in a directory of its own, holding a lock on a file within it while it
+ * is in use, so several WPS can share the work directory without removing the files of each other.
+ */
+public class WorkArea {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(WorkArea.class);
+    public static final String prefix = "osmtovector";
+    private static final String instancePrefix = prefix + "-instance";
+    private static final String lockFileName = ".lock";
+
+    private final Path directory;
+    private final Path instanceDirectory;
+    private final Path memoryDirectory;
+    private final Path memoryInstanceDirectory;
+    private final List<FileChannel> locks = new ArrayList<>();
+    private final long memoryBudget;
+    private final Executor cleanupExecutor;
+    private final Map<Path, Long> memoryReservations = new HashMap<>();
+    private long memoryUsed = 0;
+
+    /**
+     * @param directory the work directory
+     * @param memoryDirectory RAM-backed directory, or null to place everything in the work directory
+     * @param memoryBudget bytes which may be used in the memory directory
+     * @param cleanupExecutor runs the deletions
+     */
+    public WorkArea(Path directory, Path memoryDirectory, long memoryBudget, Executor cleanupExecutor)
+            throws IOException {
+        this.directory = directory;
+        this.memoryDirectory = memoryBudget > 0 ? memoryDirectory : null;
+        this.memoryBudget = memoryBudget;
+        this.cleanupExecutor = cleanupExecutor;
+        Files.createDirectories(directory);
+        this.instanceDirectory = createInstanceDirectory(directory);
+        if (this.memoryDirectory != null) {
+            Files.createDirectories(this.memoryDirectory);
+            this.memoryInstanceDirectory = createInstanceDirectory(this.memoryDirectory);
+        } else {
+            this.memoryInstanceDirectory = null;
+        }
+    }
+
+    private Path createInstanceDirectory(Path parent) throws IOException {
+        Path created = Files.createTempDirectory(parent, instancePrefix);
+        FileChannel channel = FileChannel.open(created.resolve(lockFileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        locks.add(channel);
+        return created;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the directory of this instance in the work directory, for temporary files of the requests
+     */
+    public Path getTemporaryDirectory() {
+        return instanceDirectory;
+    }
+
+    /**
+     * Creates a directory for the temporary files of a request.
+     *
+     * @param expectedSize the number of bytes expected to be written to the directory
+     */
+    public Path createDirectory(long expectedSize) throws IOException {
+        if (memoryDirectory != null && reserveMemory(expectedSize)) {
+            try {
+                Path created = Files.createTempDirectory(memoryInstanceDirectory, prefix);
+                synchronized (this) {
+                    memoryReservations.put(created, expectedSize);
+                }
+                return created;
+            } catch (IOException e) {
+                LOGGER.warn("Could not create a directory in " + memoryDirectory + ", using " + directory, e);
+                releaseMemory(expectedSize);
+            }
+        }
+        return Files.createTempDirectory(instanceDirectory, prefix);
+    }
+
+    private synchronized boolean reserveMemory(long size) {
+        if (memoryUsed + size > memoryBudget) {
+            return false;
+        }
+        memoryUsed += size;
+        return true;
+    }
+
+    private synchronized void releaseMemory(long size) {
+        memoryUsed -= size;
+    }
+
+    /**
+     * @return the bytes of the memory budget reserved by the existing directories
+     */
+    public synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    /**
+     * Deletes a directory created by {@link #createDirectory} in the background.
+     *
+     * @return completes with the milliseconds taken by the deletion
+     */
+    public CompletableFuture<Long> delete(Path created) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        Runnable deletion = () -> {
+            long start = System.nanoTime();
+            try {
+                deleteTree(created);
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete the temporary directory " + created, e);
+            } finally {
+                Long reservation;
+                synchronized (this) {
+                    reservation = memoryReservations.remove(created);
+                }
+                if (reservation != null) {
+                    releaseMemory(reservation);
+                }
+                result.complete((System.nanoTime() - start) / 1000000);
+            }
+        };
+        try {
+            cleanupExecutor.execute(deletion);
+        } catch (RejectedExecutionException e) {
+            // the repository is shutting down
+            deletion.run();
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the directories of instances which are no longer running, e.g. after a crash, and the
+     * temporary files of earlier versions, which did not use directories per instance. The result cache
+     * and the exports are kept, as they are not named after the prefix.
+     *
+     * @param startMillis only files of earlier versions last modified before this time are deleted
+     */
+    public void sweep(long startMillis) {
+        sweep(directory, startMillis);
+        if (memoryDirectory != null) {
+            sweep(memoryDirectory, startMillis);
+        }
+    }
+
+    private void sweep(Path sweptDirectory, long startMillis) {
+        int deleted = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(sweptDirectory, prefix + "*")) {
+            for (Path entry : entries) {
+                try {
+                    if (entry.equals(instanceDirectory) || entry.equals(memoryInstanceDirectory)) {
+                        continue;
+                    }
+                    Path lockFile = entry.resolve(lockFileName);
+                    boolean orphaned = Files.isDirectory(entry) && Files.exists(lockFile)
+                            ? !isLocked(lockFile)
+                            : Files.getLastModifiedTime(entry).toMillis() < startMillis;
+                    if (orphaned) {
+                        deleteTree(entry);
+                        deleted++;
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Could not delete the orphaned temporary file " + entry, e);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not list the temporary files in " + sweptDirectory, e);
+        }
+        if (deleted > 0) {
+            LOGGER.info("deleted {} orphaned temporary files from {}", deleted, sweptDirectory);
+        }
+    }
+
+    /**
+     * @return true when a running instance holds the lock on the file
+     */
+    private static boolean isLocked(Path lockFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            // held by another instance within this JVM
+            return true;
+        } catch (NoSuchFileException e) {
+            // removed by its instance in the meantime
+            return true;
+        }
+    }
+
+    /**
+     * Releases the locks and deletes the directories of this instance.
+     */
+    public void close() {
+        for (FileChannel lock : locks) {
+            try {
+                lock.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not release the lock of the work area", e);
+            }
+        }
+        for (Path created : Arrays.asList(instanceDirectory, memoryInstanceDirectory)) {
+            if (created == null) {
+                continue;
+            }
+            try {
+                deleteTree(created);
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete the temporary directory " + created, e);
+            }
+        }
+    }
+
+    /**
+     * Deletes a file or a directory with all of its content. Symbolic links are deleted, not followed.
+     */
+    public static void deleteTree(Path path) throws IOException {
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                    if (e instanceof NoSuchFileException) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw e;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    if (e != null) {
+                        throw e;
+                    }
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (NoSuchFileException e) {
+            // deleted in the meantime
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.metrics;
+
+import org.n52.dlr.osmtovector.cache.ResultCache;
+import org.n52.dlr.osmtovector.cache.SingleFlight;
+import org.n52.dlr.osmtovector.scheduler.ExtractionScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The metrics of all requests, by dataset and elementType, and of the resources shared between them.
+ *
+ * The metrics are published as MXBeans in the domain {@value #DOMAIN} and can be written to a file
+ * in the text format of Prometheus, e.g. for the textfile collector of the node exporter.
+ */
+public class ExtractionMetrics implements ExtractionMetricsMXBean {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ExtractionMetrics.class);
+
+    public static final String DOMAIN = "org.n52.dlr.osmtovector";
+    private static final String PREFIX = "osmtovector_";
+
+    private final ExtractionScheduler scheduler;
+    private final ResultCache resultCache;
+    private final SingleFlight<?, ?> flights;
+    private final ConcurrentHashMap<String, RequestMetrics> requestMetrics = new ConcurrentHashMap<>();
+    private final List<ObjectName> registeredNames = new ArrayList<>();
+    private MBeanServer server;
+
+    /**
+     * @param scheduler the scheduler of the extractions, may be null
+     * @param resultCache the cache of extraction results, may be null
+     * @param flights the extractions in progress, may be null
+     */
+    public ExtractionMetrics(ExtractionScheduler scheduler, ResultCache resultCache, SingleFlight<?, ?> flights) {
+        this.scheduler = scheduler;
+        this.resultCache = resultCache;
+        this.flights = flights;
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server. The metrics of each dataset and elementType
+     * are published when they are first used.
+     */
+    public synchronized void register() {
+        server = ManagementFactory.getPlatformMBeanServer();
+        register(this, "type=Extractions");
+        for (RequestMetrics metrics : requestMetrics.values()) {
+            register(metrics, requestMetricsName(metrics));
+        }
+    }
+
+    public synchronized void unregister() {
+        if (server == null) {
+            return;
+        }
+        for (ObjectName name : registeredNames) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOGGER.debug("could not unregister {}: {}", name, e.getMessage());
+            }
+        }
+        registeredNames.clear();
+        server = null;
+    }
+
+    private void register(Object bean, String properties) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+            if (server.isRegistered(name)) {
+                // left behind by an earlier instance, e.g. after a redeployment
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(bean, name);
+            registeredNames.add(name);
+        } catch (JMException e) {
+            LOGGER.warn("Could not publish the metrics " + properties + " over JMX", e);
+        }
+    }
+
+    private static String requestMetricsName(RequestMetrics metrics) {
+        return "type=Requests,dataset=" + ObjectName.quote(metrics.getDataset())
+                + ",elementType=" + ObjectName.quote(metrics.getElementType());
+    }
+
+    /**
+     * @return the metrics of the requests for the dataset and elementType
+     */
+    public RequestMetrics getRequestMetrics(String dataset, String elementType) {
+        String key = dataset + "\u0000" + elementType;
+        RequestMetrics metrics = requestMetrics.get(key);
+        if (metrics == null) {
+            RequestMetrics created = new RequestMetrics(dataset, elementType);
+            metrics = requestMetrics.putIfAbsent(key, created);
+            if (metrics == null) {
+                metrics = created;
+                synchronized (this) {
+                    if (server != null) {
+                        register(created, requestMetricsName(created));
+                    }
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Writes the metrics to the file, replacing it atomically so it is never read half written.
+     */
+    public void writePrometheusFile(Path target) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(directory, "." + target.getFileName(), ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writePrometheus(writer);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Writes the metrics in the text format of Prometheus.
+     */
+    public void writePrometheus(Writer writer) throws IOException {
+        // sorted, so the series of a dataset stay together between writes
+        Map<String, RequestMetrics> sorted = new TreeMap<>(requestMetrics);
+
+        writeCounter(writer, sorted, "requests_total", "Requests received", RequestMetrics::getRequestCount);
+        writeCounter(writer, sorted, "cached_total", "Requests answered from the result cache",
+                RequestMetrics::getCachedCount);
+        writeCounter(writer, sorted, "failures_total", "Requests which failed, including rejected ones",
+                RequestMetrics::getFailureCount);
+        writeCounter(writer, sorted, "rejected_total", "Requests rejected for a lack of capacity",
+                RequestMetrics::getRejectedCount);
+        writeCounter(writer, sorted, "features_total", "Features extracted", RequestMetrics::getFeatureCount);
+        writeCounter(writer, sorted, "bytes_read_total", "Bytes read from OSM PBF files by the native engine",
+                RequestMetrics::getBytesRead);
+
+        writeHistogram(writer, sorted, "queue_wait_seconds", "Time waited for a free extraction slot",
+                RequestMetrics::getQueueWaitHistogram);
+        writeHistogram(writer, sorted, "extraction_seconds", "Time of the extraction",
+                RequestMetrics::getExtractionHistogram);
+        writeHistogram(writer, sorted, "result_loading_seconds", "Time to load the extracted features into the result",
+                RequestMetrics::getResultLoadingHistogram);
+        writeHistogram(writer, sorted, "cleanup_seconds", "Time to remove temporary files",
+                RequestMetrics::getCleanupHistogram);
+
+        writeGauge(writer, "scheduler_running", "gauge", "Extractions running", getRunningExtractions());
+        writeGauge(writer, "scheduler_queued", "gauge", "Extractions waiting for a slot", getQueuedExtractions());
+        writeGauge(writer, "scheduler_admitted_total", "counter", "Extractions admitted", getAdmittedExtractions());
+        writeGauge(writer, "scheduler_rejected_total", "counter", "Extractions rejected", getRejectedExtractions());
+        writeGauge(writer, "scheduler_timed_out_total", "counter", "Extractions which waited too long",
+                getTimedOutExtractions());
+        writeGauge(writer, "result_cache_entries", "gauge", "Entries of the result cache", getResultCacheEntries());
+        writeGauge(writer, "result_cache_bytes", "gauge", "Size of the result cache", getResultCacheSize());
+        writeGauge(writer, "result_cache_hits_total", "counter", "Hits of the result cache", getResultCacheHits());
+        writeGauge(writer, "result_cache_misses_total", "counter", "Misses of the result cache",
+                getResultCacheMisses());
+        writeGauge(writer, "flights_in_progress", "gauge", "Extractions in progress", getExtractionsInFlight());
+        writeGauge(writer, "flights_coalesced_total", "counter", "Requests which joined an identical extraction",
+                getCoalescedExtractions());
+    }
+
+    private interface LongValue {
+        long get(RequestMetrics metrics);
+    }
+
+    private interface HistogramValue {
+        LatencyHistogram get(RequestMetrics metrics);
+    }
+
+    private static void writeCounter(Writer writer, Map<String, RequestMetrics> metrics, String name, String help,
+                                     LongValue value) throws IOException {
+        writeHeader(writer, name, "counter", help);
+        for (RequestMetrics m : metrics.values()) {
+            writer.write(PREFIX + name + labels(m, null) + " " + value.get(m) + "\n");
+        }
+    }
+
+    private static void writeHistogram(Writer writer, Map<String, RequestMetrics> metrics, String name, String help,
+                                       HistogramValue value) throws IOException {
+        writeHeader(writer, name, "histogram", help);
+        for (RequestMetrics m : metrics.values()) {
+            LatencyHistogram histogram = value.get(m);
+            long[] cumulative = histogram.getCumulativeCounts();
+            for (int i = 0; i < LatencyHistogram.BUCKET_BOUNDS.length; i++) {
+                writer.write(PREFIX + name + "_bucket" + labels(m, seconds(LatencyHistogram.BUCKET_BOUNDS[i]))
+                        + " " + cumulative[i] + "\n");
+            }
+            long count = cumulative[cumulative.length - 1];
+            writer.write(PREFIX + name + "_bucket" + labels(m, "+Inf") + " " + count + "\n");
+            writer.write(PREFIX + name + "_sum" + labels(m, null) + " " + seconds(histogram.getTotalMillis()) + "\n");
+            writer.write(PREFIX + name + "_count" + labels(m, null) + " " + count + "\n");
+        }
+    }
+
+    private static void writeGauge(Writer writer, String name, String type, String help, Number value)
+            throws IOException {
+        writeHeader(writer, name, type, help);
+        writer.write(PREFIX + name + " " + value + "\n");
+    }
+
+    private static void writeHeader(Writer writer, String name, String type, String help) throws IOException {
+        writer.write("# HELP " + PREFIX + name + " " + help + "\n");
+        writer.write("# TYPE " + PREFIX + name + " " + type + "\n");
+    }
+
+    private static String labels(RequestMetrics metrics, String le) {
+        StringBuilder labels = new StringBuilder("{dataset=\"").append(escape(metrics.getDataset()))
+                .append("\",element_type=\"").append(escape(metrics.getElementType())).append('"');
+        if (le != null) {
+            labels.append(",le=\"").append(le).append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+
+    @Override
+    public int getRunningExtractions() {
+        return scheduler == null ? 0 : scheduler.getRunningCount();
+    }
+
+    @Override
+    public int getQueuedExtractions() {
+        return scheduler == null ? 0 : scheduler.getQueueLength();
+    }
+
+    @Override
+    public long getAdmittedExtractions() {
+        return scheduler == null ? 0 : scheduler.getAdmittedCount();
+    }
+
+    @Override
+    public long getRejectedExtractions() {
+        return scheduler == null ? 0 : scheduler.getRejectedCount();
+    }
+
+    @Override
+    public long getTimedOutExtractions() {
+        return scheduler == null ? 0 : scheduler.getTimedOutCount();
+    }
+
+    @Override
+    public double getAverageQueueWaitMillis() {
+        return scheduler == null ? 0 : scheduler.getAverageWaitMillis();
+    }
+
+    @Override
+    public long getMaxQueueWaitMillis() {
+        return scheduler == null ? 0 : scheduler.getMaxWaitMillis();
+    }
+
+    @Override
+    public int getResultCacheEntries() {
+        return resultCache == null ? 0 : resultCache.getEntryCount();
+    }
+
+    @Override
+    public long getResultCacheSize() {
+        return resultCache == null ? 0 : resultCache.getSize();
+    }
+
+    @Override
+    public long getResultCacheHits() {
+        return resultCache == null ? 0 : resultCache.getHits();
+    }
+
+    @Override
+    public long getResultCacheMisses() {
+        return resultCache == null ? 0 : resultCache.getMisses();
+    }
+
+    @Override
+    public int getExtractionsInFlight() {
+        return flights == null ? 0 : flights.getInFlightCount();
+    }
+
+    @Override
+    public long getCoalescedExtractions() {
+        return flights == null ? 0 : flights.getCoalescedCount();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in fixed buckets, so percentiles can be estimated without keeping the samples.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Upper bounds of the buckets in milliseconds. Longer durations are counted in an additional bucket.
+     */
+    static final long[] BUCKET_BOUNDS = {
+            5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 300000, 600000
+    };
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && value > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalMillis.addAndGet(value);
+        long max;
+        while (value > (max = maxMillis.get()) && !maxMillis.compareAndSet(max, value)) {
+            // retry
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalMillis() {
+        return totalMillis.get();
+    }
+
+    /**
+     * @return the number of durations up to and including the bound of each bucket, the last
+     * element being the total count
+     */
+    long[] getCumulativeCounts() {
+        long[] counts = new long[buckets.length()];
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += buckets.get(i);
+            counts[i] = sum;
+        }
+        return counts;
+    }
+
+    public Snapshot getSnapshot() {
+        long[] cumulative = getCumulativeCounts();
+        long total = cumulative[cumulative.length - 1];
+        long max = maxMillis.get();
+        return new Snapshot(
+                total,
+                totalMillis.get(),
+                total == 0 ? 0 : (double) totalMillis.get() / total,
+                max,
+                percentile(cumulative, 0.5, max),
+                percentile(cumulative, 0.95, max),
+                percentile(cumulative, 0.99, max));
+    }
+
+    /**
+     * @return the upper bound of the bucket containing the percentile, at most the maximum
+     */
+    private static long percentile(long[] cumulative, double fraction, long max) {
+        long total = cumulative[cumulative.length - 1];
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            if (cumulative[i] >= rank) {
+                return Math.min(BUCKET_BOUNDS[i], max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * The state of a histogram at one point in time, as shown over JMX.
+     */
+    public static class Snapshot {
+        private final long count;
+        private final long totalMillis;
+        private final double meanMillis;
+        private final long maxMillis;
+        private final long p50Millis;
+        private final long p95Millis;
+        private final long p99Millis;
+
+        Snapshot(long count, long totalMillis, double meanMillis, long maxMillis,
+                 long p50Millis, long p95Millis, long p99Millis) {
+            this.count = count;
+            this.totalMillis = totalMillis;
+            this.meanMillis = meanMillis;
+            this.maxMillis = maxMillis;
+            this.p50Millis = p50Millis;
+            this.p95Millis = p95Millis;
+            this.p99Millis = p99Millis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public long getP50Millis() {
+            return p50Millis;
+        }
+
+        public long getP95Millis() {
+            return p95Millis;
+        }
+
+        public long getP99Millis() {
+            return p99Millis;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of the requests for one dataset and elementType.
+ *
+ * The phases of a request are measured separately: the wait for a free extraction slot, the
+ * extraction itself, the loading of the result into the collection which is returned (or into the
+ * file of a batch), and the removal of the temporary files.
+ */
+public class RequestMetrics implements RequestMetricsMXBean {
+
+    private final String dataset;
+    private final String elementType;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong cached = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong features = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram extraction = new LatencyHistogram();
+    private final LatencyHistogram resultLoading = new LatencyHistogram();
+    private final LatencyHistogram cleanup = new LatencyHistogram();
+
+    public RequestMetrics(String dataset, String elementType) {
+        this.dataset = dataset;
+        this.elementType = elementType;
+    }
+
+    public void recordRequest() {
+        requests.incrementAndGet();
+    }
+
+    /**
+     * Records a request which has been answered from the result cache.
+     */
+    public void recordCached() {
+        cached.incrementAndGet();
+    }
+
+    public void recordFailure() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * Records a request which has been rejected for a lack of capacity. It is counted as failure, too.
+     */
+    public void recordRejected() {
+        rejected.incrementAndGet();
+        failures.incrementAndGet();
+    }
+
+    public void recordFeatures(long count) {
+        features.addAndGet(count);
+    }
+
+    public void recordBytesRead(long bytes) {
+        bytesRead.addAndGet(bytes);
+    }
+
+    public void recordQueueWait(long millis) {
+        queueWait.record(millis);
+    }
+
+    public void recordExtraction(long millis) {
+        extraction.record(millis);
+    }
+
+    public void recordResultLoading(long millis) {
+        resultLoading.record(millis);
+    }
+
+    public void recordCleanup(long millis) {
+        cleanup.record(millis);
+    }
+
+    @Override
+    public String getDataset() {
+        return dataset;
+    }
+
+    @Override
+    public String getElementType() {
+        return elementType;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public long getCachedCount() {
+        return cached.get();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getFeatureCount() {
+        return features.get();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getQueueWait() {
+        return queueWait.getSnapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getExtraction() {
+        return extraction.getSnapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getResultLoading() {
+        return resultLoading.getSnapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getCleanup() {
+        return cleanup.getSnapshot();
+    }
+
+    LatencyHistogram getQueueWaitHistogram() {
+        return queueWait;
+    }
+
+    LatencyHistogram getExtractionHistogram() {
+        return extraction;
+    }
+
+    LatencyHistogram getResultLoadingHistogram() {
+        return resultLoading;
+    }
+
+    LatencyHistogram getCleanupHistogram() {
+        return cleanup;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.metrics;
+
+/**
+ * The metrics of the requests for one dataset and elementType, as published over JMX.
+ */
+public interface RequestMetricsMXBean {
+
+    String getDataset();
+
+    String getElementType();
+
+    long getRequestCount();
+
+    long getCachedCount();
+
+    long getFailureCount();
+
+    long getRejectedCount();
+
+    long getFeatureCount();
+
+    long getBytesRead();
+
+    LatencyHistogram.Snapshot getQueueWait();
+
+    LatencyHistogram.Snapshot getExtraction();
+
+    LatencyHistogram.Snapshot getResultLoading();
+
+    LatencyHistogram.Snapshot getCleanup();
+}
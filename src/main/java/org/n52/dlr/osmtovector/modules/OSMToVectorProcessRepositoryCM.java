@@ -22,11 +22,14 @@ package org.n52.dlr.osmtovector.modules;
 import org.n52.dlr.osmtovector.OSMToVectorProcessRepository;
 import org.n52.dlr.osmtovector.algorithm.OSMDatasetList;
 import org.n52.dlr.osmtovector.algorithm.OSMToVector;
+import org.n52.dlr.osmtovector.algorithm.OSMToVectorBatch;
 import org.n52.wps.webapp.api.AlgorithmEntry;
 import org.n52.wps.webapp.api.ClassKnowingModule;
 import org.n52.wps.webapp.api.ConfigurationCategory;
 import org.n52.wps.webapp.api.FormatEntry;
+import org.n52.wps.webapp.api.types.BooleanConfigurationEntry;
 import org.n52.wps.webapp.api.types.ConfigurationEntry;
+import org.n52.wps.webapp.api.types.IntegerConfigurationEntry;
 import org.n52.wps.webapp.api.types.StringConfigurationEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +43,52 @@ public class OSMToVectorProcessRepositoryCM extends ClassKnowingModule {
     public static final String osmStoreDirectoryKey = "osm_store_directory";
     public static final String osmExtractBinaryKey = "osm_extract_binary";
     public static final String workDirectoryKey = "work_directory";
+    public static final String extractionEngineKey = "extraction_engine";
+    public static final String extractionEngineNative = "native";
+    public static final String extractionEngineSubprocess = "subprocess";
+    public static final String decoderThreadsKey = "decoder_threads";
+    public static final String resultCacheSizeKey = "result_cache_size";
+    public static final String maxConcurrentExtractionsKey = "max_concurrent_extractions";
+    public static final String maxQueuedExtractionsKey = "max_queued_extractions";
+    public static final String queueTimeoutKey = "queue_timeout";
+    public static final String catalogRescanIntervalKey = "catalog_rescan_interval";
+    public static final String streamResultsKey = "stream_results";
+    public static final String exportRetentionKey = "export_retention";
+    public static final String shardMaxNodesKey = "shard_max_nodes";
+    public static final String filteredDatasetMinRequestsKey = "filtered_dataset_min_requests";
+    public static final String applyChangeFilesKey = "apply_change_files";
+    public static final String metricsFileKey = "metrics_file";
+    public static final String subprocessTimeoutKey = "subprocess_timeout";
+    public static final String subprocessMaxMemoryKey = "subprocess_max_memory";
+    public static final String subprocessMaxCpuTimeKey = "subprocess_max_cpu_time";
+    public static final String subprocessWorkersKey = "subprocess_workers";
+    public static final String subprocessWorkerJobsKey = "subprocess_worker_jobs";
+    public static final String tmpfsDirectoryKey = "tmpfs_directory";
+    public static final String tmpfsBudgetKey = "tmpfs_budget";
+    // defaults which are also used by the repository and the processes when the module has no value
+    public static final String defaultOsmStoreDirectory = "/tmp";
+    public static final String defaultOsmExtractBinary = "osm_extract.py";
+    public static final String defaultWorkDirectory = System.getProperty("java.io.tmpdir");
+    public static final String defaultExtractionEngine = extractionEngineNative;
+    public static final int defaultDecoderThreads = Runtime.getRuntime().availableProcessors();
+    public static final int defaultResultCacheSize = 0;
+    public static final int defaultMaxConcurrentExtractions = Math.max(1, defaultDecoderThreads / 2);
+    public static final int defaultMaxQueuedExtractions = 50;
+    public static final int defaultQueueTimeout = 600;
+    public static final int defaultCatalogRescanInterval = 300;
+    public static final boolean defaultStreamResults = true;
+    public static final int defaultExportRetention = 60;
+    public static final int defaultShardMaxNodes = 0;
+    public static final int defaultFilteredDatasetMinRequests = 0;
+    public static final boolean defaultApplyChangeFiles = false;
+    public static final String defaultMetricsFile = "";
+    public static final int defaultSubprocessTimeout = 3600;
+    public static final int defaultSubprocessMaxMemory = 0;
+    public static final int defaultSubprocessMaxCpuTime = 0;
+    public static final int defaultSubprocessWorkers = 0;
+    public static final int defaultSubprocessWorkerJobs = 100;
+    public static final String defaultTmpfsDirectory = "";
+    public static final int defaultTmpfsBudget = 1024;
     private static Logger LOGGER = LoggerFactory.getLogger(OSMToVectorProcessRepositoryCM.class);
     private List<AlgorithmEntry> algorithmEntries;
     private boolean isActive = true;
@@ -48,7 +97,7 @@ public class OSMToVectorProcessRepositoryCM extends ClassKnowingModule {
             "OSM Input directory",
             "The directory containing the OSM input files. Only files ending with '.osm.pdf' will be used.",
             true,
-            "/tmp"
+            defaultOsmStoreDirectory
     );
 
     private ConfigurationEntry<String> osmExtractBinaryEntry = new StringConfigurationEntry(
@@ -56,7 +105,7 @@ public class OSMToVectorProcessRepositoryCM extends ClassKnowingModule {
             "Path to the osm_extract binary",
             "",
             true,
-            "osm_extract.py"
+            defaultOsmExtractBinary
     );
 
     private ConfigurationEntry<String> workDirectoryEntry = new StringConfigurationEntry(
@@ -64,19 +113,214 @@ public class OSMToVectorProcessRepositoryCM extends ClassKnowingModule {
             "work directory for temporary files",
             "",
             true,
-            System.getProperty("java.io.tmpdir")
+            defaultWorkDirectory
+    );
+
+    private ConfigurationEntry<String> extractionEngineEntry = new StringConfigurationEntry(
+            extractionEngineKey,
+            "Extraction engine",
+            "'native' reads the OSM files directly within the WPS, 'subprocess' uses the osm_extract binary.",
+            true,
+            defaultExtractionEngine
+    );
+
+    private ConfigurationEntry<Integer> decoderThreadsEntry = new IntegerConfigurationEntry(
+            decoderThreadsKey,
+            "Number of threads decoding OSM files",
+            "Size of the pool shared by all requests of the native engine. Changes require a restart.",
+            true,
+            defaultDecoderThreads
+    );
+
+    private ConfigurationEntry<Integer> resultCacheSizeEntry = new IntegerConfigurationEntry(
+            resultCacheSizeKey,
+            "Size of the result cache in MB",
+            "Results of extractions are cached in the work directory. 0 disables the cache, e.g. 1024 enables it. "
+                    + "Changes require a restart.",
+            true,
+            defaultResultCacheSize
+    );
+
+    private ConfigurationEntry<Integer> maxConcurrentExtractionsEntry = new IntegerConfigurationEntry(
+            maxConcurrentExtractionsKey,
+            "Maximum number of concurrent extractions",
+            "Further requests wait in a queue. Changes require a restart.",
+            true,
+            defaultMaxConcurrentExtractions
+    );
+
+    private ConfigurationEntry<Integer> maxQueuedExtractionsEntry = new IntegerConfigurationEntry(
+            maxQueuedExtractionsKey,
+            "Maximum number of waiting extractions",
+            "Requests arriving while the queue is full are rejected. Changes require a restart.",
+            true,
+            defaultMaxQueuedExtractions
+    );
+
+    private ConfigurationEntry<Integer> queueTimeoutEntry = new IntegerConfigurationEntry(
+            queueTimeoutKey,
+            "Queue timeout in seconds",
+            "Requests waiting longer for a free extraction slot are rejected. Changes require a restart.",
+            true,
+            defaultQueueTimeout
+    );
+
+    private ConfigurationEntry<Integer> catalogRescanIntervalEntry = new IntegerConfigurationEntry(
+            catalogRescanIntervalKey,
+            "Rescan interval of the input directory in seconds",
+            "Changes are picked up immediately where the file system reports them, otherwise after this "
+                    + "interval. 0 disables the periodic rescan. Changes require a restart.",
+            true,
+            defaultCatalogRescanInterval
+    );
+
+    private ConfigurationEntry<Boolean> streamResultsEntry = new BooleanConfigurationEntry(
+            streamResultsKey,
+            "Stream results",
+            "Write extracted features to a temporary file in the work directory and read them while the response "
+                    + "is encoded, instead of keeping the whole result in memory.",
+            true,
+            defaultStreamResults
+    );
+
+    private ConfigurationEntry<Integer> exportRetentionEntry = new IntegerConfigurationEntry(
+            exportRetentionKey,
+            "Retention of exported files in minutes",
+            "Files returned by the exportedFile output are kept in the exports folder of the work directory "
+                    + "for this time, the spooled features of the exportedData output in its temporary directory. "
+                    + "Changes require a restart.",
+            true,
+            defaultExportRetention
+    );
+
+    private ConfigurationEntry<Integer> shardMaxNodesEntry = new IntegerConfigurationEntry(
+            shardMaxNodesKey,
+            "Maximum number of nodes per shard",
+            "Datasets with more nodes are divided into spatial shards in the background, so requests with a "
+                    + "spatialFilter only read the shards within it. 0 disables sharding, e.g. 2000000 enables it. "
+                    + "Changes require a restart.",
+            true,
+            defaultShardMaxNodes
+    );
+
+    private ConfigurationEntry<Integer> filteredDatasetMinRequestsEntry = new IntegerConfigurationEntry(
+            filteredDatasetMinRequestsKey,
+            "Requests of a set of tags before a filtered copy of the dataset is made",
+            "Copies of a dataset with only the elements of frequently requested tags are written next to the "
+                    + "dataset and read instead of it. 0 disables the copies, e.g. 20 enables them. Changes require a "
+                    + "restart.",
+            true,
+            defaultFilteredDatasetMinRequests
+    );
+
+    private ConfigurationEntry<Boolean> applyChangeFilesEntry = new BooleanConfigurationEntry(
+            applyChangeFilesKey,
+            "Apply OSM change files",
+            "OSM change files (.osc or .osc.gz) placed next to a dataset are merged into it in the background. "
+                    + "Cached results not affected by the changes are kept. Changes require a restart.",
+            true,
+            defaultApplyChangeFiles
+    );
+
+    private ConfigurationEntry<String> metricsFileEntry = new StringConfigurationEntry(
+            metricsFileKey,
+            "File for metrics in the Prometheus text format",
+            "The metrics published over JMX are also written to this file every minute, e.g. for the textfile "
+                    + "collector of the node exporter. Empty disables the file. Changes require a restart.",
+            false,
+            defaultMetricsFile
+    );
+
+    private ConfigurationEntry<Integer> subprocessTimeoutEntry = new IntegerConfigurationEntry(
+            subprocessTimeoutKey,
+            "Timeout of osm_extract in seconds",
+            "osm_extract and all processes started by it are killed after this time. 0 disables the timeout.",
+            true,
+            defaultSubprocessTimeout
+    );
+
+    private ConfigurationEntry<Integer> subprocessMaxMemoryEntry = new IntegerConfigurationEntry(
+            subprocessMaxMemoryKey,
+            "Maximum memory of osm_extract in MB",
+            "Limit of the virtual memory of each process of osm_extract. 0 disables the limit.",
+            true,
+            defaultSubprocessMaxMemory
+    );
+
+    private ConfigurationEntry<Integer> subprocessMaxCpuTimeEntry = new IntegerConfigurationEntry(
+            subprocessMaxCpuTimeKey,
+            "Maximum CPU time of osm_extract in seconds",
+            "Limit of the CPU time of each process of osm_extract. 0 disables the limit.",
+            true,
+            defaultSubprocessMaxCpuTime
+    );
+
+    private ConfigurationEntry<Integer> subprocessWorkersEntry = new IntegerConfigurationEntry(
+            subprocessWorkersKey,
+            "Number of warm osm_extract workers",
+            "Python processes with the modules of osm_extract imported, which run it in a fork of themselves "
+                    + "instead of starting a new interpreter. 0 disables them. Changes require a restart.",
+            true,
+            defaultSubprocessWorkers
+    );
+
+    private ConfigurationEntry<Integer> subprocessWorkerJobsEntry = new IntegerConfigurationEntry(
+            subprocessWorkerJobsKey,
+            "Jobs per osm_extract worker",
+            "A worker is replaced after this number of runs of osm_extract. 0 disables the limit.",
+            true,
+            defaultSubprocessWorkerJobs
+    );
+
+    private ConfigurationEntry<String> tmpfsDirectoryEntry = new StringConfigurationEntry(
+            tmpfsDirectoryKey,
+            "RAM-backed directory for temporary files",
+            "Temporary directories of the requests are placed in this directory, e.g. on a tmpfs, as long as "
+                    + "they fit into the budget, otherwise in the work directory. Empty disables it. "
+                    + "Changes require a restart.",
+            false,
+            defaultTmpfsDirectory
+    );
+
+    private ConfigurationEntry<Integer> tmpfsBudgetEntry = new IntegerConfigurationEntry(
+            tmpfsBudgetKey,
+            "Budget of the RAM-backed directory in MB",
+            "Each temporary directory is expected to need about the size of its dataset. Changes require a restart.",
+            true,
+            defaultTmpfsBudget
     );
 
     private List<? extends ConfigurationEntry<?>> configurationEntries = Arrays.asList(
             osmInputFileEntry,
             osmExtractBinaryEntry,
-            workDirectoryEntry
+            workDirectoryEntry,
+            extractionEngineEntry,
+            decoderThreadsEntry,
+            resultCacheSizeEntry,
+            maxConcurrentExtractionsEntry,
+            maxQueuedExtractionsEntry,
+            queueTimeoutEntry,
+            catalogRescanIntervalEntry,
+            streamResultsEntry,
+            exportRetentionEntry,
+            shardMaxNodesEntry,
+            filteredDatasetMinRequestsEntry,
+            applyChangeFilesEntry,
+            metricsFileEntry,
+            subprocessTimeoutEntry,
+            subprocessMaxMemoryEntry,
+            subprocessMaxCpuTimeEntry,
+            subprocessWorkersEntry,
+            subprocessWorkerJobsEntry,
+            tmpfsDirectoryEntry,
+            tmpfsBudgetEntry
     );
 
     public OSMToVectorProcessRepositoryCM() {
         algorithmEntries = new ArrayList<>();
         algorithmEntries.add(new AlgorithmEntry(OSMToVector.class.getName(), true)); // TODO: add only when missing
         algorithmEntries.add(new AlgorithmEntry(OSMDatasetList.class.getName(), true));
+        algorithmEntries.add(new AlgorithmEntry(OSMToVectorBatch.class.getName(), true));
     }
 
     @Override
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.scheduler;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an extraction is not admitted because the server is at its capacity or shutting down.
+ */
+public class ExtractionRejectedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ExtractionRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of extractions running at the same time. Requests exceeding the limit
+ * wait in a bounded queue for a limited time. Waiting requests are admitted in turns per
+ * dataset, so a burst of requests for one dataset does not starve the others.
+ */
+public class ExtractionScheduler {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ExtractionScheduler.class);
+
+    private final int maxRunning;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition idle = lock.newCondition();
+    private final Map<String, ArrayDeque<Waiter>> queues = new HashMap<>();
+    // datasets with waiting requests in the order they get their next turn
+    private final ArrayDeque<String> turns = new ArrayDeque<>();
+    private int running = 0;
+    private int queued = 0;
+    private boolean shutdown = false;
+
+    private long admittedCount = 0;
+    private long rejectedCount = 0;
+    private long timedOutCount = 0;
+    private long totalWaitNanos = 0;
+    private long maxWaitedNanos = 0;
+
+    /**
+     * @param maxRunning number of extractions which may run at the same time
+     * @param maxQueued number of requests which may wait for admission
+     * @param maxWaitMillis time a request may wait for admission before it fails
+     */
+    public ExtractionScheduler(int maxRunning, int maxQueued, long maxWaitMillis) {
+        this.maxRunning = Math.max(1, maxRunning);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * Waits until an extraction for the dataset may run. The returned permit has to be closed
+     * when the extraction is done.
+     */
+    public Permit acquire(String dataset) throws ExtractionRejectedException, InterruptedIOException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw reject("the server is shutting down");
+            }
+            if (running < maxRunning && queued == 0) {
+                return admit(start);
+            }
+            if (queued >= maxQueued) {
+                throw reject("the server is busy, " + queued + " requests are waiting");
+            }
+
+            Waiter waiter = new Waiter(dataset, lock.newCondition());
+            enqueue(waiter);
+            LOGGER.debug("queued extraction for dataset '{}', {} requests waiting", dataset, queued);
+
+            long remaining = maxWaitNanos;
+            try {
+                while (!waiter.granted && !waiter.cancelled) {
+                    if (remaining <= 0) {
+                        dequeue(waiter);
+                        timedOutCount++;
+                        throw reject("timed out waiting for a free extraction slot");
+                    }
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    // the slot has been assigned in the meantime, hand it on
+                    running--;
+                    grantNext();
+                } else {
+                    dequeue(waiter);
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a free extraction slot");
+            }
+
+            if (waiter.cancelled) {
+                throw reject("the server is shutting down");
+            }
+            return admitted(start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Permit admit(long start) {
+        running++;
+        return admitted(start);
+    }
+
+    private Permit admitted(long start) {
+        long waited = System.nanoTime() - start;
+        admittedCount++;
+        totalWaitNanos += waited;
+        maxWaitedNanos = Math.max(maxWaitedNanos, waited);
+        return new Permit(TimeUnit.NANOSECONDS.toMillis(waited));
+    }
+
+    private ExtractionRejectedException reject(String reason) {
+        rejectedCount++;
+        LOGGER.warn("Rejected extraction: {}", reason);
+        return new ExtractionRejectedException("Extraction rejected: " + reason);
+    }
+
+    private void enqueue(Waiter waiter) {
+        ArrayDeque<Waiter> queue = queues.get(waiter.dataset);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            queues.put(waiter.dataset, queue);
+            turns.add(waiter.dataset);
+        }
+        queue.add(waiter);
+        queued++;
+    }
+
+    private void dequeue(Waiter waiter) {
+        ArrayDeque<Waiter> queue = queues.get(waiter.dataset);
+        if (queue != null && queue.remove(waiter)) {
+            queued--;
+            if (queue.isEmpty()) {
+                queues.remove(waiter.dataset);
+                turns.remove(waiter.dataset);
+            }
+        }
+    }
+
+    /**
+     * Hands free slots to the waiting requests, taking one request per dataset in turn.
+     */
+    private void grantNext() {
+        while (running < maxRunning && !turns.isEmpty()) {
+            String dataset = turns.poll();
+            ArrayDeque<Waiter> queue = queues.get(dataset);
+            Waiter waiter = queue.poll();
+            if (queue.isEmpty()) {
+                queues.remove(dataset);
+            } else {
+                turns.add(dataset);
+            }
+            queued--;
+            running++;
+            waiter.granted = true;
+            waiter.condition.signal();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            running--;
+            grantNext();
+            if (running == 0) {
+                idle.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rejects all waiting and future requests and waits for the running extractions to finish.
+     *
+     * @return true if all running extractions finished within the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            shutdown = true;
+            for (ArrayDeque<Waiter> queue : queues.values()) {
+                for (Waiter waiter : queue) {
+                    waiter.cancelled = true;
+                    waiter.condition.signal();
+                }
+            }
+            queues.clear();
+            turns.clear();
+            queued = 0;
+
+            long remaining = unit.toNanos(timeout);
+            while (running > 0) {
+                if (remaining <= 0) {
+                    LOGGER.warn("{} extractions still running after shutdown timeout", running);
+                    return false;
+                }
+                remaining = idle.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxRunning() {
+        return maxRunning;
+    }
+
+    public int getRunningCount() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmittedCount() {
+        lock.lock();
+        try {
+            return admittedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of rejected requests, including those which timed out
+     */
+    public long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejectedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getTimedOutCount() {
+        lock.lock();
+        try {
+            return timedOutCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getAverageWaitMillis() {
+        lock.lock();
+        try {
+            return admittedCount == 0 ? 0.0 : totalWaitNanos / 1e6 / admittedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxWaitMillis() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(maxWaitedNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public class Permit implements AutoCloseable {
+        private final long waitMillis;
+        private boolean released = false;
+
+        private Permit(long waitMillis) {
+            this.waitMillis = waitMillis;
+        }
+
+        /**
+         * @return time the request waited for admission
+         */
+        public long getWaitMillis() {
+            return waitMillis;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                release();
+            }
+        }
+    }
+
+    private static class Waiter {
+        private final String dataset;
+        private final Condition condition;
+        private boolean granted = false;
+        private boolean cancelled = false;
+
+        Waiter(String dataset, Condition condition) {
+            this.dataset = dataset;
+            this.condition = condition;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+# Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+#         (German Aerospace Center), German Remote Sensing Data Center
+#         Department: Geo-Risks and Civil Security
+#
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""
+Keeps the modules of osm_extract imported and runs each of its jobs in a fork of this process.
+
+Started by the WPS with the interpreter of osm_extract as `python -c <this script> <path of osm_extract>`.
+Each line on standard input is a JSON message, each answer is a JSON line on standard output:
+
+    "ping"                                           -> "pong"
+    {"args": [...], "directory": ..., "memory": bytes, "cpu": seconds}
+                                                     -> {"ready": true}, the fifos .osm_extract.stdout and
+                                                        .osm_extract.stderr exist in the directory
+    "go", once the WPS has opened the fifos          -> {"pid": <pid of the job>}
+                                                     -> {"exit": <returncode, negative signal when killed>}
+"""
+
+import ast
+import json
+import os
+import resource
+import sys
+import traceback
+
+FIFOS = (".osm_extract.stdout", ".osm_extract.stderr")
+
+
+def imports(body):
+    """the import statements at the top level of a module, including those within try and if blocks"""
+    for node in body:
+        if isinstance(node, (ast.Import, ast.ImportFrom)):
+            yield node
+        elif isinstance(node, (ast.If, getattr(ast, "Try", ast.If))):
+            for block in (node.body, getattr(node, "orelse", []), getattr(node, "finalbody", [])):
+                for statement in imports(block):
+                    yield statement
+            for handler in getattr(node, "handlers", []):
+                for statement in imports(handler.body):
+                    yield statement
+
+
+def preload(script, source):
+    # importing GDAL and its drivers is most of the startup time of osm_extract
+    for node in imports(ast.parse(source, script).body):
+        try:
+            exec(compile(ast.Module(body=[node], type_ignores=[]), script, "exec"), {})
+        except Exception:
+            pass
+
+
+def run_job(script, code, job, fds, protocol_fds):
+    """runs in the forked process, never returns"""
+    returncode = 1
+    try:
+        os.setsid()
+        os.dup2(fds[0], 1)
+        os.dup2(fds[1], 2)
+        for fd in list(fds) + list(protocol_fds):
+            os.close(fd)
+        if job.get("memory"):
+            resource.setrlimit(resource.RLIMIT_AS, (job["memory"], job["memory"]))
+        if job.get("cpu"):
+            resource.setrlimit(resource.RLIMIT_CPU, (job["cpu"], job["cpu"]))
+        os.chdir(job["directory"])
+        sys.argv = job["args"]
+        try:
+            exec(code, {"__name__": "__main__", "__file__": script, "__builtins__": __builtins__})
+            returncode = 0
+        except SystemExit as e:
+            if e.code is None:
+                returncode = 0
+            elif isinstance(e.code, int):
+                returncode = e.code
+            else:
+                sys.stderr.write("%s\n" % (e.code,))
+        except BaseException:
+            traceback.print_exc()
+        sys.stdout.flush()
+        sys.stderr.flush()
+        try:
+            # GDAL writes /vsistdout/ with the stdio of the C library
+            import ctypes
+            ctypes.CDLL(None).fflush(None)
+        except Exception:
+            pass
+    finally:
+        os._exit(returncode & 0xff)
+
+
+def main():
+    script = sys.argv[1]
+    with open(script, "rb") as f:
+        source = f.read()
+    code = compile(source, script, "exec")
+    preload(script, source)
+
+    # the jobs inherit standard input and output, so the messages use copies of them
+    requests = os.fdopen(os.dup(0), "r")
+    replies = os.fdopen(os.dup(1), "w")
+    null = os.open(os.devnull, os.O_RDWR)
+    os.dup2(null, 0)
+    os.dup2(null, 1)
+    os.close(null)
+
+    def reply(message):
+        replies.write(json.dumps(message) + "\n")
+        replies.flush()
+
+    while True:
+        line = requests.readline()
+        if not line:
+            return
+        job = json.loads(line)
+        if job == "ping":
+            reply("pong")
+            continue
+
+        fifos = [os.path.join(job["directory"], name) for name in FIFOS]
+        for fifo in fifos:
+            os.mkfifo(fifo)
+        # opening them for reading and writing does not block, and keeps them open until the WPS has opened them
+        fds = [os.open(fifo, os.O_RDWR) for fifo in fifos]
+        reply({"ready": True})
+        go = json.loads(requests.readline() or "null")
+        for fifo in fifos:
+            os.unlink(fifo)
+        if go != "go":
+            for fd in fds:
+                os.close(fd)
+            if go is None:
+                return
+            continue
+
+        sys.stdout.flush()
+        sys.stderr.flush()
+        pid = os.fork()
+        if pid == 0:
+            run_job(script, code, job, fds, (requests.fileno(), replies.fileno()))
+        for fd in fds:
+            os.close(fd)
+        reply({"pid": pid})
+        status = os.waitpid(pid, 0)[1]
+        reply({"exit": os.WEXITSTATUS(status) if os.WIFEXITED(status) else -os.WTERMSIG(status)})
+
+
+main()
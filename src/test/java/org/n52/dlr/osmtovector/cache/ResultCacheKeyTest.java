@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.n52.dlr.osmtovector.engine.ElementType;
+import org.n52.dlr.osmtovector.engine.ExtractionQuery;
+import org.n52.dlr.osmtovector.io.DatasetMetadata;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ResultCacheKeyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String digest(Path dataset, String... tags) throws IOException {
+        return ResultCacheKey.create(dataset, new ExtractionQuery(Arrays.asList(tags), ElementType.WAYS, null), "native")
+                .getDigest();
+    }
+
+    @Test
+    public void distinguishesTheOrderOfTheTags() throws IOException {
+        Path dataset = folder.newFile("test.osm.pbf").toPath();
+        Files.write(dataset, new byte[]{1, 2, 3});
+
+        // the order of the attributes of the results differs
+        assertNotEquals(digest(dataset, "highway", "name"), digest(dataset, "name", "highway"));
+        assertEquals(digest(dataset, "highway", "name"), digest(dataset, "highway", "name", "highway"));
+        assertEquals(Arrays.asList("name", "highway"),
+                ResultCacheKey.create(dataset, new ExtractionQuery(Arrays.asList("name", "highway"),
+                        ElementType.WAYS, null), "native").getTags());
+    }
+
+    @Test
+    public void usesTheFileAttributesOfTheMetadata() throws IOException {
+        Path dataset = folder.newFile("test.osm.pbf").toPath();
+        Files.write(dataset, new byte[]{1, 2, 3});
+        ExtractionQuery query = new ExtractionQuery(Arrays.asList("highway"), ElementType.WAYS, null);
+
+        DatasetMetadata metadata = new DatasetMetadata("test", dataset, Files.size(dataset),
+                Files.getLastModifiedTime(dataset).toMillis(), null, 0, null);
+        assertEquals(ResultCacheKey.create(dataset, query, "native").getDigest(),
+                ResultCacheKey.create(metadata, query, "native").getDigest());
+
+        // the file is not read again, so the key follows the version of the dataset known to the catalog
+        Files.delete(dataset);
+        DatasetMetadata updated = new DatasetMetadata("test", dataset, 4, metadata.getLastModified(), null, 0, null);
+        assertEquals(4, ResultCacheKey.create(updated, query, "native").getDatasetSize());
+        assertNotEquals(ResultCacheKey.create(metadata, query, "native").getDigest(),
+                ResultCacheKey.create(updated, query, "native").getDigest());
+    }
+}
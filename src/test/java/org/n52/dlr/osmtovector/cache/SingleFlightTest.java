@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.cache;
+
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest {
+
+    @Test
+    public void sharesTheResultWithEachAttachedRequest() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        AtomicInteger shares = new AtomicInteger();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch attached = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> {
+            try {
+                return flights.execute("key", () -> {
+                    running.countDown();
+                    try {
+                        assertTrue(attached.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    return "result";
+                }, value -> value + "-" + shares.incrementAndGet());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> {
+            try {
+                return flights.execute("key", () -> "second execution", value -> value + "-shared");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (flights.getCoalescedCount() == 0) {
+            Thread.sleep(1);
+        }
+        attached.countDown();
+
+        assertEquals("result", leader.get(10, TimeUnit.SECONDS));
+        assertEquals("result-1", follower.get(10, TimeUnit.SECONDS));
+        assertEquals(1, shares.get());
+        assertEquals(0, flights.getInFlightCount());
+    }
+}
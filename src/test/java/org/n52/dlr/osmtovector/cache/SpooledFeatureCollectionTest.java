@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.cache;
+
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.n52.dlr.osmtovector.engine.ElementType;
+import org.n52.dlr.osmtovector.engine.ExtractionQuery;
+import org.n52.dlr.osmtovector.engine.PbfExtractor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpooledFeatureCollectionTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int count;
+    private SpooledFeatureCollection features;
+
+    @Before
+    public void spoolNodes() throws IOException, URISyntaxException {
+        Path dataset = Paths.get(SpooledFeatureCollectionTest.class.getResource("/fixture.osm.pbf").toURI());
+        try (FeatureSpool spool = new FeatureSpool(folder.getRoot().toPath())) {
+            new PbfExtractor().extract(dataset,
+                    new ExtractionQuery(Collections.<String>emptyList(), ElementType.NODES, null), spool);
+            count = spool.getCount();
+            features = spool.finish();
+        }
+        assertTrue(count > 0);
+    }
+
+    private static int read(SimpleFeatureIterator iterator) {
+        int read = 0;
+        try {
+            while (iterator.hasNext()) {
+                iterator.next();
+                read++;
+            }
+        } finally {
+            iterator.close();
+        }
+        return read;
+    }
+
+    @Test
+    public void canBeIteratedRepeatedly() {
+        // e.g. once to store the result in the cache and once to encode the response
+        assertEquals(count, read(features.features()));
+        assertEquals(count, read(features.features()));
+        assertEquals(count, features.size());
+    }
+
+    @Test
+    public void iteratorsAreIndependent() {
+        SimpleFeatureIterator first = features.features();
+        first.next();
+        SimpleFeatureIterator second = features.features();
+        first.close();
+        assertEquals(count, read(second));
+        assertEquals(count, read(features.features()));
+    }
+
+    @Test
+    public void keepsTheFileUntilItExpires() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        FeatureSpool.deleteExpired(directory, 60 * 1000L);
+        assertTrue(Files.exists(features.getPath()));
+        assertEquals(count, read(features.features()));
+
+        Files.setLastModifiedTime(features.getPath(), FileTime.fromMillis(0));
+        FeatureSpool.deleteExpired(directory, 60 * 1000L);
+        assertFalse(Files.exists(features.getPath()));
+        try {
+            features.features();
+            fail("the expired features have been read");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void linkedCollectionsOutliveTheOriginal() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        SpooledFeatureCollection linked = FeatureSpool.link(features, directory);
+        assertNotEquals(features.getPath(), linked.getPath());
+        assertTrue(linked.getPath().startsWith(directory));
+        Files.delete(features.getPath());
+        assertEquals(count, read(linked.features()));
+        assertEquals(count, linked.size());
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeMergerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OsmChange change;
+
+    @Before
+    public void readChange() throws IOException {
+        change = OsmChange.read(Collections.singletonList(Fixtures.resource("/fixture-change.osc")));
+    }
+
+    /**
+     * The elements of a dataset by their kind and id.
+     */
+    private static class Content {
+        private final Map<Long, OsmNode> nodes = new TreeMap<>();
+        private final Map<Long, OsmWay> ways = new TreeMap<>();
+        private final Map<Long, OsmRelation> relations = new TreeMap<>();
+
+        Content(Path dataset) throws IOException {
+            try (PbfFile file = new PbfFile(dataset)) {
+                file.readHeader();
+                for (PbfBlob blob = file.next(); blob != null; blob = file.next()) {
+                    if (!PbfFile.TYPE_DATA.equals(blob.getType())) {
+                        continue;
+                    }
+                    PrimitiveBlock block = PrimitiveBlock.decode(blob.decompress(), true, true, true);
+                    for (OsmNode node : block.getNodes()) {
+                        assertNull(nodes.put(node.getId(), node));
+                    }
+                    for (OsmWay way : block.getWays()) {
+                        assertNull(ways.put(way.getId(), way));
+                    }
+                    for (OsmRelation relation : block.getRelations()) {
+                        assertNull(relations.put(relation.getId(), relation));
+                    }
+                }
+            }
+        }
+    }
+
+    private Path merge(BlobIndex index, String name) throws IOException {
+        Path target = folder.getRoot().toPath().resolve(name);
+        new ChangeMerger(new ParallelBlockReader(null)).merge(Fixtures.fixture(), index, change, target);
+        return target;
+    }
+
+    @Test
+    public void readsTheChangeFile() {
+        assertEquals(Arrays.asList(5L, 10L, 11L, 100L, 101L), Arrays.asList(change.getNodes().keySet().toArray()));
+        assertNull(change.getNodes().get(100L));
+        assertEquals("Café", change.getNodes().get(10L).getTag("name"));
+        assertArrayEquals(new long[]{1, 5}, change.getWays().get(8L).getRefs());
+        assertNull(change.getWays().get(7L));
+        assertNull(change.getRelations().get(1L));
+        assertEquals(10, change.size());
+    }
+
+    @Test
+    public void appliesCreationsModificationsAndDeletions() throws IOException {
+        Content before = new Content(Fixtures.fixture());
+        Content merged = new Content(merge(null, "merged.osm.pbf"));
+
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 10L, 11L, 12L, 20L, 21L, 22L, 23L, 30L, 31L, 32L, 33L, 101L),
+                Arrays.asList(merged.nodes.keySet().toArray()));
+        assertEquals("bench", merged.nodes.get(5L).getTag("amenity"));
+        assertEquals(0.5, merged.nodes.get(5L).getLat(), 1e-7);
+        assertEquals("restaurant", merged.nodes.get(10L).getTag("amenity"));
+        assertEquals("Café", merged.nodes.get(10L).getTag("name"));
+        assertEquals(10.6, merged.nodes.get(11L).getLat(), 1e-7);
+        assertEquals(10.7, merged.nodes.get(11L).getLon(), 1e-7);
+        assertEquals("kiosk", merged.nodes.get(101L).getTag("shop"));
+        // unchanged nodes keep their tags and locations
+        assertEquals("Santiago", merged.nodes.get(12L).getTag("name"));
+        assertEquals(before.nodes.get(12L).getLat(), merged.nodes.get(12L).getLat(), 1e-7);
+        assertEquals(before.nodes.get(12L).getLon(), merged.nodes.get(12L).getLon(), 1e-7);
+
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 8L), Arrays.asList(merged.ways.keySet().toArray()));
+        assertEquals("path", merged.ways.get(6L).getTag("highway"));
+        assertArrayEquals(new long[]{3, 10}, merged.ways.get(6L).getRefs());
+        assertArrayEquals(new long[]{1, 5}, merged.ways.get(8L).getRefs());
+        assertArrayEquals(before.ways.get(1L).getRefs(), merged.ways.get(1L).getRefs());
+        assertEquals("yes", merged.ways.get(1L).getTag("building"));
+
+        assertEquals(Collections.singleton(2L), merged.relations.keySet());
+        assertEquals(2, merged.relations.get(2L).getMemberCount());
+        assertEquals("stop", merged.relations.get(2L).getMemberRole(0));
+        assertEquals(OsmRelation.MEMBER_WAY, merged.relations.get(2L).getMemberType(1));
+    }
+
+    @Test
+    public void mergesTheSameWithAndWithoutIndex() throws IOException {
+        Content merged = new Content(merge(null, "merged.osm.pbf"));
+        Content indexed = new Content(merge(BlobIndex.build(Fixtures.fixture(), new ParallelBlockReader(null)),
+                "indexed.osm.pbf"));
+        assertEquals(merged.nodes.keySet(), indexed.nodes.keySet());
+        for (long id : merged.nodes.keySet()) {
+            assertEquals(merged.nodes.get(id).getLat(), indexed.nodes.get(id).getLat(), 1e-7);
+            assertEquals(merged.nodes.get(id).getLon(), indexed.nodes.get(id).getLon(), 1e-7);
+        }
+        assertEquals(merged.ways.keySet(), indexed.ways.keySet());
+        assertEquals(merged.relations.keySet(), indexed.relations.keySet());
+    }
+
+    @Test
+    public void extractsFromTheMergedDatasetWithItsIndex() throws IOException {
+        Path target = folder.getRoot().toPath().resolve("merged.osm.pbf");
+        BlobIndex index = BlobIndex.build(Fixtures.fixture(), new ParallelBlockReader(null));
+        ChangeSummary summary = new ChangeMerger(new ParallelBlockReader(null)).merge(Fixtures.fixture(), index,
+                change, target);
+        assertTrue(summary.getIndex().isValidFor(target));
+
+        PbfExtractor indexed = new PbfExtractor(null, summary.getIndex(), null);
+        for (ElementType elementType : ElementType.values()) {
+            ExtractionQuery query = new ExtractionQuery(Collections.<String>emptyList(), elementType, null);
+            assertEquals(Fixtures.features(new PbfExtractor().extract(target, query)).keySet(),
+                    Fixtures.features(indexed.extract(target, query)).keySet());
+        }
+
+        ExtractionQuery areas = new ExtractionQuery(Arrays.asList("building", "landuse"), ElementType.AREAS, null);
+        assertEquals(Collections.singleton("way.1"), Fixtures.features(indexed.extract(target, areas)).keySet());
+        ExtractionQuery highways = new ExtractionQuery(Collections.singletonList("highway"), ElementType.WAYS, null);
+        Map<String, SimpleFeature> ways = Fixtures.features(indexed.extract(target, highways));
+        assertEquals(Arrays.asList("way.2", "way.6", "way.8"), Arrays.asList(ways.keySet().toArray()));
+    }
+
+    @Test
+    public void summarizesTheAffectedResults() throws IOException {
+        Path target = folder.getRoot().toPath().resolve("merged.osm.pbf");
+        ChangeSummary summary = new ChangeMerger(new ParallelBlockReader(null)).merge(Fixtures.fixture(), null,
+                change, target);
+        assertEquals(10, summary.getChangedElementCount());
+
+        Envelope santiago = new Envelope(-71, -70, -34, -33);
+        Envelope mainStreet = new Envelope(10.2, 10.4, 10.2, 10.4);
+        Envelope bakery = new Envelope(5, 5.6, 5, 5.6);
+        List<String> none = Collections.emptyList();
+
+        // nodes: created, retagged and deleted ones, with their old and new locations
+        assertTrue(summary.affects(ElementType.NODES, Collections.singletonList("amenity"), null));
+        assertTrue(summary.affects(ElementType.NODES, Collections.singletonList("shop"), bakery));
+        assertTrue(summary.affects(ElementType.NODES, none, new Envelope(9.9, 10.1, 9.9, 10.1)));
+        assertFalse(summary.affects(ElementType.NODES, Collections.singletonList("place"), null));
+        assertFalse(summary.affects(ElementType.NODES, none, santiago));
+        // the envelope of a key spans all its changed nodes
+        assertTrue(summary.affects(ElementType.NODES, Collections.singletonList("amenity"), bakery));
+        assertFalse(summary.affects(ElementType.NODES, Collections.singletonList("amenity"),
+                new Envelope(11, 12, 11, 12)));
+
+        // ways: way 2 has not been changed itself, but one of its nodes has been moved
+        assertTrue(summary.affects(ElementType.WAYS, Collections.singletonList("name"), mainStreet));
+        assertTrue(summary.affects(ElementType.WAYS, Collections.singletonList("building"), null));
+        assertFalse(summary.affects(ElementType.WAYS, Collections.singletonList("building"), mainStreet));
+        assertFalse(summary.affects(ElementType.WAYS, none, santiago));
+
+        // areas: any changed way within the filter, or a changed relation with one of the tags
+        assertTrue(summary.affects(ElementType.AREAS, Collections.singletonList("landuse"), santiago));
+        assertTrue(summary.affects(ElementType.AREAS, Collections.singletonList("natural"), mainStreet));
+        assertFalse(summary.affects(ElementType.AREAS, Collections.singletonList("natural"), santiago));
+
+        assertTrue(summary.affectsTags(Arrays.asList("shop", "place")));
+        assertFalse(summary.affectsTags(Arrays.asList("place", "landuse")));
+    }
+}
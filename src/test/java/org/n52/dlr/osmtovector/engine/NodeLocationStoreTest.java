@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NodeLocationStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // ids within different chunks of the dense store
+    private static final long[] IDS = {-7, 1, 2, 4096, 1L << 27, 3000000000L};
+
+    private static void assertLocation(NodeLocationStore store, long id, double lon, double lat) throws IOException {
+        Coordinate coordinate = store.get(id);
+        assertEquals(lon, coordinate.x, 1e-7);
+        assertEquals(lat, coordinate.y, 1e-7);
+    }
+
+    private static void putAll(NodeLocationStore store) throws IOException {
+        for (long id = -10; id < 5000; id++) {
+            store.put(id, id % 180, -45.5);
+        }
+        store.put(1L << 27, -179.9999999, 89.9999999);
+        store.put(3000000000L, 13.3777041, 52.5162746);
+        store.put(3000000001L, 1.0, 1.0);
+    }
+
+    private static void assertStore(NodeLocationStore store) throws IOException {
+        assertEquals(IDS.length, store.getNodeCount());
+        assertLocation(store, -7, -7, -45.5);
+        assertLocation(store, 1, 1, -45.5);
+        assertLocation(store, 4096, 4096 % 180, -45.5);
+        assertLocation(store, 1L << 27, -179.9999999, 89.9999999);
+        assertLocation(store, 3000000000L, 13.3777041, 52.5162746);
+        // not requested
+        assertNull(store.get(3));
+        assertNull(store.get(3000000001L));
+        assertNull(store.get(Long.MAX_VALUE >> 8));
+
+        assertTrue(store.containsAnyNode(-8, -6));
+        assertTrue(store.containsAnyNode(2, 3));
+        assertTrue(store.containsAnyNode(2999990000L, 3000000000L));
+        // the dense store only tells ranges of 4096 ids apart
+        assertFalse(store.containsAnyNode(-6, -1));
+        assertFalse(store.containsAnyNode(8192, 1000000));
+        assertFalse(store.containsAnyNode(3000100000L, 4000000000L));
+    }
+
+    @Test
+    public void keepsFewNodesOnTheHeap() throws IOException {
+        try (NodeLocationStore.Builder builder = NodeLocationStore.builder(folder.getRoot().toPath())) {
+            assertTrue(builder.isEmpty());
+            builder.addAll(IDS);
+            builder.addAll(new long[]{1, 2, 1, 4096});
+            assertFalse(builder.isEmpty());
+            try (NodeLocationStore store = builder.build()) {
+                assertTrue(store instanceof SparseNodeLocationStore);
+                putAll(store);
+                assertStore(store);
+            }
+        }
+    }
+
+    @Test
+    public void addressesTheDenseStoreByNodeId() throws IOException {
+        Path workDirectory = folder.getRoot().toPath();
+        try (DenseNodeLocationStore store = new DenseNodeLocationStore(workDirectory)) {
+            for (long id : IDS) {
+                store.request(id);
+                store.request(id);
+            }
+            assertEquals(IDS.length, store.getNodeCount());
+            assertNull(store.get(1));
+            putAll(store);
+            assertStore(store);
+            assertEquals(1, folder.getRoot().listFiles().length);
+        }
+        assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void switchesToTheDenseStoreForManyNodes() throws IOException {
+        File workDirectory = folder.getRoot();
+        try (NodeLocationStore.Builder builder = NodeLocationStore.builder(workDirectory.toPath())) {
+            long[] refs = new long[1024];
+            for (long id = 0; id <= NodeLocationStore.SPARSE_STORE_MAX_NODES; id += refs.length / 2) {
+                // every id twice, which must not be counted
+                for (int i = 0; i < refs.length; i++) {
+                    refs[i] = id + i / 2;
+                }
+                builder.addAll(refs);
+            }
+            builder.add(1L << 33);
+            try (NodeLocationStore store = builder.build()) {
+                assertTrue(store instanceof DenseNodeLocationStore);
+                assertEquals(NodeLocationStore.SPARSE_STORE_MAX_NODES + 512 + 1, store.getNodeCount());
+                store.put(1L << 33, 10.5, 20.25);
+                store.put(12345, -10.5, -20.25);
+                assertLocation(store, 1L << 33, 10.5, 20.25);
+                assertLocation(store, 12345, -10.5, -20.25);
+                assertNull(store.get(54321));
+            }
+        }
+        assertEquals(0, workDirectory.listFiles().length);
+    }
+
+    @Test
+    public void removesTheFileOfAStoreWhichHasNotBeenBuilt() throws IOException {
+        File workDirectory = folder.getRoot();
+        try (NodeLocationStore.Builder builder = NodeLocationStore.builder(workDirectory.toPath())) {
+            // the ids are moved into the file once they do not fit on the heap
+            for (long id = 0; id < 2L * NodeLocationStore.SPARSE_STORE_MAX_NODES; id++) {
+                builder.add(id);
+            }
+            assertEquals(1, workDirectory.listFiles().length);
+        }
+        assertEquals(0, workDirectory.listFiles().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUseAfterClose() throws IOException {
+        DenseNodeLocationStore store = new DenseNodeLocationStore(folder.getRoot().toPath());
+        store.request(1);
+        store.close();
+        store.get(1);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class OsmExtractWorkerPoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String binary;
+    private OsmExtractWorkerPool pool;
+
+    @Before
+    public void startPool() throws IOException {
+        assumeTrue(Files.isExecutable(Paths.get("/usr/bin/python3")) || Files.isExecutable(Paths.get("/bin/python3")));
+        binary = Fixtures.resource("/fake_osm_extract.py").toString();
+        pool = new OsmExtractWorkerPool(binary, folder.newFolder().toPath(), 1, 0);
+        pool.maintain();
+    }
+
+    @After
+    public void closePool() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    private String run(SubprocessRunner runner, String command) throws IOException {
+        return run(runner, command, true);
+    }
+
+    /**
+     * @param wholeOutput false to stop the fake osm_extract after the first line
+     * @return the first line of the output of the fake osm_extract
+     */
+    private String run(SubprocessRunner runner, String command, boolean wholeOutput) throws IOException {
+        File directory = folder.newFolder();
+        StringBuilder output = new StringBuilder();
+        runner.run(Arrays.asList(binary, command), directory, null, in -> {
+            String line = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).readLine();
+            output.append(line == null ? "" : line);
+            return wholeOutput;
+        }, null);
+        return output.toString();
+    }
+
+    private SubprocessRunner runner(long timeoutMillis) {
+        SubprocessRunner runner = new SubprocessRunner(timeoutMillis, 0, 0);
+        runner.setWorkerPool(pool);
+        return runner;
+    }
+
+    @Test
+    public void runsJobsInTheSameWorker() throws IOException {
+        SubprocessRunner runner = runner(0);
+        String worker = run(runner, "parent");
+        assertTrue(worker.matches("[0-9]+"));
+        assertEquals(worker, run(runner, "parent"));
+    }
+
+    @Test
+    public void keepsTheWorkerAfterAFailedJob() throws IOException {
+        SubprocessRunner runner = runner(0);
+        String worker = run(runner, "parent");
+        try {
+            run(runner, "fail");
+            fail("the returncode of the job was ignored");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("returncode 3"));
+        }
+        assertEquals(worker, run(runner, "parent"));
+    }
+
+    @Test
+    public void killsTheJobOnTimeout() throws IOException {
+        SubprocessRunner runner = runner(1000);
+        String worker = run(runner, "parent");
+        long start = System.currentTimeMillis();
+        try {
+            run(runner, "sleep");
+            fail("the job was not killed");
+        } catch (IOException e) {
+            assertTrue(System.currentTimeMillis() - start < 30 * 1000);
+        }
+        assertEquals(worker, run(runner, "parent"));
+    }
+
+    @Test
+    public void killsTheJobWhenTheOutputIsComplete() throws IOException {
+        SubprocessRunner runner = runner(0);
+        String worker = run(runner, "parent");
+        assertEquals("line", run(runner, "endless", false));
+        assertEquals(worker, run(runner, "parent"));
+    }
+
+    @Test
+    public void runsOtherCommandsInNewProcesses() throws IOException {
+        SubprocessRunner runner = runner(0);
+        String worker = run(runner, "parent");
+        StringBuilder output = new StringBuilder();
+        runner.run(Arrays.asList("/bin/sh", "-c", "echo $PPID"), folder.newFolder(), null, in -> {
+            output.append(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).readLine());
+            return true;
+        }, null);
+        assertTrue(!output.toString().equals(worker));
+    }
+}
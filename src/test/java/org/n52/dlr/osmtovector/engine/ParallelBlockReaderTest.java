@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelBlockReaderTest {
+
+    private static List<Long> blockIds(ForkJoinPool pool, int limit) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (PbfFile file = new PbfFile(Fixtures.fixture())) {
+            new ParallelBlockReader(pool).read(file, blob -> {
+                PrimitiveBlock block = PrimitiveBlock.decode(blob.decompress(), true, true, true);
+                List<Long> blockIds = new ArrayList<>();
+                block.getNodes().forEach(node -> blockIds.add(node.getId()));
+                block.getWays().forEach(way -> blockIds.add(-way.getId()));
+                block.getRelations().forEach(relation -> blockIds.add(-1000 - relation.getId()));
+                return blockIds;
+            }, ids::addAll, () -> ids.size() >= limit);
+        }
+        return ids;
+    }
+
+    @Test
+    public void keepsTheOrderOfTheBlocks() throws IOException {
+        List<Long> sequential = blockIds(null, Integer.MAX_VALUE);
+        assertEquals(15 + 1 + 7 + 2, sequential.size());
+        assertEquals(Long.valueOf(1), sequential.get(0));
+        assertEquals(Long.valueOf(100), sequential.get(15));
+        assertEquals(Long.valueOf(-1002), sequential.get(sequential.size() - 1));
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(sequential, blockIds(pool, Integer.MAX_VALUE));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void stopsOnceTheConsumerIsDone() throws IOException {
+        // the first block holds the dense nodes, the second the single node
+        assertEquals(15, blockIds(null, 1).size());
+        assertEquals(16, blockIds(null, 16).size());
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            assertEquals(15, blockIds(pool, 1).size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PbfExtractorTest {
+
+    private Path dataset;
+    private ForkJoinPool pool;
+    private PbfExtractor indexedExtractor;
+
+    @Before
+    public void createExtractors() throws IOException {
+        dataset = Fixtures.fixture();
+        pool = new ForkJoinPool(2);
+        indexedExtractor = new PbfExtractor(pool, BlobIndex.build(dataset, new ParallelBlockReader(pool)), null);
+    }
+
+    @After
+    public void shutdownPool() {
+        pool.shutdown();
+    }
+
+    private static Geometry box(double minX, double minY, double maxX, double maxY) {
+        try {
+            return new WKTReader().read("POLYGON((" + minX + " " + minY + ", " + maxX + " " + minY + ", "
+                    + maxX + " " + maxY + ", " + minX + " " + maxY + ", " + minX + " " + minY + "))");
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Extracts with and without the index of the dataset, which must not change the result.
+     */
+    private Map<String, SimpleFeature> extract(ElementType elementType, Geometry spatialFilter, String... tags)
+            throws IOException {
+        ExtractionQuery query = new ExtractionQuery(Arrays.asList(tags), elementType, spatialFilter);
+        Map<String, SimpleFeature> features = Fixtures.features(new PbfExtractor().extract(dataset, query));
+        Map<String, SimpleFeature> indexed = Fixtures.features(indexedExtractor.extract(dataset, query));
+        assertEquals(features.keySet(), indexed.keySet());
+        for (String id : features.keySet()) {
+            assertEquals(features.get(id).getAttributes(), indexed.get(id).getAttributes());
+        }
+        return features;
+    }
+
+    private static String wkt(SimpleFeature feature) {
+        return feature.getDefaultGeometry().toString();
+    }
+
+    @Test
+    public void extractsNodes() throws IOException {
+        Map<String, SimpleFeature> features = extract(ElementType.NODES, null, "amenity");
+        assertEquals(Arrays.asList("node.1", "node.10"), Arrays.asList(features.keySet().toArray()));
+
+        SimpleFeature cafe = features.get("node.10");
+        assertEquals("POINT (10 10)", wkt(cafe));
+        assertEquals(10L, cafe.getAttribute(OsmFeatureFactory.ID_ATTRIBUTE));
+        assertEquals("cafe", cafe.getAttribute("amenity"));
+        assertEquals("bench", features.get("node.1").getAttribute("amenity"));
+
+        SimpleFeature bakery = extract(ElementType.NODES, null, "shop").get("node.100");
+        assertEquals("POINT (5.25 5.5)", wkt(bakery));
+    }
+
+    @Test
+    public void extractsNodesWithinTheSpatialFilter() throws IOException {
+        assertEquals(Collections.singleton("node.10"), extract(ElementType.NODES, box(5, 5, 15, 15), "amenity").keySet());
+        assertTrue(extract(ElementType.NODES, box(-80, -40, -60, -30), "amenity").isEmpty());
+        assertEquals(Collections.singleton("node.12"), extract(ElementType.NODES, box(-80, -40, -60, -30), "place").keySet());
+    }
+
+    @Test
+    public void extractsWays() throws IOException {
+        Map<String, SimpleFeature> features = extract(ElementType.WAYS, null, "highway", "name");
+        assertEquals(Arrays.asList("way.2", "way.6"), Arrays.asList(features.keySet().toArray()));
+
+        SimpleFeature street = features.get("way.2");
+        assertEquals("LINESTRING (10 10, 10.5 10.5)", wkt(street));
+        assertEquals("residential", street.getAttribute("highway"));
+        assertEquals("Main St", street.getAttribute("name"));
+        assertEquals(78001.8, (Double) street.getAttribute(OsmFeatureFactory.LENGTH_ATTRIBUTE), 0.1);
+
+        SimpleFeature path = features.get("way.6");
+        assertEquals("LINESTRING (1 1, 10 10)", wkt(path));
+        assertNull(path.getAttribute("name"));
+    }
+
+    @Test
+    public void extractsWaysWithinTheSpatialFilter() throws IOException {
+        assertEquals(Collections.singleton("way.2"), extract(ElementType.WAYS, box(10.2, 10.2, 11, 11), "highway").keySet());
+        // none of the nodes of the way are within the filter, but the line crosses it
+        assertEquals(Collections.singleton("way.6"), extract(ElementType.WAYS, box(2, 2, 3, 3), "highway").keySet());
+        assertTrue(extract(ElementType.WAYS, box(2, 5, 3, 6), "highway").isEmpty());
+    }
+
+    @Test
+    public void extractsAreas() throws IOException {
+        Map<String, SimpleFeature> features = extract(ElementType.AREAS, null, "building", "landuse");
+        // way 7 is tagged area=no
+        assertEquals(Arrays.asList("way.1", "relation.1"), Arrays.asList(features.keySet().toArray()));
+
+        SimpleFeature building = features.get("way.1");
+        assertEquals("MULTIPOLYGON (((0 0, 1 0, 1 1, 0 1, 0 0)))", wkt(building));
+        assertEquals("way", building.getAttribute(OsmFeatureFactory.OSM_TYPE_ATTRIBUTE));
+        assertEquals("yes", building.getAttribute("building"));
+
+        // the outer ring is joined from two ways
+        SimpleFeature forest = features.get("relation.1");
+        Geometry geometry = (Geometry) forest.getDefaultGeometry();
+        assertTrue(geometry.isValid());
+        assertEquals(15.0, geometry.getArea(), 1e-9);
+        assertEquals(box(20, 20, 24, 24).getEnvelopeInternal(), geometry.getEnvelopeInternal());
+        assertEquals("relation", forest.getAttribute(OsmFeatureFactory.OSM_TYPE_ATTRIBUTE));
+        assertEquals(1L, forest.getAttribute(OsmFeatureFactory.ID_ATTRIBUTE));
+        assertEquals("forest", forest.getAttribute("landuse"));
+        assertNull(forest.getAttribute("building"));
+    }
+
+    @Test
+    public void extractsAreasWithinTheSpatialFilter() throws IOException {
+        assertEquals(Collections.singleton("relation.1"),
+                extract(ElementType.AREAS, box(19, 19, 25, 25), "building", "landuse").keySet());
+        assertEquals(Collections.singleton("way.1"),
+                extract(ElementType.AREAS, box(0.2, 0.2, 0.4, 0.4), "building", "landuse").keySet());
+        // within the hole of the relation
+        assertTrue(extract(ElementType.AREAS, box(21.4, 21.4, 21.6, 21.6), "building", "landuse").isEmpty());
+    }
+
+    @Test
+    public void stopsAtMaxFeatures() throws IOException {
+        ExtractionQuery query = new ExtractionQuery(Arrays.asList("highway"), ElementType.WAYS, null, 1);
+        Map<String, SimpleFeature> features = Fixtures.features(new PbfExtractor().extract(dataset, query));
+        assertEquals(Collections.singletonList("way.2"), Arrays.asList(features.keySet().toArray()));
+        assertEquals("LINESTRING (10 10, 10.5 10.5)", wkt(features.get("way.2")));
+    }
+
+    @Test
+    public void extractsBatchesLikeSingleQueries() throws IOException {
+        List<ExtractionQuery> queries = Arrays.asList(
+                new ExtractionQuery(Arrays.asList("highway"), ElementType.WAYS, null),
+                new ExtractionQuery(Arrays.asList("highway"), ElementType.WAYS, box(10.2, 10.2, 11, 11)),
+                new ExtractionQuery(Arrays.asList("building", "highway"), ElementType.WAYS, null),
+                new ExtractionQuery(Arrays.asList("amenity"), ElementType.NODES, null));
+        List<FeatureCollector> collectors = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            collectors.add(new FeatureCollector());
+        }
+        indexedExtractor.extract(dataset, queries, collectors);
+
+        for (int i = 0; i < queries.size(); i++) {
+            Map<String, SimpleFeature> single = Fixtures.features(new PbfExtractor().extract(dataset, queries.get(i)));
+            Map<String, SimpleFeature> batch = Fixtures.features(collectors.get(i).getCollection());
+            assertEquals(single.keySet(), batch.keySet());
+            for (String id : single.keySet()) {
+                assertEquals(wkt(single.get(id)), wkt(batch.get(id)));
+            }
+        }
+        assertEquals(Arrays.asList("way.1", "way.2", "way.6", "way.7"),
+                Arrays.asList(Fixtures.features(collectors.get(2).getCollection()).keySet().toArray()));
+    }
+
+    /**
+     * Summarizes with and without the index of the dataset, which must not change the result.
+     */
+    private FeatureSummary summarize(ElementType elementType, Geometry spatialFilter, long maxFeatures,
+                                     String... tags) throws IOException {
+        ExtractionQuery query = new ExtractionQuery(Arrays.asList(tags), elementType, spatialFilter, maxFeatures);
+        FeatureSummary summary = new FeatureSummary(maxFeatures);
+        new PbfExtractor().extract(dataset, query, summary);
+        FeatureSummary indexed = new FeatureSummary(maxFeatures);
+        indexedExtractor.extract(dataset, query, indexed);
+        assertEquals(summary.getCount(), indexed.getCount());
+        assertEquals(summary.getEnvelope(), indexed.getEnvelope());
+        return summary;
+    }
+
+    @Test
+    public void summarizesNodes() throws IOException {
+        FeatureSummary summary = summarize(ElementType.NODES, null, 0, "amenity");
+        assertEquals(2, summary.getCount());
+        assertEquals(new Envelope(0, 10, 0, 10), summary.getEnvelope());
+
+        summary = summarize(ElementType.NODES, null, 1, "amenity");
+        assertEquals(1, summary.getCount());
+        assertEquals(new Envelope(0, 0, 0, 0), summary.getEnvelope());
+
+        summary = summarize(ElementType.NODES, box(5, 5, 15, 15), 0, "amenity");
+        assertEquals(1, summary.getCount());
+        assertEquals(new Envelope(10, 10, 10, 10), summary.getEnvelope());
+
+        summary = summarize(ElementType.NODES, box(-80, -40, -60, -30), 0, "amenity");
+        assertEquals(0, summary.getCount());
+        assertTrue(summary.getEnvelope().isNull());
+    }
+
+    @Test
+    public void summarizesWays() throws IOException {
+        FeatureSummary summary = summarize(ElementType.WAYS, null, 0, "highway");
+        assertEquals(2, summary.getCount());
+        assertEquals(new Envelope(1, 10.5, 1, 10.5), summary.getEnvelope());
+
+        summary = summarize(ElementType.WAYS, null, 1, "highway");
+        assertEquals(1, summary.getCount());
+        assertEquals(new Envelope(10, 10.5, 10, 10.5), summary.getEnvelope());
+
+        // the line crosses the filter without any of its nodes within it
+        summary = summarize(ElementType.WAYS, box(2, 2, 3, 3), 5, "highway");
+        assertEquals(1, summary.getCount());
+        assertEquals(new Envelope(1, 10, 1, 10), summary.getEnvelope());
+    }
+
+    @Test
+    public void summarizesAreas() throws IOException {
+        FeatureSummary summary = summarize(ElementType.AREAS, null, 0, "building", "landuse");
+        assertEquals(2, summary.getCount());
+        assertEquals(new Envelope(0, 24, 0, 24), summary.getEnvelope());
+
+        summary = summarize(ElementType.AREAS, null, 1, "building", "landuse");
+        assertEquals(1, summary.getCount());
+        assertEquals(new Envelope(0, 1, 0, 1), summary.getEnvelope());
+
+        summary = summarize(ElementType.AREAS, box(19, 19, 25, 25), 1, "building", "landuse");
+        assertEquals(1, summary.getCount());
+        assertEquals(new Envelope(20, 24, 20, 24), summary.getEnvelope());
+
+        // within the hole of the relation
+        assertEquals(0, summarize(ElementType.AREAS, box(21.4, 21.4, 21.6, 21.6), 1, "landuse").getCount());
+    }
+
+    @Test
+    public void exportsAllFormatsButGeoPackage() {
+        assertEquals(Arrays.asList(ExportFormat.GEOJSON, ExportFormat.GEOJSONSEQ, ExportFormat.FLATGEOBUF),
+                new PbfExtractor().getExportFormats());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PbfFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<PbfBlob> blobs(PbfFile file) throws IOException {
+        List<PbfBlob> blobs = new ArrayList<>();
+        for (PbfBlob blob = file.next(); blob != null; blob = file.next()) {
+            blobs.add(blob);
+        }
+        return blobs;
+    }
+
+    @Test
+    public void readsTheHeader() throws IOException {
+        try (PbfFile file = new PbfFile(Fixtures.fixture())) {
+            PbfHeader header = file.readHeader();
+            assertEquals(Arrays.asList("OsmSchema-V0.6", "DenseNodes"), header.getRequiredFeatures());
+            assertEquals("make-fixture.py", header.getWritingProgram());
+            assertEquals(-71.0, header.getBBox().getMinX(), 1e-9);
+            assertEquals(25.0, header.getBBox().getMaxX(), 1e-9);
+            assertEquals(-34.0, header.getBBox().getMinY(), 1e-9);
+            assertEquals(25.0, header.getBBox().getMaxY(), 1e-9);
+        }
+    }
+
+    @Test
+    public void readsAllBlobsInSequence() throws IOException {
+        Path path = Fixtures.fixture();
+        try (PbfFile file = new PbfFile(path)) {
+            List<PbfBlob> blobs = blobs(file);
+            assertEquals(5, blobs.size());
+            assertTrue(blobs.get(0).isHeader());
+
+            long offset = 0;
+            for (int i = 0; i < blobs.size(); i++) {
+                PbfBlob blob = blobs.get(i);
+                assertEquals(i > 0, blob.isData());
+                assertEquals(offset, blob.getOffset());
+                offset += blob.getLength();
+            }
+            assertEquals(Files.size(path), offset);
+            assertNull(file.next());
+
+            file.rewind();
+            assertEquals(0, file.next().getOffset());
+        }
+    }
+
+    @Test
+    public void readsBlobsAtTheirOffsets() throws IOException {
+        try (PbfFile file = new PbfFile(Fixtures.fixture())) {
+            List<PbfBlob> blobs = blobs(file);
+            for (int i = blobs.size() - 1; i >= 0; i--) {
+                PbfBlob blob = file.readBlobAt(blobs.get(i).getOffset());
+                assertEquals(blobs.get(i).getLength(), blob.getLength());
+                assertEquals(blobs.get(i).getType(), blob.getType());
+                assertArrayEquals(blobs.get(i).decompress(), blob.decompress());
+            }
+        }
+    }
+
+    @Test
+    public void decompressesZlibAndRawBlobs() throws IOException {
+        try (PbfFile file = new PbfFile(Fixtures.fixture())) {
+            List<PbfBlob> blobs = blobs(file);
+            // the third blob is stored uncompressed
+            assertEquals(15, PrimitiveBlock.decode(blobs.get(1).decompress(), true, false).getNodes().size());
+            assertEquals(1, PrimitiveBlock.decode(blobs.get(2).decompress(), true, false).getNodes().size());
+        }
+    }
+
+    @Test
+    public void rejectsBlobsExceedingTheMaximumUncompressedSize() throws IOException {
+        ProtobufWriter writer = new ProtobufWriter();
+        writer.writeInt32(2, PbfFile.MAX_BLOB_SIZE + 1);
+        writer.writeBytes(3, new byte[]{0x78, (byte) 0x9c, 0x03, 0x00});
+        try {
+            new PbfBlob(0, 0, PbfFile.TYPE_DATA, writer.toByteArray()).decompress();
+            fail("the blob has been decompressed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("maximum uncompressed size"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsBlobsShorterThanTheirSize() throws IOException {
+        ProtobufWriter writer = new ProtobufWriter();
+        writer.writeInt32(2, 100);
+        writer.writeBytes(3, new byte[]{0x78, (byte) 0x9c, 0x03, 0x00});
+        new PbfBlob(0, 0, PbfFile.TYPE_DATA, writer.toByteArray()).decompress();
+    }
+
+    @Test
+    public void rejectsTruncatedFiles() throws IOException {
+        byte[] data = Files.readAllBytes(Fixtures.fixture());
+        Path truncated = folder.newFile("truncated.osm.pbf").toPath();
+        Files.write(truncated, Arrays.copyOf(data, data.length - 10));
+        try (PbfFile file = new PbfFile(truncated)) {
+            blobs(file);
+            fail("the truncated blob has been read");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+}
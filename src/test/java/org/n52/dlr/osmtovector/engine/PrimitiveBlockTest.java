@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PrimitiveBlockTest {
+
+    private List<byte[]> blocks;
+
+    @Before
+    public void readBlocks() throws IOException {
+        blocks = new ArrayList<>();
+        try (PbfFile file = new PbfFile(Fixtures.fixture())) {
+            for (PbfBlob blob = file.next(); blob != null; blob = file.next()) {
+                if (blob.isData()) {
+                    blocks.add(blob.decompress());
+                }
+            }
+        }
+        assertEquals(4, blocks.size());
+    }
+
+    private static void assertNode(OsmNode node, long id, double lat, double lon) {
+        assertEquals(id, node.getId());
+        assertEquals(lat, node.getLat(), 1e-9);
+        assertEquals(lon, node.getLon(), 1e-9);
+    }
+
+    @Test
+    public void decodesDenseNodes() throws IOException {
+        List<OsmNode> nodes = PrimitiveBlock.decode(blocks.get(0), true, true).getNodes();
+
+        // ids and coordinates are delta coded, the ids are not consecutive
+        long[] ids = new long[nodes.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = nodes.get(i).getId();
+        }
+        assertArrayEquals(new long[]{1, 2, 3, 4, 10, 11, 12, 20, 21, 22, 23, 30, 31, 32, 33}, ids);
+        assertNode(nodes.get(0), 1, 0.0, 0.0);
+        assertNode(nodes.get(2), 3, 1.0, 1.0);
+        assertNode(nodes.get(5), 11, 10.5, 10.5);
+        assertNode(nodes.get(6), 12, -33.4489, -70.6693);
+        assertNode(nodes.get(7), 20, 20.0, 20.0);
+        assertNode(nodes.get(14), 33, 22.0, 21.0);
+    }
+
+    @Test
+    public void decodesTheTagsOfDenseNodes() throws IOException {
+        List<OsmNode> nodes = PrimitiveBlock.decode(blocks.get(0), true, false).getNodes();
+
+        assertEquals(1, nodes.get(0).getTagCount());
+        assertEquals("amenity", nodes.get(0).getTagKey(0));
+        assertEquals("bench", nodes.get(0).getTagValue(0));
+
+        assertFalse(nodes.get(1).hasTags());
+        assertNull(nodes.get(1).getTag("amenity"));
+
+        OsmNode cafe = nodes.get(4);
+        assertEquals(2, cafe.getTagCount());
+        assertEquals("cafe", cafe.getTag("amenity"));
+        assertEquals("Café", cafe.getTag("name"));
+
+        assertEquals("Santiago", nodes.get(6).getTag("name"));
+        assertEquals("city", nodes.get(6).getTag("place"));
+        assertFalse(nodes.get(7).hasTags());
+    }
+
+    @Test
+    public void appliesGranularityAndOffsetsOfTheBlock() throws IOException {
+        // stored with a granularity of 1000 and offsets following the primitive group
+        List<OsmNode> nodes = PrimitiveBlock.decode(blocks.get(1), true, false).getNodes();
+        assertEquals(1, nodes.size());
+        assertNode(nodes.get(0), 100, 5.5, 5.25);
+        assertEquals("bakery", nodes.get(0).getTag("shop"));
+    }
+
+    @Test
+    public void decodesWays() throws IOException {
+        PrimitiveBlock block = PrimitiveBlock.decode(blocks.get(2), false, true);
+        List<OsmWay> ways = block.getWays();
+        assertEquals(7, ways.size());
+        assertEquals(7, block.getWayCount());
+        assertTrue(block.getNodes().isEmpty());
+
+        assertEquals(1, ways.get(0).getId());
+        assertArrayEquals(new long[]{1, 2, 3, 4, 1}, ways.get(0).getRefs());
+        assertTrue(ways.get(0).isClosed());
+        assertEquals("yes", ways.get(0).getTag("building"));
+
+        assertEquals(2, ways.get(1).getId());
+        assertArrayEquals(new long[]{10, 11}, ways.get(1).getRefs());
+        assertFalse(ways.get(1).isClosed());
+        assertEquals("residential", ways.get(1).getTag("highway"));
+        assertEquals("Main St", ways.get(1).getTag("name"));
+
+        // refs with negative deltas
+        assertArrayEquals(new long[]{22, 23, 20}, ways.get(3).getRefs());
+        assertArrayEquals(new long[]{3, 10}, ways.get(5).getRefs());
+        assertFalse(ways.get(2).hasTags());
+        assertEquals("no", ways.get(6).getTag("area"));
+    }
+
+    @Test
+    public void decodesRelations() throws IOException {
+        PrimitiveBlock block = PrimitiveBlock.decode(blocks.get(3), false, false, true);
+        List<OsmRelation> relations = block.getRelations();
+        assertEquals(2, relations.size());
+        assertEquals(2, block.getRelationCount());
+
+        OsmRelation multipolygon = relations.get(0);
+        assertEquals(1, multipolygon.getId());
+        assertTrue(multipolygon.isMultipolygon());
+        assertEquals("forest", multipolygon.getTag("landuse"));
+        assertEquals(3, multipolygon.getMemberCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(OsmRelation.MEMBER_WAY, multipolygon.getMemberType(i));
+            assertEquals(3 + i, multipolygon.getMemberId(i));
+        }
+        assertEquals("outer", multipolygon.getMemberRole(0));
+        assertEquals("outer", multipolygon.getMemberRole(1));
+        assertEquals("inner", multipolygon.getMemberRole(2));
+
+        OsmRelation route = relations.get(1);
+        assertEquals(2, route.getId());
+        assertFalse(route.isMultipolygon());
+        assertEquals(OsmRelation.MEMBER_NODE, route.getMemberType(0));
+        assertEquals(10, route.getMemberId(0));
+        assertEquals("stop", route.getMemberRole(0));
+        assertEquals(OsmRelation.MEMBER_WAY, route.getMemberType(1));
+        assertEquals(2, route.getMemberId(1));
+        assertEquals("", route.getMemberRole(1));
+        assertEquals(OsmRelation.MEMBER_RELATION, route.getMemberType(2));
+        assertEquals(1, route.getMemberId(2));
+    }
+
+    @Test
+    public void skipsElementsWhichAreNotRequested() throws IOException {
+        assertTrue(PrimitiveBlock.decode(blocks.get(0), false, true).getNodes().isEmpty());
+
+        PrimitiveBlock ways = PrimitiveBlock.decode(blocks.get(2), true, false);
+        assertTrue(ways.getWays().isEmpty());
+        assertEquals(7, ways.getWayCount());
+
+        PrimitiveBlock relations = PrimitiveBlock.decode(blocks.get(3), true, true);
+        assertTrue(relations.getRelations().isEmpty());
+        assertEquals(2, relations.getRelationCount());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProtobufReaderTest {
+
+    private static ProtobufReader reader(int... bytes) {
+        byte[] buffer = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            buffer[i] = (byte) bytes[i];
+        }
+        return new ProtobufReader(buffer);
+    }
+
+    @Test
+    public void readsVarints() throws IOException {
+        ProtobufReader reader = reader(0x01, 0xac, 0x02, 0xff, 0xff, 0xff, 0xff, 0x0f);
+        assertEquals(1, reader.readRawVarint());
+        assertEquals(300, reader.readRawVarint());
+        assertEquals(0xffffffffL, reader.readRawVarint());
+        assertFalse(reader.hasRemaining());
+    }
+
+    @Test
+    public void readsNegativeInt64AsTwosComplement() throws IOException {
+        ProtobufReader reader = reader(0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0x01);
+        assertEquals(-1, reader.readInt64());
+    }
+
+    @Test
+    public void decodesZigZag() throws IOException {
+        ProtobufReader reader = reader(0x00, 0x01, 0x02, 0x03, 0xfe, 0xff, 0xff, 0xff, 0x0f);
+        assertEquals(0, reader.readSInt64());
+        assertEquals(-1, reader.readSInt64());
+        assertEquals(1, reader.readSInt64());
+        assertEquals(-2, reader.readSInt64());
+        assertEquals(Integer.MAX_VALUE, reader.readSInt64());
+    }
+
+    @Test
+    public void readsTagsAndSkipsUnknownFields() throws IOException {
+        // field 1 varint 150, field 2 fixed64, field 3 string "ab", field 4 fixed32, field 5 varint 7
+        ProtobufReader reader = reader(0x08, 0x96, 0x01,
+                0x11, 1, 2, 3, 4, 5, 6, 7, 8,
+                0x1a, 0x02, 'a', 'b',
+                0x25, 1, 2, 3, 4,
+                0x28, 0x07);
+
+        int tag = reader.readTag();
+        assertEquals(1, ProtobufReader.fieldNumber(tag));
+        assertEquals(ProtobufReader.WIRETYPE_VARINT, ProtobufReader.wireType(tag));
+        assertEquals(150, reader.readInt32());
+
+        tag = reader.readTag();
+        assertEquals(ProtobufReader.WIRETYPE_FIXED64, ProtobufReader.wireType(tag));
+        reader.skip(tag);
+
+        tag = reader.readTag();
+        assertEquals(3, ProtobufReader.fieldNumber(tag));
+        assertEquals("ab", reader.readString());
+
+        reader.skip(reader.readTag());
+
+        tag = reader.readTag();
+        assertEquals(5, ProtobufReader.fieldNumber(tag));
+        assertEquals(7, reader.readInt32());
+        assertFalse(reader.hasRemaining());
+    }
+
+    @Test
+    public void readsPackedDeltaCodedValues() throws IOException {
+        // deltas 5, -2, 10 as zigzag varints
+        ProtobufReader reader = reader(0x0a, 0x03, 0x0a, 0x03, 0x14);
+        reader.readTag();
+        assertArrayEquals(new long[]{5, 3, 13}, reader.readPackedDeltaSInt64());
+    }
+
+    @Test
+    public void limitsEmbeddedMessages() throws IOException {
+        ProtobufReader reader = reader(0x0a, 0x02, 0x08, 0x05, 0x10, 0x06);
+        reader.readTag();
+        ProtobufReader message = reader.readMessage();
+        assertEquals(8, message.readTag());
+        assertEquals(5, message.readInt32());
+        assertFalse(message.hasRemaining());
+        assertTrue(reader.hasRemaining());
+        assertEquals(2, ProtobufReader.fieldNumber(reader.readTag()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedMessages() throws IOException {
+        ProtobufReader reader = reader(0x0a, 0x05, 0x08);
+        reader.readTag();
+        reader.readMessage();
+    }
+
+    @Test
+    public void readsWhatTheWriterWrites() throws IOException {
+        ProtobufWriter writer = new ProtobufWriter();
+        writer.writeSInt64(1, -123456789012L);
+        writer.writePackedDeltaSInt64(2, new long[]{-5, 0, 1L << 40}, 3);
+        writer.writeString(3, "Café");
+
+        ProtobufReader reader = new ProtobufReader(writer.toByteArray());
+        reader.readTag();
+        assertEquals(-123456789012L, reader.readSInt64());
+        reader.readTag();
+        assertArrayEquals(new long[]{-5, 0, 1L << 40}, reader.readPackedDeltaSInt64());
+        reader.readTag();
+        assertEquals("Café", reader.readString());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.engine;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The grid of the filter must never change the result of the exact test against the prepared geometry.
+ */
+public class SpatialFilterTest {
+
+    // a notch cut into the top and a hole along the cell borders, the envelope spans 16x16 cells of size 1
+    private static final String POLYGON = "POLYGON((0 0, 16 0, 16 16, 10.5 16, 8 5.3, 5.5 16, 0 16, 0 0), "
+            + "(2 2, 6 2, 6 4.5, 2 4.5, 2 2))";
+    private static final double[] OFFSETS = {-1e-9, 0, 1e-9};
+
+    private final GeometryFactory factory = new GeometryFactory();
+    private SpatialFilter filter;
+    private PreparedGeometry prepared;
+
+    @Before
+    public void createFilter() throws ParseException {
+        Geometry polygon = new WKTReader(factory).read(POLYGON);
+        filter = new SpatialFilter(polygon);
+        prepared = PreparedGeometryFactory.prepare(polygon);
+    }
+
+    @Test
+    public void containsLikeThePreparedGeometry() {
+        for (double x = -0.5; x <= 16.5; x += 0.25) {
+            for (double y = -0.5; y <= 16.5; y += 0.25) {
+                for (double dx : OFFSETS) {
+                    for (double dy : OFFSETS) {
+                        Coordinate coordinate = new Coordinate(x + dx, y + dy);
+                        assertEquals(coordinate.toString(), prepared.intersects(factory.createPoint(coordinate)),
+                                filter.contains(coordinate.x, coordinate.y));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void intersectsLikeThePreparedGeometry() {
+        for (double x = -0.5; x <= 16.5; x += 0.5) {
+            for (double y = -0.5; y <= 16.5; y += 0.5) {
+                for (double offset : OFFSETS) {
+                    // short lines ending on the cell borders and boxes within a single cell
+                    Geometry line = factory.createLineString(new Coordinate[]{
+                            new Coordinate(x + offset, y), new Coordinate(x + 0.5, y + 0.25 + offset)});
+                    assertEquals(line.toString(), prepared.intersects(line), filter.intersects(line));
+
+                    Geometry box = factory.toGeometry(new Envelope(
+                            x + 0.1 + offset, x + 0.4, y + 0.1, y + 0.4 + offset));
+                    assertEquals(box.toString(), prepared.intersects(box), filter.intersects(box));
+                }
+            }
+        }
+    }
+}
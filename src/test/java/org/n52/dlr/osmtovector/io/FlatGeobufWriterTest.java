@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.n52.dlr.osmtovector.engine.ElementType;
+import org.n52.dlr.osmtovector.engine.ExportFormat;
+import org.n52.dlr.osmtovector.engine.ExtractionQuery;
+import org.n52.dlr.osmtovector.engine.OsmFeatureFactory;
+import org.n52.dlr.osmtovector.engine.PbfExtractor;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads the written file back following the FlatGeobuf schema, independent of {@link FlatBufferBuilder}.
+ */
+public class FlatGeobufWriterTest {
+
+    private static final byte[] MAGIC = {0x66, 0x67, 0x62, 0x03, 0x66, 0x67, 0x62, 0x00};
+    private static final int NODE_ITEM_BYTES = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A table of a flatbuffer, with its fields located through the vtable.
+     */
+    private static class Table {
+        private final ByteBuffer buffer;
+        private final int position;
+
+        Table(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        /**
+         * @return the position of the field or 0 if it is not present
+         */
+        int field(int slot) {
+            int vtable = position - buffer.getInt(position);
+            int vtableLength = buffer.getShort(vtable);
+            if (4 + 2 * slot >= vtableLength) {
+                return 0;
+            }
+            int offset = buffer.getShort(vtable + 4 + 2 * slot);
+            return offset == 0 ? 0 : position + offset;
+        }
+
+        private int reference(int slot) {
+            int field = field(slot);
+            return field == 0 ? 0 : field + buffer.getInt(field);
+        }
+
+        Table table(int slot) {
+            return new Table(buffer, reference(slot));
+        }
+
+        byte getByte(int slot) {
+            return buffer.get(field(slot));
+        }
+
+        short getShort(int slot) {
+            return buffer.getShort(field(slot));
+        }
+
+        long getLong(int slot) {
+            return buffer.getLong(field(slot));
+        }
+
+        String getString(int slot) {
+            int vector = reference(slot);
+            byte[] bytes = new byte[buffer.getInt(vector)];
+            ((ByteBuffer) buffer.duplicate().position(vector + 4)).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int getVectorLength(int slot) {
+            int vector = reference(slot);
+            return vector == 0 ? 0 : buffer.getInt(vector);
+        }
+
+        /**
+         * @return the position of the first element of the vector
+         */
+        int getVector(int slot) {
+            return reference(slot) + 4;
+        }
+
+        Table getTable(int slot, int i) {
+            int element = getVector(slot) + 4 * i;
+            return new Table(buffer, element + buffer.getInt(element));
+        }
+    }
+
+    private static Path fixture() {
+        try {
+            return Paths.get(FlatGeobufWriterTest.class.getResource("/fixture.osm.pbf").toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void writesFeaturesAndIndexOfTheFixture() throws IOException {
+        ExtractionQuery query = new ExtractionQuery(Arrays.asList("highway", "name"), ElementType.WAYS, null);
+        Map<Long, SimpleFeature> extracted = new HashMap<>();
+        try (SimpleFeatureIterator iterator = new PbfExtractor().extract(fixture(), query).features()) {
+            while (iterator.hasNext()) {
+                SimpleFeature feature = iterator.next();
+                extracted.put((Long) feature.getAttribute(OsmFeatureFactory.ID_ATTRIBUTE), feature);
+            }
+        }
+        assertEquals(2, extracted.size());
+
+        Path target = folder.getRoot().toPath().resolve("export.fgb");
+        new PbfExtractor().export(fixture(), query, ExportFormat.FLATGEOBUF, target);
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(target)).order(ByteOrder.LITTLE_ENDIAN);
+
+        byte[] magic = new byte[MAGIC.length];
+        file.get(magic);
+        assertArrayEquals(MAGIC, magic);
+
+        int headerSize = file.getInt(MAGIC.length);
+        int headerStart = MAGIC.length + 4;
+        Table header = new Table(file, headerStart + file.getInt(headerStart));
+        assertEquals(OsmFeatureFactory.TYPE_NAME, header.getString(0));
+        // LineString
+        assertEquals(2, header.getByte(2));
+        assertEquals(2L, header.getLong(8));
+        assertEquals(16, header.getShort(9));
+        assertEquals(4326, file.getInt(header.table(10).field(1)));
+        int envelope = header.getVector(1);
+        assertEquals(new Envelope(1, 10.5, 1, 10.5), new Envelope(file.getDouble(envelope),
+                file.getDouble(envelope + 16), file.getDouble(envelope + 8), file.getDouble(envelope + 24)));
+
+        List<String> columns = new ArrayList<>();
+        for (int c = 0; c < header.getVectorLength(7); c++) {
+            columns.add(header.getTable(7, c).getString(0));
+        }
+        assertEquals(Arrays.asList(OsmFeatureFactory.ID_ATTRIBUTE, "highway", "name",
+                OsmFeatureFactory.LENGTH_ATTRIBUTE), columns);
+
+        // two leaves and the root
+        int indexStart = headerStart + headerSize;
+        int numNodes = 3;
+        int featuresStart = indexStart + numNodes * NODE_ITEM_BYTES;
+        assertEquals(new Envelope(1, 10.5, 1, 10.5), nodeBox(file, indexStart));
+        assertEquals(1L, file.getLong(indexStart + 32));
+
+        long featureOffset = 0;
+        for (int node = 1; node < numNodes; node++) {
+            int item = indexStart + node * NODE_ITEM_BYTES;
+            assertEquals(featureOffset, file.getLong(item + 32));
+            int position = featuresStart + (int) featureOffset;
+            Table feature = new Table(file, position + 4 + file.getInt(position + 4));
+
+            Map<String, Object> properties = properties(file, feature, columns);
+            SimpleFeature expected = extracted.get((Long) properties.get(OsmFeatureFactory.ID_ATTRIBUTE));
+            assertEquals(expected.getAttribute("highway"), properties.get("highway"));
+            assertEquals(expected.getAttribute("name"), properties.get("name"));
+            assertEquals(expected.getAttribute(OsmFeatureFactory.LENGTH_ATTRIBUTE),
+                    properties.get(OsmFeatureFactory.LENGTH_ATTRIBUTE));
+
+            Table geometry = feature.table(0);
+            assertEquals(2, geometry.getByte(6));
+            assertEquals(0, geometry.field(0));
+            Coordinate[] coordinates = new Coordinate[geometry.getVectorLength(1) / 2];
+            int xy = geometry.getVector(1);
+            for (int i = 0; i < coordinates.length; i++) {
+                coordinates[i] = new Coordinate(file.getDouble(xy + 16 * i), file.getDouble(xy + 16 * i + 8));
+            }
+            assertArrayEquals(((Geometry) expected.getDefaultGeometry()).getCoordinates(), coordinates);
+            Envelope box = new Envelope();
+            for (Coordinate coordinate : coordinates) {
+                box.expandToInclude(coordinate);
+            }
+            assertEquals(box, nodeBox(file, item));
+
+            featureOffset += 4 + file.getInt(position);
+        }
+        // the leaves cover the feature section completely
+        assertEquals(file.capacity(), featuresStart + featureOffset);
+    }
+
+    private static Envelope nodeBox(ByteBuffer file, int item) {
+        return new Envelope(file.getDouble(item), file.getDouble(item + 16),
+                file.getDouble(item + 8), file.getDouble(item + 24));
+    }
+
+    private static Map<String, Object> properties(ByteBuffer file, Table feature, List<String> columns) {
+        Map<String, Object> properties = new HashMap<>();
+        int position = feature.getVector(1);
+        int end = position + feature.getVectorLength(1);
+        while (position < end) {
+            String column = columns.get(file.getShort(position));
+            position += 2;
+            if (column.equals(OsmFeatureFactory.ID_ATTRIBUTE)) {
+                properties.put(column, file.getLong(position));
+                position += 8;
+            } else if (column.equals(OsmFeatureFactory.LENGTH_ATTRIBUTE)) {
+                properties.put(column, file.getDouble(position));
+                position += 8;
+            } else {
+                byte[] bytes = new byte[file.getInt(position)];
+                ((ByteBuffer) file.duplicate().position(position + 4)).get(bytes);
+                properties.put(column, new String(bytes, StandardCharsets.UTF_8));
+                position += 4 + bytes.length;
+            }
+        }
+        assertTrue(properties.containsKey(OsmFeatureFactory.ID_ATTRIBUTE));
+        return properties;
+    }
+}
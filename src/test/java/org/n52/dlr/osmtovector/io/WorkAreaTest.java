@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WorkAreaTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private WorkArea workArea(Path directory) throws IOException {
+        return new WorkArea(directory, null, 0, Runnable::run);
+    }
+
+    @Test
+    public void keepsTheFilesOfRunningInstances() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        WorkArea running = workArea(directory);
+        Path created = running.createDirectory(0);
+        assertTrue(created.startsWith(running.getTemporaryDirectory()));
+        Files.setLastModifiedTime(running.getTemporaryDirectory(), FileTime.fromMillis(0));
+
+        WorkArea started = workArea(directory);
+        started.sweep(Long.MAX_VALUE);
+        assertTrue(Files.isDirectory(created));
+        assertTrue(Files.isDirectory(started.getTemporaryDirectory()));
+
+        running.close();
+        started.close();
+        assertFalse(Files.exists(running.getTemporaryDirectory()));
+        assertFalse(Files.exists(started.getTemporaryDirectory()));
+    }
+
+    @Test
+    public void deletesTheFilesOfStoppedInstances() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        // left behind by a crashed instance, nobody holds the lock
+        Path crashed = Files.createDirectory(directory.resolve("osmtovector-instance1"));
+        Files.createFile(crashed.resolve(".lock"));
+        Files.createDirectory(crashed.resolve("osmtovector2"));
+
+        WorkArea started = workArea(directory);
+        started.sweep(0);
+        assertFalse(Files.exists(crashed));
+        started.close();
+    }
+
+    @Test
+    public void deletesOldFilesOfEarlierVersions() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        Path old = Files.createDirectory(directory.resolve("osmtovector1"));
+        Files.setLastModifiedTime(old, FileTime.fromMillis(1000));
+        Path recent = Files.createFile(directory.resolve("osmtovector-spool2.features"));
+        Path other = Files.createDirectory(directory.resolve("result-cache"));
+        Files.setLastModifiedTime(other, FileTime.fromMillis(1000));
+
+        WorkArea started = workArea(directory);
+        started.sweep(Files.getLastModifiedTime(recent).toMillis());
+        assertFalse(Files.exists(old));
+        assertTrue(Files.exists(recent));
+        assertTrue(Files.exists(other));
+        started.close();
+    }
+}
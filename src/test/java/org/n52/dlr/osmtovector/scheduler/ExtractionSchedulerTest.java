@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 Deutsches Zentrum für Luft- und Raumfahrt e.V.
+ *         (German Aerospace Center), German Remote Sensing Data Center
+ *         Department: Geo-Risks and Civil Security
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.n52.dlr.osmtovector.scheduler;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExtractionSchedulerTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queues a request and waits until it is waiting for admission. The permit is released as soon as it is granted.
+     */
+    private Future<?> enqueue(ExtractionScheduler scheduler, String dataset, String name, List<String> admitted)
+            throws InterruptedException {
+        int queued = scheduler.getQueueLength();
+        Future<?> request = executor.submit(() -> {
+            try (ExtractionScheduler.Permit permit = scheduler.acquire(dataset)) {
+                admitted.add(name);
+            }
+            return null;
+        });
+        while (scheduler.getQueueLength() == queued) {
+            Thread.sleep(1);
+        }
+        return request;
+    }
+
+    @Test
+    public void admitsWaitingRequestsInTurnsPerDataset() throws Exception {
+        ExtractionScheduler scheduler = new ExtractionScheduler(1, 10, 10000);
+        List<String> admitted = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> requests = new ArrayList<>();
+
+        ExtractionScheduler.Permit running = scheduler.acquire("a");
+        requests.add(enqueue(scheduler, "a", "a1", admitted));
+        requests.add(enqueue(scheduler, "a", "a2", admitted));
+        requests.add(enqueue(scheduler, "a", "a3", admitted));
+        requests.add(enqueue(scheduler, "b", "b1", admitted));
+        requests.add(enqueue(scheduler, "c", "c1", admitted));
+        assertEquals(5, scheduler.getQueueLength());
+
+        running.close();
+        for (Future<?> request : requests) {
+            request.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(Arrays.asList("a1", "b1", "c1", "a2", "a3"), admitted);
+        assertEquals(6, scheduler.getAdmittedCount());
+        assertEquals(0, scheduler.getRunningCount());
+    }
+
+    @Test
+    public void rejectsRequestsWhenTheQueueIsFull() throws Exception {
+        ExtractionScheduler scheduler = new ExtractionScheduler(1, 1, 10000);
+        List<String> admitted = Collections.synchronizedList(new ArrayList<>());
+
+        ExtractionScheduler.Permit running = scheduler.acquire("a");
+        Future<?> waiting = enqueue(scheduler, "b", "b1", admitted);
+        try {
+            scheduler.acquire("c");
+            fail("the request exceeding the queue has been admitted");
+        } catch (ExtractionRejectedException e) {
+            // expected
+        }
+        assertEquals(1, scheduler.getRejectedCount());
+        assertEquals(0, scheduler.getTimedOutCount());
+        assertEquals(1, scheduler.getQueueLength());
+
+        running.close();
+        waiting.get(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("b1"), admitted);
+    }
+
+    @Test
+    public void rejectsRequestsWaitingLongerThanTheTimeout() throws Exception {
+        ExtractionScheduler scheduler = new ExtractionScheduler(1, 1, 50);
+
+        ExtractionScheduler.Permit running = scheduler.acquire("a");
+        long start = System.nanoTime();
+        try {
+            scheduler.acquire("b");
+            fail("the request has been admitted while the slot was taken");
+        } catch (ExtractionRejectedException e) {
+            // expected
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, scheduler.getTimedOutCount());
+        assertEquals(1, scheduler.getRejectedCount());
+        assertEquals(0, scheduler.getQueueLength());
+
+        // the timed out request does not hold on to a slot
+        running.close();
+        try (ExtractionScheduler.Permit permit = scheduler.acquire("b")) {
+            assertEquals(1, scheduler.getRunningCount());
+        }
+        assertEquals(0, scheduler.getRunningCount());
+    }
+}
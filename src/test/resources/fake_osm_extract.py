@@ -0,0 +1,16 @@
+#!/usr/bin/env python3
+# stands in for osm_extract in OsmExtractWorkerPoolTest
+import os
+import sys
+import time
+
+if sys.argv[1] == "parent":
+    print(os.getppid())
+elif sys.argv[1] == "fail":
+    sys.stderr.write("failed on purpose\n")
+    sys.exit(3)
+elif sys.argv[1] == "sleep":
+    time.sleep(60)
+elif sys.argv[1] == "endless":
+    while True:
+        print("line")
@@ -0,0 +1,187 @@
+#!/usr/bin/env python3
+#
+# Writes fixture.osm.pbf, the small dataset read by the tests of the native engine.
+#
+# The file is encoded here independently of the PbfWriter of the engine. It contains
+#
+#   * a zlib compressed block of DenseNodes with the default granularity
+#   * an uncompressed block with a single Node, a granularity of 1000 and coordinate offsets,
+#     which are stored after the primitive group
+#   * a block of ways and a block of relations
+#
+# Usage: python3 make-fixture.py fixture.osm.pbf
+
+import struct
+import sys
+import zlib
+
+
+def varint(n):
+    # negative int64 values are written as their two's complement
+    out = bytearray()
+    n &= (1 << 64) - 1
+    while True:
+        b = n & 0x7f
+        n >>= 7
+        if n:
+            out.append(b | 0x80)
+        else:
+            out.append(b)
+            return bytes(out)
+
+
+def zigzag(n):
+    return (n << 1) ^ (n >> 63)
+
+
+def field(number, wire_type):
+    return varint((number << 3) | wire_type)
+
+
+def uint(number, value):
+    return field(number, 0) + varint(value)
+
+
+def sint(number, value):
+    return uint(number, zigzag(value))
+
+
+def message(number, data):
+    return field(number, 2) + varint(len(data)) + data
+
+
+def packed(number, values, signed=False):
+    return message(number, b''.join(varint(zigzag(v) if signed else v) for v in values))
+
+
+def delta(values):
+    return [v - p for v, p in zip(values, [0] + values[:-1])]
+
+
+def blob(blob_type, data, compress=True):
+    if compress:
+        body = uint(2, len(data)) + message(3, zlib.compress(data))
+    else:
+        body = message(1, data)
+    header = message(1, blob_type.encode()) + uint(3, len(body))
+    return struct.pack('>i', len(header)) + header + body
+
+
+class StringTable:
+    def __init__(self):
+        self.strings = ['']
+
+    def index(self, s):
+        if s not in self.strings:
+            self.strings.append(s)
+        return self.strings.index(s)
+
+    def encode(self):
+        return message(1, b''.join(message(1, s.encode('utf-8')) for s in self.strings))
+
+
+# id, lat, lon, tags
+DENSE_NODES = [
+    (1, 0.0, 0.0, [('amenity', 'bench')]),
+    (2, 0.0, 1.0, []),
+    (3, 1.0, 1.0, []),
+    (4, 1.0, 0.0, []),
+    (10, 10.0, 10.0, [('amenity', 'cafe'), ('name', 'Café')]),
+    (11, 10.5, 10.5, []),
+    (12, -33.4489, -70.6693, [('place', 'city'), ('name', 'Santiago')]),
+    (20, 20.0, 20.0, []),
+    (21, 20.0, 24.0, []),
+    (22, 24.0, 24.0, []),
+    (23, 24.0, 20.0, []),
+    (30, 21.0, 21.0, []),
+    (31, 21.0, 22.0, []),
+    (32, 22.0, 22.0, []),
+    (33, 22.0, 21.0, []),
+]
+
+# stored in a block with a granularity of 1000 and offsets of 0.5 and -0.5 degrees
+NODE = (100, 5.5, 5.25, [('shop', 'bakery')])
+
+WAYS = [
+    (1, [1, 2, 3, 4, 1], [('building', 'yes')]),
+    (2, [10, 11], [('highway', 'residential'), ('name', 'Main St')]),
+    (3, [20, 21, 22], []),
+    (4, [22, 23, 20], []),
+    (5, [30, 31, 32, 33, 30], []),
+    (6, [3, 10], [('highway', 'footway')]),
+    (7, [1, 2, 3, 1], [('building', 'roof'), ('area', 'no')]),
+]
+
+# id, members as (type, id, role) with 0 = node, 1 = way, 2 = relation, tags
+RELATIONS = [
+    (1, [(1, 3, 'outer'), (1, 4, 'outer'), (1, 5, 'inner')], [('type', 'multipolygon'), ('landuse', 'forest')]),
+    (2, [(0, 10, 'stop'), (1, 2, ''), (2, 1, '')], [('type', 'route'), ('route', 'bus')]),
+]
+
+
+def nano(degrees):
+    return int(round(degrees * 1e9))
+
+
+def header_block():
+    bbox = sint(1, nano(-71)) + sint(2, nano(25)) + sint(3, nano(25)) + sint(4, nano(-34))
+    return (message(1, bbox) + message(4, b'OsmSchema-V0.6') + message(4, b'DenseNodes')
+            + message(16, b'make-fixture.py'))
+
+
+def dense_block():
+    strings = StringTable()
+    keys_vals = []
+    for _, _, _, tags in DENSE_NODES:
+        for k, v in tags:
+            keys_vals += [strings.index(k), strings.index(v)]
+        keys_vals.append(0)
+    dense = (packed(1, delta([n[0] for n in DENSE_NODES]), True)
+             + packed(8, delta([nano(n[1]) // 100 for n in DENSE_NODES]), True)
+             + packed(9, delta([nano(n[2]) // 100 for n in DENSE_NODES]), True)
+             + packed(10, keys_vals))
+    return strings.encode() + message(2, message(2, dense))
+
+
+def node_block():
+    strings = StringTable()
+    node_id, lat, lon, tags = NODE
+    node = (sint(1, node_id)
+            + packed(2, [strings.index(k) for k, _ in tags])
+            + packed(3, [strings.index(v) for _, v in tags])
+            + sint(8, (nano(lat) - nano(0.5)) // 1000)
+            + sint(9, (nano(lon) + nano(0.5)) // 1000))
+    return (strings.encode() + message(2, message(1, node))
+            + uint(17, 1000) + uint(19, nano(0.5)) + uint(20, nano(-0.5)))
+
+
+def way_block():
+    strings = StringTable()
+    group = b''
+    for way_id, refs, tags in WAYS:
+        group += message(3, uint(1, way_id)
+                         + packed(2, [strings.index(k) for k, _ in tags])
+                         + packed(3, [strings.index(v) for _, v in tags])
+                         + packed(8, delta(refs), True))
+    return strings.encode() + message(2, group)
+
+
+def relation_block():
+    strings = StringTable()
+    group = b''
+    for relation_id, members, tags in RELATIONS:
+        group += message(4, uint(1, relation_id)
+                         + packed(2, [strings.index(k) for k, _ in tags])
+                         + packed(3, [strings.index(v) for _, v in tags])
+                         + packed(8, [strings.index(role) for _, _, role in members])
+                         + packed(9, delta([member_id for _, member_id, _ in members]), True)
+                         + packed(10, [member_type for member_type, _, _ in members]))
+    return strings.encode() + message(2, group)
+
+
+with open(sys.argv[1], 'wb') as out:
+    out.write(blob('OSMHeader', header_block()))
+    out.write(blob('OSMData', dense_block()))
+    out.write(blob('OSMData', node_block(), compress=False))
+    out.write(blob('OSMData', way_block()))
+    out.write(blob('OSMData', relation_block()))